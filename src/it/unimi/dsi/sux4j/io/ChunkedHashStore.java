@@ -20,7 +20,7 @@ package it.unimi.dsi.sux4j.io;
  *
  */
 
-import java.io.EOFException;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -28,11 +28,30 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.channels.ReadableByteChannel;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import org.apache.commons.collections.Predicate;
 import org.apache.commons.math3.random.RandomGenerator;
@@ -40,10 +59,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import it.unimi.dsi.Util;
+import it.unimi.dsi.bits.BitVector;
 import it.unimi.dsi.bits.LongArrayBitVector;
+import it.unimi.dsi.bits.TransformationStrategies;
 import it.unimi.dsi.bits.TransformationStrategy;
+import it.unimi.dsi.fastutil.io.BinIO;
 import it.unimi.dsi.fastutil.longs.AbstractLongBigList;
 import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrays;
 import it.unimi.dsi.fastutil.longs.LongBigList;
 import it.unimi.dsi.fastutil.longs.LongBigLists;
 import it.unimi.dsi.fastutil.longs.LongIterable;
@@ -55,7 +78,9 @@ import it.unimi.dsi.logging.ProgressLogger;
 import it.unimi.dsi.sux4j.mph.GOV3Function;
 import it.unimi.dsi.sux4j.mph.GOV3Function.Builder;
 import it.unimi.dsi.sux4j.mph.Hashes;
+import it.unimi.dsi.sux4j.util.MappedLongBigList;
 import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
+import it.unimi.dsi.util.concurrent.ReorderingBlockingQueue;
 
 /** A temporary store of hash triples virtually divided into chunks.
  *
@@ -63,7 +88,10 @@ import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
  * by turning them into bit vectors (using a provided {@link TransformationStrategy})
  * and then hashing such vectors into a triple of longs (i.e., overall we get a hash of 192 bits).
  * Elements can be added {@linkplain #add(Object, long) one by one}
- * or {@linkplain #addAll(Iterator, LongIterator) in batches}.
+ * or {@linkplain #addAll(Iterator, LongIterator) in batches}. Batches can also be
+ * {@linkplain #addAll(Iterator, LongIterator, int) hashed by several threads}: the resulting store is identical to the one
+ * built by a single thread. Finally, elements can be provided by a {@linkplain #addAll(Spliterator, LongIterator) spliterator}
+ * (or by a {@link SplittableIterable}), in which case the spliterator is split and each part is traversed and hashed by a thread of its own.
  * Elements must be distinct, or, more precisely, they must be transformed into distinct bit vectors.
  *
  * <p>Besides the hashes, we store some data associated with each element:
@@ -81,7 +109,8 @@ import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
  * <p>To obtain triples, one calls {@link #iterator()}, which returns chunks one at a time (in their
  * natural order); triples within each chunk are returned by increasing hash. Actually, the iterator
  * provided by a chunk returns a <em>quadruple</em> whose last element is the data associated with the element
- * that generated the triple.
+ * that generated the triple. A {@linkplain #iterator(int) prefetching iterator} loads and sorts in background
+ * the following disk chunks while the chunks of the current one are being returned.
  *
  * <p>It is possible (albeit <em>very</em> unlikely) that different elements generate the same hash. This event is detected
  * during chunk iteration (not while accumulating hashes), and it will throw a {@link ChunkedHashStore.DuplicateException}.
@@ -95,6 +124,13 @@ import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
  * {@link #seed()} will <em>lock</em> the store; any further call to {@link #reset(long)} will throw an {@link IllegalStateException}.
  * In case the store needs to be reused, you can call {@link #clear()}, that will bring back the store to after-creation state.
  *
+ * <p>A chunked hash store can be {@linkplain #save(File) saved} into a directory and later {@linkplain #open(File) opened}
+ * in read-only mode, so that several structures can be built over the same keys without hashing them again
+ * (e.g., by passing the store to the {@linkplain Builder#store(ChunkedHashStore) builder} of a {@link GOV3Function}).
+ * Snapshots can also be {@linkplain #open(File, boolean, ProgressLogger) opened in writable mode} to append new elements:
+ * since the store keeps track of the {@linkplain #dirty(int) dirty} fragments of the hash space (there are 2<sup>16</sup>
+ * of them), structures such as {@link GOV3Function} can then be rebuilt by solving again only the chunks containing new elements.
+ *
  * <p>When you have finished using a chunked hash store, you should {@link #close()} it. This class implements
  * {@link SafelyCloseable}, and thus provides a safety-net finalizer.
  *
@@ -106,6 +142,8 @@ import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
  *
  * <p>If you specify so {@linkplain #ChunkedHashStore(TransformationStrategy, File, int, ProgressLogger) at construction time},
  * a chunked hash store will compute for you a {@linkplain #value2FrequencyMap() a map from values to their frequency}.
+ * Frequencies are accumulated in a striped {@link ConcurrentFrequencyCounter}, so that during
+ * {@linkplain #addAll(Iterator, LongIterator, int) parallel ingestion} they are updated by the hashing threads.
  *
  * <h2>Implementation details</h2>
  *
@@ -113,6 +151,14 @@ import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
  * Once the user chooses a chunk size, the store exhibits the data on disk by grouping disk chunks or splitting them
  * in a suitable way. This process is transparent to the user.
  *
+ * <p>Disk chunks are initially kept in memory; they are actually written to temporary files only when
+ * the memory they occupy exceeds a {@linkplain #ChunkedHashStore(TransformationStrategy, File, int, long, ProgressLogger) threshold}
+ * (by default, the value of the system property {@value #MEMORY_THRESHOLD_PROPERTY}, or {@link #DEFAULT_MEMORY_THRESHOLD}).
+ * In this way, small stores do not create any file. Disk chunks written to disk are read back by
+ * {@linkplain FileChannel#map(MapMode, long, long) memory mapping} their files.
+ * Optionally, records can be written to disk using a {@linkplain #ChunkedHashStore(TransformationStrategy, File, int, long, boolean, ProgressLogger) compact format}
+ * (by default, if the system property {@value #COMPACT_PROPERTY} is true), which trades some CPU time for less I/O.
+ *
  * <p>An instance of this class will save triples into {@link #DISK_CHUNKS} disk chunks. Triples have to
  * be loaded into memory only chunk by chunk, so to be sorted and tested for uniqueness. As long as
  * {@link #DISK_CHUNKS} is larger than eight, the store will need less than one bit per element of main
@@ -150,16 +196,66 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 	/** Denotes that the chunked hash store contains a duplicate hash triple. */
 	public static class DuplicateException extends RuntimeException {
 		private static final long serialVersionUID = 1L;
+		/** The duplicate triple, or {@code null}. */
+		private final long[] triple;
+
+		/** Creates a duplicate exception with an unknown duplicate triple. */
+		public DuplicateException() {
+			this(null);
+		}
+
+		/** Creates a duplicate exception for a given triple.
+		 *
+		 * @param triple the duplicate triple.
+		 */
+		public DuplicateException(final long[] triple) {
+			this.triple = triple;
+		}
+
+		/** Returns the duplicate triple.
+		 *
+		 * @return the duplicate triple, or {@code null} if it is unknown.
+		 * @see ChunkedHashStore#duplicate(Iterable, long[])
+		 */
+		public long[] triple() {
+			return triple;
+		}
 	}
 
 	/** The size of the output buffers. */
 	public final static int BUFFER_SIZE = 16 * 1024;
+	/** The maximum size of a memory-mapped segment of a disk chunk. */
+	private final static long MAX_MAPPED_BYTES = 1L << 30;
+	/** The number of elements in a batch hashed by a single thread during {@linkplain #addAll(Iterator, LongIterator, int) parallel ingestion}. */
+	public final static int PARALLEL_BATCH_SIZE = 4 * 1024;
+	/** The maximum number of hashed batches waiting to be written for each part of a spliterator during {@linkplain #addAll(Spliterator, LongIterator, int) parallel ingestion}. */
+	private final static int PARALLEL_PART_BATCHES = 2;
 	/** The logarithm of the number of physical disk chunks. */
 	public final static int LOG2_DISK_CHUNKS = 8;
 	/** The number of physical disk chunks. */
 	public final static int DISK_CHUNKS = 1 << LOG2_DISK_CHUNKS;
 	/** The shift for physical disk chunks. */
 	public final static int DISK_CHUNKS_SHIFT = Long.SIZE - LOG2_DISK_CHUNKS;
+	/** The system property used to set the default memory threshold (in bytes) above which disk chunks are written to disk. */
+	public static final String MEMORY_THRESHOLD_PROPERTY = "it.unimi.dsi.sux4j.io.ChunkedHashStore.memoryThreshold";
+	/** The default memory threshold (in bytes) above which disk chunks are written to disk. */
+	public final static long DEFAULT_MEMORY_THRESHOLD = 128 * 1024 * 1024;
+	/** The system property used to set whether disk chunks are written to disk using a {@linkplain #ChunkedHashStore(TransformationStrategy, File, int, long, boolean, ProgressLogger) compact record format}. */
+	public static final String COMPACT_PROPERTY = "it.unimi.dsi.sux4j.io.ChunkedHashStore.compact";
+	/** The maximum number of bytes of a record in compact format (the first hash without the implied upper bits, two hashes and a vByte-coded value). */
+	private final static int MAX_COMPACT_RECORD_BYTES = (Long.SIZE - LOG2_DISK_CHUNKS) / Byte.SIZE + 2 * Long.BYTES + 10;
+	/** The name of the file containing the metadata of a {@linkplain #save(File) snapshot}. */
+	public static final String SNAPSHOT_METADATA = "metadata";
+	/** The prefix of the names of the files containing the disk chunks of a {@linkplain #save(File) snapshot}. */
+	public static final String SNAPSHOT_DISK_CHUNK_PREFIX = "chunk-";
+	/** The system property used to set the prefetch depth of {@linkplain #prefetchingIterator() prefetching iterators}. */
+	public static final String PREFETCH_DEPTH_PROPERTY = "it.unimi.dsi.sux4j.io.ChunkedHashStore.prefetchDepth";
+	/** The default prefetch depth of {@linkplain #prefetchingIterator() prefetching iterators}. */
+	public final static int DEFAULT_PREFETCH_DEPTH = 2;
+	/** The system property used to set the default {@linkplain #memoryBudget(long) memory budget} (in bytes) of chunk iteration. */
+	public static final String MEMORY_BUDGET_PROPERTY = "it.unimi.dsi.sux4j.io.ChunkedHashStore.memoryBudget";
+	/** The base-2 logarithm of the number of fragments, that is, of the finest subdivision of the first hash used to split disk chunks into slices. */
+	private final static int LOG2_FRAGMENTS = 16;
 	/** The number of elements ever {@linkplain #add(Object) added}. */
 	protected long size;
 	/** The number of elements that pass the current filter, or -1 we it must be recomputed. */
@@ -168,10 +264,22 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 	protected long seed;
 	/** The number of triples in each disk chunk. */
 	private int[] count;
+	/** The number of triples in each fragment (i.e., for each value of the upper {@link #LOG2_FRAGMENTS} bits of the first hash). */
+	private int[] fragmentCount;
 	/** The number of chunks. */
 	private long chunks;
-	/** The files containing disk chunks. */
+	/** The files containing disk chunks, or {@code null} if disk chunks are still in memory. */
 	private File file[];
+	/** The disk chunks, if they are still kept in memory (i.e., if {@link #file} is {@code null}). Each record is made of {@link #recordSize} longs. */
+	private long[][] memoryChunk;
+	/** The number of longs used by a record (three for the triple, plus one for the value, if present). */
+	private final int recordSize;
+	/** The number of bytes used by disk chunks in memory above which they are written to disk. */
+	private final long memoryThreshold;
+	/** Whether records written to disk use the compact format. */
+	private final boolean compact;
+	/** The number of longs currently stored in {@link #memoryChunk}. */
+	private long memoryLongs;
 	/** The number of disk chunks making up a chunk, or 1 if a chunk is smaller than or equal to a disk chunk. */
 	private int diskChunkStep;
 	/** The shift to be applied to the first hash to obtain the chunk index, set by {@link #log2Chunks(int)} (watch out: it can be {@link Long#SIZE}). */
@@ -196,12 +304,22 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 	private Predicate filter;
 	/** Whether this store is locked. Any attempt to {@link #reset(long)} the store will cause an {@link IllegalStateException} if this variable is true.*/
 	private boolean locked;
+	/** Whether this store has been {@linkplain #open(File, boolean, ProgressLogger) opened} from a snapshot in read-only mode, and thus cannot be modified. */
+	private boolean readOnly;
+	/** Whether the files of this store belong to a snapshot (and thus must not be deleted). */
+	private boolean snapshot;
+	/** For each fragment (see {@link #fragmentCount}), whether it has been modified since the last call to {@link #markClean()}. */
+	private boolean[] dirty;
 	/** Whether this store has already been closed. */
 	private boolean closed;
-	/** The wall time spent during quicksort. */
-	private long quickSortWallTime;
-	/** The optional map from values to count. */
-	private Long2LongOpenHashMap value2FrequencyMap;
+	/** The maximum number of bytes used by the buffers of a chunk iterator, or {@link Long#MAX_VALUE}. */
+	private long memoryBudget;
+	/** The wall time spent sorting triples. */
+	private long sortWallTime;
+	/** The optional counter of value frequencies. */
+	private ConcurrentFrequencyCounter value2Frequency;
+	/** A scratch triple for single additions (a store has a single writer), or {@code null} if it has not been allocated yet. */
+	private transient long[] scratchTriple;
 
 	/** Creates a chunked hash store with given transformation strategy.
 	 *
@@ -252,13 +370,65 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 	 */
 
 	public ChunkedHashStore(final TransformationStrategy<? super T> transform, final File tempDir, final int hashWidthOrCountValues, final ProgressLogger pl) throws IOException {
+		this(transform, tempDir, hashWidthOrCountValues, Long.getLong(MEMORY_THRESHOLD_PROPERTY, DEFAULT_MEMORY_THRESHOLD).longValue(), pl);
+	}
+
+	/** Creates a chunked hash store with given transformation strategy, hash width, memory threshold and progress logger.
+	 *
+	 * @param transform a transformation strategy for the elements.
+	 * @param tempDir a temporary directory for the store files, or {@code null} for the current directory.
+	 * @param hashWidthOrCountValues if positive, no associated data is saved in the store: {@link Chunk#data(long)} will return this many lower bits
+	 * of the first of the three hashes associated with the key; zero, values are stored; if negative, values are stored and a map from values
+	 * to their frequency is computed.
+	 * @param memoryThreshold the number of bytes used by disk chunks in memory above which they are written to temporary files (0 writes immediately
+	 * to disk, {@link Long#MAX_VALUE} never writes to disk).
+	 * @param pl a progress logger, or {@code null}.
+	 */
+
+	public ChunkedHashStore(final TransformationStrategy<? super T> transform, final File tempDir, final int hashWidthOrCountValues, final long memoryThreshold, final ProgressLogger pl) throws IOException {
+		this(transform, tempDir, hashWidthOrCountValues, memoryThreshold, Boolean.getBoolean(COMPACT_PROPERTY), pl);
+	}
+
+	/** Creates a chunked hash store with given transformation strategy, hash width, memory threshold, record format and progress logger.
+	 *
+	 * <p>In the compact record format, the upper {@link #LOG2_DISK_CHUNKS} bits of the first hash, which are implied by the disk chunk,
+	 * are not written, and values are written using a variable-length (vByte) code. In exchange for some
+	 * additional CPU work, records of small values occupy 24 rather than 32 bytes (23 rather than 24 bytes if there are no values), reducing
+	 * significantly the I/O of large stores. Disk chunks kept in memory are not affected.
+	 *
+	 * @param transform a transformation strategy for the elements.
+	 * @param tempDir a temporary directory for the store files, or {@code null} for the current directory.
+	 * @param hashWidthOrCountValues if positive, no associated data is saved in the store: {@link Chunk#data(long)} will return this many lower bits
+	 * of the first of the three hashes associated with the key; zero, values are stored; if negative, values are stored and a map from values
+	 * to their frequency is computed.
+	 * @param memoryThreshold the number of bytes used by disk chunks in memory above which they are written to temporary files (0 writes immediately
+	 * to disk, {@link Long#MAX_VALUE} never writes to disk).
+	 * @param compact whether to write records to disk using the compact format.
+	 * @param pl a progress logger, or {@code null}.
+	 */
+
+	public ChunkedHashStore(final TransformationStrategy<? super T> transform, final File tempDir, final int hashWidthOrCountValues, final long memoryThreshold, final boolean compact, final ProgressLogger pl) throws IOException {
 		this.transform = transform;
 		this.pl = pl;
 		this.tempDir = tempDir;
+		this.memoryThreshold = memoryThreshold;
+		this.compact = compact;
 
 		this.hashMask = hashWidthOrCountValues <= 0 ? 0 : -1L >>> Long.SIZE - hashWidthOrCountValues;
-		if (hashWidthOrCountValues < 0) value2FrequencyMap = new Long2LongOpenHashMap();
+		if (hashWidthOrCountValues < 0) value2Frequency = new ConcurrentFrequencyCounter();
+		recordSize = hashMask == 0 ? 4 : 3;
+
+		count = new int[DISK_CHUNKS];
+		fragmentCount = new int[1 << LOG2_FRAGMENTS];
+		dirty = new boolean[1 << LOG2_FRAGMENTS];
+		memoryBudget = Long.getLong(MEMORY_BUDGET_PROPERTY, Long.MAX_VALUE).longValue();
+		Arrays.fill(dirty, true);
+		if (memoryThreshold == 0) createDiskChunks();
+		else memoryChunk = new long[DISK_CHUNKS][];
+	}
 
+	/** Creates the files and the channels of disk chunks. */
+	private void createDiskChunks() throws IOException {
 		file = new File[DISK_CHUNKS];
 		writableByteChannel = new WritableByteChannel[DISK_CHUNKS];
 		byteBuffer = new ByteBuffer[DISK_CHUNKS];
@@ -268,8 +438,26 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 			writableByteChannel[i] = new FileOutputStream(file[i] = File.createTempFile(ChunkedHashStore.class.getSimpleName(), String.valueOf(i), tempDir)).getChannel();
 			file[i].deleteOnExit();
 		}
+	}
 
-		count = new int[DISK_CHUNKS];
+	/** Writes to disk the disk chunks kept in memory, and switches to disk-based storage. */
+	private void spill() throws IOException {
+		LOGGER.debug("Writing disk chunks to " + (tempDir == null ? "the temporary directory" : tempDir));
+		createDiskChunks();
+		for(int i = 0; i < DISK_CHUNKS; i++) {
+			final long[] m = memoryChunk[i];
+			for(int j = 0; j < count[i] * recordSize; j += recordSize) write(byteBuffer[i], writableByteChannel[i], m[j], m[j + 1], m[j + 2], hashMask == 0 ? m[j + 3] : 0);
+		}
+		memoryChunk = null;
+		memoryLongs = 0;
+	}
+
+	/** Returns whether the disk chunks of this store are kept in memory.
+	 *
+	 * @return true if the disk chunks of this store are kept in memory; false if they have been written to temporary files.
+	 */
+	public boolean inMemory() {
+		return file == null;
 	}
 
 	/** Return the current seed of this chunked hash store. After calling this method, no {@link #reset(long)} will be allowed (unless the store
@@ -283,6 +471,16 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 		return seed;
 	}
 
+	/** Returns whether the current seed of this chunked hash store is equal to a given seed. Unlike {@link #seed()}, this method
+	 * does not lock the store.
+	 *
+	 * @param seed a seed.
+	 * @return whether the current seed of this chunked hash store is equal to {@code seed}.
+	 */
+	public boolean hasSeed(final long seed) {
+		return this.seed == seed;
+	}
+
 	/** Return the temporary directory of this chunked hash store, or {@code null}.
 	 *
 	 * @return the temporary directory of this chunked hash store, or {@code null}.
@@ -303,7 +501,7 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 	 * @param value the associated value.
 	 */
 	public void add(final T o, final long value) throws IOException {
-		final long[] triple = new long[3];
+		final long[] triple = scratchTriple();
 		Hashes.spooky4(transform.toBitVector(o), seed, triple);
 		add(triple, value);
 	}
@@ -316,22 +514,100 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 		add(o, filteredSize);
 	}
 
+	/** Generates the triple associated with a 64-bit key by a transformation strategy.
+	 *
+	 * <p>The triple is the same as the one generated by {@code Hashes.spooky4(transform.toBitVector(Long.valueOf(key)), seed, triple)}, but if
+	 * {@code transform} is {@link TransformationStrategies#rawFixedLong()} or {@link TransformationStrategies#fixedLong()}
+	 * it is computed by {@link Hashes#spooky4(long, long, long[])} without allocating objects.
+	 * In all other cases, {@code transform} must be able to transform instances of {@link Long}.
+	 *
+	 * @param key a 64-bit key.
+	 * @param transform a transformation strategy.
+	 * @param seed a seed.
+	 * @param triple a triple that will contain the hashes of {@code key}.
+	 */
+	@SuppressWarnings("unchecked")
+	public static void hash(final long key, final TransformationStrategy<?> transform, final long seed, final long[] triple) {
+		if (transform == TransformationStrategies.rawFixedLong()) Hashes.spooky4(key, seed, triple);
+		// This strategy returns the bits of the key in reverse order, so that lexicographical and numerical order coincide
+		else if (transform == TransformationStrategies.fixedLong()) Hashes.spooky4(Long.reverse(key), seed, triple);
+		else Hashes.spooky4(((TransformationStrategy<Object>)transform).toBitVector(Long.valueOf(key)), seed, triple);
+	}
+
+	/** Adds a 64-bit key to this store, associating it with a specified value.
+	 *
+	 * <p>The key is hashed as the {@link Long} with the same value, so
+	 * the transformation strategy of this store must be able to transform instances of {@link Long};
+	 * if it is {@link TransformationStrategies#rawFixedLong()} or {@link TransformationStrategies#fixedLong()}, no object is allocated
+	 * (see {@link #hash(long, TransformationStrategy, long, long[])}).
+	 *
+	 * @param key the key to be added.
+	 * @param value the associated value.
+	 */
+	public void add(final long key, final long value) throws IOException {
+		final long[] triple = scratchTriple();
+		hash(key, transform, seed, triple);
+		add(triple, value);
+	}
+
+	/** Returns the scratch triple of this store, allocating it if necessary (e.g., after deserialization).
+	 *
+	 * @return the scratch triple of this store.
+	 */
+	private long[] scratchTriple() {
+		if (scratchTriple == null) scratchTriple = new long[3];
+		return scratchTriple;
+	}
+
+	/** Adds a 64-bit key to this store, associating it with its ordinal position.
+	 *
+	 * @param key the key to be added.
+	 * @see #add(long, long)
+	 */
+	public void add(final long key) throws IOException {
+		add(key, filteredSize);
+	}
+
 	/** Adds a triple to this store.
 	 *
 	 * @param triple the triple to be added.
 	 * @param value the associated value.
 	 */
 	private void add(final long[] triple, final long value) throws IOException {
+		add(triple, value, true);
+	}
+
+	/** Adds a triple to this store, possibly without counting its value.
+	 *
+	 * @param triple the triple to be added.
+	 * @param value the associated value.
+	 * @param countValue whether {@code value} should be counted in the value frequency map, if present (if false,
+	 * the caller is responsible for counting it).
+	 */
+	private void add(final long[] triple, final long value, final boolean countValue) throws IOException {
+		if (readOnly) throw new IllegalStateException("This " + getClass().getSimpleName() + " is read-only");
 		final int chunk = (int)(triple[0] >>> DISK_CHUNKS_SHIFT);
-		count[chunk]++;
+		final int fragment = (int)(triple[0] >>> Long.SIZE - LOG2_FRAGMENTS);
 		checkedForDuplicates = false;
+		dirty[fragment] = true;
+		fragmentCount[fragment]++;
 		if (DEBUG) System.err.println("Adding " + Arrays.toString(triple));
-		writeLong(triple[0], byteBuffer[chunk], writableByteChannel[chunk]);
-		writeLong(triple[1], byteBuffer[chunk], writableByteChannel[chunk]);
-		writeLong(triple[2], byteBuffer[chunk], writableByteChannel[chunk]);
-		if (hashMask == 0) writeLong(value, byteBuffer[chunk], writableByteChannel[chunk]);
+		if (file == null) {
+			final int pos = count[chunk] * recordSize;
+			final long[] m = memoryChunk[chunk] = LongArrays.grow(memoryChunk[chunk] == null ? LongArrays.EMPTY_ARRAY : memoryChunk[chunk], pos + recordSize, pos);
+			m[pos] = triple[0];
+			m[pos + 1] = triple[1];
+			m[pos + 2] = triple[2];
+			if (hashMask == 0) m[pos + 3] = value;
+			count[chunk]++;
+			if ((memoryLongs += recordSize) * Long.BYTES > memoryThreshold) spill();
+		}
+		else {
+			count[chunk]++;
+			write(byteBuffer[chunk], writableByteChannel[chunk], triple[0], triple[1], triple[2], value);
+		}
 		if (filteredSize != -1 && (filter == null || filter.evaluate(triple))) filteredSize++;
-		if (value2FrequencyMap != null) value2FrequencyMap.addTo(value, 1);
+		if (countValue && value2Frequency != null) value2Frequency.add(value);
 		size++;
 	}
 
@@ -357,6 +633,321 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 		if (pl != null) pl.done();
 	}
 
+	/** Adds the 64-bit keys returned by an iterator to this store, associating them with specified values.
+	 *
+	 * <p>Keys are hashed as described in {@link #add(long, long)}.
+	 *
+	 * @param keys an iterator returning 64-bit keys.
+	 * @param values an iterator on values parallel to {@code keys}, or {@code null}, in which case keys
+	 * will be associated with their ordinal position.
+	 */
+	public void addAll(final LongIterator keys, final LongIterator values) throws IOException {
+		if (pl != null) {
+			pl.expectedUpdates = -1;
+			pl.start("Adding elements...");
+		}
+		final long[] triple = new long[3];
+		while(keys.hasNext()) {
+			hash(keys.nextLong(), transform, seed, triple);
+			add(triple, values != null ? values.nextLong() : filteredSize);
+			if (pl != null) pl.lightUpdate();
+		}
+		if (values != null && values.hasNext()) throw new IllegalStateException("The iterator on values contains more entries than the iterator on keys");
+		if (pl != null) pl.done();
+	}
+
+	/** Adds the 64-bit keys returned by an iterator to this store, associating them with their ordinal position.
+	 *
+	 * @param keys an iterator returning 64-bit keys.
+	 * @see #addAll(LongIterator, LongIterator)
+	 */
+	public void addAll(final LongIterator keys) throws IOException {
+		addAll(keys, null);
+	}
+
+	/** A batch of elements to be hashed by {@link #addAll(Iterator, LongIterator, int)}, or of triples hashed by {@link #addAll(Spliterator, LongIterator, int)}. */
+	private static final class Batch {
+		/** The elements of this batch, or {@code null} if elements are hashed as soon as they are returned. */
+		private final Object[] elements;
+		/** The values associated with the elements, or {@code null}. */
+		private final long[] values;
+		/** The triples generated by the elements, in groups of three. */
+		private final long[] triples;
+		/** The number of elements in this batch. */
+		private int size;
+		/** The ordinal position of this batch. */
+		private long index;
+
+		private Batch(final boolean hasElements, final boolean hasValues) {
+			elements = hasElements ? new Object[PARALLEL_BATCH_SIZE] : null;
+			values = hasValues ? new long[PARALLEL_BATCH_SIZE] : null;
+			triples = new long[3 * PARALLEL_BATCH_SIZE];
+		}
+
+		private Batch() {
+			elements = null;
+			values = triples = null;
+		}
+	}
+
+	private static final Batch END_OF_BATCHES = new Batch();
+	/** A marker for the end of the queue of chunks processed by {@link #signatures(int, File, ProgressLogger)}. */
+	private static final Chunk END_OF_CHUNKS = new Chunk();
+
+	/** Adds the elements returned by an iterator to this store, associating them with specified values and
+	 * hashing them using several threads.
+	 *
+	 * <p>Elements are gathered in batches of {@link #PARALLEL_BATCH_SIZE} elements, which are hashed
+	 * independently by {@code numberOfThreads} threads; hashed batches are then written to disk in their original order, so
+	 * the content of this store will be exactly the same as if the elements had been added by {@link #addAll(Iterator, LongIterator)}.
+	 *
+	 * <p><strong>Warning</strong>: since elements are transformed into bit vectors by the hashing threads, the iterator
+	 * must return distinct objects that are not modified afterwards (e.g., you cannot use
+	 * this method with iterators reusing a {@link it.unimi.dsi.lang.MutableString}).
+	 *
+	 * @param elements an iterator returning elements.
+	 * @param values an iterator on values parallel to {@code elements}, or {@code null} to associate elements with their ordinal position.
+	 * @param numberOfThreads the number of hashing threads; if it is smaller than two, this method is equivalent to {@link #addAll(Iterator, LongIterator)}.
+	 */
+	public void addAll(final Iterator<? extends T> elements, final LongIterator values, final int numberOfThreads) throws IOException {
+		if (numberOfThreads < 2) {
+			addAll(elements, values);
+			return;
+		}
+
+		if (pl != null) {
+			pl.expectedUpdates = -1;
+			pl.start("Adding elements using " + numberOfThreads + " threads...");
+		}
+
+		final ArrayBlockingQueue<Batch> freeBatches = new ArrayBlockingQueue<>(numberOfThreads * 4);
+		for(int i = numberOfThreads * 4; i-- != 0;) freeBatches.add(new Batch(true, values != null));
+		final ArrayBlockingQueue<Batch> batchQueue = new ArrayBlockingQueue<>(numberOfThreads * 4);
+		final ReorderingBlockingQueue<Batch> hashedQueue = new ReorderingBlockingQueue<>(numberOfThreads * 4);
+		final ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads + 2);
+		final ExecutorCompletionService<Void> executorCompletionService = new ExecutorCompletionService<>(executorService);
+
+		executorCompletionService.submit(() -> {
+			long index = 0;
+			try {
+				while(elements.hasNext()) {
+					final Batch batch = freeBatches.take();
+					int size = 0;
+					do {
+						batch.elements[size] = elements.next();
+						if (values != null) batch.values[size] = values.nextLong();
+						size++;
+					} while(size < PARALLEL_BATCH_SIZE && elements.hasNext());
+					batch.size = size;
+					batch.index = index++;
+					batchQueue.put(batch);
+				}
+				if (values != null && values.hasNext()) throw new IllegalStateException("The iterator on values contains more entries than the iterator on keys");
+			}
+			finally {
+				for(int i = numberOfThreads; i-- != 0;) batchQueue.put(END_OF_BATCHES);
+				hashedQueue.put(END_OF_BATCHES, index);
+			}
+			return null;
+		});
+
+		for(int i = numberOfThreads; i-- != 0;) executorCompletionService.submit(() -> {
+			final long[] triple = new long[3];
+			for(;;) {
+				final Batch batch = batchQueue.take();
+				if (batch == END_OF_BATCHES) return null;
+				final Object[] e = batch.elements;
+				final long[] triples = batch.triples;
+				for(int j = 0; j < batch.size; j++) {
+					@SuppressWarnings("unchecked")
+					final T o = (T)e[j];
+					Hashes.spooky4(transform.toBitVector(o), seed, triple);
+					triples[3 * j] = triple[0];
+					triples[3 * j + 1] = triple[1];
+					triples[3 * j + 2] = triple[2];
+					e[j] = null;
+				}
+				// Explicit values are counted here, in parallel; ordinal positions are known only when adding
+				if (values != null && value2Frequency != null) value2Frequency.addAll(batch.values, 0, batch.size);
+				hashedQueue.put(batch, batch.index);
+			}
+		});
+
+		executorCompletionService.submit(() -> {
+			final long[] triple = new long[3];
+			for(;;) {
+				final Batch batch = hashedQueue.take();
+				if (batch == END_OF_BATCHES) return null;
+				final long[] triples = batch.triples;
+				for(int j = 0; j < batch.size; j++) {
+					triple[0] = triples[3 * j];
+					triple[1] = triples[3 * j + 1];
+					triple[2] = triples[3 * j + 2];
+					if (values != null) add(triple, batch.values[j], false);
+					else add(triple, filteredSize);
+				}
+				if (pl != null) pl.update(batch.size);
+				freeBatches.put(batch);
+			}
+		});
+
+		try {
+			for(int i = numberOfThreads + 2; i-- != 0;)
+				executorCompletionService.take().get();
+		} catch (final InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new RuntimeException(cause);
+		}
+		finally {
+			executorService.shutdownNow();
+		}
+
+		if (pl != null) pl.done();
+	}
+
+	/** Adds the elements returned by a spliterator to this store, associating them with specified values and
+	 * hashing them using as many threads as available processors.
+	 *
+	 * @param elements a spliterator returning elements.
+	 * @param values an iterator on values parallel to {@code elements}, or {@code null} to associate elements with their ordinal position.
+	 * @see #addAll(Spliterator, LongIterator, int)
+	 */
+	public void addAll(final Spliterator<? extends T> elements, final LongIterator values) throws IOException {
+		addAll(elements, values, Runtime.getRuntime().availableProcessors());
+	}
+
+	/** Adds the elements returned by a spliterator to this store, associating them with specified values and
+	 * hashing them using several threads.
+	 *
+	 * <p>The spliterator is split, preserving encounter order, in a number of parts that is a small multiple of {@code numberOfThreads}, and
+	 * each part is traversed and hashed by a thread of its own, which gathers triples in batches of {@link #PARALLEL_BATCH_SIZE} elements;
+	 * batches are written to disk part by part, in encounter order, and the threads hashing the following parts block as soon as
+	 * they have hashed a few batches, so memory usage is bounded by the size of the batches in flight (rather than by the size of the spliterator).
+	 * The content of this store will be exactly the same as if the elements had been added by {@link #addAll(Iterator, LongIterator)}.
+	 * If the spliterator cannot be split, this method is equivalent to {@link #addAll(Iterator, LongIterator, int)}.
+	 *
+	 * <p><strong>Warning</strong>: the spliterator must return distinct objects that are not modified afterwards.
+	 *
+	 * @param elements a spliterator returning elements.
+	 * @param values an iterator on values parallel to {@code elements}, or {@code null} to associate elements with their ordinal position.
+	 * @param numberOfThreads the number of hashing threads; if it is smaller than two, this method is equivalent to {@link #addAll(Iterator, LongIterator)}.
+	 */
+	public void addAll(final Spliterator<? extends T> elements, final LongIterator values, final int numberOfThreads) throws IOException {
+		// Parts in encounter order: we split repeatedly all parts, as splitting returns a prefix
+		final List<Spliterator<? extends T>> parts = new ArrayList<>();
+		parts.add(elements);
+		if (numberOfThreads >= 2) {
+			for(boolean split = true; split && parts.size() < numberOfThreads * 4;) {
+				split = false;
+				for(int i = 0; i < parts.size() && parts.size() < numberOfThreads * 4; i++) {
+					final Spliterator<? extends T> prefix = parts.get(i).trySplit();
+					if (prefix != null) {
+						parts.add(i++, prefix);
+						split = true;
+					}
+				}
+			}
+		}
+
+		if (parts.size() == 1) {
+			addAll(Spliterators.iterator(elements), values, numberOfThreads);
+			return;
+		}
+
+		if (pl != null) {
+			pl.expectedUpdates = -1;
+			pl.start("Adding elements using " + numberOfThreads + " threads on " + parts.size() + " parts...");
+		}
+
+		@SuppressWarnings("unchecked")
+		final ArrayBlockingQueue<Batch>[] hashed = new ArrayBlockingQueue[parts.size()];
+		for(int i = hashed.length; i-- != 0;) hashed[i] = new ArrayBlockingQueue<>(PARALLEL_PART_BATCHES);
+		// Parts are started in encounter order, so the part being written is always hashed by some thread
+		final ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads);
+		final List<Future<Void>> futures = new ArrayList<>();
+		// Written batches are recycled, but hashing threads never wait for them, as the part being written might need a new batch
+		final ArrayBlockingQueue<Batch> freeBatches = new ArrayBlockingQueue<>(numberOfThreads * PARALLEL_PART_BATCHES);
+
+		for(int i = 0; i < hashed.length; i++) {
+			final Spliterator<? extends T> part = parts.get(i);
+			final ArrayBlockingQueue<Batch> queue = hashed[i];
+			futures.add(executorService.submit(() -> {
+				final long[] triple = new long[3];
+				try {
+					for(boolean more = true; more;) {
+						final Batch free = freeBatches.poll();
+						final Batch batch = free != null ? free : new Batch(false, false);
+						final long[] triples = batch.triples;
+						batch.size = 0;
+						while((more = part.tryAdvance(o -> {
+							Hashes.spooky4(transform.toBitVector(o), seed, triple);
+							System.arraycopy(triple, 0, triples, 3 * batch.size++, 3);
+						})) && batch.size < PARALLEL_BATCH_SIZE);
+						if (batch.size != 0) queue.put(batch);
+					}
+				}
+				finally {
+					queue.put(END_OF_BATCHES);
+				}
+				return null;
+			}));
+		}
+
+		final long[] triple = new long[3];
+		try {
+			for(int i = 0; i < hashed.length; i++) {
+				for(;;) {
+					final Batch batch = hashed[i].take();
+					if (batch == END_OF_BATCHES) break;
+					final long[] triples = batch.triples;
+					for(int j = 0; j < batch.size; j++) {
+						triple[0] = triples[3 * j];
+						triple[1] = triples[3 * j + 1];
+						triple[2] = triples[3 * j + 2];
+						add(triple, values != null ? values.nextLong() : filteredSize);
+					}
+					if (pl != null) pl.update(batch.size);
+					freeBatches.offer(batch);
+				}
+				futures.get(i).get();
+			}
+			if (values != null && values.hasNext()) throw new IllegalStateException("The iterator on values contains more entries than the iterator on keys");
+		} catch (final InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new RuntimeException(cause);
+		}
+		finally {
+			// After a failure, threads hashing the following parts might wait forever on their queues
+			executorService.shutdownNow();
+		}
+
+		if (pl != null) pl.done();
+	}
+
+	/** Adds the elements of an iterable to this store, associating them with specified values.
+	 *
+	 * <p>If {@code elements} is a {@link SplittableIterable}, this method will use {@link #addAll(Spliterator, LongIterator)}
+	 * on the spliterator of a new stream; otherwise, it will use {@link #addAll(Iterator, LongIterator)}.
+	 *
+	 * @param elements an iterable providing elements.
+	 * @param values an iterable on values parallel to {@code elements}, or {@code null} to associate elements with their ordinal position.
+	 */
+	public void addAll(final Iterable<? extends T> elements, final LongIterable values) throws IOException {
+		if (elements instanceof SplittableIterable) {
+			try(final Stream<? extends T> stream = ((SplittableIterable<? extends T>)elements).stream()) {
+				addAll(stream.spliterator(), values == null ? null : values.iterator());
+			}
+		}
+		else addAll(elements.iterator(), values == null ? null : values.iterator());
+	}
+
 	/** Adds the elements returned by an iterator to this store, associating them with specified values.
 	 *
 	 * @param elements an iterator returning elements.
@@ -375,6 +966,7 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 	}
 
 	private void flushAll() throws IOException {
+		if (file == null || readOnly) return;
 		for(int i = 0; i < DISK_CHUNKS; i++) flush(byteBuffer[i], writableByteChannel[i]);
 	}
 
@@ -390,22 +982,12 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 		if (filteredSize == - 1) {
 			long c = 0;
 			final long[] triple = new long[3];
-			final ByteBuffer iteratorByteBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.nativeOrder());
+			flushAll();
 			for(int i = 0; i < DISK_CHUNKS; i++) {
-				if (filter == null) c += count[i];
-				else {
-					flushAll();
-					@SuppressWarnings("resource")
-					final ReadableByteChannel channel = new FileInputStream(file[i]).getChannel();
-					iteratorByteBuffer.clear().flip();
-					for(int j = 0; j < count[i]; j++) {
-						triple[0] = readLong(iteratorByteBuffer, channel);
-						triple[1] = readLong(iteratorByteBuffer, channel);
-						triple[2] = readLong(iteratorByteBuffer, channel);
-						if (hashMask == 0) readLong(iteratorByteBuffer, channel);
-						if (filter.evaluate(triple)) c++;
-					}
-					channel.close();
+				final RecordReader reader = new RecordReader(i);
+				for(int j = count[i]; j-- != 0;) {
+					reader.next(triple);
+					if (filter.evaluate(triple)) c++;
 				}
 			}
 
@@ -416,24 +998,58 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 
 	/** Clears this store. After a call to this method, the store can be reused. */
 	public void clear() throws IOException {
+		if (snapshot) throw new IllegalStateException("This " + getClass().getSimpleName() + " has been opened from a snapshot");
 		locked = false;
-		if (value2FrequencyMap != null) value2FrequencyMap = new Long2LongOpenHashMap();
+		if (value2Frequency != null) value2Frequency.clear();
 		reset(0);
 	}
 
 	/** Return the current value frequency map.
 	 *
-	 * @return the current value frequency map.
+	 * <p>Frequencies are accumulated in a {@link ConcurrentFrequencyCounter}, which is updated concurrently
+	 * by the hashing threads of {@link #addAll(Iterator, LongIterator, int)}; this method merges its shards into a new map.
+	 *
+	 * @return a new map containing the current value frequencies.
 	 * @throws IllegalStateException if this chunked hash store does not contain a value frequency map.
 	 */
 	public Long2LongOpenHashMap value2FrequencyMap() {
-		if (value2FrequencyMap == null) throw new IllegalStateException("This chunked hash store does not contain a value frequency map");
-		return value2FrequencyMap;
+		if (value2Frequency == null) throw new IllegalStateException("This chunked hash store does not contain a value frequency map");
+		return value2Frequency.toMap();
 	}
 
-	private static void writeLong(final long value, final ByteBuffer byteBuffer, final WritableByteChannel channel) throws IOException {
-		if (!byteBuffer.hasRemaining()) flush(byteBuffer, channel);
-		byteBuffer.putLong(value);
+	/** Writes a record to a disk chunk file.
+	 *
+	 * @param byteBuffer the buffer of the disk chunk file.
+	 * @param channel the channel of the disk chunk file.
+	 * @param h0 the first hash.
+	 * @param h1 the second hash.
+	 * @param h2 the third hash.
+	 * @param value the associated value (ignored if {@link #hashMask} is nonzero).
+	 */
+	private void write(final ByteBuffer byteBuffer, final WritableByteChannel channel, final long h0, final long h1, final long h2, final long value) throws IOException {
+		if (byteBuffer.remaining() < MAX_COMPACT_RECORD_BYTES) flush(byteBuffer, channel);
+		if (compact) {
+			// The upper LOG2_DISK_CHUNKS bits of h0 are implied by the disk chunk
+			byteBuffer.putLong(h1);
+			byteBuffer.putLong(h2);
+			byteBuffer.putInt((int)h0);
+			byteBuffer.putShort((short)(h0 >>> 32));
+			byteBuffer.put((byte)(h0 >>> 48));
+			if (hashMask == 0) {
+				long v = value;
+				while ((v & ~0x7FL) != 0) {
+					byteBuffer.put((byte)(v | 0x80));
+					v >>>= 7;
+				}
+				byteBuffer.put((byte)v);
+			}
+		}
+		else {
+			byteBuffer.putLong(h0);
+			byteBuffer.putLong(h1);
+			byteBuffer.putLong(h2);
+			if (hashMask == 0) byteBuffer.putLong(value);
+		}
 	}
 
 	private static void flush(final ByteBuffer buffer, final WritableByteChannel channel) throws IOException {
@@ -442,45 +1058,271 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 		buffer.clear();
 	}
 
-	private static long readLong(final ByteBuffer byteBuffer, final ReadableByteChannel channel) throws IOException {
-		if (! byteBuffer.hasRemaining()) {
-			byteBuffer.clear();
-			final int result = channel.read(byteBuffer);
-			assert result != 0;
-			if (result == -1) throw new EOFException();
-            byteBuffer.flip();
+	/** A sequential reader of the records of a disk chunk.
+	 *
+	 * <p>If disk chunks are in memory, records are read from memory; otherwise, the file of the disk chunk is
+	 * {@linkplain FileChannel#map(MapMode, long, long) mapped} in segments of at most
+	 * {@link #MAX_MAPPED_BYTES} bytes (plus the length of a record, in the compact format). Disk chunks
+	 * must have been flushed.
+	 */
+	private final class RecordReader {
+		/** The file of the disk chunk, or {@code null} if disk chunks are in memory. */
+		private final File file;
+		/** The implied upper bits of the first hash. */
+		private final long highBits;
+		/** The length in bytes of {@link #file}. */
+		private final long length;
+		/** The records, if they are in memory or in the standard format. */
+		private LongBuffer longBuffer;
+		/** The next long to be read from {@link #longBuffer}. */
+		private int pos;
+		/** The records, if they are on disk in compact format. */
+		private ByteBuffer byteBuffer;
+		/** The position in {@link #file} of the start of the current mapped segment. */
+		private long segmentStart;
+
+		/** Creates a reader for the records of a disk chunk.
+		 *
+		 * @param diskChunk a disk chunk.
+		 */
+		private RecordReader(final int diskChunk) throws IOException {
+			highBits = (long)diskChunk << DISK_CHUNKS_SHIFT;
+			if (ChunkedHashStore.this.file == null) {
+				file = null;
+				length = 0;
+				longBuffer = LongBuffer.wrap(memoryChunk[diskChunk] == null ? LongArrays.EMPTY_ARRAY : memoryChunk[diskChunk], 0, count[diskChunk] * recordSize);
+			}
+			else {
+				file = ChunkedHashStore.this.file[diskChunk];
+				length = file.length();
+				map(0);
+			}
 		}
-		return byteBuffer.getLong();
-	}
-
-	private static ReadableByteChannel concatenate(final ReadableByteChannel[] channel) {
-		return new ReadableByteChannel() {
-			private int curr = 0;
-			private boolean closed;
 
-			@Override
-			public boolean isOpen() {
-				return ! closed;
+		/** Maps a segment of the file of the disk chunk.
+		 *
+		 * @param start the starting position of the segment, which must be the start of a record.
+		 */
+		private void map(final long start) throws IOException {
+			segmentStart = start;
+			pos = 0;
+			try (final FileChannel channel = new FileInputStream(file).getChannel()) {
+				if (compact) {
+					byteBuffer = channel.map(MapMode.READ_ONLY, start, Math.min(MAX_MAPPED_BYTES + MAX_COMPACT_RECORD_BYTES, length - start)).order(ByteOrder.nativeOrder());
+				}
+				else {
+					// Segments must contain an integral number of records
+					final long segmentBytes = MAX_MAPPED_BYTES / (recordSize * Long.BYTES) * (recordSize * Long.BYTES);
+					longBuffer = channel.map(MapMode.READ_ONLY, start, Math.min(segmentBytes, length - start)).order(ByteOrder.nativeOrder()).asLongBuffer();
+				}
 			}
+		}
 
-			@Override
-			public void close() throws IOException {
-				if (closed) return;
-				closed = true;
-				for(final ReadableByteChannel c: channel) c.close();
+		/** Reads the next record.
+		 *
+		 * <p>The caller must not read more than the number of records in the disk chunk.
+		 *
+		 * @param triple an array of longs that will be filled with the triple.
+		 * @return the value associated with the triple, or zero if {@link #hashMask} is nonzero.
+		 */
+		private long next(final long[] triple) throws IOException {
+			if (compact && file != null) {
+				if (byteBuffer.position() >= MAX_MAPPED_BYTES) map(segmentStart + byteBuffer.position());
+				final ByteBuffer byteBuffer = this.byteBuffer;
+				triple[1] = byteBuffer.getLong();
+				triple[2] = byteBuffer.getLong();
+				triple[0] = highBits | byteBuffer.getInt() & 0xFFFFFFFFL | (byteBuffer.getShort() & 0xFFFFL) << 32 | (byteBuffer.get() & 0xFFL) << 48;
+				if (hashMask != 0) return 0;
+				long v = 0;
+				int shift = 0;
+				byte b;
+				while ((b = byteBuffer.get()) < 0) {
+					v |= (b & 0x7FL) << shift;
+					shift += 7;
+				}
+				return v | (long)b << shift;
+			}
+			else {
+				if (pos == longBuffer.limit()) map(segmentStart + (long)pos * Long.BYTES);
+				final LongBuffer longBuffer = this.longBuffer;
+				triple[0] = longBuffer.get(pos);
+				triple[1] = longBuffer.get(pos + 1);
+				triple[2] = longBuffer.get(pos + 2);
+				final long value = hashMask == 0 ? longBuffer.get(pos + 3) : 0;
+				pos += recordSize;
+				return value;
 			}
+		}
+	}
 
-			@Override
-			public int read(final ByteBuffer dst) throws IOException {
-				if (!dst.hasRemaining()) return 0;
-				for(;;) {
-					if (curr == channel.length) return -1;
-					final int result = channel[curr].read(dst);
-					if (result >= 0) return result;
-					if (result == -1) curr++;
+	/** The metadata of a {@linkplain ChunkedHashStore#save(File) snapshot}. */
+	private static final class Snapshot implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private TransformationStrategy<?> transform;
+		private int hashWidthOrCountValues;
+		private boolean compact;
+		private long seed;
+		private long size;
+		private int[] count;
+		private int[] fragmentCount;
+		private boolean checkedForDuplicates;
+		private Long2LongOpenHashMap value2FrequencyMap;
+		private boolean[] dirty;
+		/** The length in bytes of each disk chunk file. */
+		private long[] length;
+	}
+
+	/** Saves a snapshot of this store in a directory.
+	 *
+	 * <p>This method writes in the given directory (which will be created, if necessary) the disk chunks of this store,
+	 * its seed, its transformation strategy (which must be serializable) and, if present, its value frequency map.
+	 * The store can be later {@linkplain #open(File, ProgressLogger) opened} in read-only mode, even by a different JVM, and
+	 * used to build several structures without hashing again the keys. Note that
+	 * a snapshot will contain all triples in the store, even if a {@linkplain #filter(Predicate) filter} has been set.
+	 *
+	 * <p>If this store has been {@linkplain #open(File, boolean, ProgressLogger) opened} in writable mode from a snapshot,
+	 * you can save it in the directory of the snapshot, making the additions permanent.
+	 *
+	 * @param dir a directory.
+	 */
+	public void save(final File dir) throws IOException {
+		if (closed) throw new IllegalStateException("This " + getClass().getSimpleName() + " has been closed ");
+		if (! dir.isDirectory() && ! dir.mkdirs()) throw new IOException("Cannot create directory " + dir);
+		flushAll();
+		final long[] length = new long[DISK_CHUNKS];
+		for(int i = 0; i < DISK_CHUNKS; i++) {
+			final File snapshotFile = new File(dir, SNAPSHOT_DISK_CHUNK_PREFIX + i);
+			if (file != null) {
+				// Writable stores opened from a snapshot might be saved in place
+				if (! snapshotFile.exists() || ! Files.isSameFile(file[i].toPath(), snapshotFile.toPath())) Files.copy(file[i].toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			else {
+				final ByteBuffer byteBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.nativeOrder());
+				try (final FileChannel channel = new FileOutputStream(snapshotFile).getChannel()) {
+					final long[] m = memoryChunk[i];
+					for(int j = 0; j < count[i] * recordSize; j += recordSize) write(byteBuffer, channel, m[j], m[j + 1], m[j + 2], hashMask == 0 ? m[j + 3] : 0);
+					flush(byteBuffer, channel);
 				}
 			}
-		};
+			length[i] = snapshotFile.length();
+		}
+
+		final Snapshot snapshot = new Snapshot();
+		snapshot.transform = transform;
+		snapshot.hashWidthOrCountValues = hashMask != 0 ? Long.bitCount(hashMask) : value2Frequency != null ? -1 : 0;
+		snapshot.compact = compact;
+		snapshot.seed = seed;
+		snapshot.size = size;
+		snapshot.count = count;
+		snapshot.fragmentCount = fragmentCount;
+		snapshot.checkedForDuplicates = checkedForDuplicates;
+		snapshot.value2FrequencyMap = value2Frequency != null ? value2Frequency.toMap() : null;
+		snapshot.dirty = dirty;
+		snapshot.length = length;
+		BinIO.storeObject(snapshot, new File(dir, SNAPSHOT_METADATA));
+	}
+
+	/** Opens a {@linkplain #save(File) snapshot} of a chunked hash store.
+	 *
+	 * <p>The returned store reads its disk chunks directly from the files in {@code dir}, which are not deleted when the store is
+	 * {@linkplain #close() closed}. The store is {@linkplain #seed() locked}, and any attempt to {@linkplain #reset(long) reset}
+	 * or {@linkplain #clear() clear} it will cause an {@link IllegalStateException}.
+	 *
+	 * <p>If {@code readOnly} is true, any attempt to add elements to the store will cause an {@link IllegalStateException}.
+	 * Otherwise, new elements are appended to the files of the snapshot (and are hashed using the seed of the snapshot),
+	 * but the additions will become part of the snapshot only when the store is {@linkplain #save(File) saved} again in {@code dir};
+	 * the chunks that receive new elements become {@linkplain #dirty(int) dirty}, so structures built on a previous
+	 * version of the store can be rebuilt incrementally (see, e.g., {@link it.unimi.dsi.sux4j.mph.GOV3Function.Builder#previous(GOV3Function)}).
+	 *
+	 * @param dir a directory containing a snapshot written by {@link #save(File)}.
+	 * @param readOnly whether the returned store will be read-only.
+	 * @param pl a progress logger, or {@code null}.
+	 * @return a chunked hash store with the content of the snapshot.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> ChunkedHashStore<T> open(final File dir, final boolean readOnly, final ProgressLogger pl) throws IOException, ClassNotFoundException {
+		final Snapshot snapshot = (Snapshot)BinIO.loadObject(new File(dir, SNAPSHOT_METADATA));
+		final ChunkedHashStore<T> chunkedHashStore = new ChunkedHashStore<>((TransformationStrategy<? super T>)snapshot.transform, null, snapshot.hashWidthOrCountValues, Long.MAX_VALUE, snapshot.compact, pl);
+		chunkedHashStore.memoryChunk = null;
+		chunkedHashStore.file = new File[DISK_CHUNKS];
+		for(int i = 0; i < DISK_CHUNKS; i++) {
+			chunkedHashStore.file[i] = new File(dir, SNAPSHOT_DISK_CHUNK_PREFIX + i);
+			if (! chunkedHashStore.file[i].exists()) throw new IOException("Missing disk chunk file " + chunkedHashStore.file[i]);
+		}
+		if (! readOnly) {
+			chunkedHashStore.writableByteChannel = new WritableByteChannel[DISK_CHUNKS];
+			chunkedHashStore.byteBuffer = new ByteBuffer[DISK_CHUNKS];
+			for(int i = 0; i < DISK_CHUNKS; i++) {
+				chunkedHashStore.byteBuffer[i] = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.nativeOrder());
+				final FileChannel channel = FileChannel.open(chunkedHashStore.file[i].toPath(), StandardOpenOption.WRITE);
+				// Discard records appended after the snapshot was saved
+				channel.truncate(snapshot.length[i]);
+				channel.position(snapshot.length[i]);
+				chunkedHashStore.writableByteChannel[i] = channel;
+			}
+		}
+		chunkedHashStore.seed = snapshot.seed;
+		chunkedHashStore.size = chunkedHashStore.filteredSize = snapshot.size;
+		chunkedHashStore.count = snapshot.count;
+		chunkedHashStore.fragmentCount = snapshot.fragmentCount;
+		if (snapshot.dirty.length == DISK_CHUNKS) {
+			// Snapshots written by previous versions keep track of dirty disk chunks
+			for(int f = chunkedHashStore.dirty.length; f-- != 0;) chunkedHashStore.dirty[f] = snapshot.dirty[f >>> LOG2_FRAGMENTS - LOG2_DISK_CHUNKS];
+		}
+		else chunkedHashStore.dirty = snapshot.dirty;
+		chunkedHashStore.checkedForDuplicates = snapshot.checkedForDuplicates;
+		if (snapshot.value2FrequencyMap != null) chunkedHashStore.value2Frequency.addAll(snapshot.value2FrequencyMap);
+		chunkedHashStore.locked = true;
+		chunkedHashStore.readOnly = readOnly;
+		chunkedHashStore.snapshot = true;
+		return chunkedHashStore;
+	}
+
+	/** Opens in read-only mode a {@linkplain #save(File) snapshot} of a chunked hash store.
+	 *
+	 * @param dir a directory containing a snapshot written by {@link #save(File)}.
+	 * @param pl a progress logger, or {@code null}.
+	 * @return a read-only chunked hash store with the content of the snapshot.
+	 * @see #open(File, boolean, ProgressLogger)
+	 */
+	public static <T> ChunkedHashStore<T> open(final File dir, final ProgressLogger pl) throws IOException, ClassNotFoundException {
+		return open(dir, true, pl);
+	}
+
+	/** Opens in read-only mode a {@linkplain #save(File) snapshot} of a chunked hash store.
+	 *
+	 * @param dir a directory containing a snapshot written by {@link #save(File)}.
+	 * @return a read-only chunked hash store with the content of the snapshot.
+	 * @see #open(File, boolean, ProgressLogger)
+	 */
+	public static <T> ChunkedHashStore<T> open(final File dir) throws IOException, ClassNotFoundException {
+		return open(dir, true, null);
+	}
+
+	/** Returns whether a given chunk might have been modified since the last call to {@link #markClean()}.
+	 *
+	 * <p>The store keeps track of modifications for each of the 2<sup>16</sup> fragments of the hash space
+	 * (i.e., for each value of the upper 16 bits of the first hash), and a chunk is dirty if one of the fragments
+	 * it intersects is dirty; thus, if there are at most 2<sup>16</sup> chunks, a chunk is dirty exactly when it
+	 * has been modified. All fragments of a new (or {@linkplain #reset(long) reset}) store are dirty. The dirty state
+	 * is saved in {@linkplain #save(File) snapshots}; thus, it is possible to open a snapshot, add some elements, and find out which chunks
+	 * need to be recomputed by a structure built on the snapshot before the additions, provided that the number of chunks
+	 * has not changed. This method can be called only after {@link #log2Chunks(int)}.
+	 *
+	 * @param chunk a chunk.
+	 * @return whether {@code chunk} might have been modified.
+	 */
+	public boolean dirty(final int chunk) {
+		final int log2Chunks = Long.SIZE - chunkShift;
+		if (log2Chunks >= LOG2_FRAGMENTS) return dirty[chunk >>> log2Chunks - LOG2_FRAGMENTS];
+		final int fragmentsPerChunk = 1 << LOG2_FRAGMENTS - log2Chunks;
+		for(int f = chunk * fragmentsPerChunk; f < (chunk + 1) * fragmentsPerChunk; f++) if (dirty[f]) return true;
+		return false;
+	}
+
+	/** Marks all chunks as {@linkplain #dirty(int) clean}. */
+	public void markClean() {
+		Arrays.fill(dirty, false);
 	}
 
 	@SuppressWarnings("deprecation")
@@ -501,30 +1343,39 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 	@Override
 	public void close() throws IOException {
 		if (! closed) {
-			LOGGER.debug("Wall clock for quicksort: " + Util.format(quickSortWallTime / 1E9) + "s");
+			LOGGER.debug("Wall clock for sorting: " + Util.format(sortWallTime / 1E9) + "s");
 			closed = true;
-			for(final WritableByteChannel channel: writableByteChannel) channel.close();
-			for(final File f: file) f.delete();
+			memoryChunk = null;
+			if (writableByteChannel != null) for(final WritableByteChannel channel: writableByteChannel) channel.close();
+			// The files of an opened snapshot are left untouched
+			if (file != null && ! snapshot) for(final File f: file) f.delete();
 		}
 	}
 
 	/** Resets this store using a new seed. All accumulated data are cleared, and a new seed is reinstated.
 	 *
 	 * @param seed the new seed.
-	 * @throws IllegalStateException if this store was locked by a call to {@link #seed()}, and never {@linkplain #clear() cleared} thereafter.
+	 * @throws IllegalStateException if this store was locked by a call to {@link #seed()}, and never {@linkplain #clear() cleared} thereafter,
+	 * or if this store has been {@linkplain #open(File, boolean, ProgressLogger) opened} from a snapshot.
 	 */
 
 	public void reset(final long seed) throws IOException {
 		if (locked) throw new IllegalStateException();
+		if (snapshot) throw new IllegalStateException("This " + getClass().getSimpleName() + " has been opened from a snapshot");
 		if (DEBUG) System.err.println("RESET(" + seed + ")");
 		filteredSize = 0;
 		this.seed = seed;
 		checkedForDuplicates = false;
 		Arrays.fill(count, 0);
-		for (int i = 0; i < DISK_CHUNKS; i++) {
-			writableByteChannel[i].close();
-			byteBuffer[i].clear();
-			writableByteChannel[i] = new FileOutputStream(file[i]).getChannel();
+		Arrays.fill(fragmentCount, 0);
+		Arrays.fill(dirty, true);
+		if (file == null) memoryLongs = 0;
+		else {
+			for (int i = 0; i < DISK_CHUNKS; i++) {
+				writableByteChannel[i].close();
+				byteBuffer[i].clear();
+				writableByteChannel[i] = new FileOutputStream(file[i]).getChannel();
+			}
 		}
 	}
 
@@ -538,11 +1389,67 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 		for(final ChunkedHashStore.Chunk b: this) b.iterator();
 	}
 
+	/** Returns an element that generates a given triple and occurs at least twice in an iterable.
+	 *
+	 * <p>When a {@link DuplicateException} is thrown, two elements generate the same triple. Since triples are made of
+	 * 192 bits, this happens almost invariably because the elements are equal, and then
+	 * {@linkplain #reset(long) resetting the store} and adding again all elements is useless.
+	 * This method scans the elements once, and compares the bit vectors of the elements generating
+	 * the {@linkplain DuplicateException#triple() duplicate triple}, making it possible to tell apart duplicate elements
+	 * from genuine hash collisions without rehashing.
+	 *
+	 * <p>Elements are hashed as soon as they are returned by the iterator of {@code iterable}, and the bit vectors of the
+	 * elements generating {@code triple} are copied, so this method works also with iterables reusing the same object
+	 * (e.g., a {@link it.unimi.dsi.lang.MutableString}); in this case, however, the returned element might be modified by
+	 * further iterations. If {@code iterable} is a {@link SplittableIterable}, whose elements are distinct objects that
+	 * are not modified afterwards, elements are hashed in parallel.
+	 *
+	 * @param iterable the elements that have been added to this store.
+	 * @param triple a triple, or {@code null}.
+	 * @return an element of {@code iterable} generating {@code triple} whose bit vector is equal to the bit vector of another such element, or
+	 * {@code null} if there is no such element or {@code triple} is {@code null}.
+	 */
+	public T duplicate(final Iterable<? extends T> iterable, final long[] triple) {
+		if (triple == null) return null;
+		final List<LongArrayBitVector> bitVectors = new ArrayList<>();
+
+		if (iterable instanceof SplittableIterable) {
+			final List<? extends T> candidates;
+			try(final Stream<? extends T> stream = ((SplittableIterable<? extends T>)iterable).stream()) {
+				candidates = stream.parallel().filter(o -> {
+					final long[] h = new long[3];
+					Hashes.spooky4(transform.toBitVector(o), seed, h);
+					return Arrays.equals(h, triple);
+				}).collect(Collectors.toList());
+			}
+
+			for(final T o : candidates) {
+				final LongArrayBitVector bitVector = LongArrayBitVector.copy(transform.toBitVector(o));
+				if (bitVectors.contains(bitVector)) return o;
+				bitVectors.add(bitVector);
+			}
+			return null;
+		}
+
+		final long[] h = new long[3];
+		for(final T o : iterable) {
+			final BitVector bitVector = transform.toBitVector(o);
+			Hashes.spooky4(bitVector, seed, h);
+			if (! Arrays.equals(h, triple)) continue;
+			if (bitVectors.contains(bitVector)) return o;
+			bitVectors.add(LongArrayBitVector.copy(bitVector));
+		}
+		return null;
+	}
+
 	/** Checks that this store has no duplicate triples, and try to rebuild if this fails to happen.
+	 *
+	 * <p>If the duplicate triples are generated by {@linkplain #duplicate(Iterable, long[]) duplicate elements},
+	 * an exception is thrown immediately.
 	 *
 	 * @param iterable the elements with which the store will be refilled if there are duplicate triples.
 	 * @param values the values that will be associated with the elements returned by <code>iterable</code>.
-	 * @throws IllegalArgumentException if after a few trials the store still contains duplicate triples.
+	 * @throws IllegalArgumentException if {@code iterable} contains duplicates, or if after a few trials the store still contains duplicate triples.
 	 */
 	public void checkAndRetry(final Iterable<? extends T> iterable, final LongIterable values) throws IOException {
 		final RandomGenerator random = new XoRoShiRo128PlusRandomGenerator();
@@ -554,10 +1461,11 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 				break;
 			}
 			catch (final DuplicateException e) {
+				if (duplicate(iterable, e.triple()) != null) throw new IllegalArgumentException("The input list contains duplicates");
 				if (duplicates++ > 3) throw new IllegalArgumentException("The input list contains duplicates");
 				LOGGER.warn("Found duplicate. Recomputing triples...");
 				reset(random.nextLong());
-				addAll(iterable.iterator(), values.iterator());
+				addAll(iterable, values);
 			}
 
 		checkedForDuplicates = true;
@@ -585,8 +1493,26 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 
 	public LongBigList signatures(final int signatureWidth, final ProgressLogger pl) throws IOException {
 		final LongBigList signatures = LongArrayBitVector.getInstance().asLongBigList(signatureWidth);
-		final long signatureMask = -1L >>> Long.SIZE - signatureWidth;
 		signatures.size(size());
+		return signatures(signatureWidth, signatures, pl);
+	}
+
+	/** Generate a list of signatures using the lowest bits of the first hash in this store, writing them
+	 * to a given list.
+	 *
+	 * <p>This method makes it possible to store signatures in a list that is not on the heap, such
+	 * as an {@link it.unimi.dsi.sux4j.util.OffHeapLongBigList}.
+	 *
+	 * <p>For this method to work, this store must contain ranks.
+	 *
+	 * @param signatureWidth the width in bits of the signatures.
+	 * @param signatures a list of {@link #size()} elements that will contain the signatures.
+	 * @param pl a progress logger.
+	 * @return {@code signatures}.
+	 */
+
+	public <L extends LongBigList> L signatures(final int signatureWidth, final L signatures, final ProgressLogger pl) throws IOException {
+		final long signatureMask = -1L >>> Long.SIZE - signatureWidth;
 		pl.expectedUpdates = size();
 		pl.itemsName = "signatures";
 		pl.start("Signing...");
@@ -602,6 +1528,78 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 		return signatures;
 	}
 
+	/** Generate a list of signatures using the lowest bits of the first hash in this store, writing them
+	 * to a memory-mapped file.
+	 *
+	 * <p>Differently from {@link #signatures(int, ProgressLogger)}, signatures are never materialized in the heap:
+	 * chunks are distributed among several threads, which write directly the signatures of their chunk into a
+	 * {@link MappedLongBigList}. The resulting list serializes as a reference to {@code file}, so a function
+	 * using it will map the signatures rather than loading them when deserialized.
+	 *
+	 * <p>For this method to work, this store must contain ranks.
+	 *
+	 * @param signatureWidth the width in bits of the signatures.
+	 * @param file the file that will contain the signatures.
+	 * @param pl a progress logger.
+	 */
+
+	public MappedLongBigList signatures(final int signatureWidth, final File file, final ProgressLogger pl) throws IOException {
+		final MappedLongBigList signatures = MappedLongBigList.create(file, size(), signatureWidth);
+		final long signatureMask = -1L >>> Long.SIZE - signatureWidth;
+		pl.expectedUpdates = size();
+		pl.itemsName = "signatures";
+		pl.start("Signing into " + file + "...");
+
+		final int numberOfThreads = Runtime.getRuntime().availableProcessors();
+		final ArrayBlockingQueue<Chunk> chunkQueue = new ArrayBlockingQueue<>(numberOfThreads * 8);
+		final ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads + 1);
+		final ExecutorCompletionService<Void> executorCompletionService = new ExecutorCompletionService<>(executorService);
+
+		executorCompletionService.submit(() -> {
+			try (final ChunkIterator iterator = prefetchingIterator()) {
+				while(iterator.hasNext()) chunkQueue.put(new Chunk(iterator.next()));
+			}
+			finally {
+				for(int i = numberOfThreads; i-- != 0;) chunkQueue.put(END_OF_CHUNKS);
+			}
+			return null;
+		});
+
+		for(int i = numberOfThreads; i-- != 0;) executorCompletionService.submit(() -> {
+			for(;;) {
+				final Chunk chunk = chunkQueue.take();
+				if (chunk == END_OF_CHUNKS) return null;
+				final Iterator<long[]> chunkIterator = chunk.iterator();
+				for(int j = chunk.size(); j-- != 0;) {
+					final long[] quadruple = chunkIterator.next();
+					signatures.set(quadruple[3], signatureMask & quadruple[0]);
+				}
+				synchronized(pl) {
+					pl.update(chunk.size());
+				}
+			}
+		});
+
+		try {
+			for(int i = numberOfThreads + 1; i-- != 0;)
+				executorCompletionService.take().get();
+		} catch (final InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new RuntimeException(cause);
+		}
+		finally {
+			executorService.shutdownNow();
+		}
+
+		signatures.force();
+		pl.done();
+		return signatures;
+	}
+
 	/** Sets the number of chunks.
 	 *
 	 * <p>Once the store is filled, you must call this method to set the number of chunks. The store will take
@@ -639,6 +1637,139 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 		return chunkShift;
 	}
 
+	/** The number of bits of a digit in {@link #radixSort(long[], long[], long[], long[], int, int)}. */
+	private static final int RADIX_BITS = 8;
+	/** The number of digits in {@link #radixSort(long[], long[], long[], long[], int, int)}. */
+	private static final int RADIX = 1 << RADIX_BITS;
+	/** Ranges shorter than this threshold are sorted by insertion sort in {@link #radixSort(long[], long[], long[], long[], int, int)}. */
+	private static final int INSERTION_SORT_THRESHOLD = 32;
+	/** Ranges longer than this threshold are sorted in parallel by {@link #radixSort(long[], long[], long[], long[], int, int)}. */
+	private static final int PARALLEL_SORT_THRESHOLD = 1 << 16;
+
+	/** Sorts lexicographically triples stored in three parallel arrays, using unsigned comparison, and permuting accordingly an array of data.
+	 *
+	 * <p>This is the method used to sort the triples of each (virtual) disk chunk. It is an in-place, parallel most-significant-digit
+	 * radix sort on the first array (which is very effective, as the first hash of a triple is uniformly distributed), in which
+	 * small ranges are sorted by insertion sort, and the remaining two arrays are used only to break ties.
+	 *
+	 * @param buffer0 the first hashes of the triples.
+	 * @param buffer1 the second hashes of the triples.
+	 * @param buffer2 the third hashes of the triples.
+	 * @param data the data associated with each triple, or {@code null}.
+	 * @param from the index of the first element (inclusive) to be sorted.
+	 * @param to the index of the last element (exclusive) to be sorted.
+	 * @see #quickSort(long[], long[], long[], long[], int, int)
+	 */
+	public static void radixSort(final long[] buffer0, final long[] buffer1, final long[] buffer2, final long[] data, final int from, final int to) {
+		radixSort(buffer0, buffer1, buffer2, data, from, to, Long.SIZE - RADIX_BITS);
+	}
+
+	/** Sorts lexicographically triples stored in three parallel arrays, using unsigned comparison, and permuting accordingly an array of data,
+	 * using a multithreaded comparison-based quicksort.
+	 *
+	 * <p>This method was used by previous versions of this class to sort the triples of each (virtual) disk chunk, and is
+	 * kept for reference and benchmarking.
+	 *
+	 * @param buffer0 the first hashes of the triples.
+	 * @param buffer1 the second hashes of the triples.
+	 * @param buffer2 the third hashes of the triples.
+	 * @param data the data associated with each triple, or {@code null}.
+	 * @param from the index of the first element (inclusive) to be sorted.
+	 * @param to the index of the last element (exclusive) to be sorted.
+	 * @see #radixSort(long[], long[], long[], long[], int, int)
+	 */
+	public static void quickSort(final long[] buffer0, final long[] buffer1, final long[] buffer2, final long[] data, final int from, final int to) {
+		it.unimi.dsi.fastutil.Arrays.parallelQuickSort(from, to, (x, y) -> compare(buffer0, buffer1, buffer2, x, y), (x, y) -> swap(buffer0, buffer1, buffer2, data, x, y));
+	}
+
+	/** Sorts a range of triples whose first hashes share all bits above a given shift plus {@link #RADIX_BITS}.
+	 *
+	 * @param shift the shift of the lowest bit of the current digit, or a negative number if all bits of the first hashes in the range are equal.
+	 */
+	private static void radixSort(final long[] buffer0, final long[] buffer1, final long[] buffer2, final long[] data, final int from, final int to, final int shift) {
+		if (to - from < INSERTION_SORT_THRESHOLD) {
+			insertionSort(buffer0, buffer1, buffer2, data, from, to);
+			return;
+		}
+
+		if (shift < 0) {
+			// Fallback for a large number of equal first hashes
+			it.unimi.dsi.fastutil.Arrays.quickSort(from, to, (x, y) -> compare(buffer0, buffer1, buffer2, x, y), (x, y) -> swap(buffer0, buffer1, buffer2, data, x, y));
+			return;
+		}
+
+		final int[] count = new int[RADIX];
+		for(int i = from; i < to; i++) count[(int)(buffer0[i] >>> shift & RADIX - 1)]++;
+
+		final int[] start = new int[RADIX + 1];
+		start[0] = from;
+		for(int c = 0; c < RADIX; c++) start[c + 1] = start[c] + count[c];
+
+		/* American-flag permutation: buckets are filled from their end, using count[] to track the free positions,
+		 * and each cycle started at position i of the current bucket ends with an element of the current bucket. */
+		for(int c = 0; c < RADIX; c++) {
+			for(int i = start[c]; i < start[c + 1]; ) {
+				int d = (int)(buffer0[i] >>> shift & RADIX - 1);
+				if (d == c) {
+					i++;
+					continue;
+				}
+				long t0 = buffer0[i], t1 = buffer1[i], t2 = buffer2[i], t3 = data != null ? data[i] : 0;
+				do {
+					final int j = start[d] + --count[d];
+					final long u0 = buffer0[j], u1 = buffer1[j], u2 = buffer2[j], u3 = data != null ? data[j] : 0;
+					buffer0[j] = t0;
+					buffer1[j] = t1;
+					buffer2[j] = t2;
+					if (data != null) data[j] = t3;
+					t0 = u0;
+					t1 = u1;
+					t2 = u2;
+					t3 = u3;
+					d = (int)(t0 >>> shift & RADIX - 1);
+				} while(d != c);
+				buffer0[i] = t0;
+				buffer1[i] = t1;
+				buffer2[i] = t2;
+				if (data != null) data[i] = t3;
+				i++;
+			}
+		}
+
+		final int nextShift = shift == 0 ? -1 : Math.max(0, shift - RADIX_BITS);
+		if (to - from >= PARALLEL_SORT_THRESHOLD) IntStream.range(0, RADIX).parallel().forEach(c -> radixSort(buffer0, buffer1, buffer2, data, start[c], start[c + 1], nextShift));
+		else for(int c = 0; c < RADIX; c++) radixSort(buffer0, buffer1, buffer2, data, start[c], start[c + 1], nextShift);
+	}
+
+	private static void insertionSort(final long[] buffer0, final long[] buffer1, final long[] buffer2, final long[] data, final int from, final int to) {
+		for(int i = from + 1; i < to; i++) {
+			for(int j = i; j > from && compare(buffer0, buffer1, buffer2, j - 1, j) > 0; j--) swap(buffer0, buffer1, buffer2, data, j - 1, j);
+		}
+	}
+
+	private static int compare(final long[] buffer0, final long[] buffer1, final long[] buffer2, final int x, final int y) {
+		int t = Long.compareUnsigned(buffer0[x], buffer0[y]);
+		if (t != 0) return t;
+		t = Long.compareUnsigned(buffer1[x], buffer1[y]);
+		if (t != 0) return t;
+		return Long.compareUnsigned(buffer2[x], buffer2[y]);
+	}
+
+	private static void swap(final long[] buffer0, final long[] buffer1, final long[] buffer2, final long[] data, final int x, final int y) {
+		final long e0 = buffer0[x], e1 = buffer1[x], e2 = buffer2[x];
+		buffer0[x] = buffer0[y];
+		buffer1[x] = buffer1[y];
+		buffer2[x] = buffer2[y];
+		buffer0[y] = e0;
+		buffer1[y] = e1;
+		buffer2[y] = e2;
+		if (data != null) {
+			final long v = data[x];
+			data[x] = data[y];
+			data[y] = v;
+		}
+	}
+
 	/** A chunk returned by a {@link ChunkedHashStore}. */
 	public final static class Chunk implements Iterable<long[]> {
 		/** The index of this chunk (the ordinal position in the chunk enumeration). */
@@ -786,6 +1917,207 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 		filteredSize = -1;
 	}
 
+	/** Sets the memory budget of chunk iteration.
+	 *
+	 * <p>The buffers allocated by an {@linkplain #iterator(int) iterator} are sized so that their overall size does
+	 * not exceed the given number of bytes, if possible (see {@link #iteratorMemory(int)}). By default, the memory budget is given by the
+	 * system property {@value #MEMORY_BUDGET_PROPERTY}, or it is unbounded.
+	 *
+	 * @param memoryBudget the maximum number of bytes used by the buffers of a chunk iterator, or {@link Long#MAX_VALUE}.
+	 */
+	public void memoryBudget(final long memoryBudget) {
+		if (memoryBudget <= 0) throw new IllegalArgumentException("Nonpositive memory budget: " + memoryBudget);
+		this.memoryBudget = memoryBudget;
+	}
+
+	/** An iterator over the chunks of a chunked hash store that might be using background resources.
+	 *
+	 * <p>Iterators returned by {@link ChunkedHashStore#iterator(int)} with a positive prefetch depth
+	 * use background threads, which are released when the iterator is exhausted or {@linkplain #close() closed}.
+	 * Iterators that are not going to be exhausted should be always closed.
+	 */
+	public interface ChunkIterator extends ObjectIterator<Chunk>, Closeable {
+		@Override
+		public void close();
+	}
+
+	/** A subdivision of the chunks into slices, that is, sets of consecutive chunks whose triples are loaded and sorted together.
+	 *
+	 * <p>Slices never cross the boundary of a virtual disk chunk. If the memory budget is unbounded, slices are exactly virtual disk chunks;
+	 * otherwise, a disk chunk might be split into several slices, each read by a separate pass on the disk chunk.
+	 */
+	private final static class Slicing {
+		/** The first chunk of each slice, followed by the number of chunks. */
+		private final int[] firstChunk;
+		/** The maximum number of triples in a slice. */
+		private final int maxCount;
+		/** The prefetch depth compatible with the memory budget. */
+		private final int prefetchDepth;
+
+		private Slicing(final int[] firstChunk, final int maxCount, final int prefetchDepth) {
+			this.firstChunk = firstChunk;
+			this.maxCount = maxCount;
+			this.prefetchDepth = prefetchDepth;
+		}
+
+		/** Returns the number of slices.
+		 *
+		 * @return the number of slices.
+		 */
+		private int slices() {
+			return firstChunk.length - 1;
+		}
+	}
+
+	/** Computes the slices of an iterator with given prefetch depth, reducing the prefetch depth if necessary.
+	 *
+	 * <p>The number of triples of each group of chunks is estimated using {@link #fragmentCount}. Thus, slices can be made of single chunks
+	 * only if there are at most 2<sup>{@link #LOG2_FRAGMENTS}</sup> chunks; otherwise, slices are made of groups of
+	 * chunks sharing the upper {@link #LOG2_FRAGMENTS} bits of the first hash.
+	 *
+	 * @param prefetchDepth the desired prefetch depth.
+	 * @return the slices of the chunks of this store.
+	 */
+	private Slicing slicing(int prefetchDepth) {
+		// No chunks have been set yet
+		if (chunks == 0) return new Slicing(new int[1], 0, 0);
+		final int log2Chunks = Long.numberOfTrailingZeros(chunks);
+		// Units are the smallest sets of chunks we can count: they are virtual disk chunks if log2Chunks <= LOG2_DISK_CHUNKS.
+		final int log2Units = Math.min(log2Chunks, LOG2_FRAGMENTS);
+		final int units = 1 << log2Units;
+		final int unitsPerVirtualDiskChunk = units / virtualDiskChunks;
+		final int fragmentsPerUnit = 1 << LOG2_FRAGMENTS - log2Units;
+		final long recordBytes = (long)recordSize * Long.BYTES;
+
+		final long[] unitCount = new long[units];
+		long maxUnitCount = 0;
+		for(int u = 0, f = 0; u < units; u++) {
+			for(int i = fragmentsPerUnit; i-- != 0;) unitCount[u] += fragmentCount[f++];
+			maxUnitCount = Math.max(maxUnitCount, unitCount[u]);
+		}
+
+		if (maxUnitCount * recordBytes > memoryBudget) LOGGER.warn("The memory budget (" + Util.formatSize(memoryBudget) + "B) is smaller than the largest slice (" + Util.formatSize(maxUnitCount * recordBytes) + "B)");
+		// Each buffer must be able to contain the largest unit
+		while(prefetchDepth > 0 && (prefetchDepth + 1) * maxUnitCount * recordBytes > memoryBudget) prefetchDepth--;
+		final long maxSliceCount = Math.max(maxUnitCount, memoryBudget / (prefetchDepth + 1) / recordBytes);
+
+		final int[] firstChunk = new int[units + 1];
+		int slices = 0;
+		long sliceCount = 0, maxCount = 0;
+		for(int u = 0; u < units; u++) {
+			if (u % unitsPerVirtualDiskChunk == 0 || sliceCount + unitCount[u] > maxSliceCount) {
+				firstChunk[slices++] = u << log2Chunks - log2Units;
+				sliceCount = 0;
+			}
+			maxCount = Math.max(maxCount, sliceCount += unitCount[u]);
+		}
+		firstChunk[slices] = (int)chunks;
+
+		prefetchDepth = Math.max(0, Math.min(prefetchDepth, slices - 1));
+		if (prefetchDepth > 0) {
+			final long bufferBytes = maxCount * recordBytes;
+			final Runtime runtime = Runtime.getRuntime();
+			final long availableBytes = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+			if (bufferBytes != 0) prefetchDepth = (int)Math.max(0, Math.min(prefetchDepth, availableBytes / 2 / bufferBytes - 1));
+		}
+
+		return new Slicing(Arrays.copyOf(firstChunk, slices + 1), (int)maxCount, prefetchDepth);
+	}
+
+	/** Returns the number of bytes of the buffers that would be allocated by an {@linkplain #iterator(int) iterator} with given prefetch depth.
+	 *
+	 * <p>This is the peak memory usage of chunk iteration, except for the chunks possibly copied by the caller.
+	 * It is an upper bound if a {@linkplain #filter(Predicate) filter} has been set. This method can be called only after {@link #log2Chunks(int)}.
+	 *
+	 * @param prefetchDepth a prefetch depth.
+	 * @return the number of bytes of the buffers that would be allocated by {@link #iterator(int) iterator(prefetchDepth)}.
+	 * @see #memoryBudget(long)
+	 */
+	public long iteratorMemory(final int prefetchDepth) {
+		if (prefetchDepth < 0) throw new IllegalArgumentException("Negative prefetch depth: " + prefetchDepth);
+		final Slicing slicing = slicing(prefetchDepth);
+		return (slicing.prefetchDepth + 1L) * slicing.maxCount * recordSize * Long.BYTES;
+	}
+
+	/** Returns the number of bytes of the buffers that would be allocated by a {@linkplain #prefetchingIterator() prefetching iterator}.
+	 *
+	 * @return the number of bytes of the buffers that would be allocated by {@link #prefetchingIterator()}.
+	 * @see #iteratorMemory(int)
+	 */
+	public long prefetchingIteratorMemory() {
+		return iteratorMemory(Integer.getInteger(PREFETCH_DEPTH_PROPERTY, DEFAULT_PREFETCH_DEPTH).intValue());
+	}
+
+	/** The sorted triples of a slice, loaded into parallel arrays. */
+	private final static class DiskChunkBuffer {
+		private final long[] buffer0;
+		private final long[] buffer1;
+		private final long[] buffer2;
+		private final long[] data;
+		/** The number of triples loaded. */
+		private int size;
+		/** The time spent sorting the triples, in nanoseconds. */
+		private long sortTime;
+		/** The exception thrown while loading, if any. */
+		private Throwable exception;
+
+		private DiskChunkBuffer(final int maxCount, final boolean hasData) {
+			buffer0 = new long[maxCount];
+			buffer1 = new long[maxCount];
+			buffer2 = new long[maxCount];
+			data = hasData ? new long[maxCount] : null;
+		}
+	}
+
+	/** Loads into a buffer the (filtered) triples of a slice, and sorts them.
+	 *
+	 * @param firstChunk the first chunk of the slice.
+	 * @param lastChunk the chunk following the last chunk of the slice.
+	 * @param diskChunkBuffer a buffer large enough to contain the triples of the slice.
+	 */
+	private void load(final int firstChunk, final int lastChunk, final DiskChunkBuffer diskChunkBuffer) throws IOException {
+		final long[] buffer0 = diskChunkBuffer.buffer0, buffer1 = diskChunkBuffer.buffer1, buffer2 = diskChunkBuffer.buffer2, data = diskChunkBuffer.data;
+		final int chunksPerVirtualDiskChunk = (int)(chunks / virtualDiskChunks);
+		final int virtualDiskChunk = firstChunk / chunksPerVirtualDiskChunk;
+		// If the slice is a proper part of a disk chunk, we must skip the triples of the other chunks
+		final boolean partial = lastChunk - firstChunk < chunksPerVirtualDiskChunk;
+		int count = 0;
+		final long triple[] = new long[3];
+		for(int i = 0; i < diskChunkStep; i++) {
+			final int diskChunk = virtualDiskChunk * diskChunkStep + i;
+			final RecordReader reader = new RecordReader(diskChunk);
+			for(int j = this.count[diskChunk]; j-- != 0;) {
+				final long value = reader.next(triple);
+
+				if (DEBUG) System.err.println("From disk: " + Arrays.toString(triple));
+
+				if (partial) {
+					final long chunk = triple[0] >>> chunkShift;
+					if (chunk < firstChunk || chunk >= lastChunk) continue;
+				}
+
+				if (filter == null || filter.evaluate(triple)) {
+					buffer0[count] = triple[0];
+					buffer1[count] = triple[1];
+					buffer2[count] = triple[2];
+					if (hashMask == 0) data[count] = value;
+					count++;
+				}
+			}
+		}
+
+		diskChunkBuffer.size = count;
+
+		final long start = System.nanoTime();
+		// The first hash of the triples in a virtual disk chunk share their upper bits
+		radixSort(buffer0, buffer1, buffer2, data, 0, count, DISK_CHUNKS_SHIFT + Integer.numberOfTrailingZeros(diskChunkStep) - RADIX_BITS);
+		diskChunkBuffer.sortTime = System.nanoTime() - start;
+
+		if (DEBUG) {
+			for(int i = 0; i < count; i++) System.err.println(buffer0[i] + ", " + buffer1[i] + ", " + buffer2[i]);
+		}
+	}
+
 	/** Returns an iterator over the chunks of this chunked hash store.
 	 *
 	 * <p>Note that at each iteration part of the state of this chunked hash store
@@ -794,11 +2126,52 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 	 * {@linkplain Chunk#Chunk(Chunk) copy constructor} if you need to process
 	 * in parallel several chunks.
 	 *
+	 * <p>Disk chunks are loaded and sorted by the thread calling {@code next()};
+	 * see {@link #iterator(int)} for an iterator performing this task in background.
+	 *
 	 * @return an iterator over the chunks of this chunked hash store.
 	 */
 	@Override
-	public Iterator<Chunk> iterator() {
+	public ChunkIterator iterator() {
+		return iterator(0);
+	}
+
+	/** Returns an iterator over the chunks of this chunked hash store that loads and sorts disk chunks in background.
+	 *
+	 * <p>The prefetch depth is given by the system property {@value #PREFETCH_DEPTH_PROPERTY}, or it is {@link #DEFAULT_PREFETCH_DEPTH}.
+	 *
+	 * @return an iterator over the chunks of this chunked hash store.
+	 * @see #iterator(int)
+	 */
+	public ChunkIterator prefetchingIterator() {
+		return iterator(Integer.getInteger(PREFETCH_DEPTH_PROPERTY, DEFAULT_PREFETCH_DEPTH).intValue());
+	}
+
+	/** Returns an iterator over the chunks of this chunked hash store that loads and sorts up to a given number of disk chunks in background.
+	 *
+	 * <p>If {@code prefetchDepth} is positive, while the chunks of a disk chunk are being returned up to {@code prefetchDepth}
+	 * following disk chunks are loaded, filtered and sorted by background threads. The iterator uses
+	 * {@code prefetchDepth} + 1 buffers, each large enough to contain the largest disk chunk, so its memory usage is bounded
+	 * independently of the speed of the consumer; the prefetch depth is
+	 * reduced if such buffers would not fit into half of the currently available memory.
+	 *
+	 * <p>If a {@linkplain #memoryBudget(long) memory budget} has been set, the prefetch depth is reduced and disk chunks
+	 * are split into slices made of consecutive chunks, each loaded by a separate pass on the disk chunk, so that
+	 * the overall size of the buffers, which can be computed in advance using {@link #iteratorMemory(int)}, does not exceed the budget.
+	 * Note that a slice cannot be smaller than a chunk (or than 2<sup>&minus;16</sup> of the first hash space, if there are more than
+	 * 2<sup>16</sup> chunks), so the budget might be exceeded anyway.
+	 * Since the {@linkplain #filter(Predicate) filter} will be evaluated concurrently by several threads, it must be thread safe.
+	 *
+	 * <p>The same caveats of {@link #iterator()} about the validity of returned chunks apply. Moreover, the returned
+	 * iterator should be {@linkplain ChunkIterator#close() closed} if it is not exhausted (e.g., because of an exception).
+	 *
+	 * @param prefetchDepth the maximum number of disk chunks loaded in background; if zero, disk chunks are loaded
+	 * by the thread calling {@code next()}, as in {@link #iterator()}.
+	 * @return an iterator over the chunks of this chunked hash store.
+	 */
+	public ChunkIterator iterator(int prefetchDepth) {
 		if (closed) throw new IllegalStateException("This " + getClass().getSimpleName() + " has been closed ");
+		if (prefetchDepth < 0) throw new IllegalArgumentException("Negative prefetch depth: " + prefetchDepth);
 		try {
 			flushAll();
 		}
@@ -806,136 +2179,172 @@ public class ChunkedHashStore<T> implements Serializable, SafelyCloseable, Itera
 			throw new RuntimeException(e);
 		}
 
-		int m = 0;
-		for(int i = 0; i < virtualDiskChunks; i++) {
-			int s = 0;
-			for(int j = 0; j < diskChunkStep; j++) s += count[i * diskChunkStep + j];
-			if (s > m) m = s;
+		final Slicing slicing = slicing(prefetchDepth);
+		final int maxCount = slicing.maxCount;
+		prefetchDepth = slicing.prefetchDepth;
+		LOGGER.debug("Iterating on " + slicing.slices() + " slices with prefetch depth " + prefetchDepth + " using " + Util.formatSize((prefetchDepth + 1L) * maxCount * recordSize * Long.BYTES) + "B of buffers");
+
+		if (prefetchDepth == 0) {
+			final DiskChunkBuffer diskChunkBuffer = new DiskChunkBuffer(maxCount, hashMask == 0);
+			return new AbstractChunkIterator(slicing) {
+				@Override
+				protected DiskChunkBuffer load(final int slice) {
+					try {
+						ChunkedHashStore.this.load(slicing.firstChunk[slice], slicing.firstChunk[slice + 1], diskChunkBuffer);
+					}
+					catch (final IOException e) {
+						throw new RuntimeException(e);
+					}
+					return diskChunkBuffer;
+				}
+
+				@Override
+				public void close() {}
+			};
 		}
 
-		final int maxCount = m;
+		return new PrefetchingChunkIterator(slicing);
+	}
 
-		return new ObjectIterator<Chunk>() {
-			private int chunk;
-			private ReadableByteChannel channel;
-			private final ByteBuffer iteratorByteBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.nativeOrder());
-			private int last;
-			private int chunkSize;
-			private final long[] buffer0 = new long[maxCount];
-			private final long[] buffer1 = new long[maxCount];
-			private final long[] buffer2 = new long[maxCount];
-			private final long[] data = hashMask != 0 ? null : new long[maxCount];
+	/** An iterator over chunks that splits into chunks the slice buffers provided by {@link #load(int)}. */
+	private abstract class AbstractChunkIterator implements ChunkIterator {
+		/** The slices of this iterator. */
+		protected final Slicing slicing;
+		private int chunk;
+		private int last;
+		/** The next slice to be loaded. */
+		private int slice;
+		private DiskChunkBuffer diskChunkBuffer;
+
+		private AbstractChunkIterator(final Slicing slicing) {
+			this.slicing = slicing;
+		}
 
-			@Override
-			public boolean hasNext() {
-				return chunk < chunks;
-			}
+		/** Returns a buffer containing the sorted triples of a slice.
+		 *
+		 * <p>This method is called with consecutive slices; after each call,
+		 * the previously returned buffer is no longer used.
+		 *
+		 * @param slice a slice.
+		 * @return a buffer containing the sorted triples of {@code slice}.
+		 */
+		protected abstract DiskChunkBuffer load(int slice);
 
-			@Override
-			public Chunk next() {
-				if (! hasNext()) throw new NoSuchElementException();
-				final long[] buffer0 = this.buffer0;
+		@Override
+		public boolean hasNext() {
+			return chunk < chunks;
+		}
 
-				if (chunk % (chunks / virtualDiskChunks) == 0) {
-					final int diskChunk = (int)(chunk / (chunks / virtualDiskChunks));
-					final long[] buffer1 = this.buffer1, buffer2 = this.buffer2;
+		@Override
+		public Chunk next() {
+			if (! hasNext()) throw new NoSuchElementException();
 
-					chunkSize = 0;
-					try {
-						if (diskChunkStep == 1) {
-							channel = new FileInputStream(file[diskChunk]).getChannel();
-							chunkSize = count[diskChunk];
-						}
-						else {
-							final ReadableByteChannel[] subChannel = new ReadableByteChannel[diskChunkStep];
-							for(int i = 0; i < diskChunkStep; i++) {
-								subChannel[i] = new FileInputStream(file[diskChunk * diskChunkStep + i]).getChannel();
-								chunkSize += count[diskChunk * diskChunkStep + i];
-							}
-							channel = concatenate(subChannel);
-						}
+			if (chunk == slicing.firstChunk[slice]) {
+				diskChunkBuffer = load(slice++);
+				sortWallTime += diskChunkBuffer.sortTime;
+				last = 0;
+			}
 
-						iteratorByteBuffer.clear().flip();
-						final long triple[] = new long[3];
-						int count = 0;
-						for(int j = 0; j < chunkSize; j++) {
-							triple[0] = readLong(iteratorByteBuffer, channel);
-							triple[1] = readLong(iteratorByteBuffer, channel);
-							triple[2] = readLong(iteratorByteBuffer, channel);
-
-							if (DEBUG) System.err.println("From disk: " + Arrays.toString(triple));
-
-							if (filter == null || filter.evaluate(triple)) {
-								buffer0[count] = triple[0];
-								buffer1[count] = triple[1];
-								buffer2[count] = triple[2];
-								if (hashMask == 0) data[count] = readLong(iteratorByteBuffer, channel);
-								count++;
-							}
-							else if (hashMask == 0) readLong(iteratorByteBuffer, channel); // Discard data
-						}
+			final long[] buffer0 = diskChunkBuffer.buffer0, buffer1 = diskChunkBuffer.buffer1, buffer2 = diskChunkBuffer.buffer2;
+			final int chunkSize = diskChunkBuffer.size;
+			final int start = last;
+			if (chunkShift < Long.SIZE) {
+				// Exponential search for the next chunk
+				int incr;
+				for(incr = 1; last + incr < chunkSize && buffer0[last + incr] >>> chunkShift == chunk; incr <<= 1);
+				int to = Math.min(chunkSize, last + incr);
+				last += incr >>> 1;
+				while(last < to) {
+					final int mid = (last + to) >>> 1;
+					if (buffer0[mid] >>> chunkShift == chunk) last = mid + 1;
+					else to = mid;
+				}
+			}
+			else last = chunkSize;
+
+			if (!checkedForDuplicates && start < last)
+				for (int i = start + 1; i < last; i++)
+					if (buffer0[i - 1] == buffer0[i] && buffer1[i - 1] == buffer1[i] && buffer2[i - 1] == buffer2[i])
+						throw new DuplicateException(new long[] { buffer0[i], buffer1[i], buffer2[i] });
+			if (chunk == chunks - 1 && last == chunkSize) {
+				checkedForDuplicates = true;
+				close();
+			}
 
-						chunkSize = count;
-						channel.close();
-					}
-					catch (final IOException e) {
-						throw new RuntimeException(e);
-					}
+			return new Chunk(chunk++, buffer0, buffer1, buffer2, diskChunkBuffer.data, hashMask, start, last);
+		}
+	}
 
-					final long start = System.nanoTime();
-					it.unimi.dsi.fastutil.Arrays.parallelQuickSort(0, chunkSize, (x, y) -> {
-						int t = Long.signum(buffer0[x] - buffer0[y]);
-						if (t != 0) return t;
-						t = Long.signum(buffer1[x] - buffer1[y]);
-						if (t != 0) return t;
-						return Long.signum(buffer2[x] - buffer2[y]);
-					},
-					(x, y) -> {
-						final long e0 = buffer0[x], e1 = buffer1[x], e2 = buffer2[x];
-						buffer0[x] = buffer0[y];
-						buffer1[x] = buffer1[y];
-						buffer2[x] = buffer2[y];
-						buffer0[y] = e0;
-						buffer1[y] = e1;
-						buffer2[y] = e2;
-						if (hashMask == 0) {
-							final long v = data[x];
-							data[x] = data[y];
-							data[y] = v;
+	/** A chunk iterator whose disk chunks are loaded and sorted by background threads. */
+	private final class PrefetchingChunkIterator extends AbstractChunkIterator {
+		/** The buffers that can be used for loading. */
+		private final ArrayBlockingQueue<DiskChunkBuffer> free;
+		/** The loaded buffers, indexed by slice. */
+		private final ReorderingBlockingQueue<DiskChunkBuffer> loaded;
+		/** The executor service running the loading threads. */
+		private final ExecutorService executorService;
+		/** The buffer returned by the last call to {@link #load(int)}, or {@code null}. */
+		private DiskChunkBuffer current;
+
+		private PrefetchingChunkIterator(final Slicing slicing) {
+			super(slicing);
+			final int prefetchDepth = slicing.prefetchDepth;
+			free = new ArrayBlockingQueue<>(prefetchDepth + 1);
+			for(int i = prefetchDepth + 1; i-- != 0;) free.add(new DiskChunkBuffer(slicing.maxCount, hashMask == 0));
+			loaded = new ReorderingBlockingQueue<>(prefetchDepth + 1);
+			final int numberOfThreads = Math.min(prefetchDepth, Runtime.getRuntime().availableProcessors());
+			executorService = Executors.newFixedThreadPool(numberOfThreads, r -> {
+				final Thread thread = new Thread(r, ChunkedHashStore.class.getSimpleName() + " prefetcher");
+				thread.setDaemon(true);
+				return thread;
+			});
+			final AtomicInteger nextSlice = new AtomicInteger();
+			for(int i = numberOfThreads; i-- != 0;) executorService.execute(() -> {
+				try {
+					for(;;) {
+						// We get a buffer before choosing the slice, so slices get buffers in order
+						final DiskChunkBuffer diskChunkBuffer = free.take();
+						final int slice = nextSlice.getAndIncrement();
+						if (slice >= slicing.slices()) return;
+						try {
+							ChunkedHashStore.this.load(slicing.firstChunk[slice], slicing.firstChunk[slice + 1], diskChunkBuffer);
 						}
-					});
-					quickSortWallTime += System.nanoTime() - start;
-
-					if (DEBUG) {
-						for(int i = 0; i < chunkSize; i++) System.err.println(buffer0[i] + ", " + buffer1[i] + ", " + buffer2[i]);
+						catch (final Throwable t) {
+							diskChunkBuffer.exception = t;
+						}
+						loaded.put(diskChunkBuffer, slice);
 					}
-
-					last = 0;
 				}
-
-				final int start = last;
-				if (chunkShift < Long.SIZE) {
-					// Exponential search for the next chunk
-					int incr;
-					for(incr = 1; last + incr < chunkSize && buffer0[last + incr] >>> chunkShift == chunk; incr <<= 1);
-					int to = Math.min(chunkSize, last + incr);
-					last += incr >>> 1;
-					while(last < to) {
-						final int mid = (last + to) >>> 1;
-						if (buffer0[mid] >>> chunkShift == chunk) last = mid + 1;
-						else to = mid;
-					}
+				catch (final InterruptedException e) {
+					// The iterator has been closed
 				}
-				else last = chunkSize;
-
-				if (!checkedForDuplicates && start < last)
-					for (int i = start + 1; i < last; i++)
-						if (buffer0[i - 1] == buffer0[i] && buffer1[i - 1] == buffer1[i] && buffer2[i - 1] == buffer2[i])
-							throw new DuplicateException();
-				if (chunk == chunks - 1 && last == chunkSize) checkedForDuplicates = true;
+			});
+			// Threads will exit after all slices have been loaded
+			executorService.shutdown();
+		}
 
-				return new Chunk(chunk++, buffer0, buffer1, buffer2, data, hashMask, start, last);
+		@Override
+		protected DiskChunkBuffer load(final int slice) {
+			if (current != null) free.add(current);
+			try {
+				current = loaded.take();
 			}
-		};
+			catch (final InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			final Throwable exception = current.exception;
+			if (exception != null) {
+				close();
+				if (exception instanceof RuntimeException) throw (RuntimeException)exception;
+				if (exception instanceof Error) throw (Error)exception;
+				throw new RuntimeException(exception);
+			}
+			return current;
+		}
+
+		@Override
+		public void close() {
+			executorService.shutdownNow();
+		}
 	}
 }
@@ -0,0 +1,155 @@
+package it.unimi.dsi.sux4j.io;
+
+/*
+ * Sux4J: Succinct data structures for Java
+ *
+ * Copyright (C) 2018 Sebastiano Vigna
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.util.Arrays;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+
+/** A striped counter of the frequencies of {@code long} values that can be updated concurrently.
+ *
+ * <p>Values are distributed among a number of shards using the upper bits of a mix of the value; each shard is a
+ * {@link Long2LongOpenHashMap} that is locked independently of the others, so threads updating different shards
+ * do not contend. Batches of values can be {@linkplain #addAll(long[], int, int) added in one shot}: values are sorted,
+ * and each shard is locked once for each distinct value, which makes batch updates very cheap when values
+ * have low cardinality. Moreover, since each shard grows independently, a counter never needs to rehash all
+ * its entries at once.
+ *
+ * <p>When counting is over, the shards can be {@linkplain #toMap() merged} into a single map.
+ *
+ * @author Sebastiano Vigna
+ * @since 4.3.0
+ */
+
+public class ConcurrentFrequencyCounter {
+	/** The shards; the shard of a value is given by the upper {@link #log2Shards} bits of its mix. */
+	private final Long2LongOpenHashMap[] shard;
+	/** The base-2 logarithm of the number of shards. */
+	private final int log2Shards;
+
+	/** Creates a new counter with a number of shards depending on the number of available processors. */
+	public ConcurrentFrequencyCounter() {
+		this(4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/** Creates a new counter.
+	 *
+	 * @param shards the number of shards; it will be rounded up to a power of two.
+	 */
+	public ConcurrentFrequencyCounter(final int shards) {
+		if (shards <= 0) throw new IllegalArgumentException("Nonpositive number of shards: " + shards);
+		log2Shards = 32 - Integer.numberOfLeadingZeros(shards - 1);
+		shard = new Long2LongOpenHashMap[1 << log2Shards];
+		for(int i = shard.length; i-- != 0;) shard[i] = new Long2LongOpenHashMap();
+	}
+
+	/** Returns the shard of a value.
+	 *
+	 * @param value a value.
+	 * @return the shard containing the count of {@code value}.
+	 */
+	private Long2LongOpenHashMap shard(final long value) {
+		// Upper bits, as shards use the lower bits of the same mix to index their tables
+		return log2Shards == 0 ? shard[0] : shard[(int)(HashCommon.mix(value) >>> Long.SIZE - log2Shards)];
+	}
+
+	/** Increments the count of a value.
+	 *
+	 * @param value a value.
+	 */
+	public void add(final long value) {
+		add(value, 1);
+	}
+
+	/** Adds to the count of a value.
+	 *
+	 * @param value a value.
+	 * @param count the number that will be added to the count of {@code value}.
+	 */
+	public void add(final long value, final long count) {
+		final Long2LongOpenHashMap shard = shard(value);
+		synchronized(shard) {
+			shard.addTo(value, count);
+		}
+	}
+
+	/** Increments the count of a fragment of an array of values.
+	 *
+	 * @param values an array of values.
+	 * @param from the index of the first value to be counted (inclusive).
+	 * @param to the index of the last value to be counted (exclusive).
+	 */
+	public void addAll(final long[] values, final int from, final int to) {
+		final long[] sorted = Arrays.copyOfRange(values, from, to);
+		Arrays.sort(sorted);
+		for(int i = 0; i < sorted.length;) {
+			final long value = sorted[i];
+			int j = i + 1;
+			while(j < sorted.length && sorted[j] == value) j++;
+			add(value, j - i);
+			i = j;
+		}
+	}
+
+	/** Adds all counts of a map to this counter.
+	 *
+	 * @param frequencies a map from values to their frequency.
+	 */
+	public void addAll(final Long2LongMap frequencies) {
+		for(final Long2LongMap.Entry e : frequencies.long2LongEntrySet()) add(e.getLongKey(), e.getLongValue());
+	}
+
+	/** Returns the number of distinct values counted so far.
+	 *
+	 * @return the number of distinct values counted so far.
+	 */
+	public long size() {
+		long size = 0;
+		for(final Long2LongOpenHashMap shard : this.shard) synchronized(shard) {
+			size += shard.size();
+		}
+		return size;
+	}
+
+	/** Removes all counts. */
+	public void clear() {
+		for(final Long2LongOpenHashMap shard : this.shard) synchronized(shard) {
+			shard.clear();
+			shard.trim();
+		}
+	}
+
+	/** Merges the shards of this counter into a map.
+	 *
+	 * <p>This method should be called when no other thread is updating the counter.
+	 *
+	 * @return a new map from values to their frequency.
+	 */
+	public Long2LongOpenHashMap toMap() {
+		final Long2LongOpenHashMap map = new Long2LongOpenHashMap((int)Math.min(Integer.MAX_VALUE, size()));
+		for(final Long2LongOpenHashMap shard : this.shard) synchronized(shard) {
+			map.putAll(shard);
+		}
+		return map;
+	}
+}
@@ -0,0 +1,170 @@
+package it.unimi.dsi.sux4j.io;
+
+/*
+ * Sux4J: Succinct data structures for Java
+ *
+ * Copyright (C) 2018 Sebastiano Vigna
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrays;
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+
+/** A spliterator returning the lines of a file as byte arrays, and splitting the file by byte range.
+ *
+ * <p>Lines are terminated by any of the {@linkplain FastBufferedInputStream#ALL_TERMINATORS standard terminators}.
+ * Splitting happens at the first line start after the middle of the current byte range (i.e., just after a line feed),
+ * so the returned prefix and the remaining part contain complete lines, and encounter order is preserved.
+ * Byte ranges smaller than a given minimum size are never split.
+ *
+ * <p>Each spliterator opens its own input stream on the file at the start of traversal and closes it
+ * as soon as its byte range has been exhausted: thus, several spliterators obtained by splitting can be traversed
+ * concurrently.
+ *
+ * @author Sebastiano Vigna
+ * @since 4.3.0
+ */
+
+public class FileLinesByteArraySpliterator implements Spliterator<byte[]> {
+	/** The default minimum size in bytes of a byte range that can be split. */
+	public static final long DEFAULT_MIN_SPLIT_SIZE = 1 << 20;
+	/** The file. */
+	private final File file;
+	/** The minimum size in bytes of a byte range that can be split. */
+	private final long minSplitSize;
+	/** The start of the byte range of this spliterator (always the start of a line). */
+	private long start;
+	/** The end (exclusive) of the byte range of this spliterator (always the start of a line, or the file length). */
+	private final long end;
+	/** The stream used for traversal, or {@code null} if traversal has not started yet. */
+	private FastBufferedInputStream fbis;
+	/** The buffer used to read lines. */
+	private byte[] buffer;
+
+	/** Creates a spliterator on the lines of a file using the {@linkplain #DEFAULT_MIN_SPLIT_SIZE default minimum split size}.
+	 *
+	 * @param file a file.
+	 */
+	public FileLinesByteArraySpliterator(final File file) {
+		this(file, DEFAULT_MIN_SPLIT_SIZE);
+	}
+
+	/** Creates a spliterator on the lines of a file.
+	 *
+	 * @param file a file.
+	 * @param minSplitSize the minimum size in bytes of a byte range that can be split.
+	 */
+	public FileLinesByteArraySpliterator(final File file, final long minSplitSize) {
+		this(file, minSplitSize, 0, file.length());
+	}
+
+	private FileLinesByteArraySpliterator(final File file, final long minSplitSize, final long start, final long end) {
+		this.file = file;
+		this.minSplitSize = Math.max(1, minSplitSize);
+		this.start = start;
+		this.end = end;
+	}
+
+	/** Returns the first line start in the given range larger than or equal to the given position.
+	 *
+	 * @param from a position in the file.
+	 * @return the first position in [{@code from}..{@link #end}) preceded by a line feed, or {@link #end} if there is no such position.
+	 */
+	private long lineStart(final long from) throws IOException {
+		try (final FastBufferedInputStream s = new FastBufferedInputStream(new FileInputStream(file))) {
+			s.position(from - 1);
+			for(long p = from; p < end; p++) if (s.read() == '\n') return p;
+			return end;
+		}
+	}
+
+	@Override
+	public Spliterator<byte[]> trySplit() {
+		if (fbis != null || end - start < 2 * minSplitSize) return null;
+		final long split;
+		try {
+			split = lineStart(start + (end - start) / 2);
+		}
+		catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+		if (split == end) return null;
+		final FileLinesByteArraySpliterator prefix = new FileLinesByteArraySpliterator(file, minSplitSize, start, split);
+		start = split;
+		return prefix;
+	}
+
+	@Override
+	public boolean tryAdvance(final Consumer<? super byte[]> action) {
+		try {
+			if (fbis == null) {
+				if (start == end) return false;
+				fbis = new FastBufferedInputStream(new FileInputStream(file));
+				fbis.position(start);
+				buffer = new byte[1024];
+			}
+			else if (buffer == null) return false;
+
+			if (fbis.position() >= end) {
+				fbis.close();
+				buffer = null;
+				return false;
+			}
+
+			int read = fbis.readLine(buffer, FastBufferedInputStream.ALL_TERMINATORS);
+			if (read == -1) {
+				fbis.close();
+				buffer = null;
+				return false;
+			}
+			while (read == buffer.length) {
+				buffer = ByteArrays.grow(buffer, buffer.length + 1);
+				final int r = fbis.readLine(buffer, read, buffer.length - read, FastBufferedInputStream.ALL_TERMINATORS);
+				if (r == -1) break;
+				read += r;
+			}
+
+			action.accept(Arrays.copyOf(buffer, read));
+			return true;
+		}
+		catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void forEachRemaining(final Consumer<? super byte[]> action) {
+		while(tryAdvance(action));
+	}
+
+	@Override
+	public long estimateSize() {
+		// Bytes overestimate lines, which is what we need to drive splitting.
+		return end - start;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | NONNULL | IMMUTABLE;
+	}
+}
@@ -0,0 +1,94 @@
+package it.unimi.dsi.sux4j.io;
+
+/*
+ * Sux4J: Succinct data structures for Java
+ *
+ * Copyright (C) 2018 Sebastiano Vigna
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/** An iterable whose elements are provided by a re-openable {@linkplain Stream stream} with a splittable {@linkplain Spliterator spliterator}.
+ *
+ * <p>Instances of this class can be passed to all methods (in particular, to builders) accepting an {@link Iterable} of keys.
+ * When a {@link ChunkedHashStore} is {@linkplain ChunkedHashStore#addAll(Iterable, it.unimi.dsi.fastutil.longs.LongIterable) filled}
+ * using an instance of this class, the spliterator of a freshly obtained stream is used to hash elements
+ * in parallel, whereas the resulting store is the same as if elements had been added one by one in encounter order.
+ *
+ * <p>Each call to {@link #stream()}, {@link #iterator()} or {@link #spliterator()} obtains a new stream from the
+ * supplier provided at construction time; since builders might need to scan the keys several times, the supplier must
+ * return streams with the same elements in the same order at each call. Moreover, the elements returned by
+ * the streams must be distinct objects that are not modified afterwards.
+ *
+ * @author Sebastiano Vigna
+ * @since 4.3.0
+ */
+
+public class SplittableIterable<T> implements Iterable<T> {
+	/** The supplier of streams. */
+	private final Supplier<? extends Stream<? extends T>> streams;
+
+	/** Creates a new splittable iterable.
+	 *
+	 * @param streams a supplier returning a new stream at each call.
+	 */
+	public SplittableIterable(final Supplier<? extends Stream<? extends T>> streams) {
+		this.streams = streams;
+	}
+
+	/** Returns a new stream on the elements of this iterable.
+	 *
+	 * @return a new stream on the elements of this iterable; it should be closed after usage.
+	 */
+	@SuppressWarnings("unchecked")
+	public Stream<T> stream() {
+		return (Stream<T>)streams.get();
+	}
+
+	/** {@inheritDoc}
+	 *
+	 * <p>Note that the stream underlying the returned iterator cannot be closed explicitly.
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return stream().iterator();
+	}
+
+	/** {@inheritDoc}
+	 *
+	 * <p>Note that the stream underlying the returned spliterator cannot be closed explicitly.
+	 */
+	@Override
+	public Spliterator<T> spliterator() {
+		return stream().spliterator();
+	}
+
+	/** Returns a splittable iterable on the lines of a file, represented as byte arrays.
+	 *
+	 * @param file a file.
+	 * @return a splittable iterable on the lines of {@code file}, which can be split by byte range.
+	 * @see FileLinesByteArraySpliterator
+	 */
+	public static SplittableIterable<byte[]> lines(final File file) {
+		return new SplittableIterable<>(() -> StreamSupport.stream(new FileLinesByteArraySpliterator(file), false));
+	}
+}
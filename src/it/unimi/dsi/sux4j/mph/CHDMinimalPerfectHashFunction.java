@@ -13,6 +13,8 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.lang.mutable.MutableLong;
@@ -75,6 +77,7 @@ import it.unimi.dsi.lang.MutableString;
 import it.unimi.dsi.logging.ProgressLogger;
 import it.unimi.dsi.sux4j.bits.SparseRank;
 import it.unimi.dsi.sux4j.io.ChunkedHashStore;
+import it.unimi.dsi.sux4j.io.SplittableIterable;
 import it.unimi.dsi.sux4j.util.EliasFanoLongBigList;
 import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
 
@@ -155,6 +158,21 @@ public class CHDMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 			return this;
 		}
 
+		/** Specifies the keys to hash using a supplier of streams, which is an alternative to {@link #keys(Iterable)}.
+		 *
+		 * <p>The keys will be wrapped in a {@link SplittableIterable}, so the spliterators of the streams will be used to hash
+		 * keys in parallel (e.g., using a {@link it.unimi.dsi.sux4j.io.FileLinesByteArraySpliterator} a file can be split by byte range).
+		 * The supplier must return a new stream with the same keys in the same order at each call, as keys might need to
+		 * be scanned several times, and the keys returned by the streams must be distinct objects.
+		 *
+		 * @param keyStreams a supplier of streams returning the keys to hash.
+		 * @return this builder.
+		 */
+		public Builder<T> keyStreams(final Supplier<? extends Stream<? extends T>> keyStreams) {
+			this.keys = new SplittableIterable<>(keyStreams);
+			return this;
+		}
+
 		/** Specifies the average size of a bucket.
 		 *
 		 * @param lambda the average size of a bucket.
@@ -263,7 +281,7 @@ public class CHDMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 	/** An array containing for each chunk three values: the chunk offset, the cumulative number of buckets, and the local chunk seed. */
 	private long[] offsetNumBucketsSeed;
 
-	private static long spread(final long hash, final long bound) {
+	static long spread(final long hash, final long bound) {
 		final int shift = Long.numberOfLeadingZeros(bound);
 		final long value = ((hash & (1L << shift) - 1) * bound) >>> shift;
 		assert value >= 0 : value;
@@ -322,7 +340,7 @@ public class CHDMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 		if (chunkedHashStore == null) {
 			chunkedHashStore = new ChunkedHashStore<>(transform, tempDir, pl);
 			chunkedHashStore.reset(r.nextLong());
-			chunkedHashStore.addAll(keys.iterator());
+			chunkedHashStore.addAll(keys, null);
 		}
 		n = chunkedHashStore.size();
 
@@ -503,10 +521,12 @@ public class CHDMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 			}
 			catch (final ChunkedHashStore.DuplicateException e) {
 				if (keys == null) throw new IllegalStateException("You provided no keys, but the chunked hash store was not checked");
+				// A duplicate triple generated by equal keys cannot be fixed by rehashing
+				if (chunkedHashStore.duplicate(keys, e.triple()) != null) throw new IllegalArgumentException("The input list contains duplicates");
 				if (duplicates++ > 3) throw new IllegalArgumentException("The input list contains duplicates");
 				LOGGER.warn("Found duplicate. Recomputing triples...");
 				chunkedHashStore.reset(r.nextLong());
-				chunkedHashStore.addAll(keys.iterator());
+				chunkedHashStore.addAll(keys, null);
 			}
 		}
 
@@ -567,6 +587,41 @@ public class CHDMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 		return offsetNumBucketsSeed.length * Long.SIZE + coefficients.numBits() + rank.numBits();
 	}
 
+	/** Dumps this function in a flat binary format using the native byte order.
+	 *
+	 * <p>After a {@linkplain DumpWriter header}, the dump is a sequence of longs: the number of keys, the chunk shift, the global seed,
+	 * the default return value, and the length of {@link #offsetNumBucketsSeed} followed by its content. Since
+	 * the succinct structures of this function cannot be accessed in place, they are flattened: the dump contains the width of the largest
+	 * coefficient and the number of words used to store the {@linkplain #coefficients coefficients} using such width, followed by the words;
+	 * then, the holes of {@link #rank} as marker bits followed by their ranking counts (see {@link GOV3Function#dump(String)}).
+	 * Finally, the dump contains the signature mask; if it is nonzero, the number of words used to store the signatures follows,
+	 * followed by the signature words.
+	 *
+	 * <p>As a result, a dump is larger than the serialized form of this function. It can be mapped in memory
+	 * using {@link MappedCHDMinimalPerfectHashFunction#load(String)}.
+	 *
+	 * @param file the name of the dump file.
+	 */
+	public void dump(final String file) throws IOException {
+		try (final DumpWriter writer = new DumpWriter(file)) {
+			writer.writeHeader(DumpWriter.CHD_MINIMAL_PERFECT_HASH_FUNCTION, transform);
+			writer.writeLong(n);
+			writer.writeLong(chunkShift);
+			writer.writeLong(globalSeed);
+			writer.writeLong(defRetValue);
+			writer.writeLongs(offsetNumBucketsSeed);
+			long max = 0;
+			for(final LongIterator i = coefficients.iterator(); i.hasNext();) max = Math.max(max, i.nextLong());
+			final int width = Long.SIZE - Long.numberOfLeadingZeros(max);
+			writer.writeLong(width);
+			writer.writeBits(coefficients, width);
+			final long m = offset(offsetNumBucketsSeed.length / 3 - 1);
+			writer.writeMarker(LongArrayBitVector.copy(rank.bitVector()).bits(), m);
+			writer.writeLong(signatureMask);
+			if (signatureMask != 0) writer.writeBits(signatures, Long.bitCount(signatureMask));
+		}
+	}
+
 	@Override
 	@SuppressWarnings("unchecked")
 	public long getLong(final Object key) {
@@ -0,0 +1,271 @@
+package it.unimi.dsi.sux4j.mph;
+
+/*
+ * Sux4J: Succinct data structures for Java
+ *
+ * Copyright (C) 2018 Sebastiano Vigna
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import it.unimi.dsi.bits.LongArrayBitVector;
+import it.unimi.dsi.bits.TransformationStrategies;
+import it.unimi.dsi.bits.TransformationStrategy;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.fastutil.longs.LongBigLists;
+
+/** A writer for flat dumps of functions, which can be mapped in memory using {@link MappedDump}.
+ *
+ * <p>A dump is a sequence of longs in native byte order. Dumps that are not meant for the C code
+ * start with a header made of five longs: the {@linkplain #MAGIC magic number}, the {@linkplain #VERSION version},
+ * the kind of the dumped structure, the hash scheme (presently, only {@link #SPOOKY4}) and the
+ * code of the transformation strategy: a positive code denotes
+ * one of the standard strategies in {@link #TRANSFORMS}, whereas 0 denotes a custom strategy, which must
+ * be provided when loading the dump.
+ *
+ * <p>The other methods of this class write the building blocks of a dump: longs, arrays, lists of fixed-width values,
+ * bit vectors, marker bits with {@link it.unimi.dsi.sux4j.bits.Rank16} counts, and (small) serialized objects.
+ */
+
+final class DumpWriter implements Closeable {
+	/** The magic number of a dump with header (the string <samp>SUX4JDMP</samp> in little-endian order). */
+	static final long MAGIC = 0x504D444A34585553L;
+	/** The current version of the format. */
+	static final long VERSION = 0;
+	/** The hash scheme of {@link it.unimi.dsi.sux4j.io.ChunkedHashStore}: SpookyHash V4 triples. */
+	static final long SPOOKY4 = 0;
+	/** The number of longs in a header. */
+	static final int HEADER_LENGTH = 5;
+
+	/** The kind of a dump of a {@link GOV4Function}. */
+	static final long GOV4_FUNCTION = 1;
+	/** The kind of a dump of a {@link GV3CompressedFunction}. */
+	static final long GV3_COMPRESSED_FUNCTION = 2;
+	/** The kind of a dump of a {@link GV4CompressedFunction}. */
+	static final long GV4_COMPRESSED_FUNCTION = 3;
+	/** The kind of a dump of a {@link CHDMinimalPerfectHashFunction}. */
+	static final long CHD_MINIMAL_PERFECT_HASH_FUNCTION = 4;
+	/** The kind of a dump of a {@link TwoStepsGOV3Function}. */
+	static final long TWO_STEPS_GOV3_FUNCTION = 5;
+	/** The kind of a dump of an {@link LcpMonotoneMinimalPerfectHashFunction}. */
+	static final long LCP_MONOTONE_MINIMAL_PERFECT_HASH_FUNCTION = 6;
+	/** The kind of a dump of a {@link TwoStepsLcpMonotoneMinimalPerfectHashFunction}. */
+	static final long TWO_STEPS_LCP_MONOTONE_MINIMAL_PERFECT_HASH_FUNCTION = 7;
+	/** The kind of a dump of a {@link VLLcpMonotoneMinimalPerfectHashFunction}. */
+	static final long VL_LCP_MONOTONE_MINIMAL_PERFECT_HASH_FUNCTION = 8;
+
+	/** The standard transformation strategies, indexed by their code (code 0 denotes a custom strategy). */
+	static final TransformationStrategy<?>[] TRANSFORMS = {
+		null,
+		TransformationStrategies.identity(),
+		TransformationStrategies.prefixFree(),
+		TransformationStrategies.utf16(),
+		TransformationStrategies.prefixFreeUtf16(),
+		TransformationStrategies.rawUtf16(),
+		TransformationStrategies.utf32(),
+		TransformationStrategies.prefixFreeUtf32(),
+		TransformationStrategies.rawUtf32(),
+		TransformationStrategies.iso(),
+		TransformationStrategies.prefixFreeIso(),
+		TransformationStrategies.rawIso(),
+		TransformationStrategies.byteArray(),
+		TransformationStrategies.rawByteArray(),
+		TransformationStrategies.fixedLong(),
+		TransformationStrategies.rawFixedLong()
+	};
+
+	/** The number of words in a block of a {@link it.unimi.dsi.sux4j.bits.Rank16} structure. */
+	static final int BLOCK_LENGTH = 1024;
+
+	/** The output stream of the dump. */
+	private final FileOutputStream fos;
+	/** The channel of {@link #fos}. */
+	private final FileChannel channel;
+	/** A buffer accumulating longs. */
+	private final ByteBuffer buffer;
+
+	/** Creates a new dump writer.
+	 *
+	 * @param file the name of the dump file.
+	 */
+	public DumpWriter(final String file) throws IOException {
+		fos = new FileOutputStream(file);
+		channel = fos.getChannel();
+		buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.nativeOrder());
+	}
+
+	/** Returns the code of a transformation strategy.
+	 *
+	 * @param transform a transformation strategy.
+	 * @return the index of {@code transform} in {@link #TRANSFORMS}, or 0 if {@code transform} is not a standard strategy.
+	 */
+	static int transformCode(final TransformationStrategy<?> transform) {
+		for(int i = TRANSFORMS.length; i-- != 1;) if (TRANSFORMS[i] == transform) return i;
+		return 0;
+	}
+
+	/** Writes a header.
+	 *
+	 * @param kind the kind of the dumped structure.
+	 * @param transform the transformation strategy of the dumped structure.
+	 */
+	public void writeHeader(final long kind, final TransformationStrategy<?> transform) throws IOException {
+		writeLong(MAGIC);
+		writeLong(VERSION);
+		writeLong(kind);
+		writeLong(SPOOKY4);
+		writeLong(transformCode(transform));
+	}
+
+	/** Writes a long. */
+	public void writeLong(final long l) throws IOException {
+		if (! buffer.hasRemaining()) {
+			buffer.flip();
+			while(buffer.hasRemaining()) channel.write(buffer);
+			buffer.clear();
+		}
+		buffer.putLong(l);
+	}
+
+	/** Writes the length of an array, followed by its content.
+	 *
+	 * @param a an array, or {@code null} (equivalent to an empty array).
+	 */
+	public void writeLongs(final long[] a) throws IOException {
+		if (a == null) writeLong(0);
+		else {
+			writeLong(a.length);
+			for(final long l : a) writeLong(l);
+		}
+	}
+
+	/** Writes the number of words necessary to pack a list of values, followed by the words.
+	 *
+	 * <p>Values are packed as in a {@link LongArrayBitVector}.
+	 *
+	 * @param values a list of values, or {@code null} (equivalent to an empty list).
+	 * @param width the width of the values.
+	 */
+	public void writeBits(final LongBigList values, final int width) throws IOException {
+		final long size = values == null ? 0 : values.size64();
+		writeLong((size * width + Long.SIZE - 1) / Long.SIZE);
+		if (width == 0) return;
+		long word = 0;
+		int filled = 0;
+		for(long i = 0; i < size; i++) {
+			final long value = values.getLong(i);
+			word |= value << filled;
+			filled += width;
+			if (filled >= Long.SIZE) {
+				writeLong(word);
+				filled -= Long.SIZE;
+				word = filled == 0 ? 0 : value >>> width - filled;
+			}
+		}
+		if (filled != 0) writeLong(word);
+	}
+
+	/** Writes the number of words used by a bit vector, followed by the words.
+	 *
+	 * @param bitVector a bit vector, or {@code null} (equivalent to an empty bit vector).
+	 */
+	public void writeBits(final LongArrayBitVector bitVector) throws IOException {
+		final long numWords = bitVector == null ? 0 : (bitVector.length() + Long.SIZE - 1) / Long.SIZE;
+		writeLong(numWords);
+		if (numWords != 0) {
+			final long[] bits = bitVector.bits();
+			for(int i = 0; i < numWords; i++) writeLong(bits[i]);
+		}
+	}
+
+	/** Writes the number of marker bits, followed (if nonzero) by the marker words and by the counts
+	 * of a {@link it.unimi.dsi.sux4j.bits.Rank16} structure, recomputed from the marker: one long per block of {@value #BLOCK_LENGTH} words
+	 * containing the number of ones before the block, and then the 16-bit number of ones in a block before each pair of words, packed four per long.
+	 *
+	 * @param bits the marker bits.
+	 * @param m the number of marker bits.
+	 * @see MappedDump#rank(long, long, long, long)
+	 */
+	public void writeMarker(final long[] bits, final long m) throws IOException {
+		writeMarker(LongBigLists.asBigList(LongArrayList.wrap(bits)), m);
+	}
+
+	/** Writes the number of marker bits, followed (if nonzero) by the marker words and by the counts
+	 * of a {@link it.unimi.dsi.sux4j.bits.Rank16} structure, as {@link #writeMarker(long[], long)} does.
+	 *
+	 * @param bits a list containing the words of the marker bits.
+	 * @param m the number of marker bits.
+	 */
+	public void writeMarker(final LongBigList bits, final long m) throws IOException {
+		writeLong(m);
+		if (m == 0) return;
+		final long numWords = (m + Long.SIZE - 1) / Long.SIZE;
+		for(long i = 0; i < numWords; i++) writeLong(bits.getLong(i));
+		long count = 0;
+		for(long i = 0; i < numWords; i++) {
+			if (i % BLOCK_LENGTH == 0) writeLong(count);
+			count += Long.bitCount(bits.getLong(i));
+		}
+		long packed = 0, blockCount = 0;
+		int j = 0;
+		for(long i = 0; i < numWords; i += 2) {
+			if (i % BLOCK_LENGTH == 0) blockCount = 0;
+			packed |= blockCount << 16 * j;
+			if (++j == 4) {
+				writeLong(packed);
+				packed = j = 0;
+			}
+			blockCount += Long.bitCount(bits.getLong(i)) + (i + 1 < numWords ? Long.bitCount(bits.getLong(i + 1)) : 0);
+		}
+		if (j != 0) writeLong(packed);
+	}
+
+	/** Writes the length in bytes of the serialized form of an object, followed by the serialized form, padded to a multiple of eight bytes.
+	 *
+	 * <p>This method is meant for small auxiliary objects (e.g., a decoder) that need not be mapped.
+	 *
+	 * @param o an object.
+	 */
+	public void writeObject(final Object o) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (final ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+			oos.writeObject(o);
+		}
+		final byte[] a = baos.toByteArray();
+		writeLong(a.length);
+		for(int i = 0; i < a.length; i += Long.BYTES) {
+			long word = 0;
+			for(int j = Math.min(Long.BYTES, a.length - i); j-- != 0;) word = word << Byte.SIZE | a[i + j] & 0xFF;
+			writeLong(word);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) channel.write(buffer);
+		fos.close();
+	}
+}
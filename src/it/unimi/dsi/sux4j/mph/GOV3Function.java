@@ -21,24 +21,26 @@ package it.unimi.dsi.sux4j.mph;
  */
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.math3.random.RandomGenerator;
@@ -58,8 +60,6 @@ import com.martiansoftware.jsap.stringparsers.ForNameStringParser;
 
 import it.unimi.dsi.Util;
 import it.unimi.dsi.big.io.FileLinesByteArrayCollection;
-import it.unimi.dsi.bits.BitVector;
-import it.unimi.dsi.bits.BitVectors;
 import it.unimi.dsi.bits.Fast;
 import it.unimi.dsi.bits.LongArrayBitVector;
 import it.unimi.dsi.bits.TransformationStrategies;
@@ -74,18 +74,18 @@ import it.unimi.dsi.fastutil.objects.AbstractObject2LongFunction;
 import it.unimi.dsi.io.FastBufferedReader;
 import it.unimi.dsi.io.FileLinesCollection;
 import it.unimi.dsi.io.LineIterator;
-import it.unimi.dsi.io.OfflineIterable;
-import it.unimi.dsi.io.OfflineIterable.OfflineIterator;
 import it.unimi.dsi.lang.MutableString;
 import it.unimi.dsi.logging.ProgressLogger;
 import it.unimi.dsi.sux4j.bits.Rank;
 import it.unimi.dsi.sux4j.bits.Rank16;
 import it.unimi.dsi.sux4j.io.ChunkedHashStore;
 import it.unimi.dsi.sux4j.io.ChunkedHashStore.Chunk;
+import it.unimi.dsi.sux4j.io.ChunkedHashStore.ChunkIterator;
 import it.unimi.dsi.sux4j.io.ChunkedHashStore.DuplicateException;
+import it.unimi.dsi.sux4j.io.SplittableIterable;
 import it.unimi.dsi.sux4j.mph.solve.Linear3SystemSolver;
+import it.unimi.dsi.sux4j.util.OffHeapLongBigList;
 import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
-import it.unimi.dsi.util.concurrent.ReorderingBlockingQueue;
 
 /** An immutable function stored quasi-succinctly using the
  * {@linkplain Linear3SystemSolver Genuzio-Ottaviano-Vigna method to solve <b>F</b><sub>2</sub>-linear systems}.
@@ -139,8 +139,10 @@ import it.unimi.dsi.util.concurrent.ReorderingBlockingQueue;
  * <h2>Multithreading</h2>
  *
  * <p>This implementation is multithreaded: each chunk returned by the {@link ChunkedHashStore} is processed independently. By
- * default, this class uses {@link Runtime#availableProcessors()} parallel threads, but never more than 16. If you wish to
+ * default, this class uses {@link Runtime#availableProcessors()} parallel threads. If you wish to
  * set a specific number of threads, you can do so through the system property {@value #NUMBER_OF_THREADS_PROPERTY}.
+ * Moreover, chunks can be solved by an {@linkplain Builder#executorService(ExecutorService) executor service} shared
+ * by several builds, so that concurrent builds in the same JVM share the available cores.
  *
  * <h2>Implementation Details</h2>
  *
@@ -158,7 +160,9 @@ import it.unimi.dsi.util.concurrent.ReorderingBlockingQueue;
  * function storing nonzero values
  * in a separate array and using a {@linkplain Rank ranked} marker array to record the positions of nonzero values.
  * In this case, the function requires just (1.1 + <var>r</var>)<var>n</var> bits (plus the bits that are necessary for the
- * {@linkplain Rank ranking structure}; the current implementation uses {@link Rank16}), but has slightly slower lookups.
+ * {@linkplain Rank ranking structure}), but has slightly slower lookups. Ranking counts are interleaved with the marker bits, one count
+ * every 512 bits, so that a marker bit and its rank can be retrieved with a single cache miss: the counts occupy
+ * 1/8 of the space of the marker array, and a compacted lookup performs at most three more memory accesses than a standard one.
  *
  * @see GOV4Function
  * @author Sebastiano Vigna
@@ -167,16 +171,17 @@ import it.unimi.dsi.util.concurrent.ReorderingBlockingQueue;
 
 public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements Serializable, Size64 {
 	private static final long serialVersionUID = 1L;
-	private static final LongArrayBitVector END_OF_SOLUTION_QUEUE = LongArrayBitVector.getInstance();
 	private static final Chunk END_OF_CHUNK_QUEUE = new Chunk();
 	private static final Logger LOGGER = LoggerFactory.getLogger(GOV3Function.class);
+	/** Per-thread scratch space for lookups. */
+	private static final ThreadLocal<LookupScratch> SCRATCH = LookupScratch.threadLocal();
 	private static final boolean ASSERTS = false;
 	private static final boolean DEBUG = false;
 
 	/** The local seed is generated using this step, so to be easily embeddable in {@link #offsetAndSeed}. */
 	private static final long SEED_STEP = 1L << 56;
 	/** The lowest 56 bits of {@link #offsetAndSeed} contain the number of keys stored up to the given chunk. */
-	private static final long OFFSET_MASK = -1L >>> 8;
+	static final long OFFSET_MASK = -1L >>> 8;
 
 	/** The ratio between variables and equations. */
 	public static double C = 1.09 + 0.01;
@@ -192,11 +197,15 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 		protected TransformationStrategy<? super T> transform;
 		protected int signatureWidth;
 		protected File tempDir;
+		protected ExecutorService executorService;
 		protected ChunkedHashStore<T> chunkedHashStore;
 		protected LongIterable values;
 		protected int outputWidth = -1;
 		protected boolean indirect;
 		protected boolean compacted;
+		protected GOV3Function<T> previous;
+		protected File signatureFile;
+		protected boolean offHeap;
 		/** Whether {@link #build()} has already been called. */
 		protected boolean built;
 
@@ -210,6 +219,21 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 			return this;
 		}
 
+		/** Specifies the keys of the function using a supplier of streams, which is an alternative to {@link #keys(Iterable)}.
+		 *
+		 * <p>The keys will be wrapped in a {@link SplittableIterable}, so the spliterators of the streams will be used to hash
+		 * keys in parallel (e.g., using a {@link it.unimi.dsi.sux4j.io.FileLinesByteArraySpliterator} a file can be split by byte range).
+		 * The supplier must return a new stream with the same keys in the same order at each call, as keys might need to
+		 * be scanned several times, and the keys returned by the streams must be distinct objects.
+		 *
+		 * @param keyStreams a supplier of streams returning the keys of the function.
+		 * @return this builder.
+		 */
+		public Builder<T> keyStreams(final Supplier<? extends Stream<? extends T>> keyStreams) {
+			this.keys = new SplittableIterable<>(keyStreams);
+			return this;
+		}
+
 		/** Specifies the transformation strategy for the {@linkplain #keys(Iterable) keys of the function}; the strategy can be {@linkplain TransformationStrategies raw}.
 		 *
 		 * @param transform a transformation strategy for the {@linkplain #keys(Iterable) keys of the function}.
@@ -231,6 +255,21 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 			return this;
 		}
 
+		/** Specifies a file that will contain the {@linkplain #signed(int) signatures} of the function.
+		 *
+		 * <p>If you specify this option, signatures will be computed in parallel directly into a memory-mapped file
+		 * using {@link ChunkedHashStore#signatures(int, File, ProgressLogger)}, and the resulting function will
+		 * serialize just a reference to the file, which will be mapped again when the function is deserialized.
+		 * This option has no effect if the function is not signed.
+		 *
+		 * @param signatureFile a file that will contain the signatures, or {@code null} to store signatures in the heap.
+		 * @return this builder.
+		 */
+		public Builder<T> signatureFile(final File signatureFile) {
+			this.signatureFile = signatureFile;
+			return this;
+		}
+
 		/** Specifies that the resulting {@link GOV3Function} should be a dictionary: the output value will be a signature,
 		 * and {@link GOV3Function#getLong(Object)} will return 1 or 0 depending on whether the argument was in the key set or not;
 		 * in this case, you cannot specify {@linkplain #values(LongIterable, int) values}.
@@ -342,6 +381,53 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 			return this;
 		}
 
+		/** Specifies that the data of the function must be stored outside of the heap.
+		 *
+		 * <p>If you specify this option, the values of the function (and, if the function is {@linkplain #compacted() compacted},
+		 * the marker bits with their ranking counts) will be stored in {@linkplain OffHeapLongBigList direct buffers},
+		 * which have no limit on their size and do not weigh on the garbage collector. Chunks are solved directly
+		 * into direct buffers, too. {@linkplain #signed(int) Signatures} will be stored in direct buffers
+		 * unless you specify a {@linkplain #signatureFile(File) signature file}. Lookups return exactly the same values.
+		 *
+		 * @return this builder.
+		 */
+		public Builder<T> offHeap() {
+			this.offHeap = true;
+			return this;
+		}
+
+		/** Specifies a previous version of the function, whose solutions will be reused for the chunks that are not {@linkplain ChunkedHashStore#dirty(int) dirty}.
+		 *
+		 * <p>This option makes it possible to rebuild incrementally a function after adding some keys to a {@linkplain ChunkedHashStore#open(File, boolean, ProgressLogger) snapshot}
+		 * of a {@linkplain #store(ChunkedHashStore) chunked hash store}: if the previous function was built on the snapshot, the dirty flags
+		 * of the snapshot were {@linkplain ChunkedHashStore#markClean() cleared} at that time, and the number of chunks, the seed and the output width
+		 * have not changed, only the chunks containing new keys will be solved again. Otherwise, the previous function is ignored.
+		 * Note that the values associated with the keys of the previous function must not have changed.
+		 *
+		 * @param previous a previous version of the function, or {@code null}; it cannot be {@linkplain #compacted() compacted}.
+		 * @return this builder.
+		 */
+		public Builder<T> previous(final GOV3Function<T> previous) {
+			this.previous = previous;
+			return this;
+		}
+
+
+		/** Specifies an executor service that will be used to solve chunks.
+		 *
+		 * <p>By default, each build uses a thread pool of its own. If you run several builds concurrently, you can specify
+		 * an executor service (e.g., a {@link java.util.concurrent.ForkJoinPool}) shared by all builds, so that
+		 * they share fairly the available cores. The service will not be shut down at the end of the build. Note that
+		 * the number of solving tasks submitted by a build is still given by the system property {@value #NUMBER_OF_THREADS_PROPERTY}
+		 * (or by the number of available processors).
+		 *
+		 * @param executorService an executor service that will be used to solve chunks, or {@code null} to use a thread pool for each build.
+		 * @return this builder.
+		 */
+		public Builder<T> executorService(final ExecutorService executorService) {
+			this.executorService = executorService;
+			return this;
+		}
 
 		/** Builds a new function.
 		 *
@@ -355,12 +441,14 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 				if (chunkedHashStore != null) transform = chunkedHashStore.transform();
 				else throw new IllegalArgumentException("You must specify a TransformationStrategy, either explicitly or via a given ChunkedHashStore");
 			}
-			return new GOV3Function<>(keys, transform, signatureWidth, values, outputWidth, compacted, tempDir, chunkedHashStore, indirect);
+			return new GOV3Function<>(keys, transform, signatureWidth, values, outputWidth, compacted, tempDir, chunkedHashStore, indirect, previous, signatureFile, executorService, offHeap);
 		}
 	}
 
 	/** The logarithm of the desired chunk size. */
 	public final static int LOG2_CHUNK_SIZE = 10;
+	/** The number of keys processed at a time by {@linkplain #getLongs(Object[], long[]) batch lookups}. */
+	public final static int BATCH_SIZE = 1024;
 	/** The shift for chunks. */
 	private final int chunkShift;
 	/** The number of keys. */
@@ -375,11 +463,16 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 	protected final long[] offsetAndSeed;
 	/** The final magick&mdash;the list of values that define the output of the function. */
 	protected final LongBigList data;
-	/** Optionally, a {@link #rank} structure built on this bit array is used to mark positions containing non-zero value; indexing in {@link #data} is
-	 * made by ranking if this field is non-{@code null}. */
-	protected final LongArrayBitVector marker;
-	/** The ranking structure on {@link #marker}. */
-	protected final Rank16 rank;
+	/** If non-{@code null}, the function is compacted: the marker bits, interleaved with their ranking counts, mark positions
+	 * containing a nonzero value, and indexing in {@link #data} is made by ranking. This field is not final, as it is rebuilt
+	 * by {@link #readObject(ObjectInputStream)} when reading the serialized form of previous versions. */
+	InterleavedMarker interleavedMarker;
+	/** The marker bits of a compacted function in the serialized form of previous versions, which ranked them using {@link #rank};
+	 * after construction or deserialization this field is always {@code null}, as legacy marker bits are converted into {@link #interleavedMarker}. */
+	LongArrayBitVector marker;
+	/** The ranking structure on {@link #marker} in the serialized form of previous versions; after construction or deserialization
+	 * this field is always {@code null}. */
+	Rank16 rank;
 	/** The transformation strategy to turn objects of type <code>T</code> into bit vectors. */
 	protected final TransformationStrategy<? super T> transform;
 	/** The mask to compare signatures, or zero for no signatures. */
@@ -388,6 +481,38 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 	protected final LongBigList signatures;
 
 
+	/** Stores the solution of a chunk in a bit array shared by all chunks.
+	 *
+	 * <p>The solution is first packed into a local buffer aligned with the shared array. Words entirely covered by the
+	 * chunk are then copied without synchronization, whereas the first and the last word, which might be shared with
+	 * adjacent chunks, are combined while holding the lock of the shared array. The bits of the array
+	 * corresponding to the chunk must be zero.
+	 *
+	 * @param solution the solution of a chunk.
+	 * @param width the width of the values of {@code solution}.
+	 * @param bits the bit array shared by all chunks.
+	 * @param start the position of the first bit of the chunk in {@code bits}.
+	 */
+	private static void store(final long[] solution, final int width, final long[] bits, final long start) {
+		if (solution.length == 0 || width == 0) return;
+		final int firstWord = (int)(start >>> LongArrayBitVector.LOG2_BITS_PER_WORD);
+		final int lastWord = (int)((start + (long)solution.length * width - 1) >>> LongArrayBitVector.LOG2_BITS_PER_WORD);
+		final long[] local = new long[lastWord - firstWord + 1];
+		long pos = start & LongArrayBitVector.WORD_MASK;
+		for(final long value : solution) {
+			final int word = (int)(pos >>> LongArrayBitVector.LOG2_BITS_PER_WORD);
+			final int bit = (int)(pos & LongArrayBitVector.WORD_MASK);
+			local[word] |= value << bit;
+			if (bit + width > Long.SIZE) local[word + 1] |= value >>> Long.SIZE - bit;
+			pos += width;
+		}
+		if (local.length > 2) System.arraycopy(local, 1, bits, firstWord + 1, local.length - 2);
+		synchronized(bits) {
+			bits[firstWord] |= local[0];
+			if (lastWord != firstWord) bits[lastWord] |= local[local.length - 1];
+		}
+	}
+
 	/** Creates a new function for the given keys and values.
 	 *
 	 * @param keys the keys in the domain of the function, or {@code null}.
@@ -404,8 +529,79 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 	 * @param indirect if true, <code>chunkedHashStore</code> contains ordinal positions, and <code>values</code> is a {@link LongIterable} that
 	 * must be accessed to retrieve the actual values.
 	 */
+	protected GOV3Function(final Iterable<? extends T> keys , final TransformationStrategy<? super T> transform , final int signatureWidth , final LongIterable values , final int dataWidth , final boolean compacted , final File tempDir , final ChunkedHashStore<T> chunkedHashStore , final boolean indirect) throws IOException {
+		this(keys, transform, signatureWidth, values, dataWidth, compacted, tempDir, chunkedHashStore, indirect, null);
+	}
+
+	/** Creates a new function for the given keys and values, possibly reusing the solutions of a previous version of the function.
+	 *
+	 * @param keys the keys in the domain of the function, or {@code null}.
+	 * @param transform a transformation strategy for the keys.
+	 * @param signatureWidth a positive number for a signature width, 0 for no signature, a negative value for a self-signed function; if nonzero, {@code values} must be {@code null} and {@code width} must be -1.
+	 * @param values values to be assigned to each element, in the same order of the iterator returned by <code>keys</code>; if {@code null}, the
+	 * assigned value will the ordinal number of each element.
+	 * @param dataWidth the bit width of the <code>values</code>, or -1 if <code>values</code> is {@code null}.
+	 * @param compacted if true, the coefficients will be compacted.
+	 * @param tempDir a temporary directory for the store files, or {@code null} for the standard temporary directory.
+	 * @param chunkedHashStore a chunked hash store containing the keys associated with their ranks (if there are no values, or {@code indirect} is true)
+	 * or values, or {@code null}; the store
+	 * can be unchecked, but in this case <code>keys</code> and <code>transform</code> must be non-{@code null}.
+	 * @param indirect if true, <code>chunkedHashStore</code> contains ordinal positions, and <code>values</code> is a {@link LongIterable} that
+	 * must be accessed to retrieve the actual values.
+	 * @param previous a previous version of the function, or {@code null}; see {@link Builder#previous(GOV3Function)}.
+	 */
+	protected GOV3Function(final Iterable<? extends T> keys , final TransformationStrategy<? super T> transform , final int signatureWidth , final LongIterable values , final int dataWidth , final boolean compacted , final File tempDir , final ChunkedHashStore<T> chunkedHashStore , final boolean indirect, final GOV3Function<T> previous) throws IOException {
+		this(keys, transform, signatureWidth, values, dataWidth, compacted, tempDir, chunkedHashStore, indirect, previous, null, null);
+	}
+
+	/** Creates a new function for the given keys and values, possibly reusing the solutions of a previous version of the function
+	 * possibly storing signatures in a memory-mapped file, and possibly solving chunks using a given executor service.
+	 *
+	 * @param keys the keys in the domain of the function, or {@code null}.
+	 * @param transform a transformation strategy for the keys.
+	 * @param signatureWidth a positive number for a signature width, 0 for no signature, a negative value for a self-signed function; if nonzero, {@code values} must be {@code null} and {@code width} must be -1.
+	 * @param values values to be assigned to each element, in the same order of the iterator returned by <code>keys</code>; if {@code null}, the
+	 * assigned value will the ordinal number of each element.
+	 * @param dataWidth the bit width of the <code>values</code>, or -1 if <code>values</code> is {@code null}.
+	 * @param compacted if true, the coefficients will be compacted.
+	 * @param tempDir a temporary directory for the store files, or {@code null} for the standard temporary directory.
+	 * @param chunkedHashStore a chunked hash store containing the keys associated with their ranks (if there are no values, or {@code indirect} is true)
+	 * or values, or {@code null}; the store
+	 * can be unchecked, but in this case <code>keys</code> and <code>transform</code> must be non-{@code null}.
+	 * @param indirect if true, <code>chunkedHashStore</code> contains ordinal positions, and <code>values</code> is a {@link LongIterable} that
+	 * must be accessed to retrieve the actual values.
+	 * @param previous a previous version of the function, or {@code null}; see {@link Builder#previous(GOV3Function)}.
+	 * @param signatureFile a file that will contain the signatures, or {@code null}; see {@link Builder#signatureFile(File)}.
+	 * @param solverExecutor an executor service that will be used to solve chunks, or {@code null}; see {@link Builder#executorService(ExecutorService)}.
+	 */
+	protected GOV3Function(final Iterable<? extends T> keys , final TransformationStrategy<? super T> transform , final int signatureWidth , final LongIterable values , final int dataWidth , final boolean compacted , final File tempDir , final ChunkedHashStore<T> chunkedHashStore , final boolean indirect, final GOV3Function<T> previous, final File signatureFile, final ExecutorService solverExecutor) throws IOException {
+		this(keys, transform, signatureWidth, values, dataWidth, compacted, tempDir, chunkedHashStore, indirect, previous, signatureFile, solverExecutor, false);
+	}
+
+	/** Creates a new function for the given keys and values, possibly reusing the solutions of a previous version of the function
+	 * possibly storing signatures in a memory-mapped file, possibly solving chunks using a given executor service, and
+	 * possibly storing data outside of the heap.
+	 *
+	 * @param keys the keys in the domain of the function, or {@code null}.
+	 * @param transform a transformation strategy for the keys.
+	 * @param signatureWidth a positive number for a signature width, 0 for no signature, a negative value for a self-signed function; if nonzero, {@code values} must be {@code null} and {@code width} must be -1.
+	 * @param values values to be assigned to each element, in the same order of the iterator returned by <code>keys</code>; if {@code null}, the
+	 * assigned value will the ordinal number of each element.
+	 * @param dataWidth the bit width of the <code>values</code>, or -1 if <code>values</code> is {@code null}.
+	 * @param compacted if true, the coefficients will be compacted.
+	 * @param tempDir a temporary directory for the store files, or {@code null} for the standard temporary directory.
+	 * @param chunkedHashStore a chunked hash store containing the keys associated with their ranks (if there are no values, or {@code indirect} is true)
+	 * or values, or {@code null}; the store
+	 * can be unchecked, but in this case <code>keys</code> and <code>transform</code> must be non-{@code null}.
+	 * @param indirect if true, <code>chunkedHashStore</code> contains ordinal positions, and <code>values</code> is a {@link LongIterable} that
+	 * must be accessed to retrieve the actual values.
+	 * @param previous a previous version of the function, or {@code null}; see {@link Builder#previous(GOV3Function)}.
+	 * @param signatureFile a file that will contain the signatures, or {@code null}; see {@link Builder#signatureFile(File)}.
+	 * @param solverExecutor an executor service that will be used to solve chunks, or {@code null}; see {@link Builder#executorService(ExecutorService)}.
+	 * @param offHeap if true, data will be stored outside of the heap; see {@link Builder#offHeap()}.
+	 */
 	@SuppressWarnings("resource")
-	protected GOV3Function(final Iterable<? extends T> keys , final TransformationStrategy<? super T> transform , final int signatureWidth , final LongIterable values , final int dataWidth , final boolean compacted , final File tempDir , ChunkedHashStore<T> chunkedHashStore , final boolean indirect) throws IOException {
+	protected GOV3Function(final Iterable<? extends T> keys , final TransformationStrategy<? super T> transform , final int signatureWidth , final LongIterable values , final int dataWidth , final boolean compacted , final File tempDir , ChunkedHashStore<T> chunkedHashStore , final boolean indirect, final GOV3Function<T> previous, final File signatureFile, final ExecutorService solverExecutor, final boolean offHeap) throws IOException {
 		this.transform = transform;
 
 		final boolean givenChunkedHashStore = chunkedHashStore != null;
@@ -424,8 +620,8 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 			if (keys == null) throw new IllegalArgumentException("If you do not provide a chunked hash store, you must provide the keys");
 			chunkedHashStore = new ChunkedHashStore<>(transform, tempDir, - Math.min(signatureWidth, 0), pl);
 			chunkedHashStore.reset(r.nextLong());
-			if (values == null || indirect) chunkedHashStore.addAll(keys.iterator());
-			else chunkedHashStore.addAll(keys.iterator(), values.iterator());
+			if (values == null || indirect) chunkedHashStore.addAll(keys, null);
+			else chunkedHashStore.addAll(keys, values);
 		}
 		n = chunkedHashStore.size();
 		defRetValue = signatureWidth < 0 ? 0 : -1; // Self-signed maps get zero as default return value.
@@ -433,8 +629,7 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 		if (n == 0) {
 			m = globalSeed = chunkShift = width = 0;
 			data = null;
-			marker = null;
-			rank = null;
+			interleavedMarker = null;
 			offsetAndSeed = null;
 			signatureMask = 0;
 			signatures = null;
@@ -447,13 +642,19 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 		final int numChunks = 1 << log2NumChunks;
 
 		LOGGER.debug("Number of chunks: " + numChunks);
+		LOGGER.info("Chunk iteration will use " + Util.formatSize(chunkedHashStore.prefetchingIteratorMemory()) + "B of buffers");
 
 		offsetAndSeed = new long[numChunks + 1];
 
 		width = signatureWidth < 0 ? -signatureWidth : dataWidth == -1 ? Fast.ceilLog2(n) : dataWidth;
 
-		// Candidate data; might be discarded for compaction.
-		final OfflineIterable<BitVector,LongArrayBitVector> offlineData = new OfflineIterable<>(BitVectors.OFFLINE_SERIALIZER, LongArrayBitVector.getInstance());
+		/* Candidate data, filled by solvers in any order; might be discarded for compaction. Since the number
+		 * of variables of a chunk is at most one more than C times its size, we can allocate it in advance. */
+		final long maxVariables = (C_TIMES_256 * n >>> 8) + numChunks;
+		final LongArrayBitVector solution = offHeap ? null : LongArrayBitVector.ofLength(maxVariables * width);
+		final long[] solutionBits = offHeap ? null : solution.bits();
+		// Off-heap solutions are set, rather than combined, so they need not be cleared after a duplicate
+		final OffHeapLongBigList offHeapSolution = offHeap ? new OffHeapLongBigList(maxVariables, width) : null;
 
 		int duplicates = 0;
 
@@ -464,26 +665,29 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 			pl.itemsName = "chunks";
 			pl.start("Analysing chunks... ");
 			final AtomicLong unsolvable = new AtomicLong();
+			// The seed is compared without locking the store, which might need to be reset after a duplicate
+			final GOV3Function<T> reusable = previous != null && givenChunkedHashStore && ! compacted && previous.interleavedMarker == null
+					&& previous.offsetAndSeed != null && previous.offsetAndSeed.length == numChunks + 1 && previous.width == width
+					&& chunkedHashStore.hasSeed(previous.globalSeed) ? previous : null;
+			if (previous != null && reusable == null) LOGGER.info("The previous function is not compatible: solving all chunks");
+			final AtomicInteger reused = new AtomicInteger();
+			// Previous attempts might have left seeds and solutions behind
+			Arrays.fill(offsetAndSeed, 0);
+			if (duplicates != 0 && ! offHeap) solution.fill(false);
 
 			try {
-				final int numberOfThreads = Integer.parseInt(System.getProperty(NUMBER_OF_THREADS_PROPERTY, Integer.toString(Math.min(16, Runtime.getRuntime().availableProcessors()))));
+				final int numberOfThreads = Integer.parseInt(System.getProperty(NUMBER_OF_THREADS_PROPERTY, Integer.toString(Runtime.getRuntime().availableProcessors())));
 				final ArrayBlockingQueue<Chunk> chunkQueue = new ArrayBlockingQueue<>(numberOfThreads * 8);
-				final ReorderingBlockingQueue<LongArrayBitVector> queue = new ReorderingBlockingQueue<>(numberOfThreads * 128);
-				final ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads + 2);
-				final ExecutorCompletionService<Void> executorCompletionService = new ExecutorCompletionService<>(executorService);
-
-				executorCompletionService.submit(() -> {
-					for(;;) {
-						final LongArrayBitVector data = queue.take();
-						if (data == END_OF_SOLUTION_QUEUE) return null;
-						offlineData.add(data);
-					}
-				});
+				// The producer has its own thread, so solvers can run on a shared, possibly busy executor service
+				final ExecutorService executorService = Executors.newFixedThreadPool(solverExecutor == null ? numberOfThreads + 1 : 1);
+				final LinkedBlockingQueue<Future<Void>> completed = new LinkedBlockingQueue<>();
+				final ExecutorCompletionService<Void> executorCompletionService = new ExecutorCompletionService<>(executorService, completed);
+				final ExecutorCompletionService<Void> solverCompletionService = solverExecutor == null ? executorCompletionService : new ExecutorCompletionService<>(solverExecutor, completed);
+				final List<Future<Void>> futures = new ArrayList<>();
 
 				final ChunkedHashStore<T> chs = chunkedHashStore;
-				executorCompletionService.submit(() -> {
-					try {
-						final Iterator<Chunk> iterator = chs.iterator();
+				futures.add(executorCompletionService.submit(() -> {
+					try (final ChunkIterator iterator = chs.prefetchingIterator()) {
 						for(int i1 = 0; iterator.hasNext(); i1++) {
 							final Chunk chunk = new Chunk(iterator.next());
 							assert i1 == chunk.index();
@@ -500,25 +704,44 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 						for(int i2 = numberOfThreads; i2-- != 0;) chunkQueue.put(END_OF_CHUNK_QUEUE);
 					}
 					return null;
-				});
+				}));
 
-				final AtomicInteger activeThreads = new AtomicInteger(numberOfThreads);
-				for(int i = numberOfThreads; i-- != 0;) executorCompletionService.submit(() -> {
-					Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-					long chunkTime = 0, outputTime = 0;
+				// Solvers store solutions in the slot of their chunk, so a slow chunk does not stall the others
+				for(int i = numberOfThreads; i-- != 0;) futures.add(solverCompletionService.submit(() -> {
+					// Threads of a shared executor service are not ours to deprioritize
+					if (solverExecutor == null) Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+					long chunkTime = 0;
 					for(;;) {
-						long start = System.nanoTime();
+						final long start = System.nanoTime();
 						final Chunk chunk = chunkQueue.take();
 						chunkTime += System.nanoTime() - start;
 						if (chunk == END_OF_CHUNK_QUEUE) {
-							if (activeThreads.decrementAndGet() == 0) queue.put(END_OF_SOLUTION_QUEUE, numChunks);
 							LOGGER.debug("Queue waiting time: " + Util.format(chunkTime / 1E9) + "s");
-							LOGGER.debug("Output waiting time: " + Util.format(outputTime / 1E9) + "s");
 							return null;
 						}
 						long seed = 0;
-						final Linear3SystemSolver solver =
-								new Linear3SystemSolver((int) (offsetAndSeed[chunk.index() + 1] - offsetAndSeed[chunk.index()] & OFFSET_MASK), chunk.size());
+						final int numVariables = (int) (offsetAndSeed[chunk.index() + 1] - offsetAndSeed[chunk.index()] & OFFSET_MASK);
+
+						if (reusable != null && ! chs.dirty(chunk.index())) {
+							final long previousOffset = reusable.offsetAndSeed[chunk.index()] & OFFSET_MASK;
+							// The number of variables depends only on the number of keys in the chunk
+							if ((reusable.offsetAndSeed[chunk.index() + 1] & OFFSET_MASK) - previousOffset == numVariables) {
+								synchronized (offsetAndSeed) {
+									offsetAndSeed[chunk.index()] |= reusable.offsetAndSeed[chunk.index()] & ~OFFSET_MASK;
+								}
+								final long[] previousSolution = new long[numVariables];
+								for(int j = 0; j < numVariables; j++) previousSolution[j] = reusable.data.getLong(previousOffset + j);
+								if (offHeap) offHeapSolution.set(offsetAndSeed[chunk.index()] & OFFSET_MASK, previousSolution);
+								else store(previousSolution, width, solutionBits, (offsetAndSeed[chunk.index()] & OFFSET_MASK) * width);
+								reused.incrementAndGet();
+								synchronized(pl) {
+									pl.update();
+								}
+								continue;
+							}
+						}
+
+						final Linear3SystemSolver solver = new Linear3SystemSolver(numVariables, chunk.size());
 
 						for(;;) {
 							final boolean solved = solver.generateAndSolve(chunk, seed, chunk.valueList(indirect ? values : null));
@@ -532,21 +755,16 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 							offsetAndSeed[chunk.index()] |= seed;
 						}
 
-						final LongArrayBitVector dataBitVector = LongArrayBitVector.getInstance();
-						final LongBigList data = dataBitVector.asLongBigList(width);
-						for(final long l : solver.solution) data.add(l);
-
-						start = System.nanoTime();
-						queue.put(dataBitVector, chunk.index());
-						outputTime += System.nanoTime() - start;
+						if (offHeap) offHeapSolution.set(offsetAndSeed[chunk.index()] & OFFSET_MASK, solver.solution);
+						else store(solver.solution, width, solutionBits, (offsetAndSeed[chunk.index()] & OFFSET_MASK) * width);
 						synchronized(pl) {
 							pl.update();
 						}
 					}
-				});
+				}));
 
 				try {
-					for(int i = numberOfThreads + 2; i-- != 0;)
+					for(int i = numberOfThreads + 1; i-- != 0;)
 						executorCompletionService.take().get();
 				} catch (final InterruptedException e) {
 					throw new RuntimeException(e);
@@ -557,21 +775,26 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 					throw new RuntimeException(cause);
 				}
 				finally {
-					executorService.shutdown();
+					// After a failure, tasks might wait forever on the queues: we interrupt them, including those running on a shared executor service
+					for(final Future<Void> future : futures) future.cancel(true);
+					executorService.shutdownNow();
 				}
 				LOGGER.info("Unsolvable systems: " + unsolvable.get() + "/" + (unsolvable.get() + numChunks) + " (" + Util.format(100.0 * unsolvable.get() / (unsolvable.get() + numChunks)) + "%)");
+				if (reusable != null) LOGGER.info("Reused chunks: " + reused.get() + "/" + numChunks);
 
 				pl.done();
 				break;
 			}
 			catch(final DuplicateException e) {
 				if (keys == null) throw new IllegalStateException("You provided no keys, but the chunked hash store was not checked");
+				// A duplicate triple generated by equal keys cannot be fixed by rehashing
+				if (chunkedHashStore.duplicate(keys, e.triple()) != null) throw new IllegalArgumentException("The input list contains duplicates");
 				if (duplicates++ > 3) throw new IllegalArgumentException("The input list contains duplicates");
 				LOGGER.warn("Found duplicate. Recomputing triples...");
 				chunkedHashStore.reset(r.nextLong());
 				pl.itemsName = "keys";
-				if (values == null || indirect) chunkedHashStore.addAll(keys.iterator());
-				else chunkedHashStore.addAll(keys.iterator(), values.iterator());
+				if (values == null || indirect) chunkedHashStore.addAll(keys, null);
+				else chunkedHashStore.addAll(keys, values);
 			}
 		}
 
@@ -582,69 +805,57 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 		// Check for compaction
 		long nonZero = 0;
 		m = offsetAndSeed[offsetAndSeed.length - 1];
-		OfflineIterator<BitVector, LongArrayBitVector> iterator;
+		assert m <= maxVariables : m + " > " + maxVariables;
+		final LongBigList solutionData;
+		if (offHeap) {
+			offHeapSolution.size(m);
+			solutionData = offHeapSolution;
+		}
+		else {
+			solution.length(m * width);
+			solutionData = solution.asLongBigList(width);
+		}
 
 		if (compacted) {
 			LOGGER.info("Compacting...");
-			for(iterator = offlineData.iterator(); iterator.hasNext();) {
-				final LongBigList data = iterator.next().asLongBigList(width);
-				for(long i = 0; i < data.size64(); i++) if (data.getLong(i) != 0) nonZero++;
+			interleavedMarker = new InterleavedMarker(solutionData, offHeap);
+			for(long i = 0; i < m; i++) if (solutionData.getLong(i) != 0) nonZero++;
+			final LongBigList newData;
+			if (offHeap) newData = new OffHeapLongBigList(nonZero, width);
+			else {
+				newData = LongArrayBitVector.getInstance().asLongBigList(width);
+				newData.size(nonZero);
 			}
-			iterator.close();
-
-			marker = LongArrayBitVector.ofLength(m);
-			final LongBigList newData = LongArrayBitVector.getInstance().asLongBigList(width);
-			newData.size(nonZero);
 			nonZero = 0;
-
-			long j = 0;
-			for(iterator = offlineData.iterator(); iterator.hasNext();) {
-				final LongBigList data = iterator.next().asLongBigList(width);
-				for(long i = 0; i < data.size64(); i++, j++) {
-					final long value = data.getLong(i);
-					if (value != 0) {
-						marker.set(j);
-						newData.set(nonZero++, value);
-					}
-				}
+			for(long i = 0; i < m; i++) {
+				final long value = solutionData.getLong(i);
+				if (value != 0) newData.set(nonZero++, value);
 			}
-			iterator.close();
-
-			rank = new Rank16(marker);
 
 			if (ASSERTS) {
-				long k = 0;
-				for(iterator = offlineData.iterator(); iterator.hasNext();) {
-					final LongBigList data = iterator.next().asLongBigList(width);
-					for(long i = 0; i < data.size64(); i++, k++) {
-						final long value = data.getLong(i);
-						assert (value != 0) == marker.getBoolean(k);
-						if (value != 0) assert value == newData.getLong(rank.rank(k)) : value + " != " + newData.getLong(rank.rank(k));
-					}
+				for(long k = 0; k < m; k++) {
+					final long value = solutionData.getLong(k);
+					assert (value != 0) == interleavedMarker.getBoolean(k);
+					if (value != 0) assert value == newData.getLong(interleavedMarker.rank(k)) : value + " != " + newData.getLong(interleavedMarker.rank(k));
 				}
-				iterator.close();
 			}
 			this.data = newData;
 		}
 		else {
-			final LongArrayBitVector dataBitVector = LongArrayBitVector.getInstance(m * width);
-			this.data = dataBitVector.asLongBigList(width);
-			for(iterator = offlineData.iterator(); iterator.hasNext();) dataBitVector.append(iterator.next());
-			iterator.close();
-
-			marker = null;
-			rank = null;
+			// The unused tail of the preallocated vector is at most one word per chunk: not worth a copy
+			this.data = solutionData;
+			interleavedMarker = null;
 		}
 
-		offlineData.close();
-
 		LOGGER.info("Completed.");
-		LOGGER.debug("Forecast bit cost per element: " + (marker == null ? C * width : C + width + 0.126));
+		LOGGER.debug("Forecast bit cost per element: " + (! compacted ? C * width : C * InterleavedMarker.BLOCK_WORDS * Long.SIZE / InterleavedMarker.BLOCK_BITS + width));
 		LOGGER.info("Actual bit cost per element: " + (double)numBits() / n);
 
 		if (signatureWidth > 0) {
 			signatureMask = -1L >>> Long.SIZE - signatureWidth;
-			signatures = chunkedHashStore.signatures(signatureWidth, pl);
+			if (signatureFile != null) signatures = chunkedHashStore.signatures(signatureWidth, signatureFile, pl);
+			else if (offHeap) signatures = chunkedHashStore.signatures(signatureWidth, new OffHeapLongBigList(n, signatureWidth), pl);
+			else signatures = chunkedHashStore.signatures(signatureWidth, pl);
 		}
 		else if (signatureWidth < 0) {
 			signatureMask = -1L >>> Long.SIZE + signatureWidth;
@@ -661,9 +872,25 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 	@Override
 	@SuppressWarnings("unchecked")
 	public long getLong(final Object o) {
-		final long[] triple = new long[3];
-		Hashes.spooky4(transform.toBitVector((T)o), globalSeed, triple);
-		return getLongByTriple(triple);
+		final LookupScratch scratch = SCRATCH.get();
+		Hashes.spooky4(transform.toBitVector((T)o), globalSeed, scratch.triple);
+		return getLongByTriple(scratch.triple, scratch);
+	}
+
+	/** Returns the value associated with a 64-bit key.
+	 *
+	 * <p>This method returns the same value as {@link #getLong(Object) getLong(Long.valueOf(key))}, but if the transformation
+	 * strategy of this function is {@link it.unimi.dsi.bits.TransformationStrategies#rawFixedLong()} or {@link it.unimi.dsi.bits.TransformationStrategies#fixedLong()}
+	 * no object is allocated to hash the key (see {@link ChunkedHashStore#hash(long, it.unimi.dsi.bits.TransformationStrategy, long, long[])}).
+	 * It is thus the natural way to query functions built on stores filled with {@link ChunkedHashStore#addAll(it.unimi.dsi.fastutil.longs.LongIterator, it.unimi.dsi.fastutil.longs.LongIterator)}.
+	 *
+	 * @param key a 64-bit key.
+	 * @return the value associated with {@code key}.
+	 */
+	public long getLong(final long key) {
+		final LookupScratch scratch = SCRATCH.get();
+		ChunkedHashStore.hash(key, transform, globalSeed, scratch.triple);
+		return getLongByTriple(scratch.triple, scratch);
 	}
 
 	/** Low-level access to the output of this function.
@@ -676,25 +903,152 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 	 * @return the output of the function.
 	 */
 	public long getLongByTriple(final long[] triple) {
+		return getLongByTriple(triple, SCRATCH.get());
+	}
+
+	private long getLongByTriple(final long[] triple, final LookupScratch scratch) {
 		if (n == 0) return defRetValue;
-		final int[] e = new int[3];
+		final int[] e = scratch.e;
 		final int chunk = chunkShift == Long.SIZE ? 0 : (int)(triple[0] >>> chunkShift);
 		final long chunkOffset = offsetAndSeed[chunk] & OFFSET_MASK;
 		final int numVariables = (int)((offsetAndSeed[chunk + 1] & OFFSET_MASK) - chunkOffset);
 		if (numVariables == 0) return defRetValue;
-		Linear3SystemSolver.tripleToEquation(triple, offsetAndSeed[chunk] & ~OFFSET_MASK, numVariables, e);
+		Linear3SystemSolver.tripleToEquation(triple, offsetAndSeed[chunk] & ~OFFSET_MASK, numVariables, e, scratch.hash);
 		final long e0 = e[0] + chunkOffset, e1 = e[1] + chunkOffset, e2 = e[2] + chunkOffset;
 
-		final long result = rank == null ?
-				data.getLong(e0) ^ data.getLong(e1) ^ data.getLong(e2) :
-				(marker.getBoolean(e0) ? data.getLong(rank.rank(e0)) : 0) ^
-				(marker.getBoolean(e1) ? data.getLong(rank.rank(e1)) : 0) ^
-				(marker.getBoolean(e2) ? data.getLong(rank.rank(e2)) : 0);
+		final long result;
+		if (interleavedMarker != null) result = interleavedMarker.get(data, e0) ^ interleavedMarker.get(data, e1) ^ interleavedMarker.get(data, e2);
+		else result = data.getLong(e0) ^ data.getLong(e1) ^ data.getLong(e2);
 		if (signatureMask == 0) return result;
 		if (signatures != null) return result >= n || signatures.getLong(result) != (triple[0] & signatureMask) ? defRetValue : result;
 		else return ((result ^ triple[0]) & signatureMask) != 0 ? defRetValue : 1;
 	}
 
+	/** Returns the values associated with a batch of keys.
+	 *
+	 * <p>This method returns the same values of {@link #getLong(Object)}, but keys are processed in batches of {@value #BATCH_SIZE}:
+	 * first all keys of a batch are hashed and mapped to their equation, and then the memory accesses for all keys are
+	 * performed in a single loop. Since such accesses are independent, the processor can overlap their latency,
+	 * which makes this method significantly faster than repeated calls to {@link #getLong(Object)} on large functions.
+	 *
+	 * @param keys an array of keys.
+	 * @param out an array of length at least {@code keys.length} that will be filled with the values associated with {@code keys}.
+	 */
+	@SuppressWarnings("unchecked")
+	public void getLongs(final Object[] keys, final long[] out) {
+		if (out.length < keys.length) throw new IllegalArgumentException("The output array is shorter (" + out.length + ") than the key array (" + keys.length + ")");
+		final long[] triple = new long[3];
+		final long[] triples = new long[3 * Math.min(BATCH_SIZE, keys.length)];
+		final long[] position = new long[triples.length];
+		for(int from = 0; from < keys.length; from += BATCH_SIZE) {
+			final int length = Math.min(BATCH_SIZE, keys.length - from);
+			for(int i = 0; i < length; i++) {
+				Hashes.spooky4(transform.toBitVector((T)keys[from + i]), globalSeed, triple);
+				System.arraycopy(triple, 0, triples, 3 * i, 3);
+			}
+			getLongsByTriple(triples, 0, length, out, from, position);
+		}
+	}
+
+	/** Returns the values associated with a batch of 64-bit keys.
+	 *
+	 * <p>This method is the batch analogous of {@link #getLong(long)}; see {@link #getLongs(Object[], long[])}.
+	 *
+	 * @param keys an array of 64-bit keys.
+	 * @param out an array of length at least {@code keys.length} that will be filled with the values associated with {@code keys}.
+	 */
+	public void getLongs(final long[] keys, final long[] out) {
+		if (out.length < keys.length) throw new IllegalArgumentException("The output array is shorter (" + out.length + ") than the key array (" + keys.length + ")");
+		final long[] triple = new long[3];
+		final long[] triples = new long[3 * Math.min(BATCH_SIZE, keys.length)];
+		final long[] position = new long[triples.length];
+		for(int from = 0; from < keys.length; from += BATCH_SIZE) {
+			final int length = Math.min(BATCH_SIZE, keys.length - from);
+			for(int i = 0; i < length; i++) {
+				ChunkedHashStore.hash(keys[from + i], transform, globalSeed, triple);
+				System.arraycopy(triple, 0, triples, 3 * i, 3);
+			}
+			getLongsByTriple(triples, 0, length, out, from, position);
+		}
+	}
+
+	/** Low-level batch access to the output of this function.
+	 *
+	 * <p>This method is the batch analogous of {@link #getLongByTriple(long[])}; see {@link #getLongs(Object[], long[])}.
+	 *
+	 * @param triples an array containing the concatenation of triples generated as documented in {@link ChunkedHashStore};
+	 * its length must be a multiple of three.
+	 * @param out an array of length at least {@code triples.length / 3} that will be filled with the outputs of the function.
+	 */
+	public void getLongsByTriple(final long[] triples, final long[] out) {
+		if (triples.length % 3 != 0) throw new IllegalArgumentException("The length of the triple array (" + triples.length + ") is not a multiple of three");
+		final int length = triples.length / 3;
+		if (out.length < length) throw new IllegalArgumentException("The output array is shorter (" + out.length + ") than the number of triples (" + length + ")");
+		final long[] position = new long[3 * Math.min(BATCH_SIZE, length)];
+		for(int from = 0; from < length; from += BATCH_SIZE) getLongsByTriple(triples, from, Math.min(BATCH_SIZE, length - from), out, from, position);
+	}
+
+	/** Computes the outputs of the function for a batch of triples.
+	 *
+	 * @param triples an array containing concatenated triples.
+	 * @param first the index of the first triple of the batch in {@code triples}.
+	 * @param length the number of triples in the batch.
+	 * @param out the output array.
+	 * @param offset the position in {@code out} of the output associated with the first triple of the batch.
+	 * @param position an array of length at least {@code 3 * length} used to store the equations.
+	 */
+	private void getLongsByTriple(final long[] triples, final int first, final int length, final long[] out, final int offset, final long[] position) {
+		if (n == 0) {
+			Arrays.fill(out, offset, offset + length, defRetValue);
+			return;
+		}
+		final int[] e = new int[3];
+		final long[] triple = new long[3];
+		final long[] hash = new long[3];
+		// First pass: equations (a negative first position marks an empty chunk)
+		for(int i = 0; i < length; i++) {
+			System.arraycopy(triples, 3 * (first + i), triple, 0, 3);
+			final int chunk = chunkShift == Long.SIZE ? 0 : (int)(triple[0] >>> chunkShift);
+			final long chunkOffset = offsetAndSeed[chunk] & OFFSET_MASK;
+			final int numVariables = (int)((offsetAndSeed[chunk + 1] & OFFSET_MASK) - chunkOffset);
+			if (numVariables == 0) {
+				position[3 * i] = -1;
+				continue;
+			}
+			Linear3SystemSolver.tripleToEquation(triple, offsetAndSeed[chunk] & ~OFFSET_MASK, numVariables, e, hash);
+			position[3 * i] = e[0] + chunkOffset;
+			position[3 * i + 1] = e[1] + chunkOffset;
+			position[3 * i + 2] = e[2] + chunkOffset;
+		}
+
+		// Second pass: independent memory accesses
+		if (interleavedMarker != null) {
+			for(int i = 0; i < length; i++) {
+				if (position[3 * i] < 0) continue;
+				out[offset + i] = interleavedMarker.get(data, position[3 * i]) ^ interleavedMarker.get(data, position[3 * i + 1]) ^ interleavedMarker.get(data, position[3 * i + 2]);
+			}
+		}
+		else {
+			for(int i = 0; i < length; i++) {
+				if (position[3 * i] < 0) continue;
+				out[offset + i] = data.getLong(position[3 * i]) ^ data.getLong(position[3 * i + 1]) ^ data.getLong(position[3 * i + 2]);
+			}
+		}
+
+		// Third pass: empty chunks and signatures
+		for(int i = 0; i < length; i++) {
+			if (position[3 * i] < 0) {
+				out[offset + i] = defRetValue;
+				continue;
+			}
+			if (signatureMask == 0) continue;
+			final long result = out[offset + i];
+			final long h0 = triples[3 * (first + i)];
+			if (signatures != null) out[offset + i] = result >= n || signatures.getLong(result) != (h0 & signatureMask) ? defRetValue : result;
+			else out[offset + i] = ((result ^ h0) & signatureMask) != 0 ? defRetValue : 1;
+		}
+	}
+
 	/** Returns the number of keys in the function domain.
 	 *
 	 * @return the number of the keys in the function domain.
@@ -716,7 +1070,7 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 	 */
 	public long numBits() {
 		if (n == 0) return 0;
-		return (marker != null ? rank.numBits() + marker.length() : 0) + (data != null ? data.size64() : 0) * width + offsetAndSeed.length * (long)Long.SIZE;
+		return (interleavedMarker != null ? interleavedMarker.numBits() : 0) + (data != null ? data.size64() : 0) * width + offsetAndSeed.length * (long)Long.SIZE;
 	}
 
 	@Override
@@ -724,38 +1078,59 @@ public class GOV3Function<T> extends AbstractObject2LongFunction<T> implements S
 		return true;
 	}
 
+	private void readObject(final ObjectInputStream s) throws IOException, ClassNotFoundException {
+		s.defaultReadObject();
+		if (marker != null) {
+			// Serialized by a previous version: the marker bits were ranked by a separate Rank16 structure
+			interleavedMarker = new InterleavedMarker(marker.asLongBigList(1), false);
+			marker = null;
+			rank = null;
+		}
+	}
+
 
+	/** Dumps this function in a flat binary format using the native byte order.
+	 *
+	 * <p>The dump is a sequence of longs: the number of keys, the value width, the chunk shift, the global seed,
+	 * the length of {@link #offsetAndSeed} followed by its content, and the number of words used to store the
+	 * values followed by the words. Values are packed into words in the same way as in a {@link LongArrayBitVector}.
+	 * The C code in the <code>c</code> directory reads this part, and it supports only non-compacted functions.
+	 *
+	 * <p>Then the dump contains the signature mask; if it is nonzero, the number of words used to store the signatures follows
+	 * (zero for a {@linkplain Builder#dictionary(int) dictionary}), followed by the signature words.
+	 * Finally, the dump contains the number of marker bits of a {@linkplain Builder#compacted() compacted} function
+	 * (zero for a non-compacted function). If it is nonzero, the marker words follow. Then come the ranking counts,
+	 * which use the same layout as {@link it.unimi.dsi.sux4j.bits.Rank16}: the number of ones before each block of 1024 words, and then
+	 * a 16-bit count for each pair of words. The 16-bit counts are packed four per long.
+	 *
+	 * <p>A dump can be mapped in memory using {@link MappedGOV3Function#load(String, TransformationStrategy)}.
+	 *
+	 * @param file the name of the dump file.
+	 */
 	public void dump(final String file) throws IOException {
-		final ByteBuffer buffer = ByteBuffer.allocateDirect(offsetAndSeed.length * 8 + 40).order(ByteOrder.nativeOrder());
-		final FileOutputStream fos = new FileOutputStream(file);
-		final FileChannel channel = fos.getChannel();
-
-		buffer.clear();
-		buffer.putLong(size64());
-		buffer.putLong(width);
-		buffer.putLong(chunkShift);
-		buffer.putLong(globalSeed);
-		buffer.putLong(offsetAndSeed.length);
-		for(final long l : offsetAndSeed) buffer.putLong(l);
-		buffer.flip();
-		channel.write(buffer);
-		buffer.clear();
-
-		final LongArrayBitVector v = LongArrayBitVector.getInstance().ensureCapacity(data.size64() * width);
-		for(final long d: data) v.append(d, width);
-		final long[] array = v.bits();
-		buffer.putLong(array.length);
-		for(final long l: array) {
-			if (!buffer.hasRemaining()) {
-				buffer.flip();
-				channel.write(buffer);
-				buffer.clear();
-			}
-			buffer.putLong(l);
+		try (final DumpWriter writer = new DumpWriter(file)) {
+			dump(writer);
 		}
-		buffer.flip();
-		channel.write(buffer);
-		fos.close();
+	}
+
+	/** Writes the content of a {@linkplain #dump(String) dump} of this function.
+	 *
+	 * <p>This method is used by structures containing a {@link GOV3Function} to write their own dump,
+	 * which can then be mapped using {@link MappedGOV3Function#MappedGOV3Function(MappedDump.Cursor, TransformationStrategy)}.
+	 *
+	 * @param writer a dump writer.
+	 */
+	void dump(final DumpWriter writer) throws IOException {
+		writer.writeLong(size64());
+		writer.writeLong(width);
+		writer.writeLong(chunkShift);
+		writer.writeLong(globalSeed);
+		writer.writeLongs(n == 0 ? null : offsetAndSeed);
+		writer.writeBits(data, width);
+		writer.writeLong(signatureMask);
+		if (signatureMask != 0) writer.writeBits(signatures, Long.bitCount(signatureMask));
+		if (interleavedMarker != null) interleavedMarker.dump(writer);
+		else writer.writeLong(0);
 	}
 
 	public static void main(final String[] arg) throws NoSuchMethodException, IOException, JSAPException {
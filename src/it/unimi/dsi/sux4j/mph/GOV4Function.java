@@ -25,16 +25,21 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Serializable;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.math3.random.RandomGenerator;
@@ -76,8 +81,11 @@ import it.unimi.dsi.lang.MutableString;
 import it.unimi.dsi.logging.ProgressLogger;
 import it.unimi.dsi.sux4j.io.ChunkedHashStore;
 import it.unimi.dsi.sux4j.io.ChunkedHashStore.Chunk;
+import it.unimi.dsi.sux4j.io.ChunkedHashStore.ChunkIterator;
 import it.unimi.dsi.sux4j.io.ChunkedHashStore.DuplicateException;
+import it.unimi.dsi.sux4j.io.SplittableIterable;
 import it.unimi.dsi.sux4j.mph.solve.Linear4SystemSolver;
+import it.unimi.dsi.sux4j.util.OffHeapLongBigList;
 import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
 import it.unimi.dsi.util.concurrent.ReorderingBlockingQueue;
 
@@ -134,8 +142,10 @@ import it.unimi.dsi.util.concurrent.ReorderingBlockingQueue;
  * <h2>Multithreading</h2>
  *
  * <p>This implementation is multithreaded: each chunk returned by the {@link ChunkedHashStore} is processed independently. By
- * default, this class uses {@link Runtime#availableProcessors()} parallel threads, but never more than 16. If you wish to
+ * default, this class uses {@link Runtime#availableProcessors()} parallel threads. If you wish to
  * set a specific number of threads, you can do so through the system property {@value #NUMBER_OF_THREADS_PROPERTY}.
+ * Moreover, chunks can be solved by an {@linkplain Builder#executorService(ExecutorService) executor service} shared
+ * by several builds, so that concurrent builds in the same JVM share the available cores.
  *
  * <h2>Implementation Details</h2>
  *
@@ -159,12 +169,14 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 	private static final LongArrayBitVector END_OF_SOLUTION_QUEUE = LongArrayBitVector.getInstance();
 	private static final Chunk END_OF_CHUNK_QUEUE = new Chunk();
 	private static final Logger LOGGER = LoggerFactory.getLogger(GOV4Function.class);
+	/** Per-thread scratch space for lookups. */
+	private static final ThreadLocal<LookupScratch> SCRATCH = LookupScratch.threadLocal();
 	private static final boolean DEBUG = false;
 
 	/** The local seed is generated using this step, so to be easily embeddable in {@link #offsetAndSeed}. */
 	private static final long SEED_STEP = 1L << 56;
 	/** The lowest 56 bits of {@link #offsetAndSeed} contain the number of keys stored up to the given chunk. */
-	private static final long OFFSET_MASK = -1L >>> 8;
+	static final long OFFSET_MASK = -1L >>> 8;
 
 	/** The ratio between variables and equations. */
 	public static double C = 1.02 + 0.01;
@@ -180,10 +192,13 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 		protected TransformationStrategy<? super T> transform;
 		protected int signatureWidth;
 		protected File tempDir;
+		protected ExecutorService executorService;
 		protected ChunkedHashStore<T> chunkedHashStore;
 		protected LongIterable values;
 		protected int outputWidth = -1;
 		protected boolean indirect;
+		protected File signatureFile;
+		protected boolean offHeap;
 		/** Whether {@link #build()} has already been called. */
 		protected boolean built;
 
@@ -197,6 +212,21 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 			return this;
 		}
 
+		/** Specifies the keys of the function using a supplier of streams, which is an alternative to {@link #keys(Iterable)}.
+		 *
+		 * <p>The keys will be wrapped in a {@link SplittableIterable}, so the spliterators of the streams will be used to hash
+		 * keys in parallel (e.g., using a {@link it.unimi.dsi.sux4j.io.FileLinesByteArraySpliterator} a file can be split by byte range).
+		 * The supplier must return a new stream with the same keys in the same order at each call, as keys might need to
+		 * be scanned several times, and the keys returned by the streams must be distinct objects.
+		 *
+		 * @param keyStreams a supplier of streams returning the keys of the function.
+		 * @return this builder.
+		 */
+		public Builder<T> keyStreams(final Supplier<? extends Stream<? extends T>> keyStreams) {
+			this.keys = new SplittableIterable<>(keyStreams);
+			return this;
+		}
+
 		/** Specifies the transformation strategy for the {@linkplain #keys(Iterable) keys of the function}.
 		 *
 		 * @param transform a transformation strategy for the {@linkplain #keys(Iterable) keys of the function}.
@@ -218,6 +248,35 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 			return this;
 		}
 
+		/** Specifies a file that will contain the {@linkplain #signed(int) signatures} of the function.
+		 *
+		 * <p>If you specify this option, signatures will be computed in parallel directly into a memory-mapped file
+		 * using {@link ChunkedHashStore#signatures(int, File, ProgressLogger)}, and the resulting function will
+		 * serialize just a reference to the file, which will be mapped again when the function is deserialized.
+		 * This option has no effect if the function is not signed.
+		 *
+		 * @param signatureFile a file that will contain the signatures, or {@code null} to store signatures in the heap.
+		 * @return this builder.
+		 */
+		public Builder<T> signatureFile(final File signatureFile) {
+			this.signatureFile = signatureFile;
+			return this;
+		}
+
+		/** Specifies that the data of the function must be stored outside of the heap.
+		 *
+		 * <p>If you specify this option, the values of the function will be stored in {@linkplain OffHeapLongBigList direct buffers},
+		 * which have no limit on their size and do not weigh on the garbage collector. {@linkplain #signed(int) Signatures} will
+		 * be stored in direct buffers unless you specify a {@linkplain #signatureFile(File) signature file}.
+		 * Lookups return exactly the same values.
+		 *
+		 * @return this builder.
+		 */
+		public Builder<T> offHeap() {
+			this.offHeap = true;
+			return this;
+		}
+
 		/** Specifies that the resulting {@link GOV4Function} should be a dictionary: the output value will be a signature,
 		 * and {@link GOV4Function#getLong(Object)} will return 1 or 0 depending on whether the argument was in the key set or not;
 		 * in this case, you cannot specify {@linkplain #values(LongIterable, int) values}.
@@ -320,6 +379,22 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 			return this;
 		}
 
+		/** Specifies an executor service that will be used to solve chunks.
+		 *
+		 * <p>By default, each build uses a thread pool of its own. If you run several builds concurrently, you can specify
+		 * an executor service (e.g., a {@link java.util.concurrent.ForkJoinPool}) shared by all builds, so that
+		 * they share fairly the available cores. The service will not be shut down at the end of the build. Note that
+		 * the number of solving tasks submitted by a build is still given by the system property {@value #NUMBER_OF_THREADS_PROPERTY}
+		 * (or by the number of available processors).
+		 *
+		 * @param executorService an executor service that will be used to solve chunks, or {@code null} to use a thread pool for each build.
+		 * @return this builder.
+		 */
+		public Builder<T> executorService(final ExecutorService executorService) {
+			this.executorService = executorService;
+			return this;
+		}
+
 		/** Builds a new function.
 		 *
 		 * @return a {@link GOV4Function} instance with the specified parameters.
@@ -332,12 +407,14 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 				if (chunkedHashStore != null) transform = chunkedHashStore.transform();
 				else throw new IllegalArgumentException("You must specify a TransformationStrategy, either explicitly or via a given ChunkedHashStore");
 			}
-			return new GOV4Function<>(keys, transform, signatureWidth, values, outputWidth, tempDir, chunkedHashStore, indirect);
+			return new GOV4Function<>(keys, transform, signatureWidth, values, outputWidth, tempDir, chunkedHashStore, indirect, signatureFile, executorService, offHeap);
 		}
 	}
 
 	/** The logarithm of the desired chunk size. */
 	public final static int LOG2_CHUNK_SIZE = 10;
+	/** The number of keys processed at a time by {@linkplain #getLongs(Object[], long[]) batch lookups}. */
+	public final static int BATCH_SIZE = 1024;
 	/** The shift for chunks. */
 	private final int chunkShift;
 	/** The number of keys. */
@@ -375,7 +452,52 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 	 * @param indirect if true, <code>chunkedHashStore</code> contains ordinal positions, and <code>values</code> is a {@link LongIterable} that
 	 * must be accessed to retrieve the actual values.
 	 */
-	protected GOV4Function(final Iterable<? extends T> keys, final TransformationStrategy<? super T> transform, final int signatureWidth, final LongIterable values, final int dataWidth, final File tempDir, ChunkedHashStore<T> chunkedHashStore, final boolean indirect) throws IOException {
+	protected GOV4Function(final Iterable<? extends T> keys, final TransformationStrategy<? super T> transform, final int signatureWidth, final LongIterable values, final int dataWidth, final File tempDir, final ChunkedHashStore<T> chunkedHashStore, final boolean indirect) throws IOException {
+		this(keys, transform, signatureWidth, values, dataWidth, tempDir, chunkedHashStore, indirect, null, null);
+	}
+
+	/** Creates a new function for the given keys and values, possibly storing signatures in a memory-mapped file
+	 * and possibly solving chunks using a given executor service.
+	 *
+	 * @param keys the keys in the domain of the function, or {@code null}.
+	 * @param transform a transformation strategy for the keys.
+	 * @param signatureWidth a positive number for a signature width, 0 for no signature, a negative value for a self-signed function; if nonzero, {@code values} must be {@code null} and {@code width} must be -1.
+	 * @param values values to be assigned to each element, in the same order of the iterator returned by <code>keys</code>; if {@code null}, the
+	 * assigned value will the ordinal number of each element.
+	 * @param dataWidth the bit width of the <code>values</code>, or -1 if <code>values</code> is {@code null}.
+	 * @param tempDir a temporary directory for the store files, or {@code null} for the standard temporary directory.
+	 * @param chunkedHashStore a chunked hash store containing the keys associated with their ranks (if there are no values, or {@code indirect} is true)
+	 * or values, or {@code null}; the store
+	 * can be unchecked, but in this case <code>keys</code> and <code>transform</code> must be non-{@code null}.
+	 * @param indirect if true, <code>chunkedHashStore</code> contains ordinal positions, and <code>values</code> is a {@link LongIterable} that
+	 * must be accessed to retrieve the actual values.
+	 * @param signatureFile a file that will contain the signatures, or {@code null}; see {@link Builder#signatureFile(File)}.
+	 * @param solverExecutor an executor service that will be used to solve chunks, or {@code null}; see {@link Builder#executorService(ExecutorService)}.
+	 */
+	protected GOV4Function(final Iterable<? extends T> keys, final TransformationStrategy<? super T> transform, final int signatureWidth, final LongIterable values, final int dataWidth, final File tempDir, final ChunkedHashStore<T> chunkedHashStore, final boolean indirect, final File signatureFile, final ExecutorService solverExecutor) throws IOException {
+		this(keys, transform, signatureWidth, values, dataWidth, tempDir, chunkedHashStore, indirect, signatureFile, solverExecutor, false);
+	}
+
+	/** Creates a new function for the given keys and values, possibly storing signatures in a memory-mapped file,
+	 * possibly solving chunks using a given executor service, and possibly storing data outside of the heap.
+	 *
+	 * @param keys the keys in the domain of the function, or {@code null}.
+	 * @param transform a transformation strategy for the keys.
+	 * @param signatureWidth a positive number for a signature width, 0 for no signature, a negative value for a self-signed function; if nonzero, {@code values} must be {@code null} and {@code width} must be -1.
+	 * @param values values to be assigned to each element, in the same order of the iterator returned by <code>keys</code>; if {@code null}, the
+	 * assigned value will the ordinal number of each element.
+	 * @param dataWidth the bit width of the <code>values</code>, or -1 if <code>values</code> is {@code null}.
+	 * @param tempDir a temporary directory for the store files, or {@code null} for the standard temporary directory.
+	 * @param chunkedHashStore a chunked hash store containing the keys associated with their ranks (if there are no values, or {@code indirect} is true)
+	 * or values, or {@code null}; the store
+	 * can be unchecked, but in this case <code>keys</code> and <code>transform</code> must be non-{@code null}.
+	 * @param indirect if true, <code>chunkedHashStore</code> contains ordinal positions, and <code>values</code> is a {@link LongIterable} that
+	 * must be accessed to retrieve the actual values.
+	 * @param signatureFile a file that will contain the signatures, or {@code null}; see {@link Builder#signatureFile(File)}.
+	 * @param solverExecutor an executor service that will be used to solve chunks, or {@code null}; see {@link Builder#executorService(ExecutorService)}.
+	 * @param offHeap if true, data will be stored outside of the heap; see {@link Builder#offHeap()}.
+	 */
+	protected GOV4Function(final Iterable<? extends T> keys, final TransformationStrategy<? super T> transform, final int signatureWidth, final LongIterable values, final int dataWidth, final File tempDir, ChunkedHashStore<T> chunkedHashStore, final boolean indirect, final File signatureFile, final ExecutorService solverExecutor, final boolean offHeap) throws IOException {
 		this.transform = transform;
 
 		final boolean givenChunkedHashStore = chunkedHashStore != null;
@@ -394,8 +516,8 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 			if (keys == null) throw new IllegalArgumentException("If you do not provide a chunked hash store, you must provide the keys");
 			chunkedHashStore = new ChunkedHashStore<>(transform, tempDir, - Math.min(signatureWidth, 0), pl);
 			chunkedHashStore.reset(r.nextLong());
-			if (values == null || indirect) chunkedHashStore.addAll(keys.iterator());
-			else chunkedHashStore.addAll(keys.iterator(), values.iterator());
+			if (values == null || indirect) chunkedHashStore.addAll(keys, null);
+			else chunkedHashStore.addAll(keys, values);
 		}
 		n = chunkedHashStore.size();
 		defRetValue = signatureWidth < 0 ? 0 : -1; // Self-signed maps get zero as default return value.
@@ -415,6 +537,7 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 		final int numChunks = 1 << log2NumChunks;
 
 		LOGGER.debug("Number of chunks: " + numChunks);
+		LOGGER.info("Chunk iteration will use " + Util.formatSize(chunkedHashStore.prefetchingIteratorMemory()) + "B of buffers");
 
 		offsetAndSeed = new long[numChunks + 1];
 
@@ -435,24 +558,27 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 			final AtomicLong unsolvable = new AtomicLong();
 
 			try {
-				final int numberOfThreads = Integer.parseInt(System.getProperty(NUMBER_OF_THREADS_PROPERTY, Integer.toString(Math.min(16, Runtime.getRuntime().availableProcessors()))));
+				final int numberOfThreads = Integer.parseInt(System.getProperty(NUMBER_OF_THREADS_PROPERTY, Integer.toString(Runtime.getRuntime().availableProcessors())));
 				final ArrayBlockingQueue<Chunk> chunkQueue = new ArrayBlockingQueue<>(numberOfThreads * 8);
 				final ReorderingBlockingQueue<LongArrayBitVector> queue = new ReorderingBlockingQueue<>(numberOfThreads * 128);
-				final ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads + 2);
-				final ExecutorCompletionService<Void> executorCompletionService = new ExecutorCompletionService<>(executorService);
-
-				executorCompletionService.submit(() -> {
+				// The producer and the consumer have their own threads, so solvers can run on a shared, possibly busy executor service
+				final ExecutorService executorService = Executors.newFixedThreadPool(solverExecutor == null ? numberOfThreads + 2 : 2);
+				final LinkedBlockingQueue<Future<Void>> completed = new LinkedBlockingQueue<>();
+				final ExecutorCompletionService<Void> executorCompletionService = new ExecutorCompletionService<>(executorService, completed);
+				final ExecutorCompletionService<Void> solverCompletionService = solverExecutor == null ? executorCompletionService : new ExecutorCompletionService<>(solverExecutor, completed);
+				final List<Future<Void>> futures = new ArrayList<>();
+
+				futures.add(executorCompletionService.submit(() -> {
 					for(;;) {
 						final LongArrayBitVector data = queue.take();
 						if (data == END_OF_SOLUTION_QUEUE) return null;
 						offlineData.add(data);
 					}
-				});
+				}));
 
 				final ChunkedHashStore<T> chs = chunkedHashStore;
-				executorCompletionService.submit(() -> {
-					try {
-						final Iterator<Chunk> iterator = chs.iterator();
+				futures.add(executorCompletionService.submit(() -> {
+					try (final ChunkIterator iterator = chs.prefetchingIterator()) {
 						for(int i1 = 0; iterator.hasNext(); i1++) {
 							final Chunk chunk = new Chunk(iterator.next());
 							assert i1 == chunk.index();
@@ -469,11 +595,12 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 						for(int i2 = numberOfThreads; i2-- != 0;) chunkQueue.put(END_OF_CHUNK_QUEUE);
 					}
 					return null;
-				});
+				}));
 
 				final AtomicInteger activeThreads = new AtomicInteger(numberOfThreads);
-				for(int i = numberOfThreads; i-- != 0;) executorCompletionService.submit(() -> {
-					Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+				for(int i = numberOfThreads; i-- != 0;) futures.add(solverCompletionService.submit(() -> {
+					// Threads of a shared executor service are not ours to deprioritize
+					if (solverExecutor == null) Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
 					long chunkTime = 0, outputTime = 0;
 					for(;;) {
 						long start = System.nanoTime();
@@ -512,7 +639,7 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 							pl.update();
 						}
 					}
-				});
+				}));
 
 				try {
 					for(int i = numberOfThreads + 2; i-- != 0;)
@@ -526,7 +653,9 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 					throw new RuntimeException(cause);
 				}
 				finally {
-					executorService.shutdown();
+					// After a failure, tasks might wait forever on the queues: we interrupt them, including those running on a shared executor service
+					for(final Future<Void> future : futures) future.cancel(true);
+					executorService.shutdownNow();
 				}
 				LOGGER.info("Unsolvable systems: " + unsolvable.get() + "/" + (unsolvable.get() + numChunks) + " (" + Util.format(100.0 * unsolvable.get() / (unsolvable.get() + numChunks)) + "%)");
 
@@ -535,12 +664,14 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 			}
 			catch(final DuplicateException e) {
 				if (keys == null) throw new IllegalStateException("You provided no keys, but the chunked hash store was not checked");
+				// A duplicate triple generated by equal keys cannot be fixed by rehashing
+				if (chunkedHashStore.duplicate(keys, e.triple()) != null) throw new IllegalArgumentException("The input list contains duplicates");
 				if (duplicates++ > 3) throw new IllegalArgumentException("The input list contains duplicates");
 				LOGGER.warn("Found duplicate. Recomputing triples...");
 				chunkedHashStore.reset(r.nextLong());
 				pl.itemsName = "keys";
-				if (values == null || indirect) chunkedHashStore.addAll(keys.iterator());
-				else chunkedHashStore.addAll(keys.iterator(), values.iterator());
+				if (values == null || indirect) chunkedHashStore.addAll(keys, null);
+				else chunkedHashStore.addAll(keys, values);
 			}
 		}
 
@@ -548,11 +679,23 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 
 		globalSeed = chunkedHashStore.seed();
 		m = offsetAndSeed[offsetAndSeed.length - 1];
-		final LongArrayBitVector dataBitVector = LongArrayBitVector.getInstance(m * this.width);
-		this.data = dataBitVector.asLongBigList(this.width);
-
 		final OfflineIterator<BitVector, LongArrayBitVector> iterator = offlineData.iterator();
-		while(iterator.hasNext()) dataBitVector.append(iterator.next());
+		if (offHeap) {
+			final OffHeapLongBigList offHeapData = new OffHeapLongBigList(m, this.width);
+			for(int i = 0; iterator.hasNext(); i++) {
+				final LongArrayBitVector chunkData = iterator.next();
+				final long offset = offsetAndSeed[i] & OFFSET_MASK;
+				final long[] solution = new long[(int)((offsetAndSeed[i + 1] & OFFSET_MASK) - offset)];
+				for(int j = 0; j < solution.length; j++) solution[j] = chunkData.getLong((long)j * width, (long)(j + 1) * width);
+				offHeapData.set(offset, solution);
+			}
+			this.data = offHeapData;
+		}
+		else {
+			final LongArrayBitVector dataBitVector = LongArrayBitVector.getInstance(m * this.width);
+			while(iterator.hasNext()) dataBitVector.append(iterator.next());
+			this.data = dataBitVector.asLongBigList(this.width);
+		}
 		iterator.close();
 
 		offlineData.close();
@@ -563,7 +706,9 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 
 		if (signatureWidth > 0) {
 			signatureMask = -1L >>> Long.SIZE - signatureWidth;
-			signatures = chunkedHashStore.signatures(signatureWidth, pl);
+			if (signatureFile != null) signatures = chunkedHashStore.signatures(signatureWidth, signatureFile, pl);
+			else if (offHeap) signatures = chunkedHashStore.signatures(signatureWidth, new OffHeapLongBigList(n, signatureWidth), pl);
+			else signatures = chunkedHashStore.signatures(signatureWidth, pl);
 		}
 		else if (signatureWidth < 0) {
 			signatureMask = -1L >>> Long.SIZE + signatureWidth;
@@ -580,9 +725,25 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 	@Override
 	@SuppressWarnings("unchecked")
 	public long getLong(final Object o) {
-		final long[] triple = new long[3];
-		Hashes.spooky4(transform.toBitVector((T)o), globalSeed, triple);
-		return getLongByTriple(triple);
+		final LookupScratch scratch = SCRATCH.get();
+		Hashes.spooky4(transform.toBitVector((T)o), globalSeed, scratch.triple);
+		return getLongByTriple(scratch.triple, scratch);
+	}
+
+	/** Returns the value associated with a 64-bit key.
+	 *
+	 * <p>This method returns the same value as {@link #getLong(Object) getLong(Long.valueOf(key))}, but if the transformation
+	 * strategy of this function is {@link it.unimi.dsi.bits.TransformationStrategies#rawFixedLong()} or {@link it.unimi.dsi.bits.TransformationStrategies#fixedLong()}
+	 * no object is allocated to hash the key (see {@link ChunkedHashStore#hash(long, it.unimi.dsi.bits.TransformationStrategy, long, long[])}).
+	 * It is thus the natural way to query functions built on stores filled with {@link ChunkedHashStore#addAll(it.unimi.dsi.fastutil.longs.LongIterator, it.unimi.dsi.fastutil.longs.LongIterator)}.
+	 *
+	 * @param key a 64-bit key.
+	 * @return the value associated with {@code key}.
+	 */
+	public long getLong(final long key) {
+		final LookupScratch scratch = SCRATCH.get();
+		ChunkedHashStore.hash(key, transform, globalSeed, scratch.triple);
+		return getLongByTriple(scratch.triple, scratch);
 	}
 
 	/** Low-level access to the output of this function.
@@ -595,11 +756,15 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 	 * @return the output of the function.
 	 */
 	public long getLongByTriple(final long[] triple) {
+		return getLongByTriple(triple, SCRATCH.get());
+	}
+
+	private long getLongByTriple(final long[] triple, final LookupScratch scratch) {
 		if (n == 0) return defRetValue;
-		final int[] e = new int[4];
+		final int[] e = scratch.e;
 		final int chunk = chunkShift == Long.SIZE ? 0 : (int)(triple[0] >>> chunkShift);
 		final long chunkOffset = offsetAndSeed[chunk] & OFFSET_MASK;
-		Linear4SystemSolver.tripleToEquation(triple, offsetAndSeed[chunk] & ~OFFSET_MASK, (int)((offsetAndSeed[chunk + 1] & OFFSET_MASK) - chunkOffset), e);
+		Linear4SystemSolver.tripleToEquation(triple, offsetAndSeed[chunk] & ~OFFSET_MASK, (int)((offsetAndSeed[chunk + 1] & OFFSET_MASK) - chunkOffset), e, scratch.hash);
 		final long e0 = e[0] + chunkOffset, e1 = e[1] + chunkOffset, e2 = e[2] + chunkOffset, e3 = e[3] + chunkOffset;
 
 		final long result = data.getLong(e0) ^ data.getLong(e1) ^ data.getLong(e2) ^ data.getLong(e3);
@@ -608,6 +773,112 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 		else return ((result ^ triple[0]) & signatureMask) != 0 ? defRetValue : 1;
 	}
 
+	/** Returns the values associated with a batch of keys.
+	 *
+	 * <p>This method returns the same values of {@link #getLong(Object)}, but keys are processed in batches of {@value #BATCH_SIZE}:
+	 * first all keys of a batch are hashed and mapped to their equation, and then the memory accesses for all keys are
+	 * performed in a single loop. Since such accesses are independent, the processor can overlap their latency,
+	 * which makes this method significantly faster than repeated calls to {@link #getLong(Object)} on large functions.
+	 *
+	 * @param keys an array of keys.
+	 * @param out an array of length at least {@code keys.length} that will be filled with the values associated with {@code keys}.
+	 */
+	@SuppressWarnings("unchecked")
+	public void getLongs(final Object[] keys, final long[] out) {
+		if (out.length < keys.length) throw new IllegalArgumentException("The output array is shorter (" + out.length + ") than the key array (" + keys.length + ")");
+		final long[] triple = new long[3];
+		final long[] triples = new long[3 * Math.min(BATCH_SIZE, keys.length)];
+		final long[] position = new long[4 * Math.min(BATCH_SIZE, keys.length)];
+		for(int from = 0; from < keys.length; from += BATCH_SIZE) {
+			final int length = Math.min(BATCH_SIZE, keys.length - from);
+			for(int i = 0; i < length; i++) {
+				Hashes.spooky4(transform.toBitVector((T)keys[from + i]), globalSeed, triple);
+				System.arraycopy(triple, 0, triples, 3 * i, 3);
+			}
+			getLongsByTriple(triples, 0, length, out, from, position);
+		}
+	}
+
+	/** Returns the values associated with a batch of 64-bit keys.
+	 *
+	 * <p>This method is the batch analogous of {@link #getLong(long)}; see {@link #getLongs(Object[], long[])}.
+	 *
+	 * @param keys an array of 64-bit keys.
+	 * @param out an array of length at least {@code keys.length} that will be filled with the values associated with {@code keys}.
+	 */
+	public void getLongs(final long[] keys, final long[] out) {
+		if (out.length < keys.length) throw new IllegalArgumentException("The output array is shorter (" + out.length + ") than the key array (" + keys.length + ")");
+		final long[] triple = new long[3];
+		final long[] triples = new long[3 * Math.min(BATCH_SIZE, keys.length)];
+		final long[] position = new long[4 * Math.min(BATCH_SIZE, keys.length)];
+		for(int from = 0; from < keys.length; from += BATCH_SIZE) {
+			final int length = Math.min(BATCH_SIZE, keys.length - from);
+			for(int i = 0; i < length; i++) {
+				ChunkedHashStore.hash(keys[from + i], transform, globalSeed, triple);
+				System.arraycopy(triple, 0, triples, 3 * i, 3);
+			}
+			getLongsByTriple(triples, 0, length, out, from, position);
+		}
+	}
+
+	/** Low-level batch access to the output of this function.
+	 *
+	 * <p>This method is the batch analogous of {@link #getLongByTriple(long[])}; see {@link #getLongs(Object[], long[])}.
+	 *
+	 * @param triples an array containing the concatenation of triples generated as documented in {@link ChunkedHashStore};
+	 * its length must be a multiple of three.
+	 * @param out an array of length at least {@code triples.length / 3} that will be filled with the outputs of the function.
+	 */
+	public void getLongsByTriple(final long[] triples, final long[] out) {
+		if (triples.length % 3 != 0) throw new IllegalArgumentException("The length of the triple array (" + triples.length + ") is not a multiple of three");
+		final int length = triples.length / 3;
+		if (out.length < length) throw new IllegalArgumentException("The output array is shorter (" + out.length + ") than the number of triples (" + length + ")");
+		final long[] position = new long[4 * Math.min(BATCH_SIZE, length)];
+		for(int from = 0; from < length; from += BATCH_SIZE) getLongsByTriple(triples, from, Math.min(BATCH_SIZE, length - from), out, from, position);
+	}
+
+	/** Computes the outputs of the function for a batch of triples.
+	 *
+	 * @param triples an array containing concatenated triples.
+	 * @param first the index of the first triple of the batch in {@code triples}.
+	 * @param length the number of triples in the batch.
+	 * @param out the output array.
+	 * @param offset the position in {@code out} of the output associated with the first triple of the batch.
+	 * @param position an array of length at least {@code 4 * length} used to store the equations.
+	 */
+	private void getLongsByTriple(final long[] triples, final int first, final int length, final long[] out, final int offset, final long[] position) {
+		if (n == 0) {
+			Arrays.fill(out, offset, offset + length, defRetValue);
+			return;
+		}
+		final int[] e = new int[4];
+		final long[] triple = new long[3];
+		final long[] hash = new long[4];
+		// First pass: equations
+		for(int i = 0; i < length; i++) {
+			System.arraycopy(triples, 3 * (first + i), triple, 0, 3);
+			final int chunk = chunkShift == Long.SIZE ? 0 : (int)(triple[0] >>> chunkShift);
+			final long chunkOffset = offsetAndSeed[chunk] & OFFSET_MASK;
+			Linear4SystemSolver.tripleToEquation(triple, offsetAndSeed[chunk] & ~OFFSET_MASK, (int)((offsetAndSeed[chunk + 1] & OFFSET_MASK) - chunkOffset), e, hash);
+			position[4 * i] = e[0] + chunkOffset;
+			position[4 * i + 1] = e[1] + chunkOffset;
+			position[4 * i + 2] = e[2] + chunkOffset;
+			position[4 * i + 3] = e[3] + chunkOffset;
+		}
+
+		// Second pass: independent memory accesses
+		for(int i = 0; i < length; i++) out[offset + i] = data.getLong(position[4 * i]) ^ data.getLong(position[4 * i + 1]) ^ data.getLong(position[4 * i + 2]) ^ data.getLong(position[4 * i + 3]);
+
+		// Third pass: signatures
+		if (signatureMask == 0) return;
+		for(int i = 0; i < length; i++) {
+			final long result = out[offset + i];
+			final long h0 = triples[3 * (first + i)];
+			if (signatures != null) out[offset + i] = result >= n || ((signatures.getLong(result) ^ h0) & signatureMask) != 0 ? defRetValue : result;
+			else out[offset + i] = ((result ^ h0) & signatureMask) != 0 ? defRetValue : 1;
+		}
+	}
+
 	/** Returns the number of keys in the function domain.
 	 *
 	 * @return the number of the keys in the function domain.
@@ -637,6 +908,33 @@ public class GOV4Function<T> extends AbstractObject2LongFunction<T> implements S
 		return true;
 	}
 
+	/** Dumps this function in a flat binary format using the native byte order.
+	 *
+	 * <p>After a {@linkplain DumpWriter header}, the dump is a sequence of longs: the number of keys, the value width, the chunk shift,
+	 * the global seed, the default return value, the length of {@link #offsetAndSeed} followed by its content, and the number
+	 * of words used to store the values followed by the words. Values are packed into words in the same way as in a {@link LongArrayBitVector}.
+	 * Finally, the dump contains the signature mask; if it is nonzero, the number of words used to store the signatures follows
+	 * (zero for a {@linkplain Builder#dictionary(int) dictionary}), followed by the signature words.
+	 *
+	 * <p>A dump can be mapped in memory using {@link MappedGOV4Function#load(String)}.
+	 *
+	 * @param file the name of the dump file.
+	 */
+	public void dump(final String file) throws IOException {
+		try (final DumpWriter writer = new DumpWriter(file)) {
+			writer.writeHeader(DumpWriter.GOV4_FUNCTION, transform);
+			writer.writeLong(n);
+			writer.writeLong(width);
+			writer.writeLong(chunkShift);
+			writer.writeLong(globalSeed);
+			writer.writeLong(defRetValue);
+			writer.writeLongs(offsetAndSeed);
+			writer.writeBits(data, width);
+			writer.writeLong(signatureMask);
+			if (signatureMask != 0) writer.writeBits(signatures, Long.bitCount(signatureMask));
+		}
+	}
+
 	public static void main(final String[] arg) throws NoSuchMethodException, IOException, JSAPException {
 
 		final SimpleJSAP jsap = new SimpleJSAP(GOV4Function.class.getName(), "Builds a GOV function mapping a newline-separated list of strings to their ordinal position, or to specific values.",
@@ -30,15 +30,21 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.math3.random.RandomGenerator;
@@ -71,7 +77,9 @@ import it.unimi.dsi.lang.MutableString;
 import it.unimi.dsi.logging.ProgressLogger;
 import it.unimi.dsi.sux4j.io.ChunkedHashStore;
 import it.unimi.dsi.sux4j.io.ChunkedHashStore.Chunk;
+import it.unimi.dsi.sux4j.io.ChunkedHashStore.ChunkIterator;
 import it.unimi.dsi.sux4j.io.ChunkedHashStore.DuplicateException;
+import it.unimi.dsi.sux4j.io.SplittableIterable;
 import it.unimi.dsi.sux4j.mph.solve.Linear3SystemSolver;
 import it.unimi.dsi.sux4j.mph.solve.Orient3Hypergraph;
 import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
@@ -109,8 +117,10 @@ import it.unimi.dsi.util.concurrent.ReorderingBlockingQueue;
  * <h2>Multithreading</h2>
  *
  * <p>This implementation is multithreaded: each chunk returned by the {@link ChunkedHashStore} is processed independently. By
- * default, this class uses {@link Runtime#availableProcessors()} parallel threads, but never more than 16. If you wish to
+ * default, this class uses {@link Runtime#availableProcessors()} parallel threads. If you wish to
  * set a specific number of threads, you can do so through the system property {@value #NUMBER_OF_THREADS_PROPERTY}.
+ * Moreover, chunks can be solved by an {@linkplain Builder#executorService(ExecutorService) executor service} shared
+ * by several builds, so that concurrent builds in the same JVM share the available cores.
  *
  * <h3>How it Works</h3>
  *
@@ -142,13 +152,15 @@ import it.unimi.dsi.util.concurrent.ReorderingBlockingQueue;
 public class GOVMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> implements Serializable {
 	public static final long serialVersionUID = 6L;
 	private static final Logger LOGGER = LoggerFactory.getLogger(GOVMinimalPerfectHashFunction.class);
+	/** Per-thread scratch space for lookups. */
+	private static final ThreadLocal<LookupScratch> SCRATCH = LookupScratch.threadLocal();
 	private static final LongArrayBitVector END_OF_SOLUTION_QUEUE = LongArrayBitVector.getInstance();
 	private static final Chunk END_OF_CHUNK_QUEUE = new Chunk();
 
 	/** The local seed is generated using this step, so to be easily embeddable in {@link #edgeOffsetAndSeed}. */
 	private static final long SEED_STEP = 1L << 56;
 	/** The lowest 56 bits of {@link #edgeOffsetAndSeed} contain the number of keys stored up to the given chunk. */
-	private static final long OFFSET_MASK = -1L >>> 8;
+	static final long OFFSET_MASK = -1L >>> 8;
 
 	/** The ratio between vertices and hyperedges. */
 	private static double C = 1.09 + 0.01;
@@ -199,7 +211,9 @@ public class GOVMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 		protected TransformationStrategy<? super T> transform;
 		protected int signatureWidth;
 		protected File tempDir;
+		protected ExecutorService executorService;
 		protected ChunkedHashStore<T> chunkedHashStore;
+		protected GOVMinimalPerfectHashFunction<T> previous;
 		/** Whether {@link #build()} has already been called. */
 		protected boolean built;
 
@@ -213,6 +227,21 @@ public class GOVMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 			return this;
 		}
 
+		/** Specifies the keys to hash using a supplier of streams, which is an alternative to {@link #keys(Iterable)}.
+		 *
+		 * <p>The keys will be wrapped in a {@link SplittableIterable}, so the spliterators of the streams will be used to hash
+		 * keys in parallel (e.g., using a {@link it.unimi.dsi.sux4j.io.FileLinesByteArraySpliterator} a file can be split by byte range).
+		 * The supplier must return a new stream with the same keys in the same order at each call, as keys might need to
+		 * be scanned several times, and the keys returned by the streams must be distinct objects.
+		 *
+		 * @param keyStreams a supplier of streams returning the keys to hash.
+		 * @return this builder.
+		 */
+		public Builder<T> keyStreams(final Supplier<? extends Stream<? extends T>> keyStreams) {
+			this.keys = new SplittableIterable<>(keyStreams);
+			return this;
+		}
+
 		/** Specifies the transformation strategy for the {@linkplain #keys(Iterable) keys to hash}.
 		 *
 		 * @param transform a transformation strategy for the {@linkplain #keys(Iterable) keys to hash}.
@@ -255,6 +284,38 @@ public class GOVMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 			return this;
 		}
 
+		/** Specifies a previous version of the minimal perfect hash function, whose solutions will be reused for the chunks that are not {@linkplain ChunkedHashStore#dirty(int) dirty}.
+		 *
+		 * <p>This option makes it possible to rebuild incrementally a function after adding some keys to a {@linkplain ChunkedHashStore#open(File, boolean, ProgressLogger) snapshot}
+		 * of a {@linkplain #store(ChunkedHashStore) chunked hash store}: if the previous function was built on the snapshot, the dirty flags
+		 * of the snapshot were {@linkplain ChunkedHashStore#markClean() cleared} at that time, and the number of chunks and the seed
+		 * have not changed, the chunks that do not contain new keys will be solved again only if their number of vertices has changed.
+		 * Otherwise, the previous function is ignored.
+		 *
+		 * @param previous a previous version of the minimal perfect hash function, or {@code null}.
+		 * @return this builder.
+		 */
+		public Builder<T> previous(final GOVMinimalPerfectHashFunction<T> previous) {
+			this.previous = previous;
+			return this;
+		}
+
+		/** Specifies an executor service that will be used to solve chunks.
+		 *
+		 * <p>By default, each build uses a thread pool of its own. If you run several builds concurrently, you can specify
+		 * an executor service (e.g., a {@link java.util.concurrent.ForkJoinPool}) shared by all builds, so that
+		 * they share fairly the available cores. The service will not be shut down at the end of the build. Note that
+		 * the number of solving tasks submitted by a build is still given by the system property {@value #NUMBER_OF_THREADS_PROPERTY}
+		 * (or by the number of available processors).
+		 *
+		 * @param executorService an executor service that will be used to solve chunks, or {@code null} to use a thread pool for each build.
+		 * @return this builder.
+		 */
+		public Builder<T> executorService(final ExecutorService executorService) {
+			this.executorService = executorService;
+			return this;
+		}
+
 		/** Builds a minimal perfect hash function.
 		 *
 		 * @return a {@link GOVMinimalPerfectHashFunction} instance with the specified parameters.
@@ -267,7 +328,7 @@ public class GOVMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 				if (chunkedHashStore != null) transform = chunkedHashStore.transform();
 				else throw new IllegalArgumentException("You must specify a TransformationStrategy, either explicitly or via a given ChunkedHashStore");
 			}
-			return new GOVMinimalPerfectHashFunction<>(keys, transform, signatureWidth, tempDir, chunkedHashStore);
+			return new GOVMinimalPerfectHashFunction<>(keys, transform, signatureWidth, tempDir, chunkedHashStore, previous, executorService);
 		}
 	}
 
@@ -320,7 +381,39 @@ public class GOVMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 	 * @param chunkedHashStore a chunked hash store containing the keys, or {@code null}; the store
 	 * can be unchecked, but in this case <code>keys</code> and <code>transform</code> must be non-{@code null}.
 	 */
-	protected GOVMinimalPerfectHashFunction(final Iterable<? extends T> keys, final TransformationStrategy<? super T> transform, final int signatureWidth, final File tempDir, ChunkedHashStore<T> chunkedHashStore) throws IOException {
+	protected GOVMinimalPerfectHashFunction(final Iterable<? extends T> keys, final TransformationStrategy<? super T> transform, final int signatureWidth, final File tempDir, final ChunkedHashStore<T> chunkedHashStore) throws IOException {
+		this(keys, transform, signatureWidth, tempDir, chunkedHashStore, null);
+	}
+
+	/**
+	 * Creates a new minimal perfect hash function for the given keys, possibly reusing the solutions of a previous version of the function.
+	 *
+	 * @param keys the keys to hash, or {@code null}.
+	 * @param transform a transformation strategy for the keys.
+	 * @param signatureWidth a signature width, or 0 for no signature.
+	 * @param tempDir a temporary directory for the store files, or {@code null} for the standard temporary directory.
+	 * @param chunkedHashStore a chunked hash store containing the keys, or {@code null}; the store
+	 * can be unchecked, but in this case <code>keys</code> and <code>transform</code> must be non-{@code null}.
+	 * @param previous a previous version of the function, or {@code null}; see {@link Builder#previous(GOVMinimalPerfectHashFunction)}.
+	 */
+	protected GOVMinimalPerfectHashFunction(final Iterable<? extends T> keys, final TransformationStrategy<? super T> transform, final int signatureWidth, final File tempDir, final ChunkedHashStore<T> chunkedHashStore, final GOVMinimalPerfectHashFunction<T> previous) throws IOException {
+		this(keys, transform, signatureWidth, tempDir, chunkedHashStore, previous, null);
+	}
+
+	/**
+	 * Creates a new minimal perfect hash function for the given keys, possibly reusing the solutions of a previous version of the function,
+	 * and possibly solving chunks using a given executor service.
+	 *
+	 * @param keys the keys to hash, or {@code null}.
+	 * @param transform a transformation strategy for the keys.
+	 * @param signatureWidth a signature width, or 0 for no signature.
+	 * @param tempDir a temporary directory for the store files, or {@code null} for the standard temporary directory.
+	 * @param chunkedHashStore a chunked hash store containing the keys, or {@code null}; the store
+	 * can be unchecked, but in this case <code>keys</code> and <code>transform</code> must be non-{@code null}.
+	 * @param previous a previous version of the function, or {@code null}; see {@link Builder#previous(GOVMinimalPerfectHashFunction)}.
+	 * @param solverExecutor an executor service that will be used to solve chunks, or {@code null}; see {@link Builder#executorService(ExecutorService)}.
+	 */
+	protected GOVMinimalPerfectHashFunction(final Iterable<? extends T> keys, final TransformationStrategy<? super T> transform, final int signatureWidth, final File tempDir, ChunkedHashStore<T> chunkedHashStore, final GOVMinimalPerfectHashFunction<T> previous, final ExecutorService solverExecutor) throws IOException {
 		this.transform = transform;
 
 		final ProgressLogger pl = new ProgressLogger(LOGGER);
@@ -333,7 +426,7 @@ public class GOVMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 		if (chunkedHashStore == null) {
 			chunkedHashStore = new ChunkedHashStore<>(transform, tempDir, pl);
 			chunkedHashStore.reset(r.nextLong());
-			chunkedHashStore.addAll(keys.iterator());
+			chunkedHashStore.addAll(keys, null);
 		}
 		n = chunkedHashStore.size();
 
@@ -346,6 +439,7 @@ public class GOVMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 		final int numChunks = 1 << log2NumChunks;
 
 		LOGGER.debug("Number of chunks: " + numChunks);
+		LOGGER.info("Chunk iteration will use " + Util.formatSize(chunkedHashStore.prefetchingIteratorMemory()) + "B of buffers");
 
 		edgeOffsetAndSeed = new long[numChunks + 1];
 
@@ -360,26 +454,35 @@ public class GOVMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 			pl.itemsName = "chunks";
 			pl.start("Analysing chunks... ");
 			final AtomicLong unsolvable = new AtomicLong(), unorientable = new AtomicLong();
+			// The seed is compared without locking the store, which might need to be reset after a duplicate
+			final GOVMinimalPerfectHashFunction<T> reusable = previous != null && givenChunkedHashStore
+					&& previous.edgeOffsetAndSeed != null && previous.edgeOffsetAndSeed.length == numChunks + 1
+					&& chunkedHashStore.hasSeed(previous.globalSeed) ? previous : null;
+			if (previous != null && reusable == null) LOGGER.info("The previous function is not compatible: solving all chunks");
+			final AtomicInteger reused = new AtomicInteger();
 
 			try {
-				final int numberOfThreads = Integer.parseInt(System.getProperty(NUMBER_OF_THREADS_PROPERTY, Integer.toString(Math.min(16, Runtime.getRuntime().availableProcessors()))));
+				final int numberOfThreads = Integer.parseInt(System.getProperty(NUMBER_OF_THREADS_PROPERTY, Integer.toString(Runtime.getRuntime().availableProcessors())));
 				final ArrayBlockingQueue<Chunk> chunkQueue = new ArrayBlockingQueue<>(numberOfThreads * 8);
 				final ReorderingBlockingQueue<LongArrayBitVector> queue = new ReorderingBlockingQueue<>(numberOfThreads * 128);
-				final ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads + 2);
-				final ExecutorCompletionService<Void> executorCompletionService = new ExecutorCompletionService<>(executorService);
-
-				executorCompletionService.submit(() -> {
+				// The producer and the consumer have their own threads, so solvers can run on a shared, possibly busy executor service
+				final ExecutorService executorService = Executors.newFixedThreadPool(solverExecutor == null ? numberOfThreads + 2 : 2);
+				final LinkedBlockingQueue<Future<Void>> completed = new LinkedBlockingQueue<>();
+				final ExecutorCompletionService<Void> executorCompletionService = new ExecutorCompletionService<>(executorService, completed);
+				final ExecutorCompletionService<Void> solverCompletionService = solverExecutor == null ? executorCompletionService : new ExecutorCompletionService<>(solverExecutor, completed);
+				final List<Future<Void>> futures = new ArrayList<>();
+
+				futures.add(executorCompletionService.submit(() -> {
 					for(;;) {
 						final LongArrayBitVector data = queue.take();
 						if (data == END_OF_SOLUTION_QUEUE) return null;
 						bitVector.append(data);
 					}
-				});
+				}));
 
 				final ChunkedHashStore<T> chs = chunkedHashStore;
-				executorCompletionService.submit(() -> {
-					try {
-						final Iterator<Chunk> iterator = chs.iterator();
+				futures.add(executorCompletionService.submit(() -> {
+					try (final ChunkIterator iterator = chs.prefetchingIterator()) {
 						for(int i1 = 0; iterator.hasNext(); i1++) {
 							final Chunk chunk = new Chunk(iterator.next());
 							assert i1 == chunk.index();
@@ -394,11 +497,12 @@ public class GOVMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 						for(int i2 = numberOfThreads; i2-- != 0;) chunkQueue.put(END_OF_CHUNK_QUEUE);
 					}
 					return null;
-				});
+				}));
 
 				final AtomicInteger activeThreads = new AtomicInteger(numberOfThreads);
-				for(int i = numberOfThreads; i-- != 0;) executorCompletionService.submit(() -> {
-					Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+				for(int i = numberOfThreads; i-- != 0;) futures.add(solverCompletionService.submit(() -> {
+					// Threads of a shared executor service are not ours to deprioritize
+					if (solverExecutor == null) Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
 					long chunkTime = 0;
 					final long outputTime = 0;
 					for(;;) {
@@ -414,8 +518,28 @@ public class GOVMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 						long seed = 0;
 
 						final long off = vertexOffset(edgeOffsetAndSeed[chunk.index()]);
-						final Linear3SystemSolver solver =
-								new Linear3SystemSolver((int)(vertexOffset(edgeOffsetAndSeed[chunk.index() + 1]) - off), chunk.size());
+						final int numVertices = (int)(vertexOffset(edgeOffsetAndSeed[chunk.index() + 1]) - off);
+
+						if (reusable != null && ! chs.dirty(chunk.index())) {
+							final long previousOffset = vertexOffset(reusable.edgeOffsetAndSeed[chunk.index()]);
+							// The number of vertices depends also on the number of keys in the previous chunks
+							if (vertexOffset(reusable.edgeOffsetAndSeed[chunk.index() + 1]) - previousOffset == numVertices) {
+								synchronized (edgeOffsetAndSeed) {
+									edgeOffsetAndSeed[chunk.index()] |= reusable.edgeOffsetAndSeed[chunk.index()] & ~OFFSET_MASK;
+								}
+								final LongArrayBitVector dataBitVector = LongArrayBitVector.ofLength(numVertices * 2);
+								final LongBigList dataList = dataBitVector.asLongBigList(2);
+								for(int j = 0; j < numVertices; j++) dataList.set(j, reusable.values.getLong(previousOffset + j));
+								reused.incrementAndGet();
+								queue.put(dataBitVector, chunk.index());
+								synchronized(pl) {
+									pl.update();
+								}
+								continue;
+							}
+						}
+
+						final Linear3SystemSolver solver = new Linear3SystemSolver(numVertices, chunk.size());
 
 						for(;;) {
 							final boolean solved = solver.generateAndSolve(chunk, seed, null);
@@ -442,7 +566,7 @@ public class GOVMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 							LOGGER.info("Unorientable systems: " + unorientable.get() + "/" + (unorientable.get() + unsolvable.get() + pl.count) + " (" + Util.format(100.0 * unorientable.get() / (unorientable.get() + pl.count)) + "%)");
 						}
 					}
-				});
+				}));
 
 				try {
 					for(int i = numberOfThreads + 2; i-- != 0;)
@@ -456,21 +580,26 @@ public class GOVMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 					throw new RuntimeException(cause);
 				}
 				finally {
-					executorService.shutdown();
+					// After a failure, tasks might wait forever on the queues: we interrupt them, including those running on a shared executor service
+					for(final Future<Void> future : futures) future.cancel(true);
+					executorService.shutdownNow();
 				}
 				LOGGER.info("Unsolvable systems: " + unsolvable.get() + "/" + (unsolvable.get() + numChunks) + " (" + Util.format(100.0 * unsolvable.get() / (unsolvable.get() + numChunks)) + "%)");
 				LOGGER.info("Unorientable systems: " + unorientable.get() + "/" + (unorientable.get() + unsolvable.get() + numChunks) + " (" + Util.format(100.0 * unorientable.get() / (unorientable.get() + numChunks)) + "%)");
+				if (reusable != null) LOGGER.info("Reused chunks: " + reused.get() + "/" + numChunks);
 
 				pl.done();
 				break;
 			}
 			catch(final DuplicateException e) {
 				if (keys == null) throw new IllegalStateException("You provided no keys, but the chunked hash store was not checked");
+				// A duplicate triple generated by equal keys cannot be fixed by rehashing
+				if (chunkedHashStore.duplicate(keys, e.triple()) != null) throw new IllegalArgumentException("The input list contains duplicates");
 				if (duplicates++ > 3) throw new IllegalArgumentException("The input list contains duplicates");
 				LOGGER.warn("Found duplicate. Recomputing triples...");
 				chunkedHashStore.reset(r.nextLong());
 				pl.itemsName = "keys";
-				chunkedHashStore.addAll(keys.iterator());
+				chunkedHashStore.addAll(keys, null);
 			}
 		}
 
@@ -520,9 +649,25 @@ public class GOVMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 	@Override
 	@SuppressWarnings("unchecked")
 	public long getLong(final Object key) {
-		final long[] triple = new long[3];
-		Hashes.spooky4(transform.toBitVector((T)key), globalSeed, triple);
-		return getLongByTriple(triple);
+		final LookupScratch scratch = SCRATCH.get();
+		Hashes.spooky4(transform.toBitVector((T)key), globalSeed, scratch.triple);
+		return getLongByTriple(scratch.triple, scratch);
+	}
+
+	/** Returns the value associated with a 64-bit key.
+	 *
+	 * <p>This method returns the same value as {@link #getLong(Object) getLong(Long.valueOf(key))}, but if the transformation
+	 * strategy of this function is {@link it.unimi.dsi.bits.TransformationStrategies#rawFixedLong()} or {@link it.unimi.dsi.bits.TransformationStrategies#fixedLong()}
+	 * no object is allocated to hash the key (see {@link ChunkedHashStore#hash(long, it.unimi.dsi.bits.TransformationStrategy, long, long[])}).
+	 * It is thus the natural way to query functions built on stores filled with {@link ChunkedHashStore#addAll(it.unimi.dsi.fastutil.longs.LongIterator, it.unimi.dsi.fastutil.longs.LongIterator)}.
+	 *
+	 * @param key a 64-bit key.
+	 * @return the value associated with {@code key}.
+	 */
+	public long getLong(final long key) {
+		final LookupScratch scratch = SCRATCH.get();
+		ChunkedHashStore.hash(key, transform, globalSeed, scratch.triple);
+		return getLongByTriple(scratch.triple, scratch);
 	}
 
 	/** Low-level access to the output of this minimal perfect hash function.
@@ -535,14 +680,18 @@ public class GOVMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 	 * @return the output of the function.
 	 */
 	public long getLongByTriple(final long[] triple) {
+		return getLongByTriple(triple, SCRATCH.get());
+	}
+
+	private long getLongByTriple(final long[] triple, final LookupScratch scratch) {
 		if (n == 0) return defRetValue;
-		final int[] e = new int[3];
+		final int[] e = scratch.e;
 		final int chunk = chunkShift == Long.SIZE ? 0 : (int)(triple[0] >>> chunkShift);
 		final long edgeOffsetSeed = edgeOffsetAndSeed[chunk];
 		final long chunkOffset = vertexOffset(edgeOffsetSeed);
 		final int numVariables = (int)(vertexOffset(edgeOffsetAndSeed[chunk + 1]) - chunkOffset);
 		if (numVariables == 0) return defRetValue;
-		Linear3SystemSolver.tripleToEquation(triple, edgeOffsetSeed & ~OFFSET_MASK, numVariables, e);
+		Linear3SystemSolver.tripleToEquation(triple, edgeOffsetSeed & ~OFFSET_MASK, numVariables, e, scratch.hash);
 
 		final long result = (edgeOffsetSeed & OFFSET_MASK) + countNonzeroPairs(chunkOffset, chunkOffset + e[(int)(values.getLong(e[0] + chunkOffset) + values.getLong(e[1] + chunkOffset) + values.getLong(e[2] + chunkOffset)) % 3], array);
 		if (signatureMask != 0) return result >= n || signatures.getLong(result) != (triple[0] & signatureMask) ? defRetValue : result;
@@ -598,6 +747,27 @@ public class GOVMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> im
 		fos.close();
 	}
 
+	/** Writes this function as part of a larger {@linkplain DumpWriter dump}.
+	 *
+	 * <p>The content is a sequence of longs: the number of keys, the chunk shift, the global seed,
+	 * the length of {@link #edgeOffsetAndSeed} followed by its content, and the number of words used to store
+	 * the 2-bit values followed by the words. Then the dump contains the signature mask; if it is nonzero,
+	 * the number of words used to store the signatures follows, followed by the signature words.
+	 *
+	 * <p>The content can be mapped using {@link MappedGOVMinimalPerfectHashFunction#MappedGOVMinimalPerfectHashFunction(MappedDump.Cursor, TransformationStrategy)}.
+	 *
+	 * @param writer a dump writer.
+	 */
+	void dump(final DumpWriter writer) throws IOException {
+		writer.writeLong(size64());
+		writer.writeLong(chunkShift);
+		writer.writeLong(globalSeed);
+		writer.writeLongs(n == 0 ? null : edgeOffsetAndSeed);
+		writer.writeBits(bitVector);
+		writer.writeLong(signatureMask);
+		if (signatureMask != 0) writer.writeBits(signatures, Long.bitCount(signatureMask));
+	}
+
 	public static void main(final String[] arg) throws NoSuchMethodException, IOException, JSAPException {
 
 		final SimpleJSAP jsap = new SimpleJSAP(GOVMinimalPerfectHashFunction.class.getName(), "Builds a minimal perfect hash function reading a newline-separated list of strings.", new Parameter[] {
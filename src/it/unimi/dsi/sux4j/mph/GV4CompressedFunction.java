@@ -26,17 +26,22 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Serializable;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.math3.util.Pair;
@@ -78,7 +83,9 @@ import it.unimi.dsi.lang.MutableString;
 import it.unimi.dsi.logging.ProgressLogger;
 import it.unimi.dsi.sux4j.io.ChunkedHashStore;
 import it.unimi.dsi.sux4j.io.ChunkedHashStore.Chunk;
+import it.unimi.dsi.sux4j.io.ChunkedHashStore.ChunkIterator;
 import it.unimi.dsi.sux4j.io.ChunkedHashStore.DuplicateException;
+import it.unimi.dsi.sux4j.io.SplittableIterable;
 import it.unimi.dsi.sux4j.mph.codec.Codec;
 import it.unimi.dsi.sux4j.mph.codec.Codec.Huffman;
 import it.unimi.dsi.sux4j.mph.solve.Linear4SystemSolver;
@@ -128,8 +135,10 @@ import it.unimi.dsi.util.concurrent.ReorderingBlockingQueue;
  * <h2>Multithreading</h2>
  *
  * <p>This implementation is multithreaded: each chunk returned by the {@link ChunkedHashStore} is processed independently. By
- * default, this class uses {@link Runtime#availableProcessors()} parallel threads, but never more than 16. If you wish to
+ * default, this class uses {@link Runtime#availableProcessors()} parallel threads. If you wish to
  * set a specific number of threads, you can do so through the system property {@value #NUMBER_OF_THREADS_PROPERTY}.
+ * Moreover, chunks can be solved by an {@linkplain Builder#executorService(ExecutorService) executor service} shared
+ * by several builds, so that concurrent builds in the same JVM share the available cores.
  *
  * <h2>Implementation Details</h2>
  *
@@ -157,6 +166,8 @@ public class GV4CompressedFunction<T> extends AbstractObject2LongFunction<T> imp
 	private static final LongArrayBitVector END_OF_SOLUTION_QUEUE = LongArrayBitVector.getInstance();
 	private static final Pair<Chunk, Integer> END_OF_CHUNK_QUEUE = new Pair<>(new Chunk(), Integer.valueOf(0));
 	private static final Logger LOGGER = LoggerFactory.getLogger(GV4CompressedFunction.class);
+	/** Per-thread scratch space for lookups. */
+	private static final ThreadLocal<LookupScratch> SCRATCH = LookupScratch.threadLocal();
 	private static final boolean DEBUG = false;
 	protected static final int SEED_BITS = 10;
 	protected static final int OFFSET_BITS = Long.SIZE - SEED_BITS;
@@ -169,8 +180,8 @@ public class GV4CompressedFunction<T> extends AbstractObject2LongFunction<T> imp
 	 * The lowest 54 bits of {@link #offsetAndSeed} contain the number of
 	 * keys stored up to the given chunk.
 	 */
-	private static final long OFFSET_MASK = -1L >>> SEED_BITS;
-	private static final long SEED_MASK = -1L << Long.SIZE - SEED_BITS;
+	static final long OFFSET_MASK = -1L >>> SEED_BITS;
+	static final long SEED_MASK = -1L << Long.SIZE - SEED_BITS;
 
 	/** The system property used to set the number of parallel threads. */
 	public static final String NUMBER_OF_THREADS_PROPERTY = "it.unimi.dsi.sux4j.mph.threads";
@@ -179,6 +190,7 @@ public class GV4CompressedFunction<T> extends AbstractObject2LongFunction<T> imp
 		protected Iterable<? extends T> keys;
 		protected TransformationStrategy<? super T> transform;
 		protected File tempDir;
+		protected ExecutorService executorService;
 		protected ChunkedHashStore<T> chunkedHashStore;
 		protected LongIterable values;
 		protected boolean indirect;
@@ -200,6 +212,21 @@ public class GV4CompressedFunction<T> extends AbstractObject2LongFunction<T> imp
 			return this;
 		}
 
+		/** Specifies the keys of the function using a supplier of streams, which is an alternative to {@link #keys(Iterable)}.
+		 *
+		 * <p>The keys will be wrapped in a {@link SplittableIterable}, so the spliterators of the streams will be used to hash
+		 * keys in parallel (e.g., using a {@link it.unimi.dsi.sux4j.io.FileLinesByteArraySpliterator} a file can be split by byte range).
+		 * The supplier must return a new stream with the same keys in the same order at each call, as keys might need to
+		 * be scanned several times, and the keys returned by the streams must be distinct objects.
+		 *
+		 * @param keyStreams a supplier of streams returning the keys of the function.
+		 * @return this builder.
+		 */
+		public Builder<T> keyStreams(final Supplier<? extends Stream<? extends T>> keyStreams) {
+			this.keys = new SplittableIterable<>(keyStreams);
+			return this;
+		}
+
 		/**
 		 * Specifies the transformation strategy for the
 		 * {@linkplain #keys(Iterable) keys of the function}; the strategy can
@@ -302,6 +329,22 @@ public class GV4CompressedFunction<T> extends AbstractObject2LongFunction<T> imp
 			return this;
 		}
 
+		/** Specifies an executor service that will be used to solve chunks.
+		 *
+		 * <p>By default, each build uses a thread pool of its own. If you run several builds concurrently, you can specify
+		 * an executor service (e.g., a {@link java.util.concurrent.ForkJoinPool}) shared by all builds, so that
+		 * they share fairly the available cores. The service will not be shut down at the end of the build. Note that
+		 * the number of solving tasks submitted by a build is still given by the system property {@value #NUMBER_OF_THREADS_PROPERTY}
+		 * (or by the number of available processors).
+		 *
+		 * @param executorService an executor service that will be used to solve chunks, or {@code null} to use a thread pool for each build.
+		 * @return this builder.
+		 */
+		public Builder<T> executorService(final ExecutorService executorService) {
+			this.executorService = executorService;
+			return this;
+		}
+
 		/**
 		 * Builds a new function.
 		 *
@@ -318,7 +361,7 @@ public class GV4CompressedFunction<T> extends AbstractObject2LongFunction<T> imp
 				if (chunkedHashStore != null) transform = chunkedHashStore.transform();
 				else throw new IllegalArgumentException("You must specify a TransformationStrategy, either explicitly or via a given ChunkedHashStore");
 			}
-			return new GV4CompressedFunction<>(keys, transform, values, indirect, tempDir, chunkedHashStore, codec);
+			return new GV4CompressedFunction<>(keys, transform, values, indirect, tempDir, chunkedHashStore, codec, executorService);
 		}
 	}
 
@@ -379,8 +422,40 @@ public class GV4CompressedFunction<T> extends AbstractObject2LongFunction<T> imp
 	 *            store can be unchecked, but in this case <code>keys</code> and <code>transform</code> must be
 	 *            non-{@code null}.
 	 */
+	protected GV4CompressedFunction(final Iterable<? extends T> keys, final TransformationStrategy<? super T> transform, final LongIterable values, final boolean indirect, final File tempDir, final ChunkedHashStore<T> chunkedHashStore, final Codec codec) throws IOException {
+		this(keys, transform, values, indirect, tempDir, chunkedHashStore, codec, null);
+	}
+
+	/**
+	 * Creates a new function for the given keys and values.
+	 *
+	 * @param keys
+	 *            the keys in the domain of the function, or {@code null}.
+	 * @param transform
+	 *            a transformation strategy for the keys.
+	 * @param values
+	 *            values to be assigned to each element, in the same order of
+	 *            the iterator returned by <code>keys</code>; if {@code null},
+	 *            the assigned value will the ordinal number of each
+	 *            element.
+	 * @param indirect
+	 *            if true, <code>chunkedHashStore</code> contains ordinal
+	 *            positions, and <code>values</code> is a {@link LongIterable}
+	 *            that must be accessed to retrieve the actual values.
+	 * @param tempDir
+	 *            a temporary directory for the store files, or {@code null} for
+	 *            the standard temporary directory.
+	 * @param chunkedHashStore
+	 *            a chunked hash store containing the keys associated with their
+	 *            values and counting value frequencies, or {@code null}; the
+	 *            store can be unchecked, but in this case <code>keys</code> and <code>transform</code> must be
+	 *            non-{@code null}.
+	 * @param solverExecutor
+	 *            an executor service that will be used to solve chunks, or
+	 *            {@code null}; see {@link Builder#executorService(ExecutorService)}.
+	 */
 	@SuppressWarnings("resource")
-	protected GV4CompressedFunction(final Iterable<? extends T> keys, final TransformationStrategy<? super T> transform, final LongIterable values, final boolean indirect, final File tempDir, ChunkedHashStore<T> chunkedHashStore, final Codec codec) throws IOException {
+	protected GV4CompressedFunction(final Iterable<? extends T> keys, final TransformationStrategy<? super T> transform, final LongIterable values, final boolean indirect, final File tempDir, ChunkedHashStore<T> chunkedHashStore, final Codec codec, final ExecutorService solverExecutor) throws IOException {
 		Objects.requireNonNull(codec, "Null codec");
 		this.transform = transform;
 		final ProgressLogger pl = new ProgressLogger(LOGGER);
@@ -393,8 +468,8 @@ public class GV4CompressedFunction<T> extends AbstractObject2LongFunction<T> imp
 			if (keys == null) throw new IllegalArgumentException("If you do not provide a chunked hash store, you must provide the keys");
 			chunkedHashStore = new ChunkedHashStore<>(transform, tempDir, -1, pl);
 			chunkedHashStore.reset(r.nextLong());
-			if (values == null || indirect) chunkedHashStore.addAll(keys.iterator());
-			else chunkedHashStore.addAll(keys.iterator(), values.iterator());
+			if (values == null || indirect) chunkedHashStore.addAll(keys, null);
+			else chunkedHashStore.addAll(keys, values);
 
 		}
 		n = chunkedHashStore.size();
@@ -423,6 +498,7 @@ public class GV4CompressedFunction<T> extends AbstractObject2LongFunction<T> imp
 		chunkShift = chunkedHashStore.log2Chunks(log2NumChunks);
 		final int numChunks = 1 << log2NumChunks;
 		LOGGER.debug("Number of chunks: " + numChunks);
+		LOGGER.info("Chunk iteration will use " + Util.formatSize(chunkedHashStore.prefetchingIteratorMemory()) + "B of buffers");
 		offsetAndSeed = new long[numChunks + 1];
 
 		final OfflineIterable<BitVector, LongArrayBitVector> offlineData = new OfflineIterable<>(BitVectors.OFFLINE_SERIALIZER, LongArrayBitVector.getInstance());
@@ -436,24 +512,27 @@ public class GV4CompressedFunction<T> extends AbstractObject2LongFunction<T> imp
 			final AtomicLong unsolvable = new AtomicLong();
 
 			try {
-				final int numberOfThreads = Integer.parseInt(System.getProperty(NUMBER_OF_THREADS_PROPERTY, Integer.toString(Math.min(16, Runtime.getRuntime().availableProcessors()))));
+				final int numberOfThreads = Integer.parseInt(System.getProperty(NUMBER_OF_THREADS_PROPERTY, Integer.toString(Runtime.getRuntime().availableProcessors())));
 				final ArrayBlockingQueue<Pair<Chunk, Integer>> chunkQueue = new ArrayBlockingQueue<>(numberOfThreads);
 				final ReorderingBlockingQueue<LongArrayBitVector> queue = new ReorderingBlockingQueue<>(numberOfThreads * 128);
-				final ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads + 2);
-				final ExecutorCompletionService<Void> executorCompletionService = new ExecutorCompletionService<>(executorService);
-
-				executorCompletionService.submit(() -> {
+				// The producer and the consumer have their own threads, so solvers can run on a shared, possibly busy executor service
+				final ExecutorService executorService = Executors.newFixedThreadPool(solverExecutor == null ? numberOfThreads + 2 : 2);
+				final LinkedBlockingQueue<Future<Void>> completed = new LinkedBlockingQueue<>();
+				final ExecutorCompletionService<Void> executorCompletionService = new ExecutorCompletionService<>(executorService, completed);
+				final ExecutorCompletionService<Void> solverCompletionService = solverExecutor == null ? executorCompletionService : new ExecutorCompletionService<>(solverExecutor, completed);
+				final List<Future<Void>> futures = new ArrayList<>();
+
+				futures.add(executorCompletionService.submit(() -> {
 					for(;;) {
 						final LongArrayBitVector data = queue.take();
 						if (data == END_OF_SOLUTION_QUEUE) return null;
 						offlineData.add(data);
 					}
-				});
+				}));
 
 				final ChunkedHashStore<T> chs = chunkedHashStore;
-				executorCompletionService.submit(() -> {
-					try {
-						final Iterator<Chunk> iterator = chs.iterator();
+				futures.add(executorCompletionService.submit(() -> {
+					try (final ChunkIterator iterator = chs.prefetchingIterator()) {
 						for(int i1 = 0; iterator.hasNext(); i1++) {
 							final Chunk chunk = new Chunk(iterator.next());
 							assert i1 == chunk.index();
@@ -475,11 +554,12 @@ public class GV4CompressedFunction<T> extends AbstractObject2LongFunction<T> imp
 						for(int i2 = numberOfThreads; i2-- != 0;) chunkQueue.put(END_OF_CHUNK_QUEUE);
 					}
 					return null;
-				});
+				}));
 
 				final AtomicInteger activeThreads = new AtomicInteger(numberOfThreads);
-				for(int i = numberOfThreads; i-- != 0;) executorCompletionService.submit(() -> {
-					Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+				for(int i = numberOfThreads; i-- != 0;) futures.add(solverCompletionService.submit(() -> {
+					// Threads of a shared executor service are not ours to deprioritize
+					if (solverExecutor == null) Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
 					long chunkTime = 0;
 					long outputTime = 0;
 					for(;;) {
@@ -522,7 +602,7 @@ public class GV4CompressedFunction<T> extends AbstractObject2LongFunction<T> imp
 							pl.update();
 						}
 					}
-				});
+				}));
 
 				try {
 					for(int i = numberOfThreads + 2; i-- != 0;)
@@ -536,7 +616,9 @@ public class GV4CompressedFunction<T> extends AbstractObject2LongFunction<T> imp
 					throw new RuntimeException(cause);
 				}
 				finally {
-					executorService.shutdown();
+					// After a failure, tasks might wait forever on the queues: we interrupt them, including those running on a shared executor service
+					for(final Future<Void> future : futures) future.cancel(true);
+					executorService.shutdownNow();
 				}
 
 				LOGGER.info("Unsolvable systems: " + unsolvable.get() + "/" + (unsolvable.get() + numChunks) + " (" + Util.format(100.0 * unsolvable.get() / (unsolvable.get() + numChunks)) + "%)");
@@ -553,12 +635,14 @@ public class GV4CompressedFunction<T> extends AbstractObject2LongFunction<T> imp
 			}
 			catch (final ChunkedHashStore.DuplicateException e) {
 				if (keys == null) throw new IllegalStateException("You provided no keys, but the chunked hash store was not checked");
+				// A duplicate triple generated by equal keys cannot be fixed by rehashing
+				if (chunkedHashStore.duplicate(keys, e.triple()) != null) throw new IllegalArgumentException("The input list contains duplicates");
 				if (duplicates++ > 3) throw new IllegalArgumentException("The input list contains duplicates");
 				LOGGER.warn("Found duplicate. Recomputing triples...");
 				chunkedHashStore.reset(r.nextLong());
 				pl.itemsName = "keys";
-				if (values == null || indirect) chunkedHashStore.addAll(keys.iterator());
-				else chunkedHashStore.addAll(keys.iterator(), values.iterator());
+				if (values == null || indirect) chunkedHashStore.addAll(keys, null);
+				else chunkedHashStore.addAll(keys, values);
 			}
 		}
 
@@ -584,8 +668,9 @@ public class GV4CompressedFunction<T> extends AbstractObject2LongFunction<T> imp
 	@SuppressWarnings("unchecked")
 	public long getLong(final Object o) {
 		if (n == 0) return defRetValue;
-		final int[] e = new int[4];
-		final long[] h = new long[3];
+		final LookupScratch scratch = SCRATCH.get();
+		final int[] e = scratch.e;
+		final long[] h = scratch.triple;
 		Hashes.spooky4(transform.toBitVector((T) o), globalSeed, h);
 		final int chunk = chunkShift == Long.SIZE ? 0 : (int) (h[0] >>> chunkShift);
 		final long olc = offsetAndSeed[chunk];
@@ -595,7 +680,7 @@ public class GV4CompressedFunction<T> extends AbstractObject2LongFunction<T> imp
 		final int w = globalMaxCodewordLength;
 		final int numVariables = (int)(nextChunkOffset - chunkOffset - w);
 		if (numVariables == 0) return defRetValue;
-		Linear4SystemSolver.tripleToEquation(h, chunkSeed, numVariables, e);
+		Linear4SystemSolver.tripleToEquation(h, chunkSeed, numVariables, e, scratch.hash);
 		final long e0 = e[0] + chunkOffset, e1 = e[1] + chunkOffset,
 				e2 = e[2] + chunkOffset, e3 = e[3] + chunkOffset;
 		final long code = data.getLong(e0, e0 + w) ^ data.getLong(e1, e1 + w) ^
@@ -634,6 +719,31 @@ public class GV4CompressedFunction<T> extends AbstractObject2LongFunction<T> imp
 		return true;
 	}
 
+	/** Dumps this function in a flat binary format using the native byte order.
+	 *
+	 * <p>After a {@linkplain DumpWriter header}, the dump is a sequence of longs: the number of keys, the length of the longest codeword,
+	 * the chunk shift, the global seed, the default return value, the length of {@link #offsetAndSeed} followed by its content, and the number
+	 * of words of {@link #data} followed by the words. Finally, if the function is not empty, the dump contains
+	 * the length in bytes of the serialized form of the {@linkplain #decoder decoder}, followed by the serialized form (padded to a multiple of eight bytes).
+	 *
+	 * <p>A dump can be mapped in memory using {@link MappedGV4CompressedFunction#load(String)}.
+	 *
+	 * @param file the name of the dump file.
+	 */
+	public void dump(final String file) throws IOException {
+		try (final DumpWriter writer = new DumpWriter(file)) {
+			writer.writeHeader(DumpWriter.GV4_COMPRESSED_FUNCTION, transform);
+			writer.writeLong(n);
+			writer.writeLong(globalMaxCodewordLength);
+			writer.writeLong(chunkShift);
+			writer.writeLong(globalSeed);
+			writer.writeLong(defRetValue);
+			writer.writeLongs(offsetAndSeed);
+			writer.writeBits(data);
+			if (n != 0) writer.writeObject(decoder);
+		}
+	}
+
 	public static void main(final String[] arg) throws NoSuchMethodException, IOException, JSAPException {
 
 		final SimpleJSAP jsap = new SimpleJSAP(GV4CompressedFunction.class.getName(), "Builds a GOV function mapping a newline-separated list of strings to their ordinal position, or to specific values.",
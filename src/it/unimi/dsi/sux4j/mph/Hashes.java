@@ -2169,9 +2169,37 @@ public class Hashes {
 	 * @see #spooky4(BitVector, long)
 	 */
 	public static long[] preprocessSpooky4(final BitVector bv, final long seed) {
+		return preprocessSpooky4(bv, seed, null);
+	}
+
+	/**
+	 * Preprocesses a bit vector so that SpookyHash 4-word-state can be computed
+	 * in constant time on all prefixes, possibly reusing a given array.
+	 *
+	 * <p>This method does not allocate any object if {@code state} is large enough;
+	 * thus, callers can keep the returned array and pass it again to avoid allocation
+	 * when preprocessing many bit vectors of similar length.
+	 *
+	 * @param bv
+	 *            a bit vector.
+	 * @param seed
+	 *            a seed for the hash.
+	 * @param state
+	 *            an array that will be used to store the state, if it is
+	 *            large enough, or {@code null}.
+	 * @return an array containing the four internal words of state during the
+	 *         hash computation (either {@code state} or a newly allocated
+	 *         array), or {@code null} if {@code bv} is shorter than 128 bits;
+	 *         the array can be passed to
+	 *         {@link #spooky4(BitVector, long, long, long[], long[])} (and
+	 *         analogous methods).
+	 * @see #preprocessSpooky4(BitVector, long)
+	 */
+	public static long[] preprocessSpooky4(final BitVector bv, final long seed, long[] state) {
 		final long length = bv.length();
 		if (length < Long.SIZE * 2) return null;
-		final long[] state = new long[4 * (int) (length + Long.SIZE * 2) / (4 * Long.SIZE)];
+		final int stateLength = 4 * (int) (length + Long.SIZE * 2) / (4 * Long.SIZE);
+		if (state == null || state.length < stateLength) state = new long[stateLength];
 
 		long h0, h1, h2, h3;
 		h0 = seed;
@@ -2430,6 +2458,75 @@ public class Hashes {
 		return h0;
 	}
 
+	/**
+	 * SpookyHash 4-word-state (up to four values produced) for a 64-bit key.
+	 *
+	 * <p>This method returns the same hashes as {@link #spooky4(BitVector, long, long[])}
+	 * applied to a bit vector of length {@link Long#SIZE} whose bits are those of {@code key} (bit <var>i</var> of the
+	 * bit vector being bit <var>i</var> of {@code key}), but it does not need to create a bit vector.
+	 *
+	 * @param key
+	 *            a 64-bit key.
+	 * @param seed
+	 *            a seed for the hash.
+	 * @param tuple
+	 *            a tuple of longs in which up to four generated hashes will be
+	 *            saved.
+	 */
+	@SuppressWarnings({"fallthrough"})
+	public static void spooky4(final long key, final long seed, final long[] tuple) {
+		long h0, h1, h2, h3;
+		h0 = seed + Long.SIZE;
+		h1 = seed;
+		h2 = ARBITRARY_BITS + key;
+		h3 = ARBITRARY_BITS;
+
+		h3 ^= h2;
+		h2 = Long.rotateLeft(h2, 15);
+		h3 += h2;
+		h0 ^= h3;
+		h3 = Long.rotateLeft(h3, 52);
+		h0 += h3;
+		h1 ^= h0;
+		h0 = Long.rotateLeft(h0, 26);
+		h1 += h0;
+		h2 ^= h1;
+		h1 = Long.rotateLeft(h1, 51);
+		h2 += h1;
+		h3 ^= h2;
+		h2 = Long.rotateLeft(h2, 28);
+		h3 += h2;
+		h0 ^= h3;
+		h3 = Long.rotateLeft(h3, 9);
+		h0 += h3;
+		h1 ^= h0;
+		h0 = Long.rotateLeft(h0, 47);
+		h1 += h0;
+		h2 ^= h1;
+		h1 = Long.rotateLeft(h1, 54);
+		h2 += h1;
+		h3 ^= h2;
+		h2 = Long.rotateLeft(h2, 32);
+		h3 += h2;
+		h0 ^= h3;
+		h3 = Long.rotateLeft(h3, 25);
+		h0 += h3;
+		h1 ^= h0;
+		h0 = Long.rotateLeft(h0, 63);
+		h1 += h0;
+
+		switch (tuple.length) {
+		case 4:
+			tuple[3] = h3;
+		case 3:
+			tuple[2] = h2;
+		case 2:
+			tuple[1] = h1;
+		case 1:
+			tuple[0] = h0;
+		}
+	}
+
 	/**
 	 * SpookyHash (up to four values produced) for a triple of longs.
 	 *
@@ -230,11 +230,26 @@ public class HypergraphSorter<T> {
 	 * @see #bitVectorToEdge(BitVector, long, int, int, int[])
 	 */
 	public static void tripleToEdge(final long[] triple, final long seed, final int numVertices, final int partSize, final int e[]) {
+		tripleToEdge(triple, seed, numVertices, partSize, e, new long[3]);
+	}
+
+	/** Turns a triple of longs into a 3-hyperedge using a caller-provided array to store the intermediate hashes.
+	 *
+	 * <p>This method does not allocate any object.
+	 *
+	 * @param triple a triple of intermediate hashes.
+	 * @param seed the seed for the hash function.
+	 * @param numVertices the number of vertices in the underlying hypergraph.
+	 * @param partSize <code>numVertices</code>/3 (to avoid a division).
+	 * @param e an array to store the resulting edge.
+	 * @param hash an array of length 3 that will be used to store intermediate hashes.
+	 * @see #tripleToEdge(long[], long, int, int, int[])
+	 */
+	public static void tripleToEdge(final long[] triple, final long seed, final int numVertices, final int partSize, final int e[], final long[] hash) {
 		if (numVertices == 0) {
 			e[0] = e[1] = e[2] = -1;
 			return;
 		}
-		final long[] hash = new long[3];
 		Hashes.spooky4(triple, seed, hash);
 		e[0] = (int)((hash[0] & 0x7FFFFFFFFFFFFFFFL) % partSize);
 		e[1] = (int)(partSize + (hash[1] & 0x7FFFFFFFFFFFFFFFL) % partSize);
@@ -340,11 +355,12 @@ public class HypergraphSorter<T> {
 		// We cache all variables for faster access
 		final int[] d = this.d;
 		final int[] e = new int[3];
+		final long[] hash = new long[3];
 		cleanUpIfNecessary();
 
 		/* We build the XOR'd edge list and compute the degree of each vertex. */
 		for(int k = 0; k < numEdges; k++) {
-			tripleToEdge(iterator.next(), seed, numVertices, partSize, e);
+			tripleToEdge(iterator.next(), seed, numVertices, partSize, e, hash);
 			xorEdge(k, e[0], e[1], e[2], false);
 			d[e[0]]++;
 			d[e[1]]++;
@@ -78,6 +78,8 @@ import it.unimi.dsi.sux4j.io.ChunkedHashStore;
 public class LcpMonotoneMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> implements Size64, Serializable {
     public static final long serialVersionUID = 4L;
 	private static final Logger LOGGER = LoggerFactory.getLogger(LcpMonotoneMinimalPerfectHashFunction.class);
+	/** Per-thread scratch space for lookups. */
+	private static final ThreadLocal<LookupScratch> SCRATCH = LookupScratch.threadLocal();
 	private static final boolean DEBUG = false;
 	private static final boolean ASSERTS = false;
 
@@ -349,12 +351,13 @@ public class LcpMonotoneMinimalPerfectHashFunction<T> extends AbstractHashFuncti
 	public long getLong(final Object o) {
 		if (n == 0) return defRetValue;
 		final BitVector bitVector = transform.toBitVector((T)o);
-		final long[] triple = new long[3];
+		final LookupScratch scratch = SCRATCH.get();
+		final long[] triple = scratch.triple;
 		Hashes.spooky4(bitVector, seed, triple);
 		final long value = offsetLcpLength.getLongByTriple(triple);
 		final long prefix = value >>> log2BucketSize;
 		if (prefix > bitVector.length()) return defRetValue;
-		final long result = (lcp2Bucket.getLong(bitVector.subVector(0, prefix)) << log2BucketSize) + (value & bucketSizeMask);
+		final long result = (lcp2Bucket.getLong(scratch.prefix(bitVector, prefix)) << log2BucketSize) + (value & bucketSizeMask);
 		if (signatureMask != 0) return result < 0 || result >= n || signatures.getLong(result) != (triple[0] & signatureMask) ? defRetValue : result;
 		// Out-of-set strings can generate bizarre 3-hyperedges.
 		return result < 0 || result >= n ? defRetValue : result;
@@ -373,6 +376,33 @@ public class LcpMonotoneMinimalPerfectHashFunction<T> extends AbstractHashFuncti
 		return offsetLcpLength.numBits() + lcp2Bucket.numBits() + transform.numBits();
 	}
 
+	/** Dumps this function in a flat binary format using the native byte order.
+	 *
+	 * <p>After a {@linkplain DumpWriter header}, the dump is a sequence of longs: the number of keys, the base-2 logarithm of the bucket size,
+	 * the seed and the default return value. If the function is not empty, the {@linkplain GOV3Function#dump(String) dumps} of {@link #offsetLcpLength} and {@link #lcp2Bucket} follow.
+	 * Finally, the dump contains the signature mask; if it is nonzero, the number of words used to store the signatures follows,
+	 * followed by the signature words.
+	 *
+	 * <p>A dump can be mapped in memory using {@link MappedLcpMonotoneMinimalPerfectHashFunction#load(String)}.
+	 *
+	 * @param file the name of the dump file.
+	 */
+	public void dump(final String file) throws IOException {
+		try (final DumpWriter writer = new DumpWriter(file)) {
+			writer.writeHeader(DumpWriter.LCP_MONOTONE_MINIMAL_PERFECT_HASH_FUNCTION, transform);
+			writer.writeLong(n);
+			writer.writeLong(log2BucketSize);
+			writer.writeLong(seed);
+			writer.writeLong(defRetValue);
+			if (n != 0) {
+				offsetLcpLength.dump(writer);
+				lcp2Bucket.dump(writer);
+			}
+			writer.writeLong(signatureMask);
+			if (signatureMask != 0) writer.writeBits(signatures, Long.bitCount(signatureMask));
+		}
+	}
+
 	public static void main(final String[] arg) throws NoSuchMethodException, IOException, JSAPException {
 
 		final SimpleJSAP jsap = new SimpleJSAP(LcpMonotoneMinimalPerfectHashFunction.class.getName(), "Builds an LCP-based monotone minimal perfect hash function reading a newline-separated list of strings.",
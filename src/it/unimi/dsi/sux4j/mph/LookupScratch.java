@@ -0,0 +1,97 @@
+package it.unimi.dsi.sux4j.mph;
+
+/*
+ * Sux4J: Succinct data structures for Java
+ *
+ * Copyright (C) 2018 Sebastiano Vigna
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.dsi.bits.BitVector;
+import it.unimi.dsi.bits.LongArrayBitVector;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.sux4j.mph.solve.Linear3SystemSolver;
+import it.unimi.dsi.sux4j.mph.solve.Linear4SystemSolver;
+
+/** Scratch space making lookups allocation-free.
+ *
+ * <p>Lookup methods need a few small arrays (a triple of hashes, the intermediate hashes and the variables of an equation,
+ * and possibly the SpookyHash state or a prefix of a key). Allocating them at each call is a significant
+ * cost for functions queried in tight loops, so each class keeps an instance of this class per thread
+ * in a {@link ThreadLocal} returned by {@link #threadLocal()}.
+ *
+ * <p>Since the thread-local variable is private to a class, the arrays of an instance can be freely used
+ * by the lookup methods of the class that owns it, even when such methods call lookup methods
+ * of other classes; however, a lookup method must never call another lookup method of the same class
+ * while it is still using the arrays.
+ */
+
+final class LookupScratch {
+	/** A triple of hashes of a key. */
+	final long[] triple = new long[3];
+	/** A triple of hashes of a prefix of a key. */
+	final long[] prefixTriple = new long[3];
+	/** The intermediate hashes of
+	 * {@link Linear3SystemSolver#tripleToEquation(long[], long, int, int[], long[])} and
+	 * {@link Linear4SystemSolver#tripleToEquation(long[], long, int, int[], long[])}. */
+	final long[] hash = new long[4];
+	/** The variables of an equation. */
+	final int[] e = new int[4];
+	/** The state returned by {@link Hashes#preprocessSpooky4(BitVector, long, long[])}, enlarged as needed. */
+	long[] state = LongArrays.EMPTY_ARRAY;
+	/** A bit vector used to store prefixes of keys. */
+	final LongArrayBitVector prefix = LongArrayBitVector.getInstance();
+
+	private LookupScratch() {}
+
+	/** Returns a new thread-local variable whose initial value is a new scratch space.
+	 *
+	 * @return a new thread-local variable whose initial value is a new scratch space.
+	 */
+	static ThreadLocal<LookupScratch> threadLocal() {
+		return ThreadLocal.withInitial(LookupScratch::new);
+	}
+
+	/** Preprocesses a bit vector using {@link #state} as storage.
+	 *
+	 * @param bv a bit vector.
+	 * @param seed a seed for the hash.
+	 * @return the preprocessed state of {@code bv} (possibly {@link #state}), or {@code null} if {@code bv} is shorter than 128 bits.
+	 * @see Hashes#preprocessSpooky4(BitVector, long, long[])
+	 */
+	long[] preprocessSpooky4(final BitVector bv, final long seed) {
+		final long[] state = Hashes.preprocessSpooky4(bv, seed, this.state);
+		if (state != null) this.state = state;
+		return state;
+	}
+
+	/** Copies a prefix of a bit vector into {@link #prefix}.
+	 *
+	 * <p>This method replaces {@link BitVector#subVector(long, long) bv.subVector(0, length)}, which would allocate a view.
+	 *
+	 * @param bv a bit vector.
+	 * @param length the length of the prefix of {@code bv} to be copied.
+	 * @return {@link #prefix}, containing the first {@code length} bits of {@code bv}.
+	 */
+	LongArrayBitVector prefix(final BitVector bv, final long length) {
+		prefix.length(0);
+		for(long from = 0; from < length; from += Long.SIZE) {
+			final long to = Math.min(from + Long.SIZE, length);
+			prefix.append(bv.getLong(from, to), (int)(to - from));
+		}
+		return prefix;
+	}
+}
@@ -0,0 +1,167 @@
+package it.unimi.dsi.sux4j.mph;
+
+/*
+ * Sux4J: Succinct data structures for Java
+ *
+ * Copyright (C) 2018 Sebastiano Vigna
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import it.unimi.dsi.bits.TransformationStrategy;
+import it.unimi.dsi.sux4j.io.ChunkedHashStore;
+
+/** A {@link CHDMinimalPerfectHashFunction} answering lookups directly from a memory-mapped {@linkplain CHDMinimalPerfectHashFunction#dump(String) dump}.
+ *
+ * <p>An instance of this class returns exactly the same values of the original function, but loading takes constant time,
+ * the data is not on the heap, and pages are loaded by the operating system when needed. Since a dump uses the native byte order,
+ * it can be loaded only on a platform with the same byte order as the one that generated it.
+ *
+ * <p>Instances of this class are thread-safe. They serialize just the name of the dump file: upon deserialization,
+ * the file is mapped again, so it must be available (at the same path) to the deserializing process.
+ *
+ * @author Sebastiano Vigna
+ * @since 4.3.0
+ */
+
+public class MappedCHDMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> {
+	private static final long serialVersionUID = 0L;
+	/** Per-thread scratch space for lookups. */
+	private static final ThreadLocal<LookupScratch> SCRATCH = LookupScratch.threadLocal();
+	/** The number of keys. */
+	private final long n;
+	/** The shift to get the chunk from the first hash. */
+	private final int chunkShift;
+	/** The seed used to generate the initial hash triple. */
+	private final long globalSeed;
+	/** The position of the offsets, cumulative numbers of buckets and seeds of the chunks. */
+	private final long offsetNumBucketsSeed;
+	/** The width of the coefficients. */
+	private final int width;
+	/** The position of the coefficients. */
+	private final long coefficients;
+	/** The position of the marker bits of the holes, or -1 if there are no holes. */
+	private final long marker;
+	/** The position of the counts of ones before each block of marker words. */
+	private final long superCount;
+	/** The position of the 16-bit counts of ones in a block before each pair of marker words. */
+	private final long count;
+	/** The mask to compare signatures, or zero for no signatures. */
+	private final long signatureMask;
+	/** The position of the signatures. */
+	private final long signatures;
+	/** The transformation strategy. */
+	private final TransformationStrategy<? super T> transform;
+	/** The mapped dump. */
+	private final MappedDump dump;
+
+	/** Creates a function answering lookups from a mapped dump.
+	 *
+	 * @param dump a mapped dump of a {@link CHDMinimalPerfectHashFunction}.
+	 * @param transform the transformation strategy used to build the function, or {@code null} to use the one specified in the dump.
+	 */
+	protected MappedCHDMinimalPerfectHashFunction(final MappedDump dump, final TransformationStrategy<? super T> transform) throws IOException {
+		this.dump = dump;
+		final MappedDump.Cursor cursor = dump.cursor(0);
+		this.transform = cursor.header(DumpWriter.CHD_MINIMAL_PERFECT_HASH_FUNCTION, transform);
+		n = cursor.nextLong();
+		chunkShift = (int)cursor.nextLong();
+		globalSeed = cursor.nextLong();
+		defRetValue = cursor.nextLong();
+		offsetNumBucketsSeed = cursor.skipWords();
+		width = (int)cursor.nextLong();
+		coefficients = cursor.skipWords();
+		final long m = cursor.nextLong();
+		if (m != 0) {
+			final long numWords = (m + Long.SIZE - 1) / Long.SIZE;
+			marker = cursor.skip(numWords);
+			superCount = cursor.skip((numWords + DumpWriter.BLOCK_LENGTH - 1) / DumpWriter.BLOCK_LENGTH);
+			count = cursor.skip(((numWords + 1) / 2 + 3) / 4);
+		}
+		else marker = superCount = count = -1;
+		signatureMask = cursor.nextLong();
+		signatures = signatureMask != 0 ? cursor.skipWords() : -1;
+		cursor.end();
+	}
+
+	/** Maps a {@linkplain CHDMinimalPerfectHashFunction#dump(String) dump} of a {@link CHDMinimalPerfectHashFunction} built using a standard transformation strategy.
+	 *
+	 * @param file the dump file.
+	 * @return a function answering lookups from the mapped dump.
+	 */
+	public static <T> MappedCHDMinimalPerfectHashFunction<T> load(final String file) throws IOException {
+		return load(file, null);
+	}
+
+	/** Maps a {@linkplain CHDMinimalPerfectHashFunction#dump(String) dump} of a {@link CHDMinimalPerfectHashFunction}.
+	 *
+	 * @param file the dump file.
+	 * @param transform the transformation strategy used to build the function.
+	 * @return a function answering lookups from the mapped dump.
+	 */
+	public static <T> MappedCHDMinimalPerfectHashFunction<T> load(final String file, final TransformationStrategy<? super T> transform) throws IOException {
+		return new MappedCHDMinimalPerfectHashFunction<>(new MappedDump(new File(file), MappedDump.LOG2_SEGMENT_SIZE), transform);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public long getLong(final Object key) {
+		if (n == 0) return defRetValue;
+		final LookupScratch scratch = SCRATCH.get();
+		final long[] triple = scratch.triple;
+		Hashes.spooky4(transform.toBitVector((T)key), globalSeed, triple);
+		return getLongByTriple(triple, scratch);
+	}
+
+	/** Low-level access to the output of this function.
+	 *
+	 * @param triple a triple generated as documented in {@link ChunkedHashStore}.
+	 * @return the output of the function.
+	 */
+	public long getLongByTriple(final long[] triple) {
+		if (n == 0) return defRetValue;
+		return getLongByTriple(triple, SCRATCH.get());
+	}
+
+	private long getLongByTriple(final long[] triple, final LookupScratch scratch) {
+		final int chunk = chunkShift == Long.SIZE ? 0 : (int)(triple[0] >>> chunkShift);
+		final long base = offsetNumBucketsSeed + Long.BYTES * (chunk * 3L);
+		final long chunkOffset = dump.longAt(base);
+		final int p = (int)(dump.longAt(base + 3 * Long.BYTES) - chunkOffset);
+
+		final long[] h = scratch.hash;
+		Hashes.spooky4(triple, dump.longAt(base + 2 * Long.BYTES), h);
+		h[1] = CHDMinimalPerfectHashFunction.spread(h[1], p);
+		h[2] = CHDMinimalPerfectHashFunction.spread(h[2], p - 1) + 1;
+
+		final long numBuckets = dump.longAt(base + Long.BYTES);
+		final long c = dump.getBits(coefficients, numBuckets + CHDMinimalPerfectHashFunction.spread(h[0], dump.longAt(base + 4 * Long.BYTES) - numBuckets), width);
+
+		long result = chunkOffset + (int)((h[1] + (c % p) * h[2] + c / p) % p);
+		if (marker != -1) result -= dump.rank(marker, superCount, count, result);
+
+		if (signatureMask != 0) return result >= n || ((dump.getBits(signatures, result, Long.bitCount(signatureMask)) ^ triple[0]) & signatureMask) != 0 ? defRetValue : result;
+		// Out-of-set strings can generate bizarre 3-hyperedges.
+		return result < n ? result : defRetValue;
+	}
+
+	@Override
+	public long size64() {
+		return n;
+	}
+}
@@ -0,0 +1,257 @@
+package it.unimi.dsi.sux4j.mph;
+
+/*
+ * Sux4J: Succinct data structures for Java
+ *
+ * Copyright (C) 2018 Sebastiano Vigna
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import it.unimi.dsi.bits.TransformationStrategy;
+
+/** A memory-mapped dump written by a {@link DumpWriter}.
+ *
+ * <p>The file is mapped in segments, so there is no limit on its size. Instances of this class
+ * serialize just the name of the dump file: upon deserialization, the file is mapped again, so it must be available
+ * (at the same path) to the deserializing process. Mapped structures sharing a dump share the same instance,
+ * so the file is mapped just once.
+ *
+ * <p>Positions are expressed in bytes from the start of the file. Dumps are parsed using a {@link Cursor}.
+ */
+
+final class MappedDump implements Serializable {
+	private static final long serialVersionUID = 0L;
+	/** The default base-2 logarithm of the size in bytes of a mapped segment. */
+	static final int LOG2_SEGMENT_SIZE = 30;
+
+	/** The dump file. */
+	private final File file;
+	/** The base-2 logarithm of the size in bytes of a mapped segment. */
+	private final int log2SegmentSize;
+	/** The mask to get the position in a mapped segment. */
+	private final long segmentMask;
+	/** The length of {@link #file}. */
+	private transient long length;
+	/** The mapped segments of the dump. */
+	private transient ByteBuffer[] segment;
+
+	/** A cursor parsing a dump sequentially. */
+	final class Cursor {
+		/** The current position. */
+		private long pos;
+
+		private Cursor(final long pos) {
+			this.pos = pos;
+		}
+
+		/** Returns the dump parsed by this cursor. */
+		public MappedDump dump() {
+			return MappedDump.this;
+		}
+
+		/** Returns the current position. */
+		public long position() {
+			return pos;
+		}
+
+		/** Returns the next long. */
+		public long nextLong() throws IOException {
+			if (pos < 0 || pos + Long.BYTES > length) throw new IOException("File " + file + " is not a valid dump (truncated)");
+			final long l = longAt(pos);
+			pos += Long.BYTES;
+			return l;
+		}
+
+		/** Skips a given number of longs.
+		 *
+		 * @param numWords a number of longs.
+		 * @return the position of the first skipped long.
+		 */
+		public long skip(final long numWords) {
+			final long start = pos;
+			pos += numWords * Long.BYTES;
+			return start;
+		}
+
+		/** Skips a sequence of longs preceded by their number, as written by {@link DumpWriter#writeLongs(long[])} or
+		 * {@link DumpWriter#writeBits(it.unimi.dsi.fastutil.longs.LongBigList, int)}.
+		 *
+		 * @return the position of the first skipped long.
+		 */
+		public long skipWords() throws IOException {
+			return skip(nextLong());
+		}
+
+		/** Reads an object written by {@link DumpWriter#writeObject(Object)}.
+		 *
+		 * @return the object.
+		 */
+		public Object nextObject() throws IOException {
+			final byte[] a = new byte[(int)nextLong()];
+			for(int i = 0; i < a.length; i += Long.BYTES) {
+				long word = nextLong();
+				for(int j = 0; j < Long.BYTES && i + j < a.length; j++, word >>>= Byte.SIZE) a[i + j] = (byte)word;
+			}
+			try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(a))) {
+				return ois.readObject();
+			}
+			catch (final ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+		}
+
+		/** Reads a header written by {@link DumpWriter#writeHeader(long, TransformationStrategy)}.
+		 *
+		 * @param kind the expected kind of the dump.
+		 * @param transform a transformation strategy, or {@code null} to use the standard strategy specified in the header.
+		 * @return the transformation strategy of the dump.
+		 */
+		@SuppressWarnings("unchecked")
+		public <T> TransformationStrategy<T> header(final long kind, final TransformationStrategy<T> transform) throws IOException {
+			if (length < DumpWriter.HEADER_LENGTH * Long.BYTES || nextLong() != DumpWriter.MAGIC) throw new IOException("File " + file + " is not a dump (wrong magic number or wrong byte order)");
+			final long version = nextLong();
+			if (version != DumpWriter.VERSION) throw new IOException("Unsupported version " + version + " for dump " + file);
+			final long actualKind = nextLong();
+			if (actualKind != kind) throw new IOException("File " + file + " contains a dump of kind " + actualKind + ", but kind " + kind + " was expected");
+			final long hash = nextLong();
+			if (hash != DumpWriter.SPOOKY4) throw new IOException("Unsupported hash scheme " + hash + " for dump " + file);
+			final long code = nextLong();
+			if (transform != null) return transform;
+			if (code <= 0 || code >= DumpWriter.TRANSFORMS.length) throw new IllegalArgumentException("The dump " + file + " uses a custom transformation strategy, which must be specified explicitly");
+			return (TransformationStrategy<T>)DumpWriter.TRANSFORMS[(int)code];
+		}
+
+		/** Checks that the whole dump has been parsed. */
+		public void end() throws IOException {
+			if (pos != length) throw new IOException("File " + file + " is not a valid dump");
+		}
+	}
+
+	/** Maps a dump.
+	 *
+	 * @param file the dump file.
+	 * @param log2SegmentSize the base-2 logarithm of the size in bytes of a mapped segment.
+	 */
+	public MappedDump(final File file, final int log2SegmentSize) throws IOException {
+		this.file = file.getAbsoluteFile();
+		this.log2SegmentSize = log2SegmentSize;
+		this.segmentMask = (1L << log2SegmentSize) - 1;
+		map();
+	}
+
+	/** Maps {@link #file} into {@link #segment}. */
+	private void map() throws IOException {
+		try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+			final FileChannel channel = randomAccessFile.getChannel();
+			length = channel.size();
+			if (length % Long.BYTES != 0) throw new IOException("File " + file + " is not a valid dump");
+			segment = new ByteBuffer[(int)((length + segmentMask) >>> log2SegmentSize)];
+			for(int i = 0; i < segment.length; i++) {
+				final long start = (long)i << log2SegmentSize;
+				segment[i] = channel.map(MapMode.READ_ONLY, start, Math.min(segmentMask + 1, length - start)).order(ByteOrder.nativeOrder());
+			}
+		}
+	}
+
+	/** Returns a cursor starting at a given position.
+	 *
+	 * @param pos a position.
+	 * @return a cursor starting at {@code pos}.
+	 */
+	public Cursor cursor(final long pos) {
+		return new Cursor(pos);
+	}
+
+	/** Returns the dump file. */
+	public File file() {
+		return file;
+	}
+
+	/** Returns the long at a given position. */
+	public long longAt(final long pos) {
+		return segment[(int)(pos >>> log2SegmentSize)].getLong((int)(pos & segmentMask));
+	}
+
+	/** Returns a value of given width from a sequence of words packed as in a {@link it.unimi.dsi.bits.LongArrayBitVector}.
+	 *
+	 * @param base the position of the first word.
+	 * @param from the index of the first bit of the value.
+	 * @param width the width of the value.
+	 * @return the value.
+	 */
+	public long bits(final long base, final long from, final int width) {
+		if (width == 0) return 0;
+		final long word = base + Long.BYTES * (from >>> 6);
+		final int bit = (int)(from & 63);
+		final long mask = -1L >>> -width;
+		if (bit + width <= Long.SIZE) return longAt(word) >>> bit & mask;
+		return (longAt(word) >>> bit | longAt(word + Long.BYTES) << -bit) & mask;
+	}
+
+	/** Returns a value from a list of fixed-width values written by {@link DumpWriter#writeBits(it.unimi.dsi.fastutil.longs.LongBigList, int)}.
+	 *
+	 * @param base the position of the first word.
+	 * @param index the index of the value.
+	 * @param width the width of the value.
+	 * @return the value.
+	 */
+	public long getBits(final long base, final long index, final int width) {
+		return bits(base, index * width, width);
+	}
+
+	/** Returns whether a marker bit is set.
+	 *
+	 * @param marker the position of the first marker word.
+	 * @param pos the index of a marker bit.
+	 * @return whether the marker bit of index {@code pos} is set.
+	 */
+	public boolean getBoolean(final long marker, final long pos) {
+		return (longAt(marker + Long.BYTES * (pos >>> 6)) & 1L << pos) != 0;
+	}
+
+	/** Returns the rank of a position in marker bits written by {@link DumpWriter#writeMarker(long[], long)}, using the same counts of {@link it.unimi.dsi.sux4j.bits.Rank16}.
+	 *
+	 * @param marker the position of the first marker word.
+	 * @param superCount the position of the counts of ones before each block of marker words.
+	 * @param count the position of the 16-bit counts of ones in a block before each pair of marker words.
+	 * @param pos the index of a marker bit.
+	 * @return the number of ones before {@code pos}.
+	 */
+	public long rank(final long marker, final long superCount, final long count, final long pos) {
+		final long word = pos >>> 6;
+		final long pair = word >>> 1;
+		final long packed = longAt(count + Long.BYTES * (pair >>> 2));
+		long rank = longAt(superCount + Long.BYTES * (word / DumpWriter.BLOCK_LENGTH)) + (packed >>> 16 * (pair & 3) & 0xFFFF);
+		if ((word & 1) != 0) rank += Long.bitCount(longAt(marker + Long.BYTES * (word - 1)));
+		return rank + Long.bitCount(longAt(marker + Long.BYTES * word) & (1L << pos) - 1);
+	}
+
+	private void readObject(final ObjectInputStream s) throws IOException, ClassNotFoundException {
+		s.defaultReadObject();
+		map();
+	}
+}
@@ -0,0 +1,200 @@
+package it.unimi.dsi.sux4j.mph;
+
+/*
+ * Sux4J: Succinct data structures for Java
+ *
+ * Copyright (C) 2018 Sebastiano Vigna
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import it.unimi.dsi.bits.TransformationStrategy;
+import it.unimi.dsi.sux4j.io.ChunkedHashStore;
+import it.unimi.dsi.sux4j.mph.solve.Linear3SystemSolver;
+
+/** A {@link GOV3Function} answering lookups directly from a memory-mapped {@linkplain GOV3Function#dump(String) dump}.
+ *
+ * <p>Deserializing a large {@link GOV3Function} requires reading all its data into the heap. An instance of this class,
+ * instead, maps a dump with {@link FileChannel#map(MapMode, long, long)} and
+ * returns exactly the same values of the original function (including the handling of signatures, dictionaries
+ * and compacted functions). Loading takes constant time, the data is not on the heap, and
+ * pages are loaded by the operating system when needed. The file is mapped in segments, so there is no limit on its size.
+ *
+ * <p>A dump does not contain the transformation strategy, which must be provided at load time, and must be the same one
+ * used to build the function. Since a dump uses the native byte order, it can be loaded only on a platform with the same
+ * byte order as the one that generated it.
+ *
+ * <p>Instances of this class are thread-safe. They serialize just the name of the dump file: upon deserialization,
+ * the file is mapped again, so it must be available (at the same path) to the deserializing process.
+ *
+ * @author Sebastiano Vigna
+ * @since 4.3.0
+ */
+
+public class MappedGOV3Function<T> extends AbstractHashFunction<T> {
+	private static final long serialVersionUID = 0L;
+	/** Per-thread scratch space for lookups. */
+	private static final ThreadLocal<LookupScratch> SCRATCH = LookupScratch.threadLocal();
+	/** The number of keys. */
+	private final long n;
+	/** The value width. */
+	private final int width;
+	/** The shift to get the chunk from the first hash. */
+	private final int chunkShift;
+	/** The seed used to generate the initial hash triple. */
+	private final long globalSeed;
+	/** The position of the offsets and seeds of the chunks. */
+	private final long offsetAndSeed;
+	/** The position of the values. */
+	private final long data;
+	/** The mask to compare signatures, or zero for no signatures. */
+	private final long signatureMask;
+	/** The position of the signatures, or -1 if there are no signatures. */
+	private final long signatures;
+	/** The position of the marker bits, or -1 if the function is not compacted. */
+	private final long marker;
+	/** The position of the counts of ones before each block of marker words. */
+	private final long superCount;
+	/** The position of the 16-bit counts of ones in a block before each pair of marker words. */
+	private final long count;
+	/** The transformation strategy. */
+	private final TransformationStrategy<? super T> transform;
+	/** The mapped dump. */
+	private final MappedDump dump;
+
+	protected MappedGOV3Function(final File file, final TransformationStrategy<? super T> transform, final int log2SegmentSize) throws IOException {
+		this(new MappedDump(file, log2SegmentSize).cursor(0), transform, true);
+	}
+
+	/** Creates a function reading the content of a {@linkplain GOV3Function#dump(String) dump} at the position of a cursor,
+	 * which is moved past the content.
+	 *
+	 * <p>This constructor makes it possible to map a {@link GOV3Function} that is part of a larger dump.
+	 *
+	 * @param cursor a cursor on a mapped dump.
+	 * @param transform the transformation strategy used to build the function.
+	 */
+	MappedGOV3Function(final MappedDump.Cursor cursor, final TransformationStrategy<? super T> transform) throws IOException {
+		this(cursor, transform, false);
+	}
+
+	private MappedGOV3Function(final MappedDump.Cursor cursor, final TransformationStrategy<? super T> transform, final boolean whole) throws IOException {
+		this.dump = cursor.dump();
+		this.transform = transform;
+		n = cursor.nextLong();
+		width = (int)cursor.nextLong();
+		chunkShift = (int)cursor.nextLong();
+		globalSeed = cursor.nextLong();
+		offsetAndSeed = cursor.skipWords();
+		data = cursor.skipWords();
+		signatureMask = cursor.nextLong();
+		if (signatureMask != 0) {
+			final long numWords = cursor.nextLong();
+			signatures = numWords == 0 ? -1 : cursor.skip(numWords);
+		}
+		else signatures = -1;
+		defRetValue = signatureMask != 0 && signatures == -1 ? 0 : -1; // Dictionaries get zero as default return value.
+
+		final long m = cursor.nextLong();
+		if (m != 0) {
+			final long numWords = (m + Long.SIZE - 1) / Long.SIZE;
+			marker = cursor.skip(numWords);
+			superCount = cursor.skip((numWords + DumpWriter.BLOCK_LENGTH - 1) / DumpWriter.BLOCK_LENGTH);
+			count = cursor.skip(((numWords + 1) / 2 + 3) / 4);
+		}
+		else marker = superCount = count = -1;
+		if (whole) cursor.end();
+	}
+
+	/** Maps a {@linkplain GOV3Function#dump(String) dump} of a {@link GOV3Function}.
+	 *
+	 * @param file the dump file.
+	 * @param transform the transformation strategy used to build the function.
+	 * @return a function answering lookups from the mapped dump.
+	 */
+	public static <T> MappedGOV3Function<T> load(final String file, final TransformationStrategy<? super T> transform) throws IOException {
+		return new MappedGOV3Function<>(new File(file), transform, MappedDump.LOG2_SEGMENT_SIZE);
+	}
+
+	/** Returns the value associated with a marker position, or zero if the position is not marked. */
+	private long compacted(final long pos) {
+		return dump.getBoolean(marker, pos) ? dump.getBits(data, dump.rank(marker, superCount, count, pos), width) : 0;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public long getLong(final Object o) {
+		final LookupScratch scratch = SCRATCH.get();
+		Hashes.spooky4(transform.toBitVector((T)o), globalSeed, scratch.triple);
+		return getLongByTriple(scratch.triple, scratch);
+	}
+
+	/** Returns the value associated with a 64-bit key.
+	 *
+	 * @param key a 64-bit key.
+	 * @return the value associated with {@code key}.
+	 * @see GOV3Function#getLong(long)
+	 */
+	public long getLong(final long key) {
+		final LookupScratch scratch = SCRATCH.get();
+		ChunkedHashStore.hash(key, transform, globalSeed, scratch.triple);
+		return getLongByTriple(scratch.triple, scratch);
+	}
+
+	/** Low-level access to the output of this function.
+	 *
+	 * @param triple a triple generated as documented in {@link ChunkedHashStore}.
+	 * @return the output of the function.
+	 * @see GOV3Function#getLongByTriple(long[])
+	 */
+	public long getLongByTriple(final long[] triple) {
+		return getLongByTriple(triple, SCRATCH.get());
+	}
+
+	private long getLongByTriple(final long[] triple, final LookupScratch scratch) {
+		if (n == 0) return defRetValue;
+		final int[] e = scratch.e;
+		final int chunk = chunkShift == Long.SIZE ? 0 : (int)(triple[0] >>> chunkShift);
+		final long offsetSeed = dump.longAt(offsetAndSeed + Long.BYTES * (long)chunk);
+		final long chunkOffset = offsetSeed & GOV3Function.OFFSET_MASK;
+		final int numVariables = (int)((dump.longAt(offsetAndSeed + Long.BYTES * (chunk + 1L)) & GOV3Function.OFFSET_MASK) - chunkOffset);
+		if (numVariables == 0) return defRetValue;
+		Linear3SystemSolver.tripleToEquation(triple, offsetSeed & ~GOV3Function.OFFSET_MASK, numVariables, e, scratch.hash);
+		final long e0 = e[0] + chunkOffset, e1 = e[1] + chunkOffset, e2 = e[2] + chunkOffset;
+
+		final long result = marker == -1 ?
+				dump.getBits(data, e0, width) ^ dump.getBits(data, e1, width) ^ dump.getBits(data, e2, width) :
+				compacted(e0) ^ compacted(e1) ^ compacted(e2);
+		if (signatureMask == 0) return result;
+		if (signatures != -1) return result >= n || dump.getBits(signatures, result, Long.bitCount(signatureMask)) != (triple[0] & signatureMask) ? defRetValue : result;
+		else return ((result ^ triple[0]) & signatureMask) != 0 ? defRetValue : 1;
+	}
+
+	@Override
+	public long size64() {
+		return n;
+	}
+
+	@Override
+	@Deprecated
+	public int size() {
+		return n > Integer.MAX_VALUE ? -1 : (int)n;
+	}
+}
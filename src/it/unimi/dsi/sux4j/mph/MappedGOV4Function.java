@@ -0,0 +1,163 @@
+package it.unimi.dsi.sux4j.mph;
+
+/*
+ * Sux4J: Succinct data structures for Java
+ *
+ * Copyright (C) 2018 Sebastiano Vigna
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import it.unimi.dsi.bits.TransformationStrategy;
+import it.unimi.dsi.sux4j.io.ChunkedHashStore;
+import it.unimi.dsi.sux4j.mph.solve.Linear4SystemSolver;
+
+/** A {@link GOV4Function} answering lookups directly from a memory-mapped {@linkplain GOV4Function#dump(String) dump}.
+ *
+ * <p>An instance of this class returns exactly the same values of the original function, but loading takes constant time,
+ * the data is not on the heap, and pages are loaded by the operating system when needed. Since a dump uses the native byte order,
+ * it can be loaded only on a platform with the same byte order as the one that generated it.
+ *
+ * <p>Instances of this class are thread-safe. They serialize just the name of the dump file: upon deserialization,
+ * the file is mapped again, so it must be available (at the same path) to the deserializing process.
+ *
+ * @author Sebastiano Vigna
+ * @since 4.3.0
+ * @see MappedGOV3Function
+ */
+
+public class MappedGOV4Function<T> extends AbstractHashFunction<T> {
+	private static final long serialVersionUID = 0L;
+	/** Per-thread scratch space for lookups. */
+	private static final ThreadLocal<LookupScratch> SCRATCH = LookupScratch.threadLocal();
+	/** The number of keys. */
+	private final long n;
+	/** The value width. */
+	private final int width;
+	/** The shift to get the chunk from the first hash. */
+	private final int chunkShift;
+	/** The seed used to generate the initial hash triple. */
+	private final long globalSeed;
+	/** The position of the offsets and seeds of the chunks. */
+	private final long offsetAndSeed;
+	/** The position of the values. */
+	private final long data;
+	/** The mask to compare signatures, or zero for no signatures. */
+	private final long signatureMask;
+	/** The position of the signatures, or -1 if there are no signatures. */
+	private final long signatures;
+	/** The transformation strategy. */
+	private final TransformationStrategy<? super T> transform;
+	/** The mapped dump. */
+	private final MappedDump dump;
+
+	/** Creates a function answering lookups from a mapped dump.
+	 *
+	 * @param dump a mapped dump of a {@link GOV4Function}.
+	 * @param transform the transformation strategy used to build the function, or {@code null} to use the one specified in the dump.
+	 */
+	protected MappedGOV4Function(final MappedDump dump, final TransformationStrategy<? super T> transform) throws IOException {
+		this.dump = dump;
+		final MappedDump.Cursor cursor = dump.cursor(0);
+		this.transform = cursor.header(DumpWriter.GOV4_FUNCTION, transform);
+		n = cursor.nextLong();
+		width = (int)cursor.nextLong();
+		chunkShift = (int)cursor.nextLong();
+		globalSeed = cursor.nextLong();
+		defRetValue = cursor.nextLong();
+		offsetAndSeed = cursor.skipWords();
+		data = cursor.skipWords();
+		signatureMask = cursor.nextLong();
+		if (signatureMask != 0) {
+			final long numWords = cursor.nextLong();
+			signatures = numWords == 0 ? -1 : cursor.skip(numWords);
+		}
+		else signatures = -1;
+		cursor.end();
+	}
+
+	/** Maps a {@linkplain GOV4Function#dump(String) dump} of a {@link GOV4Function} built using a standard transformation strategy.
+	 *
+	 * @param file the dump file.
+	 * @return a function answering lookups from the mapped dump.
+	 */
+	public static <T> MappedGOV4Function<T> load(final String file) throws IOException {
+		return load(file, null);
+	}
+
+	/** Maps a {@linkplain GOV4Function#dump(String) dump} of a {@link GOV4Function}.
+	 *
+	 * @param file the dump file.
+	 * @param transform the transformation strategy used to build the function.
+	 * @return a function answering lookups from the mapped dump.
+	 */
+	public static <T> MappedGOV4Function<T> load(final String file, final TransformationStrategy<? super T> transform) throws IOException {
+		return new MappedGOV4Function<>(new MappedDump(new File(file), MappedDump.LOG2_SEGMENT_SIZE), transform);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public long getLong(final Object o) {
+		final LookupScratch scratch = SCRATCH.get();
+		Hashes.spooky4(transform.toBitVector((T)o), globalSeed, scratch.triple);
+		return getLongByTriple(scratch.triple, scratch);
+	}
+
+	/** Returns the value associated with a 64-bit key.
+	 *
+	 * @param key a 64-bit key.
+	 * @return the value associated with {@code key}.
+	 * @see GOV4Function#getLong(long)
+	 */
+	public long getLong(final long key) {
+		final LookupScratch scratch = SCRATCH.get();
+		ChunkedHashStore.hash(key, transform, globalSeed, scratch.triple);
+		return getLongByTriple(scratch.triple, scratch);
+	}
+
+	/** Low-level access to the output of this function.
+	 *
+	 * @param triple a triple generated as documented in {@link ChunkedHashStore}.
+	 * @return the output of the function.
+	 * @see GOV4Function#getLongByTriple(long[])
+	 */
+	public long getLongByTriple(final long[] triple) {
+		return getLongByTriple(triple, SCRATCH.get());
+	}
+
+	private long getLongByTriple(final long[] triple, final LookupScratch scratch) {
+		if (n == 0) return defRetValue;
+		final int[] e = scratch.e;
+		final int chunk = chunkShift == Long.SIZE ? 0 : (int)(triple[0] >>> chunkShift);
+		final long offsetSeed = dump.longAt(offsetAndSeed + Long.BYTES * (long)chunk);
+		final long chunkOffset = offsetSeed & GOV4Function.OFFSET_MASK;
+		final int numVariables = (int)((dump.longAt(offsetAndSeed + Long.BYTES * (chunk + 1L)) & GOV4Function.OFFSET_MASK) - chunkOffset);
+		Linear4SystemSolver.tripleToEquation(triple, offsetSeed & ~GOV4Function.OFFSET_MASK, numVariables, e, scratch.hash);
+		final long e0 = e[0] + chunkOffset, e1 = e[1] + chunkOffset, e2 = e[2] + chunkOffset, e3 = e[3] + chunkOffset;
+
+		final long result = dump.getBits(data, e0, width) ^ dump.getBits(data, e1, width) ^ dump.getBits(data, e2, width) ^ dump.getBits(data, e3, width);
+		if (signatureMask == 0) return result;
+		if (signatures != -1) return result >= n || ((dump.getBits(signatures, result, Long.bitCount(signatureMask)) ^ triple[0]) & signatureMask) != 0 ? defRetValue : result;
+		else return ((result ^ triple[0]) & signatureMask) != 0 ? defRetValue : 1;
+	}
+
+	@Override
+	public long size64() {
+		return n;
+	}
+}
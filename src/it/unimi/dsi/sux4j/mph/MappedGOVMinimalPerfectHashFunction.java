@@ -0,0 +1,140 @@
+package it.unimi.dsi.sux4j.mph;
+
+/*
+ * Sux4J: Succinct data structures for Java
+ *
+ * Copyright (C) 2018 Sebastiano Vigna
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+
+import it.unimi.dsi.bits.TransformationStrategy;
+import it.unimi.dsi.sux4j.mph.solve.Linear3SystemSolver;
+
+/** A {@link GOVMinimalPerfectHashFunction} answering lookups directly from a memory-mapped part of a larger dump
+ * (see {@link GOVMinimalPerfectHashFunction#dump(DumpWriter)}).
+ *
+ * <p>This class is used by the mapped versions of structures containing a {@link GOVMinimalPerfectHashFunction}.
+ * It returns exactly the same values of the original function.
+ *
+ * <p>Instances of this class are thread-safe. They serialize just the name of the dump file: upon deserialization,
+ * the file is mapped again, so it must be available (at the same path) to the deserializing process.
+ *
+ * @author Sebastiano Vigna
+ * @since 4.3.0
+ */
+
+final class MappedGOVMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> {
+	private static final long serialVersionUID = 0L;
+	/** Per-thread scratch space for lookups. */
+	private static final ThreadLocal<LookupScratch> SCRATCH = LookupScratch.threadLocal();
+	/** The number of keys. */
+	private final long n;
+	/** The shift to get the chunk from the first hash. */
+	private final int chunkShift;
+	/** The seed used to generate the initial hash triple. */
+	private final long globalSeed;
+	/** The position of the edge offsets and seeds of the chunks. */
+	private final long edgeOffsetAndSeed;
+	/** The position of the 2-bit values. */
+	private final long array;
+	/** The mask to compare signatures, or zero for no signatures. */
+	private final long signatureMask;
+	/** The position of the signatures, or -1 if there are no signatures. */
+	private final long signatures;
+	/** The transformation strategy. */
+	private final TransformationStrategy<? super T> transform;
+	/** The mapped dump. */
+	private final MappedDump dump;
+
+	/** Creates a function reading the content written by {@link GOVMinimalPerfectHashFunction#dump(DumpWriter)} at the position of a cursor,
+	 * which is moved past the content.
+	 *
+	 * @param cursor a cursor on a mapped dump.
+	 * @param transform the transformation strategy used to build the function.
+	 */
+	MappedGOVMinimalPerfectHashFunction(final MappedDump.Cursor cursor, final TransformationStrategy<? super T> transform) throws IOException {
+		this.dump = cursor.dump();
+		this.transform = transform;
+		n = cursor.nextLong();
+		chunkShift = (int)cursor.nextLong();
+		globalSeed = cursor.nextLong();
+		edgeOffsetAndSeed = cursor.skipWords();
+		array = cursor.skipWords();
+		signatureMask = cursor.nextLong();
+		signatures = signatureMask != 0 ? cursor.skipWords() : -1;
+		defRetValue = -1; // For the very few cases in which we can decide
+	}
+
+	/** Counts the nonzero pairs of bits between two positions of the mapped values.
+	 *
+	 * @see GOVMinimalPerfectHashFunction#countNonzeroPairs(long)
+	 */
+	private long countNonzeroPairs(final long start, final long end) {
+		long block = start / 32;
+		final long endBlock = end / 32;
+		final int startOffset = (int)(start % 32);
+		final int endOffset = (int)(end % 32);
+
+		if (block == endBlock) return GOVMinimalPerfectHashFunction.countNonzeroPairs((dump.longAt(array + Long.BYTES * block) & (1L << endOffset * 2) - 1) >>> startOffset * 2);
+
+		long pairs = 0;
+		if (startOffset != 0) pairs += GOVMinimalPerfectHashFunction.countNonzeroPairs(dump.longAt(array + Long.BYTES * block++) >>> startOffset * 2);
+		while(block < endBlock) pairs += GOVMinimalPerfectHashFunction.countNonzeroPairs(dump.longAt(array + Long.BYTES * block++));
+		if (endOffset != 0) pairs += GOVMinimalPerfectHashFunction.countNonzeroPairs(dump.longAt(array + Long.BYTES * block) & (1L << endOffset * 2) - 1);
+
+		return pairs;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public long getLong(final Object o) {
+		final LookupScratch scratch = SCRATCH.get();
+		Hashes.spooky4(transform.toBitVector((T)o), globalSeed, scratch.triple);
+		return getLongByTriple(scratch.triple, scratch);
+	}
+
+	/** Low-level access to the output of this minimal perfect hash function.
+	 *
+	 * @param triple a triple generated as documented in {@link it.unimi.dsi.sux4j.io.ChunkedHashStore}.
+	 * @return the output of the function.
+	 * @see GOVMinimalPerfectHashFunction#getLongByTriple(long[])
+	 */
+	public long getLongByTriple(final long[] triple) {
+		return getLongByTriple(triple, SCRATCH.get());
+	}
+
+	private long getLongByTriple(final long[] triple, final LookupScratch scratch) {
+		if (n == 0) return defRetValue;
+		final int[] e = scratch.e;
+		final int chunk = chunkShift == Long.SIZE ? 0 : (int)(triple[0] >>> chunkShift);
+		final long edgeOffsetSeed = dump.longAt(edgeOffsetAndSeed + Long.BYTES * (long)chunk);
+		final long chunkOffset = GOVMinimalPerfectHashFunction.vertexOffset(edgeOffsetSeed);
+		final int numVariables = (int)(GOVMinimalPerfectHashFunction.vertexOffset(dump.longAt(edgeOffsetAndSeed + Long.BYTES * (chunk + 1L))) - chunkOffset);
+		if (numVariables == 0) return defRetValue;
+		Linear3SystemSolver.tripleToEquation(triple, edgeOffsetSeed & ~GOVMinimalPerfectHashFunction.OFFSET_MASK, numVariables, e, scratch.hash);
+
+		final long result = (edgeOffsetSeed & GOVMinimalPerfectHashFunction.OFFSET_MASK) + countNonzeroPairs(chunkOffset, chunkOffset + e[(int)(dump.getBits(array, e[0] + chunkOffset, 2) + dump.getBits(array, e[1] + chunkOffset, 2) + dump.getBits(array, e[2] + chunkOffset, 2)) % 3]);
+		if (signatureMask != 0) return result >= n || dump.getBits(signatures, result, Long.bitCount(signatureMask)) != (triple[0] & signatureMask) ? defRetValue : result;
+		return result < n ? result : defRetValue;
+	}
+
+	@Override
+	public long size64() {
+		return n;
+	}
+}
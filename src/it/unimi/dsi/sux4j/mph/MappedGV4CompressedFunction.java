@@ -0,0 +1,133 @@
+package it.unimi.dsi.sux4j.mph;
+
+/*
+ * Sux4J: Succinct data structures for Java
+ *
+ * Copyright (C) 2018 Sebastiano Vigna
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import it.unimi.dsi.bits.TransformationStrategy;
+import it.unimi.dsi.sux4j.mph.codec.Codec;
+import it.unimi.dsi.sux4j.mph.solve.Linear4SystemSolver;
+
+/** A {@link GV4CompressedFunction} answering lookups directly from a memory-mapped {@linkplain GV4CompressedFunction#dump(String) dump}.
+ *
+ * <p>An instance of this class returns exactly the same values of the original function, but loading takes constant time,
+ * the data is not on the heap, and pages are loaded by the operating system when needed. Only the (small) decoder is deserialized
+ * into the heap. Since a dump uses the native byte order, it can be loaded only on a platform with the same
+ * byte order as the one that generated it.
+ *
+ * <p>Instances of this class are thread-safe. They serialize just the name of the dump file: upon deserialization,
+ * the file is mapped again, so it must be available (at the same path) to the deserializing process.
+ *
+ * @author Sebastiano Vigna
+ * @since 4.3.0
+ */
+
+public class MappedGV4CompressedFunction<T> extends AbstractHashFunction<T> {
+	private static final long serialVersionUID = 0L;
+	/** Per-thread scratch space for lookups. */
+	private static final ThreadLocal<LookupScratch> SCRATCH = LookupScratch.threadLocal();
+	/** The number of keys. */
+	private final long n;
+	/** The length of the longest codeword. */
+	private final int globalMaxCodewordLength;
+	/** The shift to get the chunk from the first hash. */
+	private final int chunkShift;
+	/** The seed used to generate the initial hash triple. */
+	private final long globalSeed;
+	/** The position of the offsets and seeds of the chunks. */
+	private final long offsetAndSeed;
+	/** The position of the data. */
+	private final long data;
+	/** The decoder that will be used to yield output values. */
+	private final Codec.Decoder decoder;
+	/** The transformation strategy. */
+	private final TransformationStrategy<? super T> transform;
+	/** The mapped dump. */
+	private final MappedDump dump;
+
+	/** Creates a function answering lookups from a mapped dump.
+	 *
+	 * @param dump a mapped dump of a {@link GV4CompressedFunction}.
+	 * @param transform the transformation strategy used to build the function, or {@code null} to use the one specified in the dump.
+	 */
+	protected MappedGV4CompressedFunction(final MappedDump dump, final TransformationStrategy<? super T> transform) throws IOException {
+		this.dump = dump;
+		final MappedDump.Cursor cursor = dump.cursor(0);
+		this.transform = cursor.header(DumpWriter.GV4_COMPRESSED_FUNCTION, transform);
+		n = cursor.nextLong();
+		globalMaxCodewordLength = (int)cursor.nextLong();
+		chunkShift = (int)cursor.nextLong();
+		globalSeed = cursor.nextLong();
+		defRetValue = cursor.nextLong();
+		offsetAndSeed = cursor.skipWords();
+		data = cursor.skipWords();
+		decoder = n == 0 ? null : (Codec.Decoder)cursor.nextObject();
+		cursor.end();
+	}
+
+	/** Maps a {@linkplain GV4CompressedFunction#dump(String) dump} of a {@link GV4CompressedFunction} built using a standard transformation strategy.
+	 *
+	 * @param file the dump file.
+	 * @return a function answering lookups from the mapped dump.
+	 */
+	public static <T> MappedGV4CompressedFunction<T> load(final String file) throws IOException {
+		return load(file, null);
+	}
+
+	/** Maps a {@linkplain GV4CompressedFunction#dump(String) dump} of a {@link GV4CompressedFunction}.
+	 *
+	 * @param file the dump file.
+	 * @param transform the transformation strategy used to build the function.
+	 * @return a function answering lookups from the mapped dump.
+	 */
+	public static <T> MappedGV4CompressedFunction<T> load(final String file, final TransformationStrategy<? super T> transform) throws IOException {
+		return new MappedGV4CompressedFunction<>(new MappedDump(new File(file), MappedDump.LOG2_SEGMENT_SIZE), transform);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public long getLong(final Object o) {
+		if (n == 0) return defRetValue;
+		final LookupScratch scratch = SCRATCH.get();
+		final int[] e = scratch.e;
+		final long[] h = scratch.triple;
+		Hashes.spooky4(transform.toBitVector((T)o), globalSeed, h);
+		final int chunk = chunkShift == Long.SIZE ? 0 : (int)(h[0] >>> chunkShift);
+		final long olc = dump.longAt(offsetAndSeed + Long.BYTES * (long)chunk);
+		final long chunkOffset = olc & GV4CompressedFunction.OFFSET_MASK;
+		final long nextChunkOffset = dump.longAt(offsetAndSeed + Long.BYTES * (chunk + 1L)) & GV4CompressedFunction.OFFSET_MASK;
+		final int w = globalMaxCodewordLength;
+		final int numVariables = (int)(nextChunkOffset - chunkOffset - w);
+		if (numVariables == 0) return defRetValue;
+		Linear4SystemSolver.tripleToEquation(h, olc & GV4CompressedFunction.SEED_MASK, numVariables, e, scratch.hash);
+		final long e0 = e[0] + chunkOffset, e1 = e[1] + chunkOffset,
+				e2 = e[2] + chunkOffset, e3 = e[3] + chunkOffset;
+		final long code = dump.bits(data, e0, w) ^ dump.bits(data, e1, w) ^
+				dump.bits(data, e2, w) ^ dump.bits(data, e3, w);
+		return decoder.decode(code);
+	}
+
+	@Override
+	public long size64() {
+		return n;
+	}
+}
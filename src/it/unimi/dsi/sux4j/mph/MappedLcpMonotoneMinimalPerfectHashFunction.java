@@ -0,0 +1,134 @@
+package it.unimi.dsi.sux4j.mph;
+
+/*
+ * Sux4J: Succinct data structures for Java
+ *
+ * Copyright (C) 2018 Sebastiano Vigna
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import it.unimi.dsi.bits.BitVector;
+import it.unimi.dsi.bits.TransformationStrategies;
+import it.unimi.dsi.bits.TransformationStrategy;
+
+/** A {@link LcpMonotoneMinimalPerfectHashFunction} answering lookups directly from a memory-mapped {@linkplain LcpMonotoneMinimalPerfectHashFunction#dump(String) dump}.
+ *
+ * <p>An instance of this class returns exactly the same values of the original function, but loading takes constant time,
+ * the data is not on the heap, and pages are loaded by the operating system when needed. Since a dump uses the native byte order,
+ * it can be loaded only on a platform with the same byte order as the one that generated it.
+ *
+ * <p>Instances of this class are thread-safe. They serialize just the name of the dump file: upon deserialization,
+ * the file is mapped again, so it must be available (at the same path) to the deserializing process.
+ *
+ * @author Sebastiano Vigna
+ * @since 4.3.0
+ */
+
+public class MappedLcpMonotoneMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> {
+	private static final long serialVersionUID = 0L;
+	/** Per-thread scratch space for lookups. */
+	private static final ThreadLocal<LookupScratch> SCRATCH = LookupScratch.threadLocal();
+	/** The number of keys. */
+	private final long n;
+	/** The base-2 logarithm of the bucket size. */
+	private final int log2BucketSize;
+	/** The mask for the offset in a bucket. */
+	private final int bucketSizeMask;
+	/** The seed used to generate the hash triple. */
+	private final long seed;
+	/** A function mapping each element to the offset inside its bucket and to the length of the longest common prefix of its bucket. */
+	private final MappedGOV3Function<BitVector> offsetLcpLength;
+	/** A function mapping longest common prefixes to their bucket. */
+	private final MappedGOV3Function<BitVector> lcp2Bucket;
+	/** The mask to compare signatures, or zero for no signatures. */
+	private final long signatureMask;
+	/** The position of the signatures. */
+	private final long signatures;
+	/** The transformation strategy. */
+	private final TransformationStrategy<? super T> transform;
+	/** The mapped dump. */
+	private final MappedDump dump;
+
+	/** Creates a function answering lookups from a mapped dump.
+	 *
+	 * @param dump a mapped dump of a {@link LcpMonotoneMinimalPerfectHashFunction}.
+	 * @param transform the transformation strategy used to build the function, or {@code null} to use the one specified in the dump.
+	 */
+	protected MappedLcpMonotoneMinimalPerfectHashFunction(final MappedDump dump, final TransformationStrategy<? super T> transform) throws IOException {
+		this.dump = dump;
+		final MappedDump.Cursor cursor = dump.cursor(0);
+		this.transform = cursor.header(DumpWriter.LCP_MONOTONE_MINIMAL_PERFECT_HASH_FUNCTION, transform);
+		n = cursor.nextLong();
+		log2BucketSize = (int)cursor.nextLong();
+		bucketSizeMask = (1 << log2BucketSize) - 1;
+		seed = cursor.nextLong();
+		defRetValue = cursor.nextLong();
+		if (n != 0) {
+			offsetLcpLength = new MappedGOV3Function<>(cursor, TransformationStrategies.identity());
+			lcp2Bucket = new MappedGOV3Function<>(cursor, TransformationStrategies.identity());
+		}
+		else {
+			offsetLcpLength = lcp2Bucket = null;
+		}
+		signatureMask = cursor.nextLong();
+		signatures = signatureMask != 0 ? cursor.skipWords() : -1;
+		cursor.end();
+	}
+
+	/** Maps a {@linkplain LcpMonotoneMinimalPerfectHashFunction#dump(String) dump} of a {@link LcpMonotoneMinimalPerfectHashFunction} built using a standard transformation strategy.
+	 *
+	 * @param file the dump file.
+	 * @return a function answering lookups from the mapped dump.
+	 */
+	public static <T> MappedLcpMonotoneMinimalPerfectHashFunction<T> load(final String file) throws IOException {
+		return load(file, null);
+	}
+
+	/** Maps a {@linkplain LcpMonotoneMinimalPerfectHashFunction#dump(String) dump} of a {@link LcpMonotoneMinimalPerfectHashFunction}.
+	 *
+	 * @param file the dump file.
+	 * @param transform the transformation strategy used to build the function.
+	 * @return a function answering lookups from the mapped dump.
+	 */
+	public static <T> MappedLcpMonotoneMinimalPerfectHashFunction<T> load(final String file, final TransformationStrategy<? super T> transform) throws IOException {
+		return new MappedLcpMonotoneMinimalPerfectHashFunction<>(new MappedDump(new File(file), MappedDump.LOG2_SEGMENT_SIZE), transform);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public long getLong(final Object o) {
+		if (n == 0) return defRetValue;
+		final BitVector bitVector = transform.toBitVector((T)o);
+		final LookupScratch scratch = SCRATCH.get();
+		final long[] triple = scratch.triple;
+		Hashes.spooky4(bitVector, seed, triple);
+		final long value = offsetLcpLength.getLongByTriple(triple);
+		final long prefix = value >>> log2BucketSize;
+		if (prefix > bitVector.length()) return defRetValue;
+		final long result = (lcp2Bucket.getLong(scratch.prefix(bitVector, prefix)) << log2BucketSize) + (value & bucketSizeMask);
+		if (signatureMask != 0) return result < 0 || result >= n || dump.getBits(signatures, result, Long.bitCount(signatureMask)) != (triple[0] & signatureMask) ? defRetValue : result;
+		// Out-of-set strings can generate bizarre 3-hyperedges.
+		return result < 0 || result >= n ? defRetValue : result;
+	}
+
+	@Override
+	public long size64() {
+		return n;
+	}
+}
@@ -0,0 +1,146 @@
+package it.unimi.dsi.sux4j.mph;
+
+/*
+ * Sux4J: Succinct data structures for Java
+ *
+ * Copyright (C) 2018 Sebastiano Vigna
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import it.unimi.dsi.bits.TransformationStrategy;
+import it.unimi.dsi.sux4j.io.ChunkedHashStore;
+
+/** A {@link TwoStepsGOV3Function} answering lookups directly from a memory-mapped {@linkplain TwoStepsGOV3Function#dump(String) dump}.
+ *
+ * <p>An instance of this class returns exactly the same values of the original function, but loading takes constant time,
+ * the data is not on the heap, and pages are loaded by the operating system when needed. Since a dump uses the native byte order,
+ * it can be loaded only on a platform with the same byte order as the one that generated it.
+ *
+ * <p>Instances of this class are thread-safe. They serialize just the name of the dump file: upon deserialization,
+ * the file is mapped again, so it must be available (at the same path) to the deserializing process.
+ *
+ * @author Sebastiano Vigna
+ * @since 4.3.0
+ */
+
+public class MappedTwoStepsGOV3Function<T> extends AbstractHashFunction<T> {
+	private static final long serialVersionUID = 0L;
+	/** Per-thread scratch space for lookups. */
+	private static final ThreadLocal<LookupScratch> SCRATCH = LookupScratch.threadLocal();
+	/** The number of keys. */
+	private final long n;
+	/** The seed used to generate the hash triple. */
+	private final long seed;
+	/** The value of {@link #firstFunction} signalling that the value must be retrieved from {@link #secondFunction}. */
+	private final int escape;
+	/** The position of the map from the values of {@link #firstFunction} to the actual values. */
+	private final long remap;
+	/** The first function, or {@code null}. */
+	private final MappedGOV3Function<T> firstFunction;
+	/** The second function. */
+	private final MappedGOV3Function<T> secondFunction;
+	/** The transformation strategy. */
+	private final TransformationStrategy<? super T> transform;
+	/** The mapped dump. */
+	private final MappedDump dump;
+
+	/** Creates a function answering lookups from a mapped dump.
+	 *
+	 * @param dump a mapped dump of a {@link TwoStepsGOV3Function}.
+	 * @param transform the transformation strategy used to build the function, or {@code null} to use the one specified in the dump.
+	 */
+	protected MappedTwoStepsGOV3Function(final MappedDump dump, final TransformationStrategy<? super T> transform) throws IOException {
+		this(dump.cursor(0), transform, true);
+	}
+
+	/** Creates a function reading the content of a {@linkplain TwoStepsGOV3Function#dump(String) dump} at the position of a cursor,
+	 * which is moved past the content.
+	 *
+	 * <p>This constructor makes it possible to map a {@link TwoStepsGOV3Function} that is part of a larger dump.
+	 *
+	 * @param cursor a cursor on a mapped dump.
+	 * @param transform the transformation strategy used to build the function.
+	 */
+	MappedTwoStepsGOV3Function(final MappedDump.Cursor cursor, final TransformationStrategy<? super T> transform) throws IOException {
+		this(cursor, transform, false);
+	}
+
+	private MappedTwoStepsGOV3Function(final MappedDump.Cursor cursor, final TransformationStrategy<? super T> transform, final boolean header) throws IOException {
+		this.dump = cursor.dump();
+		this.transform = header ? cursor.header(DumpWriter.TWO_STEPS_GOV3_FUNCTION, transform) : transform;
+		n = cursor.nextLong();
+		seed = cursor.nextLong();
+		escape = (int)cursor.nextLong();
+		defRetValue = cursor.nextLong();
+		remap = cursor.skipWords();
+		if (n != 0) {
+			firstFunction = cursor.nextLong() != 0 ? new MappedGOV3Function<>(cursor, this.transform) : null;
+			secondFunction = new MappedGOV3Function<>(cursor, this.transform);
+		}
+		else firstFunction = secondFunction = null;
+		if (header) cursor.end();
+	}
+
+	/** Maps a {@linkplain TwoStepsGOV3Function#dump(String) dump} of a {@link TwoStepsGOV3Function} built using a standard transformation strategy.
+	 *
+	 * @param file the dump file.
+	 * @return a function answering lookups from the mapped dump.
+	 */
+	public static <T> MappedTwoStepsGOV3Function<T> load(final String file) throws IOException {
+		return load(file, null);
+	}
+
+	/** Maps a {@linkplain TwoStepsGOV3Function#dump(String) dump} of a {@link TwoStepsGOV3Function}.
+	 *
+	 * @param file the dump file.
+	 * @param transform the transformation strategy used to build the function.
+	 * @return a function answering lookups from the mapped dump.
+	 */
+	public static <T> MappedTwoStepsGOV3Function<T> load(final String file, final TransformationStrategy<? super T> transform) throws IOException {
+		return new MappedTwoStepsGOV3Function<>(new MappedDump(new File(file), MappedDump.LOG2_SEGMENT_SIZE), transform);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public long getLong(final Object o) {
+		if (n == 0) return defRetValue;
+		final long[] triple = SCRATCH.get().triple;
+		Hashes.spooky4(transform.toBitVector((T)o), seed, triple);
+		return getLongByTriple(triple);
+	}
+
+	/** Low-level access to the output of this function.
+	 *
+	 * @param triple a triple generated as documented in {@link ChunkedHashStore}.
+	 * @return the output of the function.
+	 */
+	public long getLongByTriple(final long[] triple) {
+		if (firstFunction != null) {
+			final int firstValue = (int)firstFunction.getLongByTriple(triple);
+			if (firstValue == -1) return defRetValue;
+			if (firstValue != escape) return dump.longAt(remap + Long.BYTES * (long)firstValue);
+		}
+		return secondFunction.getLongByTriple(triple);
+	}
+
+	@Override
+	public long size64() {
+		return n;
+	}
+}
@@ -0,0 +1,135 @@
+package it.unimi.dsi.sux4j.mph;
+
+/*
+ * Sux4J: Succinct data structures for Java
+ *
+ * Copyright (C) 2018 Sebastiano Vigna
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import it.unimi.dsi.bits.BitVector;
+import it.unimi.dsi.bits.TransformationStrategies;
+import it.unimi.dsi.bits.TransformationStrategy;
+
+/** A {@link VLLcpMonotoneMinimalPerfectHashFunction} answering lookups directly from a memory-mapped {@linkplain VLLcpMonotoneMinimalPerfectHashFunction#dump(String) dump}.
+ *
+ * <p>An instance of this class returns exactly the same values of the original function, but loading takes constant time,
+ * the data is not on the heap, and pages are loaded by the operating system when needed. Since a dump uses the native byte order,
+ * it can be loaded only on a platform with the same byte order as the one that generated it.
+ *
+ * <p>Instances of this class are thread-safe. They serialize just the name of the dump file: upon deserialization,
+ * the file is mapped again, so it must be available (at the same path) to the deserializing process.
+ *
+ * @author Sebastiano Vigna
+ * @since 4.3.0
+ */
+
+public class MappedVLLcpMonotoneMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> {
+	private static final long serialVersionUID = 0L;
+	/** Per-thread scratch space for lookups. */
+	private static final ThreadLocal<LookupScratch> SCRATCH = LookupScratch.threadLocal();
+	/** The number of keys. */
+	private final long n;
+	/** The base-2 logarithm of the bucket size. */
+	private final int log2BucketSize;
+	/** The seed used to generate the hash triple. */
+	private final long seed;
+	/** A minimal perfect hash function on the keys. */
+	private final MappedGOVMinimalPerfectHashFunction<BitVector> mph;
+	/** The position of the offsets of the keys in their bucket, indexed by {@link #mph}. */
+	private final long offsets;
+	/** The width of the lengths of the longest common prefixes. */
+	private final int lcpLengthWidth;
+	/** The position of the lengths of the longest common prefixes of the buckets of the keys, indexed by {@link #mph}. */
+	private final long lcpLengths;
+	/** A function mapping longest common prefixes to their bucket. */
+	private final MappedGOV3Function<BitVector> lcp2Bucket;
+	/** The transformation strategy. */
+	private final TransformationStrategy<? super T> transform;
+	/** The mapped dump. */
+	private final MappedDump dump;
+
+	/** Creates a function answering lookups from a mapped dump.
+	 *
+	 * @param dump a mapped dump of a {@link VLLcpMonotoneMinimalPerfectHashFunction}.
+	 * @param transform the transformation strategy used to build the function, or {@code null} to use the one specified in the dump.
+	 */
+	protected MappedVLLcpMonotoneMinimalPerfectHashFunction(final MappedDump dump, final TransformationStrategy<? super T> transform) throws IOException {
+		this.dump = dump;
+		final MappedDump.Cursor cursor = dump.cursor(0);
+		this.transform = cursor.header(DumpWriter.VL_LCP_MONOTONE_MINIMAL_PERFECT_HASH_FUNCTION, transform);
+		n = cursor.nextLong();
+		log2BucketSize = (int)cursor.nextLong();
+		seed = cursor.nextLong();
+		defRetValue = cursor.nextLong();
+		if (n != 0) {
+			mph = new MappedGOVMinimalPerfectHashFunction<>(cursor, TransformationStrategies.identity());
+			offsets = cursor.skipWords();
+			lcpLengthWidth = (int)cursor.nextLong();
+			lcpLengths = cursor.skipWords();
+			lcp2Bucket = new MappedGOV3Function<>(cursor, TransformationStrategies.identity());
+		}
+		else {
+			mph = null;
+			offsets = lcpLengths = -1;
+			lcpLengthWidth = 0;
+			lcp2Bucket = null;
+		}
+		cursor.end();
+	}
+
+	/** Maps a {@linkplain VLLcpMonotoneMinimalPerfectHashFunction#dump(String) dump} of a {@link VLLcpMonotoneMinimalPerfectHashFunction} built using a standard transformation strategy.
+	 *
+	 * @param file the dump file.
+	 * @return a function answering lookups from the mapped dump.
+	 */
+	public static <T> MappedVLLcpMonotoneMinimalPerfectHashFunction<T> load(final String file) throws IOException {
+		return load(file, null);
+	}
+
+	/** Maps a {@linkplain VLLcpMonotoneMinimalPerfectHashFunction#dump(String) dump} of a {@link VLLcpMonotoneMinimalPerfectHashFunction}.
+	 *
+	 * @param file the dump file.
+	 * @param transform the transformation strategy used to build the function.
+	 * @return a function answering lookups from the mapped dump.
+	 */
+	public static <T> MappedVLLcpMonotoneMinimalPerfectHashFunction<T> load(final String file, final TransformationStrategy<? super T> transform) throws IOException {
+		return new MappedVLLcpMonotoneMinimalPerfectHashFunction<>(new MappedDump(new File(file), MappedDump.LOG2_SEGMENT_SIZE), transform);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public long getLong(final Object o) {
+		if (n == 0) return defRetValue;
+		final BitVector bitVector = transform.toBitVector((T)o).fast();
+		final LookupScratch scratch = SCRATCH.get();
+		final long[] triple = scratch.triple;
+		Hashes.spooky4(bitVector, seed, triple);
+		final long index = mph.getLongByTriple(triple);
+		if (index == -1) return defRetValue;
+		final long prefix = dump.getBits(lcpLengths, index, lcpLengthWidth);
+		if (prefix > bitVector.length()) return defRetValue;
+		return (lcp2Bucket.getLong(scratch.prefix(bitVector, prefix)) << log2BucketSize) + dump.getBits(offsets, index, log2BucketSize);
+	}
+
+	@Override
+	public long size64() {
+		return n;
+	}
+}
@@ -0,0 +1,666 @@
+package it.unimi.dsi.sux4j.mph;
+
+/*
+ * Sux4J: Succinct data structures for Java
+ *
+ * Copyright (C) 2018 Sebastiano Vigna
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.unimi.dsi.Util;
+import it.unimi.dsi.bits.Fast;
+import it.unimi.dsi.bits.LongArrayBitVector;
+import it.unimi.dsi.bits.TransformationStrategy;
+import it.unimi.dsi.fastutil.BigArrays;
+import it.unimi.dsi.fastutil.Size64;
+import it.unimi.dsi.fastutil.longs.LongBigArrays;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.fastutil.longs.LongIterable;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.objects.AbstractObject2LongFunction;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.sux4j.io.ChunkedHashStore;
+import it.unimi.dsi.sux4j.io.ChunkedHashStore.Chunk;
+import it.unimi.dsi.sux4j.io.ChunkedHashStore.ChunkIterator;
+import it.unimi.dsi.sux4j.io.ChunkedHashStore.DuplicateException;
+import it.unimi.dsi.sux4j.io.SplittableIterable;
+import it.unimi.dsi.sux4j.mph.solve.RibbonSystemSolver;
+import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
+
+/** An immutable function stored quasi-succinctly using {@linkplain RibbonSystemSolver banded linear systems on <b>F</b><sub>2</sub>}, with
+ * a memory layout designed so that each lookup touches a small, contiguous region of memory.
+ *
+ * <p>Instances of this class have the same interface, and the same construction options (signing, dictionaries, indirect construction),
+ * of a {@link GOV3Function}. The difference lies in the way values are retrieved: in a {@link GOV3Function} the value
+ * associated with a key is the exclusive or of three values stored in random positions of a chunk, which might cause three
+ * cache misses (beside the access to the chunk offset and seed). Here, instead, the value is the exclusive or of a subset of a
+ * window of {@value RibbonSystemSolver#BAND} consecutive values, which are stored in {@linkplain RibbonSystemSolver interleaved column-major order}:
+ * for an <var>r</var>-bit function, a lookup reads 2<var>r</var> consecutive longs, that is, for small values,
+ * at most two adjacent cache lines. Thus, lookups on large functions cost, beside the access to the chunk offset and seed,
+ * essentially a single cache miss. The price to pay is a computational cost linear in <var>r</var> (a population count per bit):
+ * thus, instances of this class are faster than a {@link GOV3Function} on large functions with small values, for which lookups are dominated by
+ * cache misses, but they might be slower on small functions or on wide values.
+ *
+ * <p>Moreover, banded systems are solvable with fewer variables, so an <var>r</var>-bit {@link RibbonFunction} on <var>n</var> keys
+ * requires &#8776;1.04&ndash;1.09<var>rn</var> bits, depending on the size of the chunks, instead of 1.10<var>rn</var>
+ * (the number of variables of each chunk is a multiple of {@value RibbonSystemSolver#BAND}).
+ *
+ * <p>The speed of lookups can be compared with that of a {@link GOV3Function} on the same keys using
+ * {@link it.unimi.dsi.sux4j.test.RibbonFunctionSpeedTest}.
+ *
+ * <h2>Multithreading</h2>
+ *
+ * <p>This implementation is multithreaded: each chunk returned by the {@link ChunkedHashStore} is processed independently. By
+ * default, this class uses {@link Runtime#availableProcessors()} parallel threads. If you wish to
+ * set a specific number of threads, you can do so through the system property {@value #NUMBER_OF_THREADS_PROPERTY}.
+ * As in the case of {@link GOV3Function}, chunks can be solved by an {@linkplain Builder#executorService(ExecutorService) executor service}
+ * shared by several builds.
+ *
+ * @see GOV3Function
+ * @author Sebastiano Vigna
+ * @since 4.3.0
+ */
+
+public class RibbonFunction<T> extends AbstractObject2LongFunction<T> implements Serializable, Size64 {
+	private static final long serialVersionUID = 0L;
+	private static final Chunk END_OF_CHUNK_QUEUE = new Chunk();
+	private static final Logger LOGGER = LoggerFactory.getLogger(RibbonFunction.class);
+	/** Per-thread scratch space for lookups. */
+	private static final ThreadLocal<LookupScratch> SCRATCH = LookupScratch.threadLocal();
+
+	/** The local seed is generated using this step, so to be easily embeddable in {@link #offsetAndSeed}. */
+	private static final long SEED_STEP = 1L << 56;
+	/** The lowest 56 bits of {@link #offsetAndSeed} contain the number of variables stored up to the given chunk. */
+	static final long OFFSET_MASK = -1L >>> 8;
+
+	/** The ratio between variables and equations (before rounding up to a multiple of {@value RibbonSystemSolver#BAND}). */
+	public static double C = 1.04;
+	/** Fixed-point representation of {@link #C}. */
+	private static long C_TIMES_256 = (long)Math.floor(C * 256);
+
+	/** The system property used to set the number of parallel threads. */
+	public static final String NUMBER_OF_THREADS_PROPERTY = "it.unimi.dsi.sux4j.mph.threads";
+
+	/** A builder class for {@link RibbonFunction}. */
+	public static class Builder<T> {
+		protected Iterable<? extends T> keys;
+		protected TransformationStrategy<? super T> transform;
+		protected int signatureWidth;
+		protected File tempDir;
+		protected ExecutorService executorService;
+		protected ChunkedHashStore<T> chunkedHashStore;
+		protected LongIterable values;
+		protected int outputWidth = -1;
+		protected boolean indirect;
+		/** Whether {@link #build()} has already been called. */
+		protected boolean built;
+
+		/** Specifies the keys of the function; if you have specified a {@link #store(ChunkedHashStore) ChunkedHashStore}, it can be {@code null}.
+		 *
+		 * @param keys the keys of the function.
+		 * @return this builder.
+		 */
+		public Builder<T> keys(final Iterable<? extends T> keys) {
+			this.keys = keys;
+			return this;
+		}
+
+		/** Specifies the keys of the function using a supplier of streams, which is an alternative to {@link #keys(Iterable)}.
+		 *
+		 * @param keyStreams a supplier of streams returning the keys of the function.
+		 * @return this builder.
+		 * @see GOV3Function.Builder#keyStreams(Supplier)
+		 */
+		public Builder<T> keyStreams(final Supplier<? extends Stream<? extends T>> keyStreams) {
+			this.keys = new SplittableIterable<>(keyStreams);
+			return this;
+		}
+
+		/** Specifies the transformation strategy for the {@linkplain #keys(Iterable) keys of the function}.
+		 *
+		 * @param transform a transformation strategy for the {@linkplain #keys(Iterable) keys of the function}.
+		 * @return this builder.
+		 */
+		public Builder<T> transform(final TransformationStrategy<? super T> transform) {
+			this.transform = transform;
+			return this;
+		}
+
+		/** Specifies that the resulting {@link RibbonFunction} should be signed using a given number of bits per element;
+		 * in this case, you cannot specify {@linkplain #values(LongIterable, int) values}.
+		 *
+		 * @param signatureWidth a signature width, or 0 for no signature (a negative value will have the same effect of {@link #dictionary(int)} with the opposite argument).
+		 * @return this builder.
+		 */
+		public Builder<T> signed(final int signatureWidth) {
+			this.signatureWidth = signatureWidth;
+			return this;
+		}
+
+		/** Specifies that the resulting {@link RibbonFunction} should be a dictionary: the output value will be a signature,
+		 * and {@link RibbonFunction#getLong(Object)} will return 1 or 0 depending on whether the argument was in the key set or not;
+		 * in this case, you cannot specify {@linkplain #values(LongIterable, int) values}.
+		 *
+		 * <p>Note that checking against a signature has the usual probability of a false positive.
+		 *
+		 * @param signatureWidth a signature width, or 0 for no signature (a negative value will have the same effect of {@link #signed(int)} with the opposite argument).
+		 * @return this builder.
+		 */
+		public Builder<T> dictionary(final int signatureWidth) {
+			this.signatureWidth = - signatureWidth;
+			return this;
+		}
+
+		/** Specifies a temporary directory for the {@link #store(ChunkedHashStore) ChunkedHashStore}.
+		 *
+		 * @param tempDir a temporary directory for the {@link #store(ChunkedHashStore) ChunkedHashStore} files, or {@code null} for the standard temporary directory.
+		 * @return this builder.
+		 */
+		public Builder<T> tempDir(final File tempDir) {
+			this.tempDir = tempDir;
+			return this;
+		}
+
+		/** Specifies a chunked hash store containing the keys.
+		 *
+		 * <p>Note that if you specify a store, it is your responsibility that it conforms to the rest of the data: it must contain ranks if you
+		 * do not specify {@linkplain #values(LongIterable,int) values} or if you use the {@linkplain #indirect() indirect} feature, values otherwise.
+		 *
+		 * @param chunkedHashStore a chunked hash store containing the keys, or {@code null}; the store
+		 * can be unchecked, but in this case you must specify {@linkplain #keys(Iterable) keys} and a {@linkplain #transform(TransformationStrategy) transform}
+		 * (otherwise, in case of a hash collision in the store an {@link IllegalStateException} will be thrown).
+		 * @return this builder.
+		 */
+		public Builder<T> store(final ChunkedHashStore<T> chunkedHashStore) {
+			this.chunkedHashStore = chunkedHashStore;
+			return this;
+		}
+
+		/** Specifies a chunked hash store containing keys and values, and an output width.
+		 *
+		 * <p>Note that if you specify a store, it is your responsibility that it conforms to the rest of the data: it must contain ranks
+		 * if you use the {@linkplain #indirect() indirect} feature, values representable in at most the specified number of bits otherwise.
+		 *
+		 * @param chunkedHashStore a chunked hash store containing the keys, or {@code null}; the store
+		 * can be unchecked, but in this case you must specify {@linkplain #keys(Iterable) keys} and a {@linkplain #transform(TransformationStrategy) transform}
+		 * (otherwise, in case of a hash collision in the store an {@link IllegalStateException} will be thrown).
+		 * @param outputWidth the bit width of the output of the function, which must be enough to represent all values contained in the store.
+		 * @return this builder.
+		 */
+		public Builder<T> store(final ChunkedHashStore<T> chunkedHashStore, final int outputWidth) {
+			this.chunkedHashStore = chunkedHashStore;
+			this.outputWidth = outputWidth;
+			return this;
+		}
+
+		/** Specifies the values assigned to the {@linkplain #keys(Iterable) keys}.
+		 *
+		 * <p>Contrarily to {@link #values(LongIterable)}, this method does not require a complete scan of the value
+		 * to determine the output width.
+		 *
+		 * @param values values to be assigned to each element, in the same order of the {@linkplain #keys(Iterable) keys}.
+		 * @param outputWidth the bit width of the output of the function, which must be enough to represent all {@code values}.
+		 * @return this builder.
+		 * @see #values(LongIterable)
+		 */
+		public Builder<T> values(final LongIterable values, final int outputWidth) {
+			this.values = values;
+			this.outputWidth = outputWidth;
+			return this;
+		}
+
+		/** Specifies the values assigned to the {@linkplain #keys(Iterable) keys}; the output width of the function will
+		 * be the minimum width needed to represent all values.
+		 *
+		 * <p>Contrarily to {@link #values(LongIterable, int)}, this method requires a complete scan of the value
+		 * to determine the output width.
+		 *
+		 * @param values values to be assigned to each element, in the same order of the {@linkplain #keys(Iterable) keys}.
+		 * @return this builder.
+		 * @see #values(LongIterable,int)
+		 */
+		public Builder<T> values(final LongIterable values) {
+			this.values = values;
+			int outputWidth = 0;
+			for(final LongIterator i = values.iterator(); i.hasNext();) outputWidth = Math.max(outputWidth, Fast.length(i.nextLong()));
+			this.outputWidth = outputWidth;
+			return this;
+		}
+
+		/** Specifies that the function construction must be indirect: a provided {@linkplain #store(ChunkedHashStore) store} contains
+		 * indices that must be used to access the {@linkplain #values(LongIterable, int) values}.
+		 *
+		 * <p>If you specify this option, the provided values <strong>must</strong> be a {@link LongList} or a {@link LongBigList}.
+		 *
+		 * @return this builder.
+		 */
+		public Builder<T> indirect() {
+			this.indirect = true;
+			return this;
+		}
+
+		/** Specifies an executor service that will be used to solve chunks.
+		 *
+		 * @param executorService an executor service that will be used to solve chunks, or {@code null} to use a thread pool for each build.
+		 * @return this builder.
+		 * @see GOV3Function.Builder#executorService(ExecutorService)
+		 */
+		public Builder<T> executorService(final ExecutorService executorService) {
+			this.executorService = executorService;
+			return this;
+		}
+
+		/** Builds a new function.
+		 *
+		 * @return a {@link RibbonFunction} instance with the specified parameters.
+		 * @throws IllegalStateException if called more than once.
+		 */
+		public RibbonFunction<T> build() throws IOException {
+			if (built) throw new IllegalStateException("This builder has been already used");
+			built = true;
+			if (transform == null) {
+				if (chunkedHashStore != null) transform = chunkedHashStore.transform();
+				else throw new IllegalArgumentException("You must specify a TransformationStrategy, either explicitly or via a given ChunkedHashStore");
+			}
+			return new RibbonFunction<>(keys, transform, signatureWidth, values, outputWidth, tempDir, chunkedHashStore, indirect, executorService);
+		}
+	}
+
+	/** The logarithm of the desired chunk size. */
+	public final static int LOG2_CHUNK_SIZE = 10;
+	/** The shift for chunks. */
+	private final int chunkShift;
+	/** The number of keys. */
+	protected final long n;
+	/** The number of variables. */
+	protected final long m;
+	/** The data width. */
+	protected final int width;
+	/** The seed used to generate the initial hash triple. */
+	protected final long globalSeed;
+	/** A long containing the start offset of each chunk (a multiple of {@value RibbonSystemSolver#BAND}) in the lower 56 bits, and the local seed of each chunk in the upper 8 bits. */
+	protected final long[] offsetAndSeed;
+	/** The values of the variables, as a big array in {@linkplain RibbonSystemSolver interleaved column-major order}. */
+	protected final long[][] data;
+	/** The transformation strategy to turn objects of type <code>T</code> into bit vectors. */
+	protected final TransformationStrategy<? super T> transform;
+	/** The mask to compare signatures, or zero for no signatures. */
+	protected final long signatureMask;
+	/** The signatures. */
+	protected final LongBigList signatures;
+
+	/** Returns the number of variables used for a chunk.
+	 *
+	 * @param size the number of keys in the chunk.
+	 * @return the number of variables used for a chunk of {@code size} keys (zero if {@code size} is zero).
+	 */
+	private static long numVariables(final int size) {
+		if (size == 0) return 0;
+		return (C_TIMES_256 * size >>> 8) + RibbonSystemSolver.BAND & -RibbonSystemSolver.BAND;
+	}
+
+	/** Creates a new function for the given keys and values.
+	 *
+	 * @param keys the keys in the domain of the function, or {@code null}.
+	 * @param transform a transformation strategy for the keys.
+	 * @param signatureWidth a positive number for a signature width, 0 for no signature, a negative value for a self-signed function; if nonzero, {@code values} must be {@code null} and {@code width} must be -1.
+	 * @param values values to be assigned to each element, in the same order of the iterator returned by <code>keys</code>; if {@code null}, the
+	 * assigned value will the ordinal number of each element.
+	 * @param dataWidth the bit width of the <code>values</code>, or -1 if <code>values</code> is {@code null}.
+	 * @param tempDir a temporary directory for the store files, or {@code null} for the standard temporary directory.
+	 * @param chunkedHashStore a chunked hash store containing the keys associated with their ranks (if there are no values, or {@code indirect} is true)
+	 * or values, or {@code null}; the store
+	 * can be unchecked, but in this case <code>keys</code> and <code>transform</code> must be non-{@code null}.
+	 * @param indirect if true, <code>chunkedHashStore</code> contains ordinal positions, and <code>values</code> is a {@link LongIterable} that
+	 * must be accessed to retrieve the actual values.
+	 */
+	protected RibbonFunction(final Iterable<? extends T> keys, final TransformationStrategy<? super T> transform, final int signatureWidth, final LongIterable values, final int dataWidth, final File tempDir, final ChunkedHashStore<T> chunkedHashStore, final boolean indirect) throws IOException {
+		this(keys, transform, signatureWidth, values, dataWidth, tempDir, chunkedHashStore, indirect, null);
+	}
+
+	/** Creates a new function for the given keys and values, possibly solving chunks using a given executor service.
+	 *
+	 * @param keys the keys in the domain of the function, or {@code null}.
+	 * @param transform a transformation strategy for the keys.
+	 * @param signatureWidth a positive number for a signature width, 0 for no signature, a negative value for a self-signed function; if nonzero, {@code values} must be {@code null} and {@code width} must be -1.
+	 * @param values values to be assigned to each element, in the same order of the iterator returned by <code>keys</code>; if {@code null}, the
+	 * assigned value will the ordinal number of each element.
+	 * @param dataWidth the bit width of the <code>values</code>, or -1 if <code>values</code> is {@code null}.
+	 * @param tempDir a temporary directory for the store files, or {@code null} for the standard temporary directory.
+	 * @param chunkedHashStore a chunked hash store containing the keys associated with their ranks (if there are no values, or {@code indirect} is true)
+	 * or values, or {@code null}; the store
+	 * can be unchecked, but in this case <code>keys</code> and <code>transform</code> must be non-{@code null}.
+	 * @param indirect if true, <code>chunkedHashStore</code> contains ordinal positions, and <code>values</code> is a {@link LongIterable} that
+	 * must be accessed to retrieve the actual values.
+	 * @param solverExecutor an executor service that will be used to solve chunks, or {@code null}; see {@link Builder#executorService(ExecutorService)}.
+	 */
+	protected RibbonFunction(final Iterable<? extends T> keys, final TransformationStrategy<? super T> transform, final int signatureWidth, final LongIterable values, final int dataWidth, final File tempDir, ChunkedHashStore<T> chunkedHashStore, final boolean indirect, final ExecutorService solverExecutor) throws IOException {
+		this.transform = transform;
+
+		final boolean givenChunkedHashStore = chunkedHashStore != null;
+		if (signatureWidth != 0 && values != null) throw new IllegalArgumentException("You cannot sign a function if you specify its values");
+		if (signatureWidth != 0 && dataWidth != -1) throw new IllegalArgumentException("You cannot specify a signature width and a data width");
+		if (values == null && dataWidth != -1 && !(givenChunkedHashStore || indirect)) throw new IllegalArgumentException("You cannot specify a data width but no values and no direct chunked hash store");
+		if (values != null && dataWidth == -1) throw new IllegalArgumentException("You cannot specify values but no data width");
+
+		final ProgressLogger pl = new ProgressLogger(LOGGER);
+		pl.displayLocalSpeed = true;
+		pl.displayFreeMemory = true;
+		final RandomGenerator r = new XoRoShiRo128PlusRandomGenerator();
+		pl.itemsName = "keys";
+
+		if (chunkedHashStore == null) {
+			if (keys == null) throw new IllegalArgumentException("If you do not provide a chunked hash store, you must provide the keys");
+			chunkedHashStore = new ChunkedHashStore<>(transform, tempDir, - Math.min(signatureWidth, 0), pl);
+			chunkedHashStore.reset(r.nextLong());
+			if (values == null || indirect) chunkedHashStore.addAll(keys, null);
+			else chunkedHashStore.addAll(keys, values);
+		}
+		n = chunkedHashStore.size();
+		defRetValue = signatureWidth < 0 ? 0 : -1; // Self-signed maps get zero as default return value.
+
+		if (n == 0) {
+			m = globalSeed = chunkShift = width = 0;
+			data = null;
+			offsetAndSeed = null;
+			signatureMask = 0;
+			signatures = null;
+			if (! givenChunkedHashStore) chunkedHashStore.close();
+			return;
+		}
+
+		final int log2NumChunks = Math.max(0, Fast.mostSignificantBit(n >> LOG2_CHUNK_SIZE));
+		chunkShift = chunkedHashStore.log2Chunks(log2NumChunks);
+		final int numChunks = 1 << log2NumChunks;
+
+		LOGGER.debug("Number of chunks: " + numChunks);
+		LOGGER.info("Chunk iteration will use " + Util.formatSize(chunkedHashStore.prefetchingIteratorMemory()) + "B of buffers");
+
+		offsetAndSeed = new long[numChunks + 1];
+
+		width = signatureWidth < 0 ? -signatureWidth : dataWidth == -1 ? Fast.ceilLog2(n) : dataWidth;
+
+		// The number of variables of a chunk is at most C times its size, rounded up to a multiple of the band
+		final long maxVariables = (C_TIMES_256 * n >>> 8) + (long)numChunks * RibbonSystemSolver.BAND;
+		final long[][] solution = LongBigArrays.newBigArray((maxVariables >>> RibbonSystemSolver.LOG2_BAND) * width);
+
+		int duplicates = 0;
+
+		for(;;) {
+			LOGGER.debug("Generating ribbon function with " + width + " output bits...");
+
+			pl.expectedUpdates = numChunks;
+			pl.itemsName = "chunks";
+			pl.start("Analysing chunks... ");
+			final AtomicLong unsolvable = new AtomicLong();
+			// Previous attempts might have left seeds behind; solutions are overwritten
+			Arrays.fill(offsetAndSeed, 0);
+
+			try {
+				final int numberOfThreads = Integer.parseInt(System.getProperty(NUMBER_OF_THREADS_PROPERTY, Integer.toString(Runtime.getRuntime().availableProcessors())));
+				final ArrayBlockingQueue<Chunk> chunkQueue = new ArrayBlockingQueue<>(numberOfThreads * 8);
+				// The producer has its own thread, so solvers can run on a shared, possibly busy executor service
+				final ExecutorService executorService = Executors.newFixedThreadPool(solverExecutor == null ? numberOfThreads + 1 : 1);
+				final LinkedBlockingQueue<Future<Void>> completed = new LinkedBlockingQueue<>();
+				final ExecutorCompletionService<Void> executorCompletionService = new ExecutorCompletionService<>(executorService, completed);
+				final ExecutorCompletionService<Void> solverCompletionService = solverExecutor == null ? executorCompletionService : new ExecutorCompletionService<>(solverExecutor, completed);
+				final List<Future<Void>> futures = new ArrayList<>();
+
+				final ChunkedHashStore<T> chs = chunkedHashStore;
+				futures.add(executorCompletionService.submit(() -> {
+					try (final ChunkIterator iterator = chs.prefetchingIterator()) {
+						for(int i1 = 0; iterator.hasNext(); i1++) {
+							final Chunk chunk = new Chunk(iterator.next());
+							assert i1 == chunk.index();
+							final long chunkDataSize = numVariables(chunk.size());
+							assert chunkDataSize <= Integer.MAX_VALUE;
+							synchronized(offsetAndSeed) {
+								offsetAndSeed[i1 + 1] = offsetAndSeed[i1] + chunkDataSize;
+								assert offsetAndSeed[i1 + 1] <= OFFSET_MASK + 1;
+							}
+							chunkQueue.put(chunk);
+						}
+					}
+					finally {
+						for(int i2 = numberOfThreads; i2-- != 0;) chunkQueue.put(END_OF_CHUNK_QUEUE);
+					}
+					return null;
+				}));
+
+				// Solvers copy solutions into the slot of their chunk, so a slow chunk does not stall the others
+				for(int i = numberOfThreads; i-- != 0;) futures.add(solverCompletionService.submit(() -> {
+					// Threads of a shared executor service are not ours to deprioritize
+					if (solverExecutor == null) Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+					for(;;) {
+						final Chunk chunk = chunkQueue.take();
+						if (chunk == END_OF_CHUNK_QUEUE) return null;
+						long seed = 0;
+						final long chunkOffset = offsetAndSeed[chunk.index()] & OFFSET_MASK;
+						final RibbonSystemSolver solver =
+								new RibbonSystemSolver((int)((offsetAndSeed[chunk.index() + 1] & OFFSET_MASK) - chunkOffset), chunk.size(), width);
+
+						for(;;) {
+							final boolean solved = solver.generateAndSolve(chunk, seed, chunk.valueList(indirect ? values : null));
+							if (solved) break;
+							seed += SEED_STEP;
+							if (seed == 0) throw new AssertionError("Exhausted local seeds");
+						}
+						unsolvable.addAndGet(solver.unsolvable);
+
+						synchronized (offsetAndSeed) {
+							offsetAndSeed[chunk.index()] |= seed;
+						}
+
+						// Chunk offsets are multiples of the band, so chunks own disjoint ranges of words
+						LongBigArrays.copyToBig(solver.solution, 0, solution, (chunkOffset >>> RibbonSystemSolver.LOG2_BAND) * width, solver.solution.length);
+						synchronized(pl) {
+							pl.update();
+						}
+					}
+				}));
+
+				try {
+					for(int i = numberOfThreads + 1; i-- != 0;)
+						executorCompletionService.take().get();
+				} catch (final InterruptedException e) {
+					throw new RuntimeException(e);
+				} catch (final ExecutionException e) {
+					final Throwable cause = e.getCause();
+					if (cause instanceof DuplicateException) throw (DuplicateException)cause;
+					if (cause instanceof IOException) throw (IOException)cause;
+					throw new RuntimeException(cause);
+				}
+				finally {
+					// After a failure, tasks might wait forever on the queues: we interrupt them, including those running on a shared executor service
+					for(final Future<Void> future : futures) future.cancel(true);
+					executorService.shutdownNow();
+				}
+				LOGGER.info("Unsolvable systems: " + unsolvable.get() + "/" + (unsolvable.get() + numChunks) + " (" + Util.format(100.0 * unsolvable.get() / (unsolvable.get() + numChunks)) + "%)");
+
+				pl.done();
+				break;
+			}
+			catch(final DuplicateException e) {
+				if (keys == null) throw new IllegalStateException("You provided no keys, but the chunked hash store was not checked");
+				// A duplicate triple generated by equal keys cannot be fixed by rehashing
+				if (chunkedHashStore.duplicate(keys, e.triple()) != null) throw new IllegalArgumentException("The input list contains duplicates");
+				if (duplicates++ > 3) throw new IllegalArgumentException("The input list contains duplicates");
+				LOGGER.warn("Found duplicate. Recomputing triples...");
+				chunkedHashStore.reset(r.nextLong());
+				pl.itemsName = "keys";
+				if (values == null || indirect) chunkedHashStore.addAll(keys, null);
+				else chunkedHashStore.addAll(keys, values);
+			}
+		}
+
+		globalSeed = chunkedHashStore.seed();
+		m = offsetAndSeed[offsetAndSeed.length - 1];
+		assert m <= maxVariables : m + " > " + maxVariables;
+		// Trimming shares all segments of the big array but the last one
+		data = LongBigArrays.trim(solution, (m >>> RibbonSystemSolver.LOG2_BAND) * width);
+
+		LOGGER.info("Completed.");
+		LOGGER.info("Forecast bit cost per element: " + C * width);
+		LOGGER.info("Actual bit cost per element: " + (double)numBits() / n);
+
+		if (signatureWidth > 0) {
+			signatureMask = -1L >>> Long.SIZE - signatureWidth;
+			signatures = chunkedHashStore.signatures(signatureWidth, pl);
+		}
+		else if (signatureWidth < 0) {
+			signatureMask = -1L >>> Long.SIZE + signatureWidth;
+			signatures = null;
+		}
+		else {
+			signatureMask = 0;
+			signatures = null;
+		}
+
+		if (! givenChunkedHashStore) chunkedHashStore.close();
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public long getLong(final Object o) {
+		final LookupScratch scratch = SCRATCH.get();
+		Hashes.spooky4(transform.toBitVector((T)o), globalSeed, scratch.triple);
+		return getLongByTriple(scratch.triple, scratch.hash);
+	}
+
+	/** Returns the value associated with a 64-bit key.
+	 *
+	 * @param key a 64-bit key.
+	 * @return the value associated with {@code key}.
+	 * @see GOV3Function#getLong(long)
+	 */
+	public long getLong(final long key) {
+		final LookupScratch scratch = SCRATCH.get();
+		ChunkedHashStore.hash(key, transform, globalSeed, scratch.triple);
+		return getLongByTriple(scratch.triple, scratch.hash);
+	}
+
+	/** Low-level access to the output of this function.
+	 *
+	 * @param triple a triple generated as documented in {@link ChunkedHashStore}.
+	 * @return the output of the function.
+	 * @see GOV3Function#getLongByTriple(long[])
+	 */
+	public long getLongByTriple(final long[] triple) {
+		return getLongByTriple(triple, SCRATCH.get().hash);
+	}
+
+	private long getLongByTriple(final long[] triple, final long[] hash) {
+		if (n == 0) return defRetValue;
+		final int chunk = chunkShift == Long.SIZE ? 0 : (int)(triple[0] >>> chunkShift);
+		final long chunkOffset = offsetAndSeed[chunk] & OFFSET_MASK;
+		final int numVariables = (int)((offsetAndSeed[chunk + 1] & OFFSET_MASK) - chunkOffset);
+		if (numVariables == 0) return defRetValue;
+		RibbonSystemSolver.tripleToEquation(triple, offsetAndSeed[chunk] & ~OFFSET_MASK, numVariables, hash);
+		final long first = chunkOffset + hash[0];
+		final long coefficients = hash[1];
+
+		// The words of the two blocks containing the variables of the equation are consecutive
+		final long block = (first >>> RibbonSystemSolver.LOG2_BAND) * width;
+		final int shift = (int)(first & RibbonSystemSolver.BAND - 1);
+		final long result;
+		if (width == 0) result = 0;
+		else {
+			final long[] segment = data[BigArrays.segment(block)];
+			final int displacement = BigArrays.displacement(block);
+			if (displacement + 2 * width <= segment.length) result = evaluate(segment, displacement, width, shift, coefficients);
+			else {
+				// Rare case: the blocks cross a segment of the big array, or the first block is the last one
+				long r = 0;
+				for(int b = 0; b < width; b++) {
+					final long window = shift == 0 ? LongBigArrays.get(data, block + b) : LongBigArrays.get(data, block + b) >>> shift | LongBigArrays.get(data, block + width + b) << -shift;
+					r |= (long)(Long.bitCount(window & coefficients) & 1) << b;
+				}
+				result = r;
+			}
+		}
+
+		if (signatureMask == 0) return result;
+		if (signatures != null) return result >= n || ((signatures.getLong(result) ^ triple[0]) & signatureMask) != 0 ? defRetValue : result;
+		else return ((result ^ triple[0]) & signatureMask) != 0 ? defRetValue : 1;
+	}
+
+	/** Evaluates an equation on two consecutive blocks of variables.
+	 *
+	 * @param a an array containing the blocks.
+	 * @param pos the position in {@code a} of the first block.
+	 * @param width the data width.
+	 * @param shift the position in the first block of the first variable of the equation.
+	 * @param coefficients the coefficients of the equation.
+	 * @return the value of the equation.
+	 */
+	private static long evaluate(final long[] a, final int pos, final int width, final int shift, final long coefficients) {
+		long result = 0;
+		if (shift == 0) for(int b = 0; b < width; b++) result |= (long)(Long.bitCount(a[pos + b] & coefficients) & 1) << b;
+		else for(int b = 0; b < width; b++) result |= (long)(Long.bitCount((a[pos + b] >>> shift | a[pos + width + b] << -shift) & coefficients) & 1) << b;
+		return result;
+	}
+
+	/** Returns the number of keys in the function domain.
+	 *
+	 * @return the number of the keys in the function domain.
+	 */
+	@Override
+	public long size64() {
+		return n;
+	}
+
+	@Override
+	@Deprecated
+	public int size() {
+		return n > Integer.MAX_VALUE ? -1 : (int)n;
+	}
+
+	/** Returns the number of bits used by this structure.
+	 *
+	 * @return the number of bits used by this structure.
+	 */
+	public long numBits() {
+		if (n == 0) return 0;
+		return LongBigArrays.length(data) * Long.SIZE + offsetAndSeed.length * (long)Long.SIZE;
+	}
+
+	@Override
+	public boolean containsKey(final Object o) {
+		return true;
+	}
+}
@@ -6,6 +6,8 @@ import java.io.InputStreamReader;
 import java.io.Serializable;
 import java.nio.charset.Charset;
 import java.util.Collection;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.collections.Predicate;
@@ -61,6 +63,7 @@ import it.unimi.dsi.io.LineIterator;
 import it.unimi.dsi.lang.MutableString;
 import it.unimi.dsi.logging.ProgressLogger;
 import it.unimi.dsi.sux4j.io.ChunkedHashStore;
+import it.unimi.dsi.sux4j.io.SplittableIterable;
 import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
 
 
@@ -84,6 +87,8 @@ import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
 public class TwoStepsGOV3Function<T> extends AbstractHashFunction<T> implements Serializable, Size64 {
     public static final long serialVersionUID = 0L;
     private static final Logger LOGGER = LoggerFactory.getLogger(TwoStepsGOV3Function.class);
+    /** Per-thread scratch space for lookups. */
+    private static final ThreadLocal<LookupScratch> SCRATCH = LookupScratch.threadLocal();
 
     private final static boolean ASSERTS = false;
 
@@ -107,6 +112,21 @@ public class TwoStepsGOV3Function<T> extends AbstractHashFunction<T> implements
 			return this;
 		}
 
+		/** Specifies the keys of the function using a supplier of streams, which is an alternative to {@link #keys(Iterable)}.
+		 *
+		 * <p>The keys will be wrapped in a {@link SplittableIterable}, so the spliterators of the streams will be used to hash
+		 * keys in parallel (e.g., using a {@link it.unimi.dsi.sux4j.io.FileLinesByteArraySpliterator} a file can be split by byte range).
+		 * The supplier must return a new stream with the same keys in the same order at each call, as keys might need to
+		 * be scanned several times, and the keys returned by the streams must be distinct objects.
+		 *
+		 * @param keyStreams a supplier of streams returning the keys of the function.
+		 * @return this builder.
+		 */
+		public Builder<T> keyStreams(final Supplier<? extends Stream<? extends T>> keyStreams) {
+			this.keys = new SplittableIterable<>(keyStreams);
+			return this;
+		}
+
 		/** Specifies the transformation strategy for the {@linkplain #keys(Iterable) keys of the function}.
 		 *
 		 * @param transform a transformation strategy for the {@linkplain #keys(Iterable) keys of the function}.
@@ -214,7 +234,7 @@ public class TwoStepsGOV3Function<T> extends AbstractHashFunction<T> implements
 			if (keys == null) throw new IllegalArgumentException("If you do not provide a chunked hash store, you must provide the keys");
 			chunkedHashStore = new ChunkedHashStore<>(transform, pl);
 			chunkedHashStore.reset(random.nextLong());
-			chunkedHashStore.addAll(keys.iterator());
+			chunkedHashStore.addAll(keys, null);
 		}
 		n = chunkedHashStore.size();
 		defRetValue = -1; // For the very few cases in which we can decide
@@ -329,7 +349,7 @@ public class TwoStepsGOV3Function<T> extends AbstractHashFunction<T> implements
 	@SuppressWarnings("unchecked")
 	public long getLong(final Object o) {
 		if (n == 0) return defRetValue;
-		final long[] triple = new long[3];
+		final long[] triple = SCRATCH.get().triple;
 		Hashes.spooky4(transform.toBitVector((T)o), seed, triple);
 		if (firstFunction != null) {
 			final int firstValue = (int)firstFunction.getLongByTriple(triple);
@@ -361,6 +381,40 @@ public class TwoStepsGOV3Function<T> extends AbstractHashFunction<T> implements
 		return (firstFunction != null ? firstFunction.numBits() : 0) + secondFunction.numBits() + transform.numBits() + remap.length * (long)Long.SIZE;
 	}
 
+	/** Dumps this function in a flat binary format using the native byte order.
+	 *
+	 * <p>After a {@linkplain DumpWriter header}, the dump is a sequence of longs: the number of keys, the seed, the escape value,
+	 * the default return value, and the length of {@link #remap} followed by its content. If the function is not empty, a long
+	 * specifies whether there is a {@linkplain #firstFunction first function}; then, the {@linkplain GOV3Function#dump(String) dumps}
+	 * of the first function (if present) and of the second function follow.
+	 *
+	 * <p>A dump can be mapped in memory using {@link MappedTwoStepsGOV3Function#load(String)}.
+	 *
+	 * @param file the name of the dump file.
+	 */
+	public void dump(final String file) throws IOException {
+		try (final DumpWriter writer = new DumpWriter(file)) {
+			writer.writeHeader(DumpWriter.TWO_STEPS_GOV3_FUNCTION, transform);
+			dump(writer);
+		}
+	}
+
+	/** Writes the content of a {@linkplain #dump(String) dump} of this function, excluding the header.
+	 *
+	 * @param writer a dump writer.
+	 */
+	void dump(final DumpWriter writer) throws IOException {
+		writer.writeLong(n);
+		writer.writeLong(seed);
+		writer.writeLong(escape);
+		writer.writeLong(defRetValue);
+		writer.writeLongs(remap);
+		if (n == 0) return;
+		writer.writeLong(firstFunction != null ? 1 : 0);
+		if (firstFunction != null) firstFunction.dump(writer);
+		secondFunction.dump(writer);
+	}
+
 	public static void main(final String[] arg) throws NoSuchMethodException, IOException, JSAPException {
 
 		final SimpleJSAP jsap = new SimpleJSAP(TwoStepsGOV3Function.class.getName(), "Builds a two-steps GOV3 function mapping a newline-separated list of strings to their ordinal position, or to specific values.",
@@ -78,6 +78,8 @@ import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
 public class TwoStepsLcpMonotoneMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> implements Size64, Serializable {
     public static final long serialVersionUID = 4L;
 	private static final Logger LOGGER = LoggerFactory.getLogger(TwoStepsLcpMonotoneMinimalPerfectHashFunction.class);
+	/** Per-thread scratch space for lookups. */
+	private static final ThreadLocal<LookupScratch> SCRATCH = LookupScratch.threadLocal();
 	private static final boolean DEBUG = false;
 	private static final boolean ASSERTS = false;
 
@@ -392,16 +394,45 @@ public class TwoStepsLcpMonotoneMinimalPerfectHashFunction<T> extends AbstractHa
 		return offsets.numBits() + lcpLengths.numBits() + lcp2Bucket.numBits() + transform.numBits();
 	}
 
+	/** Dumps this function in a flat binary format using the native byte order.
+	 *
+	 * <p>After a {@linkplain DumpWriter header}, the dump is a sequence of longs: the number of keys, the base-2 logarithm of the bucket size,
+	 * the seed and the default return value. If the function is not empty, the {@linkplain GOV3Function#dump(String) dump} of {@link #offsets}, the {@linkplain TwoStepsGOV3Function#dump(String) dump} of {@link #lcpLengths} (without header) and the dump of {@link #lcp2Bucket} follow.
+	 * Finally, the dump contains the signature mask; if it is nonzero, the number of words used to store the signatures follows,
+	 * followed by the signature words.
+	 *
+	 * <p>A dump can be mapped in memory using {@link MappedTwoStepsLcpMonotoneMinimalPerfectHashFunction#load(String)}.
+	 *
+	 * @param file the name of the dump file.
+	 */
+	public void dump(final String file) throws IOException {
+		try (final DumpWriter writer = new DumpWriter(file)) {
+			writer.writeHeader(DumpWriter.TWO_STEPS_LCP_MONOTONE_MINIMAL_PERFECT_HASH_FUNCTION, transform);
+			writer.writeLong(n);
+			writer.writeLong(log2BucketSize);
+			writer.writeLong(seed);
+			writer.writeLong(defRetValue);
+			if (n != 0) {
+				offsets.dump(writer);
+				lcpLengths.dump(writer);
+				lcp2Bucket.dump(writer);
+			}
+			writer.writeLong(signatureMask);
+			if (signatureMask != 0) writer.writeBits(signatures, Long.bitCount(signatureMask));
+		}
+	}
+
 	@Override
 	@SuppressWarnings("unchecked")
 	public long getLong(final Object o) {
 		if (n == 0) return defRetValue;
 		final BitVector bitVector = transform.toBitVector((T)o).fast();
-		final long[] triple = new long[3];
+		final LookupScratch scratch = SCRATCH.get();
+		final long[] triple = scratch.triple;
 		Hashes.spooky4(bitVector, seed, triple);
 		final long prefix = lcpLengths.getLongByTriple(triple);
 		if (prefix == -1 || prefix > bitVector.length()) return defRetValue;
-		final long result = (lcp2Bucket.getLong(bitVector.subVector(0, prefix)) << log2BucketSize) + offsets.getLongByTriple(triple);
+		final long result = (lcp2Bucket.getLong(scratch.prefix(bitVector, prefix)) << log2BucketSize) + offsets.getLongByTriple(triple);
 		if (signatureMask != 0) return result < 0 || result >= n || signatures.getLong(result) != (triple[0] & signatureMask) ? defRetValue : result;
 		// Out-of-set strings can generate bizarre 3-hyperedges.
 		return result < 0 || result >= n ? defRetValue : result;
@@ -411,7 +442,7 @@ public class TwoStepsLcpMonotoneMinimalPerfectHashFunction<T> extends AbstractHa
 		if (n == 0) return defRetValue;
 		final long prefix = lcpLengths.getLongByTriple(triple);
 		if (prefix == -1 || prefix > bitVector.length()) return defRetValue;
-		final long result = (lcp2Bucket.getLong(bitVector.subVector(0, prefix)) << log2BucketSize) + offsets.getLongByTriple(triple);
+		final long result = (lcp2Bucket.getLong(SCRATCH.get().prefix(bitVector, prefix)) << log2BucketSize) + offsets.getLongByTriple(triple);
 		if (signatureMask != 0) return result < 0 || result >= n || signatures.getLong(result) != (triple[0] & signatureMask) ? defRetValue : result;
 		// Out-of-set strings can generate bizarre 3-hyperedges.
 		return result < 0 || result >= n ? defRetValue : result;
@@ -73,6 +73,8 @@ import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
 public class VLLcpMonotoneMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> implements Serializable, Size64 {
     public static final long serialVersionUID = 3L;
 	private static final Logger LOGGER = LoggerFactory.getLogger(VLLcpMonotoneMinimalPerfectHashFunction.class);
+	/** Per-thread scratch space for lookups. */
+	private static final ThreadLocal<LookupScratch> SCRATCH = LookupScratch.threadLocal();
 	private static final boolean DEBUG = false;
 
 	/** The number of elements. */
@@ -101,13 +103,14 @@ public class VLLcpMonotoneMinimalPerfectHashFunction<T> extends AbstractHashFunc
 	public long getLong(final Object o) {
 		if (n == 0) return defRetValue;
 		final BitVector bitVector = transform.toBitVector((T)o).fast();
-		final long[] triple = new long[3];
-		Hashes.spooky4(transform.toBitVector((T)o), seed, triple);
+		final LookupScratch scratch = SCRATCH.get();
+		final long[] triple = scratch.triple;
+		Hashes.spooky4(bitVector, seed, triple);
 		final long index = mph.getLongByTriple(triple);
 		if (index == -1) return defRetValue;
 		final long prefix = lcpLengths.getLong(index);
 		if (prefix == -1 || prefix > bitVector.length()) return defRetValue;
-		return (lcp2Bucket.getLong(bitVector.subVector(0, prefix)) << log2BucketSize) + offsets.getLong(index);
+		return (lcp2Bucket.getLong(scratch.prefix(bitVector, prefix)) << log2BucketSize) + offsets.getLong(index);
 	}
 
 	public VLLcpMonotoneMinimalPerfectHashFunction(final Iterable<? extends T> iterable, final TransformationStrategy<? super T> transform) throws IOException {
@@ -282,6 +285,40 @@ public class VLLcpMonotoneMinimalPerfectHashFunction<T> extends AbstractHashFunc
 		return offsets.size64() * log2BucketSize + lcpLengths.numBits() + lcp2Bucket.numBits() + mph.numBits() + transform.numBits();
 	}
 
+	/** Dumps this function in a flat binary format using the native byte order.
+	 *
+	 * <p>After a {@linkplain DumpWriter header}, the dump is a sequence of longs: the number of keys, the base-2 logarithm of the bucket size,
+	 * the seed and the default return value. If the function is not empty, the content of {@link #mph}
+	 * (see {@link GOVMinimalPerfectHashFunction#dump(DumpWriter)}) follows, and then the number of words used to store
+	 * {@link #offsets} followed by the words. The lengths of the longest common prefixes are stored with fixed width,
+	 * rather than with the Elias&ndash;Fano representation of {@link #lcpLengths}: the dump contains their width,
+	 * and then the number of words used to store them followed by the words. Finally, the {@linkplain GOV3Function#dump(String) dump}
+	 * of {@link #lcp2Bucket} follows.
+	 *
+	 * <p>A dump can be mapped in memory using {@link MappedVLLcpMonotoneMinimalPerfectHashFunction#load(String)}.
+	 *
+	 * @param file the name of the dump file.
+	 */
+	public void dump(final String file) throws IOException {
+		try (final DumpWriter writer = new DumpWriter(file)) {
+			writer.writeHeader(DumpWriter.VL_LCP_MONOTONE_MINIMAL_PERFECT_HASH_FUNCTION, transform);
+			writer.writeLong(n);
+			writer.writeLong(log2BucketSize);
+			writer.writeLong(seed);
+			writer.writeLong(defRetValue);
+			if (n != 0) {
+				mph.dump(writer);
+				writer.writeBits(offsets, log2BucketSize);
+				long maxLcp = 0;
+				for(long i = 0; i < n; i++) maxLcp = Math.max(maxLcp, lcpLengths.getLong(i));
+				final int width = Fast.length(maxLcp);
+				writer.writeLong(width);
+				writer.writeBits(lcpLengths, width);
+				lcp2Bucket.dump(writer);
+			}
+		}
+	}
+
 
 	public static void main(final String[] arg) throws NoSuchMethodException, IOException, JSAPException {
 
@@ -55,6 +55,8 @@ import it.unimi.dsi.sux4j.io.ChunkedHashStore;
 
 public class ZFastTrieDistributor<T> extends AbstractObject2LongFunction<T> implements Size64 {
 	private final static Logger LOGGER = LoggerFactory.getLogger(ZFastTrieDistributor.class);
+	/** Per-thread scratch space for lookups. */
+	private static final ThreadLocal<LookupScratch> SCRATCH = LookupScratch.threadLocal();
 	private static final long serialVersionUID = 3L;
 	private static final boolean DEBUG = false;
 	private static final boolean DDEBUG = false;
@@ -637,7 +639,7 @@ public class ZFastTrieDistributor<T> extends AbstractObject2LongFunction<T> impl
 		long l = 0;
 		int i = Fast.mostSignificantBit(r);
 		long mask = 1L << i;
-		final long triple[] = new long[3];
+		final long triple[] = SCRATCH.get().prefixTriple;
 		while(r - l > 1) {
 			assert i > -1;
 			if (DDDEBUG) System.err.println("[" + l + ".." + r + "]; i = " + i);
@@ -683,8 +685,9 @@ public class ZFastTrieDistributor<T> extends AbstractObject2LongFunction<T> impl
 	@Override
 	public long getLong(final Object o) {
 		final BitVector bv = (BitVector)o;
-		final long state[] = Hashes.preprocessSpooky4(bv, seed);
-		final long[] triple = new long[3];
+		final LookupScratch scratch = SCRATCH.get();
+		final long state[] = scratch.preprocessSpooky4(bv, seed);
+		final long[] triple = scratch.triple;
 		Hashes.spooky4(bv, bv.length(), seed, state, triple);
 		return getLongByBitVectorTripleAndState(bv, triple, state);
 	}
@@ -696,7 +699,7 @@ public class ZFastTrieDistributor<T> extends AbstractObject2LongFunction<T> impl
 		final long length = getNodeStringLength(v, state);
 		if (DDDEBUG) System.err.println("getNodeStringLength(v)=" + length);
 		if (length >= v.length()) return -1;
-		final BitVector key = v.subVector(0, length).copy();
+		final BitVector key = SCRATCH.get().prefix(v, length);
 		final boolean bit = v.getBoolean(length);
 
 		if (b == LEFT) {
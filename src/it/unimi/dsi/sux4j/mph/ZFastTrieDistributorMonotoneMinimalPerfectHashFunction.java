@@ -73,6 +73,8 @@ import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
 public class ZFastTrieDistributorMonotoneMinimalPerfectHashFunction<T> extends AbstractHashFunction<T> implements Serializable {
     public static final long serialVersionUID = 4L;
 	private static final Logger LOGGER = LoggerFactory.getLogger(ZFastTrieDistributorMonotoneMinimalPerfectHashFunction.class);
+	/** Per-thread scratch space for lookups. */
+	private static final ThreadLocal<LookupScratch> SCRATCH = LookupScratch.threadLocal();
 
 	/** The number of elements. */
 	private final long size;
@@ -254,8 +256,9 @@ public class ZFastTrieDistributorMonotoneMinimalPerfectHashFunction<T> extends A
 	public long getLong(final Object o) {
 		if (size == 0) return defRetValue;
 		final BitVector bv = transform.toBitVector((T)o).fast();
-		final long state[] = Hashes.preprocessSpooky4(bv, seed);
-		final long[] triple = new long[3];
+		final LookupScratch scratch = SCRATCH.get();
+		final long state[] = scratch.preprocessSpooky4(bv, seed);
+		final long[] triple = scratch.triple;
 		Hashes.spooky4(bv, bv.length(), seed, state, triple);
 
 		final long bucket = distributor.getLongByBitVectorTripleAndState(bv, triple, state);
@@ -215,10 +215,25 @@ public class Linear3SystemSolver {
 	 * @param seed the seed for the hash function.
 	 * @param numVariables the nonzero number of variables in the system.
 	 * @param e an array to store the resulting equation.
+	 * @see #tripleToEquation(long[], long, int, int[], long[])
 	 */
 	public static void tripleToEquation(final long[] triple, final long seed, final int numVariables, final int e[]) {
+		tripleToEquation(triple, seed, numVariables, e, new long[3]);
+	}
+
+	/** Turns a triple of longs into an equation using a caller-provided array to store the intermediate hashes.
+	 *
+	 * <p>This method does not allocate any object, so it is suitable for lookup methods
+	 * that keep the arrays <code>e</code> and <code>hash</code> in per-thread scratch space.
+	 *
+	 * @param triple a triple of intermediate hashes.
+	 * @param seed the seed for the hash function.
+	 * @param numVariables the nonzero number of variables in the system.
+	 * @param e an array to store the resulting equation.
+	 * @param hash an array of length 3 that will be used to store intermediate hashes.
+	 */
+	public static void tripleToEquation(final long[] triple, final long seed, final int numVariables, final int e[], final long[] hash) {
 		assert numVariables > 0 : numVariables;
-		final long[] hash = new long[3];
 		Hashes.spooky4(triple, seed, hash);
 		final int shift = Long.numberOfLeadingZeros(numVariables);
 		final long mask = (1L << shift) - 1;
@@ -254,9 +269,10 @@ public class Linear3SystemSolver {
 
 		/* We build the edge list and compute the degree of each vertex. */
 		final int[] e = new int[3];
+		final long[] hash = new long[3];
 		final Iterator<long[]> iterator = iterable.iterator();
 		for(int i = 0; i < numEdges; i++) {
-			tripleToEquation(iterator.next(), seed, numVertices, e);
+			tripleToEquation(iterator.next(), seed, numVertices, e, hash);
 			if (DEBUG) System.err.println("Edge <" + e[0] + "," + e[1] + "," + e[2] + ">");
 			d[edge2Vertex0[i] = e[0]]++;
 			d[edge2Vertex1[i] = e[1]]++;
@@ -485,6 +501,7 @@ public class Linear3SystemSolver {
 
 		/* We build the edge list and compute the degree of each vertex. */
 		final int[] e = new int[3];
+		final long[] hash = new long[3];
 		final LongArrayBitVector convertedValues = LongArrayBitVector.getInstance();
 		int j = 0, i = 0;
 		final Iterator<long[]> iterator = triples.iterator();
@@ -495,7 +512,7 @@ public class Linear3SystemSolver {
 			final int lenCodeword = coder.codewordLength(v);
 			convertedValues.append(convertedLong, lenCodeword);
 
-			tripleToEquation(next, seed, m, e);
+			tripleToEquation(next, seed, m, e, hash);
 
 			if (DEBUG) {
 				System.err.println("Edge <" + e[0] + "," + e[1] + "," + e[2] + "> = " + "chiave " + v);
@@ -0,0 +1,172 @@
+package it.unimi.dsi.sux4j.mph.solve;
+
+/*
+ * Sux4J: Succinct data structures for Java
+ *
+ * Copyright (C) 2018 Sebastiano Vigna
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.sux4j.mph.Hashes;
+import it.unimi.dsi.sux4j.mph.RibbonFunction;
+
+/** A class implementing generation and solution of a random banded linear system on <b>F</b><sub>2</sub>.
+ *
+ * <p>In a banded system each equation involves only variables in a window of {@value #BAND} consecutive variables:
+ * the first variable of the window is chosen uniformly at random, and the coefficients of the variables in the window
+ * are given by a random 64-bit word whose lowest bit is always set. Such systems are solvable with high probability
+ * with just a few percent more variables than equations, and can be solved by Gaussian elimination <em>on the fly</em>, as each equation
+ * can be reduced against the previous ones using just a few word operations, as shown by Peter C. Dillinger and Stefan Walzer in
+ * &ldquo;Ribbon filter: practically smaller than Bloom and Xor&rdquo;, <i>CoRR</i>, abs/2103.02515, 2021.
+ * This kind of system is useful for computing a {@link RibbonFunction}.
+ *
+ * <p>At construction time, you provide the desired number of equations and variables and the width of the constant terms;
+ * the number of variables must be a multiple of {@value #BAND}. Then, you call {@link #generateAndSolve(Iterable, long, LongBigList)}
+ * providing a value list; the constant term of the <var>k</var>-th equation will be the <var>k</var>-th element of the list.
+ *
+ * <p>The {@linkplain #solution solution} is stored in <em>interleaved column-major</em> order: for each block of {@value #BAND} consecutive variables
+ * there are as many words as the width of the constant terms, and the <var>b</var>-th word contains the <var>b</var>-th bit
+ * of the value of each variable of the block. In this way, the values of all variables involved in an equation are contained
+ * in two consecutive blocks, which occupy consecutive words in memory. The equation of a triple can be retrieved
+ * using {@link #tripleToEquation(long[], long, int, long[])}.
+ *
+ * @author Sebastiano Vigna
+ * @since 4.3.0
+ */
+
+public class RibbonSystemSolver {
+	/** The number of consecutive variables that can appear in an equation. */
+	public static final int BAND = Long.SIZE;
+	/** The base-2 logarithm of {@link #BAND}. */
+	public static final int LOG2_BAND = 6;
+
+	/** The number of variables. */
+	public final int numVariables;
+	/** The number of equations. */
+	public final int numEquations;
+	/** The width of the constant terms. */
+	public final int width;
+	/** For each variable, the coefficients of the reduced equation whose first variable is the given variable, or zero. */
+	private final long[] coefficients;
+	/** For each variable, the constant term of the reduced equation whose first variable is the given variable. */
+	private final long[] constant;
+	/** The solution of the last solved system in interleaved column-major order (see the {@linkplain RibbonSystemSolver class documentation}). */
+	public final long[] solution;
+	/** The number of generated unsolvable systems. */
+	public int unsolvable;
+
+	/** Creates a new solver.
+	 *
+	 * @param numVariables the number of variables, which must be a multiple of {@value #BAND}, and nonzero if {@code numEquations} is nonzero.
+	 * @param numEquations the number of equations.
+	 * @param width the width of the constant terms.
+	 */
+	public RibbonSystemSolver(final int numVariables, final int numEquations, final int width) {
+		if (numVariables % BAND != 0) throw new IllegalArgumentException("The number of variables (" + numVariables + ") is not a multiple of " + BAND);
+		if (numVariables == 0 && numEquations != 0) throw new IllegalArgumentException("There are " + numEquations + " equations but no variables");
+		if (width < 0 || width > Long.SIZE) throw new IllegalArgumentException("Illegal width: " + width);
+		this.numVariables = numVariables;
+		this.numEquations = numEquations;
+		this.width = width;
+		coefficients = new long[numVariables];
+		constant = new long[numVariables];
+		solution = new long[(numVariables >>> LOG2_BAND) * width];
+	}
+
+	/** Turns a triple of longs into an equation.
+	 *
+	 * <p>This method does not allocate any object. After the call, the first element of {@code hash} contains
+	 * the first variable of the equation, and the second element the coefficients of the {@value #BAND} variables starting from the first one
+	 * (the lowest bit is always set).
+	 *
+	 * @param triple a triple of intermediate hashes.
+	 * @param seed the seed for the hash function.
+	 * @param numVariables the nonzero number of variables in the system, which must be a multiple of {@value #BAND}.
+	 * @param hash an array of length 4 that will be used to store intermediate hashes, and that will contain the equation.
+	 */
+	public static void tripleToEquation(final long[] triple, final long seed, final int numVariables, final long[] hash) {
+		assert numVariables > 0 && numVariables % BAND == 0 : numVariables;
+		Hashes.spooky4(triple, seed, hash);
+		hash[0] = (hash[0] >>> 32) * (numVariables - BAND + 1) >>> 32;
+		hash[1] |= 1;
+	}
+
+	/** Generates a random banded linear system on <b>F</b><sub>2</sub> and tries to solve it.
+	 *
+	 * <p>The constant part is provided by {@code valueList}.
+	 *
+	 * @param iterable an iterable returning triples of longs.
+	 * @param seed a 64-bit random seed.
+	 * @param valueList a value list containing the constant part.
+	 * @return true if a solution was found.
+	 */
+	public boolean generateAndSolve(final Iterable<long[]> iterable, final long seed, final LongBigList valueList) {
+		final long[] coefficients = this.coefficients;
+		final long[] constant = this.constant;
+		Arrays.fill(coefficients, 0);
+		Arrays.fill(constant, 0);
+
+		final long[] hash = new long[4];
+		final Iterator<long[]> iterator = iterable.iterator();
+		for(int i = 0; i < numEquations; i++) {
+			tripleToEquation(iterator.next(), seed, numVariables, hash);
+			int first = (int)hash[0];
+			long c = hash[1];
+			long r = valueList.getLong(i);
+			// Reduce the equation against those already inserted until it has a new first variable
+			for(;;) {
+				final long d = coefficients[first];
+				if (d == 0) {
+					coefficients[first] = c;
+					constant[first] = r;
+					break;
+				}
+				c ^= d;
+				r ^= constant[first];
+				if (c == 0) {
+					if (r == 0) break; // Redundant equation
+					unsolvable++;
+					return false;
+				}
+				final int shift = Long.numberOfTrailingZeros(c);
+				first += shift;
+				c >>>= shift;
+			}
+		}
+
+		if (iterator.hasNext()) throw new IllegalStateException("This " + RibbonSystemSolver.class.getSimpleName() + " has " + numEquations + " equations, but the provided iterator returns more");
+
+		// Back substitution: window[b] contains the b-th bit of the values of the current variable and of the following ones
+		final int width = this.width;
+		final long[] window = new long[width];
+		for(int v = numVariables; v-- != 0;) {
+			final long c = coefficients[v];
+			final long r = constant[v];
+			if (c == 0) for(int b = 0; b < width; b++) window[b] <<= 1; // Free variable: we set it to zero
+			else for(int b = 0; b < width; b++) {
+				final long w = window[b] << 1;
+				window[b] = w | (r >>> b ^ Long.bitCount(w & c)) & 1;
+			}
+			if ((v & BAND - 1) == 0) System.arraycopy(window, 0, solution, (v >>> LOG2_BAND) * width, width);
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,66 @@
+package it.unimi.dsi.sux4j.test;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPException;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.Switch;
+import com.martiansoftware.jsap.UnflaggedOption;
+
+import it.unimi.dsi.sux4j.io.ChunkedHashStore;
+import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
+
+public class ChunkedHashStoreSortSpeedTest {
+
+	public static void main(final String[] arg) throws JSAPException {
+
+		final SimpleJSAP jsap = new SimpleJSAP(ChunkedHashStoreSortSpeedTest.class.getName(), "Compares the speed of the radix sort and of the quicksort used to sort the triples of a chunked hash store.",
+				new Parameter[] {
+					new UnflaggedOption("n", JSAP.INTSIZE_PARSER, "1Mi", JSAP.NOT_REQUIRED, JSAP.NOT_GREEDY, "The number of triples."),
+					new FlaggedOption("repeats", JSAP.INTEGER_PARSER, "10", JSAP.NOT_REQUIRED, 'r', "repeats", "The number of repetitions."),
+					new Switch("values", 'v', "values", "Sort also an array of values."),
+		});
+
+		final JSAPResult jsapResult = jsap.parse(arg);
+		if (jsap.messagePrinted()) return;
+
+		final int n = jsapResult.getInt("n");
+		final int repeats = jsapResult.getInt("repeats");
+		final boolean values = jsapResult.getBoolean("values");
+
+		final RandomGenerator random = new XoRoShiRo128PlusRandomGenerator(42);
+		final long[] t0 = new long[n], t1 = new long[n], t2 = new long[n], v = new long[n];
+		for(int i = n; i-- != 0;) {
+			t0[i] = random.nextLong();
+			t1[i] = random.nextLong();
+			t2[i] = random.nextLong();
+			v[i] = i;
+		}
+
+		final long[] b0 = new long[n], b1 = new long[n], b2 = new long[n], data = values ? new long[n] : null;
+		long time;
+		for(int k = repeats; k-- != 0;) {
+			System.arraycopy(t0, 0, b0, 0, n);
+			System.arraycopy(t1, 0, b1, 0, n);
+			System.arraycopy(t2, 0, b2, 0, n);
+			if (values) System.arraycopy(v, 0, data, 0, n);
+			time = - System.nanoTime();
+			ChunkedHashStore.quickSort(b0, b1, b2, data, 0, n);
+			time += System.nanoTime();
+			System.err.println("Quicksort: " + time / 1E9 + "s, " + time / (double)n + " ns/triple");
+
+			System.arraycopy(t0, 0, b0, 0, n);
+			System.arraycopy(t1, 0, b1, 0, n);
+			System.arraycopy(t2, 0, b2, 0, n);
+			if (values) System.arraycopy(v, 0, data, 0, n);
+			time = - System.nanoTime();
+			ChunkedHashStore.radixSort(b0, b1, b2, data, 0, n);
+			time += System.nanoTime();
+			System.err.println("Radix sort: " + time / 1E9 + "s, " + time / (double)n + " ns/triple");
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package it.unimi.dsi.sux4j.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPException;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.Switch;
+import com.martiansoftware.jsap.UnflaggedOption;
+
+import it.unimi.dsi.Util;
+import it.unimi.dsi.bits.TransformationStrategies;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.sux4j.io.ChunkedHashStore;
+import it.unimi.dsi.sux4j.io.ChunkedHashStore.Chunk;
+import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
+
+public class ChunkedHashStoreSpeedTest {
+
+	public static void main(final String[] arg) throws JSAPException, IOException {
+
+		final SimpleJSAP jsap = new SimpleJSAP(ChunkedHashStoreSpeedTest.class.getName(), "Compares the speed of the standard and compact on-disk record formats of a chunked hash store.",
+				new Parameter[] {
+					new UnflaggedOption("n", JSAP.INTSIZE_PARSER, "10Mi", JSAP.NOT_REQUIRED, JSAP.NOT_GREEDY, "The number of keys."),
+					new FlaggedOption("repeats", JSAP.INTEGER_PARSER, "3", JSAP.NOT_REQUIRED, 'r', "repeats", "The number of repetitions."),
+					new FlaggedOption("valueWidth", JSAP.INTEGER_PARSER, "20", JSAP.NOT_REQUIRED, 'w', "value-width", "The width in bits of the random values associated with keys."),
+					new FlaggedOption("tempDir", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'T', "temp-dir", "A directory for temporary files."),
+					new Switch("noValues", 'n', "no-values", "Store the lower bits of the first hash instead of values."),
+		});
+
+		final JSAPResult jsapResult = jsap.parse(arg);
+		if (jsap.messagePrinted()) return;
+
+		final int n = jsapResult.getInt("n");
+		final int repeats = jsapResult.getInt("repeats");
+		final int valueWidth = jsapResult.getInt("valueWidth");
+		final File tempDir = jsapResult.userSpecified("tempDir") ? new File(jsapResult.getString("tempDir")) : null;
+		final int hashWidth = jsapResult.getBoolean("noValues") ? 10 : 0;
+
+		final RandomGenerator random = new XoRoShiRo128PlusRandomGenerator(42);
+		final long[] key = new long[n], value = new long[n];
+		for(int i = n; i-- != 0;) {
+			key[i] = random.nextLong();
+			value[i] = random.nextLong() & -1L >>> Long.SIZE - valueWidth;
+		}
+
+		for(int k = repeats; k-- != 0;) {
+			for(final boolean compact : new boolean[] { false, true }) {
+				final File dir = Files.createTempDirectory(tempDir == null ? null : tempDir.toPath(), ChunkedHashStoreSpeedTest.class.getSimpleName()).toFile();
+				final ChunkedHashStore<Long> chunkedHashStore = new ChunkedHashStore<>(TransformationStrategies.fixedLong(), dir, hashWidth, 0, compact, null);
+				long time = - System.nanoTime();
+				chunkedHashStore.addAll(LongArrayList.wrap(key).iterator(), LongArrayList.wrap(value).iterator());
+				chunkedHashStore.log2Chunks(10);
+				// Flushes the disk chunks
+				chunkedHashStore.iterator();
+				time += System.nanoTime();
+				System.err.print((compact ? "Compact" : "Standard") + " format, writing: " + Util.format(time / 1E9) + "s, " + Util.format(time / (double)n) + " ns/key; ");
+
+				long bytes = 0;
+				for(final File f : dir.listFiles()) bytes += f.length();
+				System.err.print(Util.format(bytes / (double)n) + " bytes/key; ");
+
+				long triples = 0;
+				time = - System.nanoTime();
+				for(final Chunk chunk : chunkedHashStore) triples += chunk.size();
+				time += System.nanoTime();
+				if (triples != n) throw new AssertionError();
+				System.err.println("reading: " + Util.format(time / 1E9) + "s, " + Util.format(time / (double)n) + " ns/key");
+
+				chunkedHashStore.close();
+				dir.delete();
+			}
+		}
+	}
+}
@@ -19,9 +19,12 @@ import it.unimi.dsi.fastutil.io.BinIO;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.objects.Object2LongFunction;
+import it.unimi.dsi.sux4j.mph.GOV3Function;
+import it.unimi.dsi.sux4j.mph.GOV4Function;
 
 public class LongFunctionSpeedTest {
 
+	@SuppressWarnings("unchecked")
 	public static void main(final String[] arg) throws IOException, JSAPException, ClassNotFoundException {
 
 		final SimpleJSAP jsap = new SimpleJSAP(LongFunctionSpeedTest.class.getName(), "Test the speed of a function on longs. Performs thirteen repetitions: the first three ones are warmup, and the average of the remaining ten is printed on standard output. The detailed results are logged to standard error.",
@@ -29,6 +32,7 @@ public class LongFunctionSpeedTest {
 					new FlaggedOption("n", JSAP.INTSIZE_PARSER, "1000000", JSAP.NOT_REQUIRED, 'n',  "number-of-longs", "The (maximum) number of longs used for random testing."),
 					new Switch("random", 'r', "random", "Test a shuffled subset of longs."),
 					new Switch("check", 'c', "check", "Check that the list of longs is mapped to its ordinal position."),
+					new Switch("batch", 'b', "batch", "Use batch lookups (GOV3Function and GOV4Function only; random tests only)."),
 					new UnflaggedOption("function", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, JSAP.NOT_GREEDY, "The filename for the serialised function."),
 					new UnflaggedOption("termFile", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, JSAP.NOT_GREEDY, "Read terms from this file."),
 		});
@@ -40,12 +44,14 @@ public class LongFunctionSpeedTest {
 		final String termFile = jsapResult.getString("termFile");
 		final boolean check = jsapResult.getBoolean("check");
 		final boolean random = jsapResult.getBoolean("random");
+		final boolean batch = jsapResult.getBoolean("batch");
 		final int maxStrings = jsapResult.getInt("n");
 
 		if (jsapResult.userSpecified("n") && ! random) throw new IllegalArgumentException("The number of string is meaningful for random tests only");
+		if (batch && ! random) throw new IllegalArgumentException("Batch lookups are available for random tests only");
 
-		@SuppressWarnings("unchecked")
 		final Object2LongFunction<Long> function = (Object2LongFunction<Long>)BinIO.loadObject(functionName);
+		if (batch && ! (function instanceof GOV3Function || function instanceof GOV4Function)) throw new IllegalArgumentException("Batch lookups are available for GOV3Function and GOV4Function only");
 		@SuppressWarnings("resource")
 		final LongArrayList lines = LongArrayList.wrap(BinIO.loadLongs(termFile));
 
@@ -65,10 +71,16 @@ public class LongFunctionSpeedTest {
 			System.gc();
 			System.gc();
 
+			final long[] out = batch ? new long[n] : null;
 			long total = 0, t = -1;
 			for(int k = 13; k-- != 0;) {
 				long time = -System.nanoTime();
-				for(int i = 0; i < n; i++) {
+				if (batch) {
+					if (function instanceof GOV3Function) ((GOV3Function<Long>)function).getLongs(test, out);
+					else ((GOV4Function<Long>)function).getLongs(test, out);
+					for(int i = 0; i < n; i++) t ^= out[i];
+				}
+				else for(int i = 0; i < n; i++) {
 					t ^= function.getLong(Long.valueOf(test[i]));
 					if ((i % 0xFFFFF) == 0) System.err.print('.');
 				}
@@ -0,0 +1,78 @@
+package it.unimi.dsi.sux4j.test;
+
+import java.io.IOException;
+import java.util.function.LongUnaryOperator;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPException;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+
+import it.unimi.dsi.Util;
+import it.unimi.dsi.bits.TransformationStrategies;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.sux4j.mph.GOV3Function;
+import it.unimi.dsi.sux4j.mph.RibbonFunction;
+import it.unimi.dsi.util.XoRoShiRo128PlusRandom;
+
+public class RibbonFunctionSpeedTest {
+
+	/** Performs thirteen repetitions of random lookups and returns the average time per lookup in nanoseconds of the last ten. */
+	private static double time(final String name, final LongUnaryOperator function, final long[] test) {
+		long total = 0, t = -1;
+		for(int k = 13; k-- != 0;) {
+			long time = -System.nanoTime();
+			for(final long key : test) t ^= function.applyAsLong(key);
+			time += System.nanoTime();
+			if (k < 10) total += time;
+			System.err.println(name + ": " + Util.format(time / 1E9) + "s, " + Util.format((double)time / test.length) + " ns/item");
+		}
+		if (t == 0) System.err.println(t);
+		return total / (10. * test.length);
+	}
+
+	public static void main(final String[] arg) throws IOException, JSAPException {
+
+		final SimpleJSAP jsap = new SimpleJSAP(RibbonFunctionSpeedTest.class.getName(), "Compares the lookup speed of a GOV3Function and of a RibbonFunction built on the same random 64-bit keys and values. Performs thirteen repetitions for each function: the first three ones are warmup, and the average of the remaining ten is printed on standard output. The detailed results are logged to standard error.",
+				new Parameter[] {
+					new FlaggedOption("n", JSAP.INTSIZE_PARSER, "10000000", JSAP.NOT_REQUIRED, 'n', "number-of-keys", "The number of keys."),
+					new FlaggedOption("width", JSAP.INTEGER_PARSER, "8", JSAP.NOT_REQUIRED, 'w', "width", "The width in bits of the values."),
+					new FlaggedOption("queries", JSAP.INTSIZE_PARSER, "10000000", JSAP.NOT_REQUIRED, 'q', "queries", "The number of random lookups per repetition."),
+					new FlaggedOption("seed", JSAP.LONG_PARSER, "0", JSAP.NOT_REQUIRED, 's', "seed", "The seed of the generator of keys and values."),
+		});
+
+		final JSAPResult jsapResult = jsap.parse(arg);
+		if (jsap.messagePrinted()) return;
+
+		final int n = jsapResult.getInt("n");
+		final int width = jsapResult.getInt("width");
+		final int queries = jsapResult.getInt("queries");
+		if (width < 1 || width > Long.SIZE) throw new IllegalArgumentException("Illegal width: " + width);
+
+		final XoRoShiRo128PlusRandom r = new XoRoShiRo128PlusRandom(jsapResult.getLong("seed"));
+		final long[] keys = new long[n], values = new long[n];
+		for(int i = 0; i < n; i++) {
+			keys[i] = r.nextLong();
+			values[i] = r.nextLong() >>> Long.SIZE - width;
+		}
+
+		final GOV3Function<Long> gov3 = new GOV3Function.Builder<Long>().keys(LongArrayList.wrap(keys)).transform(TransformationStrategies.rawFixedLong()).values(LongArrayList.wrap(values), width).build();
+		final RibbonFunction<Long> ribbon = new RibbonFunction.Builder<Long>().keys(LongArrayList.wrap(keys)).transform(TransformationStrategies.rawFixedLong()).values(LongArrayList.wrap(values), width).build();
+
+		final long[] test = new long[queries];
+		for(int i = 0; i < queries; i++) test[i] = keys[r.nextInt(n)];
+		LongArrays.shuffle(test, r);
+
+		System.gc();
+		System.gc();
+
+		final double gov3Time = time("GOV3Function", gov3::getLong, test);
+		final double ribbonTime = time("RibbonFunction", ribbon::getLong, test);
+
+		System.out.println("GOV3Function: " + Util.format(gov3Time) + " ns/item, " + Util.format((double)gov3.numBits() / n) + " bits/key");
+		System.out.println("RibbonFunction: " + Util.format(ribbonTime) + " ns/item, " + Util.format((double)ribbon.numBits() / n) + " bits/key");
+	}
+}
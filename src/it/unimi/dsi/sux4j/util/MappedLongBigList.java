@@ -0,0 +1,207 @@
+package it.unimi.dsi.sux4j.util;
+
+/*
+ * Sux4J: Succinct data structures for Java
+ *
+ * Copyright (C) 2018 Sebastiano Vigna
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import it.unimi.dsi.fastutil.longs.AbstractLongBigList;
+
+/** A big list of fixed-width longs stored in a memory-mapped file.
+ *
+ * <p>Elements are stored in little-endian order using the minimum number of bytes that can
+ * contain the specified width. Byte alignment wastes at most seven bits per element, but it makes it
+ * possible to {@linkplain #set(long, long) set} concurrently distinct elements without any synchronization, as distinct
+ * elements never share a byte: thus, a list {@linkplain #create(File, long, int) created} from scratch can be filled by several
+ * threads at the same time.
+ *
+ * <p>The file is mapped in segments, so there is no limit on the size of the list. Instances of this
+ * class serialize just the name of the backing file: upon deserialization, the file is mapped again in read-only
+ * mode, so the file must be available (at the same path) to the deserializing process, and the list is
+ * not loaded into the heap.
+ *
+ * @author Sebastiano Vigna
+ * @since 4.3.0
+ */
+
+public class MappedLongBigList extends AbstractLongBigList implements Serializable {
+	private static final long serialVersionUID = 1L;
+	/** The base-2 logarithm of the number of elements per mapped segment. */
+	private static final int LOG2_SEGMENT_SIZE = 27;
+	/** The mask to get the position of an element in its mapped segment. */
+	private static final long SEGMENT_MASK = (1L << LOG2_SEGMENT_SIZE) - 1;
+
+	/** The backing file. */
+	private final File file;
+	/** The number of elements in this list. */
+	private final long size;
+	/** The width of an element in bits. */
+	private final int width;
+	/** The number of bytes used to store an element. */
+	private final int bytes;
+	/** The mask to extract an element. */
+	private final long mask;
+	/** Whether the mapping is writable. */
+	private transient boolean writable;
+	/** The mapped segments of {@link #file}. */
+	private transient MappedByteBuffer[] buffer;
+
+	private MappedLongBigList(final File file, final long size, final int width, final boolean writable) throws IOException {
+		if (width <= 0 || width > Long.SIZE) throw new IllegalArgumentException("Illegal width: " + width);
+		this.file = file.getAbsoluteFile();
+		this.size = size;
+		this.width = width;
+		this.bytes = (width + Byte.SIZE - 1) / Byte.SIZE;
+		this.mask = -1L >>> Long.SIZE - width;
+		map(writable);
+	}
+
+	/** Creates a new, zero-filled list backed by a given file.
+	 *
+	 * <p>The file is created (or truncated) and mapped in read-write mode.
+	 *
+	 * @param file the backing file.
+	 * @param size the number of elements of the list.
+	 * @param width the width in bits of the elements.
+	 * @return a new writable list backed by {@code file}.
+	 */
+	public static MappedLongBigList create(final File file, final long size, final int width) throws IOException {
+		if (size < 0) throw new IllegalArgumentException("Negative size: " + size);
+		try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.setLength(0);
+			randomAccessFile.setLength(size * ((width + Byte.SIZE - 1) / Byte.SIZE));
+		}
+		return new MappedLongBigList(file, size, width, true);
+	}
+
+	/** Maps in read-only mode a list previously created with {@link #create(File, long, int)}.
+	 *
+	 * @param file the backing file.
+	 * @param width the width in bits of the elements.
+	 * @return a read-only list backed by {@code file}.
+	 */
+	public static MappedLongBigList map(final File file, final int width) throws IOException {
+		final long bytes = (width + Byte.SIZE - 1) / Byte.SIZE;
+		if (file.length() % bytes != 0) throw new IllegalArgumentException("The length of file " + file + " is not a multiple of " + bytes);
+		return new MappedLongBigList(file, file.length() / bytes, width, false);
+	}
+
+	private void map(final boolean writable) throws IOException {
+		this.writable = writable;
+		buffer = new MappedByteBuffer[(int)((size + SEGMENT_MASK) >>> LOG2_SEGMENT_SIZE)];
+		try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, writable ? "rw" : "r")) {
+			final FileChannel channel = randomAccessFile.getChannel();
+			for(int i = 0; i < buffer.length; i++) {
+				final long start = (long)i << LOG2_SEGMENT_SIZE;
+				final long length = Math.min(SEGMENT_MASK + 1, size - start) * bytes;
+				buffer[i] = channel.map(writable ? MapMode.READ_WRITE : MapMode.READ_ONLY, start * bytes, length);
+				buffer[i].order(ByteOrder.LITTLE_ENDIAN);
+			}
+		}
+	}
+
+	/** Returns the width in bits of the elements of this list.
+	 *
+	 * @return the width in bits of the elements of this list.
+	 */
+	public int width() {
+		return width;
+	}
+
+	/** Returns the backing file of this list.
+	 *
+	 * @return the backing file of this list.
+	 */
+	public File file() {
+		return file;
+	}
+
+	@Override
+	public long size64() {
+		return size;
+	}
+
+	@Override
+	public long getLong(final long index) {
+		final MappedByteBuffer b = buffer[(int)(index >>> LOG2_SEGMENT_SIZE)];
+		final int pos = (int)(index & SEGMENT_MASK) * bytes;
+		switch(bytes) {
+		case 1: return b.get(pos) & mask;
+		case 2: return b.getShort(pos) & mask;
+		case 4: return b.getInt(pos) & mask;
+		case 8: return b.getLong(pos) & mask;
+		default:
+			long result = 0;
+			for(int i = bytes; i-- != 0;) result = result << Byte.SIZE | b.get(pos + i) & 0xFF;
+			return result & mask;
+		}
+	}
+
+	/** Sets an element of this list.
+	 *
+	 * <p>This method can be called concurrently by several threads, provided that they set distinct elements.
+	 *
+	 * @param index an index.
+	 * @param value a value; only its lowest {@link #width()} bits will be stored.
+	 * @return the previous element at {@code index}.
+	 * @throws UnsupportedOperationException if this list has been mapped in read-only mode.
+	 */
+	@Override
+	public long set(final long index, long value) {
+		if (! writable) throw new UnsupportedOperationException("This list has been mapped in read-only mode");
+		final long previous = getLong(index);
+		value &= mask;
+		final MappedByteBuffer b = buffer[(int)(index >>> LOG2_SEGMENT_SIZE)];
+		final int pos = (int)(index & SEGMENT_MASK) * bytes;
+		switch(bytes) {
+		case 1: b.put(pos, (byte)value); break;
+		case 2: b.putShort(pos, (short)value); break;
+		case 4: b.putInt(pos, (int)value); break;
+		case 8: b.putLong(pos, value); break;
+		default:
+			for(int i = 0; i < bytes; i++, value >>>= Byte.SIZE) b.put(pos + i, (byte)value);
+		}
+		return previous;
+	}
+
+	/** Forces changes to be written to the backing file. */
+	public void force() {
+		if (writable) for(final MappedByteBuffer b : buffer) b.force();
+	}
+
+	private void writeObject(final ObjectOutputStream s) throws IOException {
+		force();
+		s.defaultWriteObject();
+	}
+
+	private void readObject(final ObjectInputStream s) throws IOException, ClassNotFoundException {
+		s.defaultReadObject();
+		map(false);
+	}
+}
@@ -0,0 +1,258 @@
+package it.unimi.dsi.sux4j.util;
+
+/*
+ * Sux4J: Succinct data structures for Java
+ *
+ * Copyright (C) 2018 Sebastiano Vigna
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+import it.unimi.dsi.bits.LongArrayBitVector;
+import it.unimi.dsi.fastutil.longs.AbstractLongBigList;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+/** A big list of fixed-width longs stored outside of the heap.
+ *
+ * <p>Elements are packed into words as in a {@link LongArrayBitVector#asLongBigList(int)}, but the words
+ * are stored in a sequence of direct buffers (segments). Thus, there is no limit on the size of the list, and large
+ * lists do not weigh on the garbage collector. Note that the amount of memory available to direct buffers is
+ * limited by the JVM option <code>-XX:MaxDirectMemorySize</code>, and that the memory of a list is released
+ * only when the list is collected.
+ *
+ * <p>Distinct elements might share a word, so {@link #set(long, long)} is not thread-safe. However,
+ * {@link #set(long, long[])} can be called concurrently by several threads, provided that they set disjoint ranges of elements.
+ *
+ * <p>Instances of this class serialize their words: upon deserialization, the content of the list is read
+ * again into direct buffers.
+ *
+ * @author Sebastiano Vigna
+ * @since 4.3.0
+ */
+
+public class OffHeapLongBigList extends AbstractLongBigList implements Serializable {
+	private static final long serialVersionUID = 0L;
+	/** The default base-2 logarithm of the number of words per segment (one gibibyte). */
+	private static final int LOG2_SEGMENT_SIZE = 27;
+
+	/** The base-2 logarithm of the number of words per segment. */
+	private final int log2SegmentSize;
+	/** The mask to get the position of a word in its segment. */
+	private final long segmentMask;
+	/** The width of an element in bits. */
+	private final int width;
+	/** The mask to extract an element. */
+	private final long mask;
+	/** The maximum number of elements this list can contain. */
+	private final long capacity;
+	/** The number of elements in this list. */
+	private long size;
+	/** The segments containing the words of this list. */
+	private transient LongBuffer[] segment;
+
+	/** Creates a new, zero-filled list.
+	 *
+	 * @param size the number of elements of the list.
+	 * @param width the width in bits of the elements.
+	 */
+	public OffHeapLongBigList(final long size, final int width) {
+		this(size, width, LOG2_SEGMENT_SIZE);
+	}
+
+	/** Creates a new, zero-filled list with segments of given size.
+	 *
+	 * @param size the number of elements of the list.
+	 * @param width the width in bits of the elements.
+	 * @param log2SegmentSize the base-2 logarithm of the number of words per segment.
+	 */
+	OffHeapLongBigList(final long size, final int width, final int log2SegmentSize) {
+		if (width < 0 || width > Long.SIZE) throw new IllegalArgumentException("Illegal width: " + width);
+		if (size < 0) throw new IllegalArgumentException("Negative size: " + size);
+		this.log2SegmentSize = log2SegmentSize;
+		this.segmentMask = (1L << log2SegmentSize) - 1;
+		this.width = width;
+		this.mask = width == 0 ? 0 : -1L >>> Long.SIZE - width;
+		this.capacity = this.size = size;
+		allocate();
+	}
+
+	/** Returns a new list containing the same elements of a given list.
+	 *
+	 * @param list a list.
+	 * @param width the width in bits of the elements of {@code list}.
+	 * @return a new list containing the elements of {@code list}.
+	 */
+	public static OffHeapLongBigList copyOf(final LongBigList list, final int width) {
+		final OffHeapLongBigList copy = new OffHeapLongBigList(list.size64(), width);
+		for(long i = 0; i < copy.size; i++) copy.set(i, list.getLong(i));
+		return copy;
+	}
+
+	/** Returns the number of words used by the elements of this list. */
+	private long numWords() {
+		return (capacity * width + Long.SIZE - 1) / Long.SIZE;
+	}
+
+	/** Allocates {@link #segment}. */
+	private void allocate() {
+		final long numWords = numWords();
+		segment = new LongBuffer[(int)((numWords + segmentMask) >>> log2SegmentSize)];
+		for(int i = 0; i < segment.length; i++) {
+			final long words = Math.min(segmentMask + 1, numWords - ((long)i << log2SegmentSize));
+			segment[i] = ByteBuffer.allocateDirect((int)(words * Long.BYTES)).order(ByteOrder.nativeOrder()).asLongBuffer();
+		}
+	}
+
+	/** Returns a word of this list.
+	 *
+	 * @param index the index of a word.
+	 * @return the word of index {@code index}.
+	 */
+	private long getWord(final long index) {
+		return segment[(int)(index >>> log2SegmentSize)].get((int)(index & segmentMask));
+	}
+
+	/** Sets a word of this list.
+	 *
+	 * @param index the index of a word.
+	 * @param word the new value of the word.
+	 */
+	private void setWord(final long index, final long word) {
+		segment[(int)(index >>> log2SegmentSize)].put((int)(index & segmentMask), word);
+	}
+
+	/** Returns the width in bits of the elements of this list.
+	 *
+	 * @return the width in bits of the elements of this list.
+	 */
+	public int width() {
+		return width;
+	}
+
+	@Override
+	public long size64() {
+		return size;
+	}
+
+	/** Sets the size of this list.
+	 *
+	 * <p>The size cannot be larger than the size specified at construction time. Elements added
+	 * by enlarging the list are zero.
+	 *
+	 * @param size the new size.
+	 */
+	@Override
+	public void size(final long size) {
+		if (size < 0 || size > capacity) throw new IllegalArgumentException("Illegal size: " + size + " (capacity: " + capacity + ")");
+		for(long i = this.size; i < size; i++) set(i, 0);
+		this.size = size;
+	}
+
+	@Override
+	public long getLong(final long index) {
+		if (width == 0) return 0;
+		final long start = index * width;
+		final long word = start >>> LongArrayBitVector.LOG2_BITS_PER_WORD;
+		final int bit = (int)(start & LongArrayBitVector.WORD_MASK);
+		if (bit + width <= Long.SIZE) return getWord(word) >>> bit & mask;
+		return (getWord(word) >>> bit | getWord(word + 1) << -bit) & mask;
+	}
+
+	/** Sets an element of this list.
+	 *
+	 * <p>This method is not thread-safe, as distinct elements might share a word.
+	 *
+	 * @param index an index.
+	 * @param value a value; only its lowest {@link #width()} bits will be stored.
+	 * @return the previous element at {@code index}.
+	 */
+	@Override
+	public long set(final long index, long value) {
+		if (width == 0) return 0;
+		value &= mask;
+		final long start = index * width;
+		final long word = start >>> LongArrayBitVector.LOG2_BITS_PER_WORD;
+		final int bit = (int)(start & LongArrayBitVector.WORD_MASK);
+		final long w = getWord(word);
+		if (bit + width <= Long.SIZE) {
+			setWord(word, w & ~(mask << bit) | value << bit);
+			return w >>> bit & mask;
+		}
+		final long v = getWord(word + 1);
+		setWord(word, w & -1L >>> -bit | value << bit);
+		setWord(word + 1, v & -1L << bit + width - Long.SIZE | value >>> -bit);
+		return (w >>> bit | v << -bit) & mask;
+	}
+
+	/** Sets a range of consecutive elements of this list.
+	 *
+	 * <p>The values are first packed into a local buffer aligned with the words of this list. Words entirely covered by the
+	 * range are then stored without synchronization, whereas the first and the last word, which might be shared with
+	 * adjacent ranges, are combined while holding the lock of this list. Thus, this method can be called concurrently
+	 * by several threads, provided that they set disjoint ranges of elements.
+	 *
+	 * @param index the index of the first element to set.
+	 * @param values the values of the elements; only their lowest {@link #width()} bits will be stored.
+	 */
+	public void set(final long index, final long[] values) {
+		if (values.length == 0 || width == 0) return;
+		final long start = index * width;
+		final long end = start + (long)values.length * width;
+		final long firstWord = start >>> LongArrayBitVector.LOG2_BITS_PER_WORD;
+		final long lastWord = end - 1 >>> LongArrayBitVector.LOG2_BITS_PER_WORD;
+		final long[] local = new long[(int)(lastWord - firstWord + 1)];
+		long pos = start & LongArrayBitVector.WORD_MASK;
+		for(final long v : values) {
+			final long value = v & mask;
+			final int word = (int)(pos >>> LongArrayBitVector.LOG2_BITS_PER_WORD);
+			final int bit = (int)(pos & LongArrayBitVector.WORD_MASK);
+			local[word] |= value << bit;
+			if (bit + width > Long.SIZE) local[word + 1] |= value >>> -bit;
+			pos += width;
+		}
+		for(int i = 1; i < local.length - 1; i++) setWord(firstWord + i, local[i]);
+
+		// The bits of the first and last word belonging to the range
+		final long firstMask = -1L << start, lastMask = -1L >>> -end;
+		synchronized(this) {
+			if (firstWord == lastWord) setWord(firstWord, getWord(firstWord) & ~(firstMask & lastMask) | local[0]);
+			else {
+				setWord(firstWord, getWord(firstWord) & ~firstMask | local[0]);
+				setWord(lastWord, getWord(lastWord) & ~lastMask | local[local.length - 1]);
+			}
+		}
+	}
+
+	private void writeObject(final ObjectOutputStream s) throws IOException {
+		s.defaultWriteObject();
+		final long numWords = numWords();
+		for(long i = 0; i < numWords; i++) s.writeLong(getWord(i));
+	}
+
+	private void readObject(final ObjectInputStream s) throws IOException, ClassNotFoundException {
+		s.defaultReadObject();
+		allocate();
+		final long numWords = numWords();
+		for(long i = 0; i < numWords; i++) setWord(i, s.readLong());
+	}
+}
@@ -0,0 +1,717 @@
+package it.unimi.dsi.sux4j.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
+
+import org.junit.Test;
+
+import it.unimi.dsi.bits.BitVector;
+import it.unimi.dsi.bits.TransformationStrategies;
+import it.unimi.dsi.bits.TransformationStrategy;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.lang.MutableString;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.sux4j.io.ChunkedHashStore.Chunk;
+import it.unimi.dsi.sux4j.io.ChunkedHashStore.ChunkIterator;
+import it.unimi.dsi.sux4j.io.ChunkedHashStore.DuplicateException;
+import it.unimi.dsi.sux4j.mph.GOV3Function;
+import it.unimi.dsi.sux4j.mph.GOVMinimalPerfectHashFunction;
+import it.unimi.dsi.sux4j.mph.Hashes;
+import it.unimi.dsi.sux4j.util.MappedLongBigList;
+import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
+
+public class ChunkedHashStoreTest {
+
+	private static String[] strings(final int size) {
+		final String[] s = new String[size];
+		for (int i = s.length; i-- != 0;) s[i] = Integer.toString(i);
+		return s;
+	}
+
+	private static void assertSameContent(final ChunkedHashStore<?> expected, final ChunkedHashStore<?> actual) throws IOException {
+		assertEquals(expected.size(), actual.size());
+		assertSameContent(expected.iterator(), actual.iterator());
+	}
+
+	private static void assertSameContent(final Iterator<Chunk> e, final Iterator<Chunk> a) {
+		while(e.hasNext()) {
+			final Chunk ec = e.next(), ac = a.next();
+			assertEquals(ec.index(), ac.index());
+			assertEquals(ec.size(), ac.size());
+			final Iterator<long[]> eq = ec.iterator(), aq = ac.iterator();
+			while(eq.hasNext()) assertArrayEquals(eq.next(), aq.next());
+			assertFalse(aq.hasNext());
+		}
+		assertFalse(a.hasNext());
+	}
+
+	@Test
+	public void testParallelAddAll() throws IOException {
+		for (final int size : new int[] { 0, 1, 1000, 100000 }) {
+			for (final int log2Chunks : new int[] { 0, 4, 10 }) {
+				final String[] s = strings(size);
+				final long[] v = new long[size];
+				for (int i = v.length; i-- != 0;) v[i] = i * 31L;
+
+				final ChunkedHashStore<CharSequence> serial = new ChunkedHashStore<>(TransformationStrategies.utf16());
+				serial.reset(42);
+				serial.addAll(Arrays.asList(s).iterator(), LongArrayList.wrap(v).iterator());
+				serial.log2Chunks(log2Chunks);
+
+				for (final int threads : new int[] { 1, 2, 5 }) {
+					final ChunkedHashStore<CharSequence> parallel = new ChunkedHashStore<>(TransformationStrategies.utf16());
+					parallel.reset(42);
+					parallel.addAll(Arrays.asList(s).iterator(), LongArrayList.wrap(v).iterator(), threads);
+					parallel.log2Chunks(log2Chunks);
+					assertSameContent(serial, parallel);
+					parallel.close();
+				}
+
+				serial.close();
+			}
+		}
+	}
+
+	@Test
+	public void testParallelAddAllRanks() throws IOException {
+		final String[] s = strings(20000);
+		final ChunkedHashStore<CharSequence> serial = new ChunkedHashStore<>(TransformationStrategies.utf16());
+		serial.addAll(Arrays.asList(s).iterator());
+		serial.log2Chunks(3);
+		final ChunkedHashStore<CharSequence> parallel = new ChunkedHashStore<>(TransformationStrategies.utf16());
+		parallel.addAll(Arrays.asList(s).iterator(), null, 4);
+		parallel.log2Chunks(3);
+		assertSameContent(serial, parallel);
+		serial.close();
+		parallel.close();
+	}
+
+	@Test
+	public void testMappedSignatures() throws IOException {
+		final String[] s = strings(100000);
+		final ChunkedHashStore<CharSequence> store = new ChunkedHashStore<>(TransformationStrategies.utf16());
+		store.addAll(Arrays.asList(s).iterator());
+		store.log2Chunks(6);
+		final File file = File.createTempFile(ChunkedHashStoreTest.class.getSimpleName(), "signatures");
+		file.deleteOnExit();
+		for (final int signatureWidth : new int[] { 5, 24, 64 }) {
+			final MappedLongBigList mapped = store.signatures(signatureWidth, file, new ProgressLogger());
+			assertEquals(store.signatures(signatureWidth, new ProgressLogger()), mapped);
+			assertEquals(mapped, MappedLongBigList.map(file, signatureWidth));
+		}
+		store.close();
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testParallelAddAllTooManyValues() throws IOException {
+		final ChunkedHashStore<CharSequence> store = new ChunkedHashStore<>(TransformationStrategies.utf16());
+		try {
+			store.addAll(Arrays.asList(strings(10)).iterator(), LongArrayList.wrap(new long[11]).iterator(), 3);
+		}
+		finally {
+			store.close();
+		}
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testSplitAddAllTooManyValues() throws IOException {
+		final ChunkedHashStore<CharSequence> store = new ChunkedHashStore<>(TransformationStrategies.utf16());
+		try {
+			store.addAll(Arrays.asList(strings(10)).spliterator(), LongArrayList.wrap(new long[11]).iterator(), 3);
+		}
+		finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void testParallelAddAllFrequencies() throws IOException {
+		final String[] s = strings(100000);
+		final long[] v = new long[s.length];
+		for (int i = v.length; i-- != 0;) v[i] = Long.numberOfTrailingZeros(i);
+
+		final ChunkedHashStore<CharSequence> serial = new ChunkedHashStore<>(TransformationStrategies.utf16(), null, -1, null);
+		serial.addAll(Arrays.asList(s).iterator(), LongArrayList.wrap(v).iterator());
+		for (final int threads : new int[] { 2, 5 }) {
+			final ChunkedHashStore<CharSequence> parallel = new ChunkedHashStore<>(TransformationStrategies.utf16(), null, -1, null);
+			parallel.addAll(Arrays.asList(s).iterator(), LongArrayList.wrap(v).iterator(), threads);
+			assertEquals(serial.value2FrequencyMap(), parallel.value2FrequencyMap());
+			parallel.close();
+
+			// Ordinal positions
+			final ChunkedHashStore<CharSequence> ordinal = new ChunkedHashStore<>(TransformationStrategies.utf16(), null, -1, null);
+			ordinal.addAll(Arrays.asList(s).iterator(), null, threads);
+			assertEquals(s.length, ordinal.value2FrequencyMap().size());
+			ordinal.close();
+		}
+		assertEquals(s.length / 2, serial.value2FrequencyMap().get(0));
+		serial.close();
+	}
+
+	@Test
+	public void testSpliteratorAddAll() throws IOException {
+		for (final int size : new int[] { 0, 1, 1000, 100000 }) {
+			final String[] s = strings(size);
+			final long[] v = new long[size];
+			for (int i = v.length; i-- != 0;) v[i] = i * 31L;
+
+			final ChunkedHashStore<CharSequence> serial = new ChunkedHashStore<>(TransformationStrategies.utf16());
+			serial.addAll(Arrays.asList(s).iterator(), LongArrayList.wrap(v).iterator());
+			serial.log2Chunks(4);
+
+			final ChunkedHashStore<CharSequence> parallel = new ChunkedHashStore<>(TransformationStrategies.utf16());
+			parallel.addAll(Arrays.asList(s).spliterator(), LongArrayList.wrap(v).iterator());
+			parallel.log2Chunks(4);
+			assertSameContent(serial, parallel);
+			parallel.close();
+
+			final ChunkedHashStore<CharSequence> splittable = new ChunkedHashStore<>(TransformationStrategies.utf16());
+			splittable.addAll(new SplittableIterable<>(() -> Arrays.asList(s).stream()), null);
+			splittable.log2Chunks(4);
+			final ChunkedHashStore<CharSequence> ranks = new ChunkedHashStore<>(TransformationStrategies.utf16());
+			ranks.addAll(Arrays.asList(s).iterator());
+			ranks.log2Chunks(4);
+			assertSameContent(ranks, splittable);
+			splittable.close();
+			ranks.close();
+
+			serial.close();
+		}
+	}
+
+	@Test
+	public void testSplitAddAll() throws IOException {
+		for (final int size : new int[] { 0, 1, 1000, 100000 }) {
+			final String[] s = strings(size);
+			final long[] v = new long[size];
+			for (int i = v.length; i-- != 0;) v[i] = i * 31L;
+
+			final ChunkedHashStore<CharSequence> serial = new ChunkedHashStore<>(TransformationStrategies.utf16());
+			serial.addAll(Arrays.asList(s).iterator(), LongArrayList.wrap(v).iterator());
+			serial.log2Chunks(4);
+			final ChunkedHashStore<CharSequence> ranks = new ChunkedHashStore<>(TransformationStrategies.utf16());
+			ranks.addAll(Arrays.asList(s).iterator());
+			ranks.log2Chunks(4);
+
+			for (final int threads : new int[] { 1, 2, 5 }) {
+				final int[] splits = new int[1];
+				final ChunkedHashStore<CharSequence> parallel = new ChunkedHashStore<>(TransformationStrategies.utf16());
+				parallel.addAll(counting(Arrays.asList(s).spliterator(), splits), LongArrayList.wrap(v).iterator(), threads);
+				parallel.log2Chunks(4);
+				assertSameContent(serial, parallel);
+				parallel.close();
+				// The spliterator of a list of size at least two can be split
+				if (threads > 1 && size > 1) assertTrue(splits[0] > 0);
+
+				final ChunkedHashStore<CharSequence> parallelRanks = new ChunkedHashStore<>(TransformationStrategies.utf16());
+				parallelRanks.addAll(Arrays.asList(s).spliterator(), null, threads);
+				parallelRanks.log2Chunks(4);
+				assertSameContent(ranks, parallelRanks);
+				parallelRanks.close();
+			}
+
+			serial.close();
+			ranks.close();
+		}
+	}
+
+	/** Returns a spliterator counting its successful splits (including those of its prefixes). */
+	private static <T> Spliterator<T> counting(final Spliterator<T> spliterator, final int[] splits) {
+		return new Spliterator<T>() {
+			@Override
+			public boolean tryAdvance(final Consumer<? super T> action) {
+				return spliterator.tryAdvance(action);
+			}
+
+			@Override
+			public Spliterator<T> trySplit() {
+				final Spliterator<T> prefix = spliterator.trySplit();
+				if (prefix == null) return null;
+				synchronized (splits) {
+					splits[0]++;
+				}
+				return counting(prefix, splits);
+			}
+
+			@Override
+			public long estimateSize() {
+				return spliterator.estimateSize();
+			}
+
+			@Override
+			public int characteristics() {
+				return spliterator.characteristics();
+			}
+		};
+	}
+
+	@Test
+	public void testSplitAddAllFileLines() throws IOException {
+		final File file = File.createTempFile(ChunkedHashStoreTest.class.getSimpleName(), "lines");
+		file.deleteOnExit();
+		final String[] s = strings(100000);
+		try (final FileOutputStream fos = new FileOutputStream(file)) {
+			for (final String line : s) fos.write((line + "\n").getBytes("ASCII"));
+		}
+		final ChunkedHashStore<byte[]> serial = new ChunkedHashStore<>(TransformationStrategies.byteArray());
+		for (final String line : s) serial.add(line.getBytes("ASCII"));
+		serial.log2Chunks(4);
+		for (final int threads : new int[] { 2, 5 }) {
+			final int[] splits = new int[1];
+			final ChunkedHashStore<byte[]> parallel = new ChunkedHashStore<>(TransformationStrategies.byteArray());
+			parallel.addAll(counting(new FileLinesByteArraySpliterator(file, 1000), splits), null, threads);
+			parallel.log2Chunks(4);
+			assertTrue(splits[0] > 0);
+			assertSameContent(serial, parallel);
+			parallel.close();
+		}
+		serial.close();
+	}
+
+	@Test
+	public void testFileLinesByteArraySpliterator() throws IOException {
+		final File file = File.createTempFile(ChunkedHashStoreTest.class.getSimpleName(), "lines");
+		file.deleteOnExit();
+		final List<String> lines = new ArrayList<>();
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			final String line = i % 100 == 0 ? "" : Integer.toString(i * 7919);
+			lines.add(line);
+			sb.append(line).append(i % 3 == 0 ? "\r\n" : "\n");
+		}
+		sb.append("last");
+		lines.add("last");
+		try (final FileOutputStream fos = new FileOutputStream(file)) {
+			fos.write(sb.toString().getBytes("ASCII"));
+		}
+
+		for (final long minSplitSize : new long[] { 1, 10, 1000, FileLinesByteArraySpliterator.DEFAULT_MIN_SPLIT_SIZE }) {
+			final ObjectArrayList<Spliterator<byte[]>> parts = new ObjectArrayList<>();
+			final FileLinesByteArraySpliterator spliterator = new FileLinesByteArraySpliterator(file, minSplitSize);
+			// Split recursively a few times, keeping encounter order
+			split(spliterator, parts, 6);
+			final List<String> result = new ArrayList<>();
+			for(final Spliterator<byte[]> part : parts) part.forEachRemaining(b -> result.add(new String(b)));
+			assertEquals(lines, result);
+
+			final List<String> parallel = new ArrayList<>();
+			StreamSupport.stream(new FileLinesByteArraySpliterator(file, minSplitSize), true).map(String::new).forEachOrdered(parallel::add);
+			assertEquals(lines, parallel);
+		}
+	}
+
+	private static void split(final Spliterator<byte[]> spliterator, final List<Spliterator<byte[]>> parts, final int depth) {
+		final Spliterator<byte[]> prefix = depth == 0 ? null : spliterator.trySplit();
+		if (prefix == null) parts.add(spliterator);
+		else {
+			split(prefix, parts, depth - 1);
+			split(spliterator, parts, depth - 1);
+		}
+	}
+
+	@Test
+	public void testMemoryThreshold() throws IOException {
+		for (final int size : new int[] { 0, 1, 1000, 100000 }) {
+			for (final int hashWidth : new int[] { 0, 10 }) {
+				final String[] s = strings(size);
+				final long[] v = new long[size];
+				for (int i = v.length; i-- != 0;) v[i] = i * 31L;
+
+				final ChunkedHashStore<CharSequence> disk = new ChunkedHashStore<>(TransformationStrategies.utf16(), null, hashWidth, 0, null);
+				final ChunkedHashStore<CharSequence> memory = new ChunkedHashStore<>(TransformationStrategies.utf16(), null, hashWidth, Long.MAX_VALUE, null);
+				final ChunkedHashStore<CharSequence> spilled = new ChunkedHashStore<>(TransformationStrategies.utf16(), null, hashWidth, 8 * 1024, null);
+				for(final ChunkedHashStore<CharSequence> store : Arrays.asList(disk, memory, spilled)) {
+					// Exercise reset
+					store.addAll(Arrays.asList(s).iterator(), LongArrayList.wrap(v).iterator());
+					store.reset(0);
+					store.addAll(Arrays.asList(s).iterator(), LongArrayList.wrap(v).iterator());
+					store.log2Chunks(size < 1000 ? 0 : 6);
+				}
+				assertFalse(disk.inMemory());
+				assertTrue(memory.inMemory());
+				assertEquals(size * (hashWidth == 0 ? 4 : 3) * Long.BYTES <= 8 * 1024, spilled.inMemory());
+
+				assertSameContent(disk, memory);
+				assertSameContent(disk, spilled);
+
+				for(final ChunkedHashStore<CharSequence> store : Arrays.asList(disk, memory, spilled)) store.filter(triple -> (((long[])triple)[1] & 1) != 0);
+				assertSameContent(disk, memory);
+				assertSameContent(disk, spilled);
+
+				disk.close();
+				memory.close();
+				spilled.close();
+			}
+		}
+	}
+
+	@Test
+	public void testRadixSort() {
+		final XoRoShiRo128PlusRandomGenerator r = new XoRoShiRo128PlusRandomGenerator(0);
+		for (final int size : new int[] { 0, 1, 2, 10, 100, 1000, 10000, 100000 }) {
+			for (final long mask : new long[] { -1, 0xFF000000000000FFL, 0x3, 0 }) {
+				final long[] b0 = new long[size], b1 = new long[size], b2 = new long[size], data = new long[size];
+				for (int i = 0; i < size; i++) {
+					b0[i] = r.nextLong() & mask;
+					b1[i] = r.nextLong() & mask;
+					b2[i] = r.nextLong();
+					data[i] = b0[i] ^ b1[i] ^ b2[i];
+				}
+				final long[] c0 = b0.clone(), c1 = b1.clone(), c2 = b2.clone(), cd = data.clone();
+				ChunkedHashStore.radixSort(b0, b1, b2, data, 0, size);
+				ChunkedHashStore.quickSort(c0, c1, c2, cd, 0, size);
+				assertArrayEquals(c0, b0);
+				assertArrayEquals(c1, b1);
+				assertArrayEquals(c2, b2);
+				assertArrayEquals(cd, data);
+				for (int i = 1; i < size; i++) assertTrue(Long.compareUnsigned(b0[i - 1], b0[i]) <= 0);
+				ChunkedHashStore.radixSort(c0, c1, c2, null, 0, size);
+				assertArrayEquals(b0, c0);
+			}
+		}
+	}
+
+	@Test
+	public void testPrefetchingIterator() throws IOException {
+		for (final int size : new int[] { 0, 1, 1000, 100000 }) {
+			for (final long memoryThreshold : new long[] { 0, Long.MAX_VALUE }) {
+				final ChunkedHashStore<CharSequence> store = new ChunkedHashStore<>(TransformationStrategies.utf16(), null, 0, memoryThreshold, null);
+				store.addAll(Arrays.asList(strings(size)).iterator());
+				for (final int log2Chunks : new int[] { 0, 4, 8, 10 }) {
+					store.log2Chunks(log2Chunks);
+					for (final int prefetchDepth : new int[] { 1, 2, 3, 300 }) {
+						try (final ChunkIterator iterator = store.iterator(prefetchDepth)) {
+							assertSameContent(store.iterator(), iterator);
+						}
+					}
+				}
+
+				store.filter(triple -> (((long[])triple)[2] & 1) != 0);
+				store.log2Chunks(6);
+				try (final ChunkIterator iterator = store.iterator(4)) {
+					assertSameContent(store.iterator(), iterator);
+				}
+
+				// Abandoned iterators
+				store.iterator(2).close();
+				try (final ChunkIterator iterator = store.iterator(2)) {
+					if (iterator.hasNext()) iterator.next();
+				}
+				store.close();
+			}
+		}
+	}
+
+	@Test
+	public void testMemoryBudget() throws IOException {
+		for (final long memoryThreshold : new long[] { 0, Long.MAX_VALUE }) {
+			final ChunkedHashStore<CharSequence> store = new ChunkedHashStore<>(TransformationStrategies.utf16(), null, 0, memoryThreshold, null);
+			store.addAll(Arrays.asList(strings(100000)).iterator());
+			for (final int log2Chunks : new int[] { 0, 6, 8, 10, 14, 18 }) {
+				store.log2Chunks(log2Chunks);
+				final long unbounded = store.iteratorMemory(0);
+				assertEquals(store.iteratorMemory(ChunkedHashStore.DEFAULT_PREFETCH_DEPTH), store.prefetchingIteratorMemory());
+				for (final long memoryBudget : new long[] { 1, 16 * 1024, 1024 * 1024, Long.MAX_VALUE }) {
+					for (final int prefetchDepth : new int[] { 0, 2 }) {
+						store.memoryBudget(Long.MAX_VALUE);
+						final ChunkIterator expected = store.iterator();
+						store.memoryBudget(memoryBudget);
+						final long iteratorMemory = store.iteratorMemory(prefetchDepth);
+						// With at least 2^10 chunks, three copies of the largest chunk are certainly smaller than 16KiB
+						if (log2Chunks >= 10 && memoryBudget != 1) assertTrue(iteratorMemory <= memoryBudget);
+						assertTrue(iteratorMemory <= Math.max(memoryBudget, unbounded) * (prefetchDepth + 1));
+						try (final ChunkIterator iterator = store.iterator(prefetchDepth)) {
+							assertSameContent(expected, iterator);
+						}
+					}
+				}
+			}
+
+			store.filter(triple -> (((long[])triple)[2] & 1) != 0);
+			store.log2Chunks(12);
+			store.memoryBudget(Long.MAX_VALUE);
+			final ChunkIterator expected = store.iterator();
+			store.memoryBudget(8 * 1024);
+			try (final ChunkIterator iterator = store.iterator(3)) {
+				assertSameContent(expected, iterator);
+			}
+			store.close();
+		}
+	}
+
+	@Test
+	public void testDuplicate() throws IOException {
+		final List<String> keys = new ArrayList<>(Arrays.asList(strings(1000)));
+		keys.add(new String(keys.get(500)));
+		final ChunkedHashStore<CharSequence> store = new ChunkedHashStore<>(TransformationStrategies.utf16());
+		store.addAll(keys.iterator());
+		store.log2Chunks(4);
+		try {
+			store.check();
+			fail();
+		}
+		catch (final DuplicateException e) {
+			assertEquals(keys.get(500), store.duplicate(keys, e.triple()));
+			// Distinct elements generating the duplicate triple are not duplicates
+			assertEquals(null, store.duplicate(keys.subList(0, 1000), e.triple()));
+			assertEquals(null, store.duplicate(keys, null));
+		}
+
+		// Duplicate elements are detected by a single scan, without rehashing
+		final int[] scans = new int[1];
+		final Iterable<String> iterable = () -> {
+			scans[0]++;
+			return keys.iterator();
+		};
+		try {
+			store.checkAndRetry(iterable);
+			fail();
+		}
+		catch (final IllegalArgumentException e) {
+			assertEquals(1, scans[0]);
+		}
+		store.close();
+	}
+
+	@Test
+	public void testDuplicateReusingObject() throws IOException {
+		final List<String> keys = new ArrayList<>(Arrays.asList(strings(100000)));
+		keys.add(1000, new String(keys.get(500)));
+		// The same distinct keys, with the element generating the duplicate triple last
+		final List<String> distinct = new ArrayList<>(keys.subList(0, 1000));
+		distinct.addAll(keys.subList(1001, keys.size()));
+		distinct.add(distinct.remove(500));
+		final ChunkedHashStore<CharSequence> store = new ChunkedHashStore<>(TransformationStrategies.utf16());
+		store.addAll(keys.iterator());
+		store.log2Chunks(4);
+		try {
+			store.check();
+			fail();
+		}
+		catch (final DuplicateException e) {
+			// Iterables reusing the same object, as FileLinesCollection does
+			assertTrue(store.duplicate(reusing(keys), e.triple()) != null);
+			assertEquals(null, store.duplicate(reusing(distinct), e.triple()));
+
+			// Splittable iterables are scanned in parallel
+			assertEquals(keys.get(500), store.duplicate(new SplittableIterable<>(() -> keys.stream()), e.triple()));
+			assertEquals(null, store.duplicate(new SplittableIterable<>(() -> distinct.stream()), e.triple()));
+		}
+		store.close();
+	}
+
+	/** Returns an iterable on the given strings whose iterators return always the same mutable string. */
+	private static Iterable<CharSequence> reusing(final List<String> strings) {
+		return () -> new Iterator<CharSequence>() {
+			private final MutableString s = new MutableString();
+			private final Iterator<String> i = strings.iterator();
+
+			@Override
+			public boolean hasNext() {
+				return i.hasNext();
+			}
+
+			@Override
+			public CharSequence next() {
+				return s.replace(i.next());
+			}
+		};
+	}
+
+	@Test
+	public void testLongKeys() throws IOException {
+		final long[] keys = new long[10000];
+		final XoRoShiRo128PlusRandomGenerator random = new XoRoShiRo128PlusRandomGenerator(0);
+		for (int i = 0; i < keys.length; i++) keys[i] = random.nextLong();
+		final List<Long> boxed = new LongArrayList(keys);
+		// A strategy without an allocation-free path
+		final TransformationStrategy<Long> decimal = new TransformationStrategy<Long>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public BitVector toBitVector(final Long l) {
+				return TransformationStrategies.utf16().toBitVector(l.toString());
+			}
+
+			@Override
+			public long length(final Long l) {
+				return toBitVector(l).length();
+			}
+
+			@Override
+			public long numBits() {
+				return 0;
+			}
+
+			@Override
+			public TransformationStrategy<Long> copy() {
+				return this;
+			}
+		};
+
+		for (final TransformationStrategy<Long> transform : Arrays.asList(TransformationStrategies.fixedLong(), TransformationStrategies.rawFixedLong(), decimal)) {
+			final ChunkedHashStore<Long> objects = new ChunkedHashStore<>(transform, null, 0, Long.MAX_VALUE, null);
+			final ChunkedHashStore<Long> primitives = new ChunkedHashStore<>(transform, null, 0, Long.MAX_VALUE, null);
+			objects.reset(1);
+			primitives.reset(1);
+			objects.addAll(boxed.iterator());
+			primitives.addAll(LongArrayList.wrap(keys).iterator());
+			final long key = random.nextLong();
+			primitives.add(key, 42);
+			objects.add(Long.valueOf(key), 42);
+			assertSameContent(objects, primitives);
+			objects.close();
+			primitives.close();
+		}
+	}
+
+	@Test(expected=DuplicateException.class)
+	public void testPrefetchingIteratorDuplicate() throws IOException {
+		final ChunkedHashStore<CharSequence> store = new ChunkedHashStore<>(TransformationStrategies.utf16());
+		store.addAll(Arrays.asList(strings(1000)).iterator());
+		store.addAll(Arrays.asList(strings(1000)).iterator());
+		store.log2Chunks(4);
+		try (final ChunkIterator iterator = store.iterator(3)) {
+			while(iterator.hasNext()) iterator.next().iterator();
+		}
+		finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void testCompact() throws IOException {
+		for (final int size : new int[] { 0, 1, 1000, 100000 }) {
+			for (final int hashWidth : new int[] { 0, 10 }) {
+				final String[] s = strings(size);
+				final long[] v = new long[size];
+				// Small, large and negative values
+				for (int i = v.length; i-- != 0;) v[i] = i % 3 == 0 ? i : i % 3 == 1 ? Long.MAX_VALUE / (i + 1) : -i;
+
+				final ChunkedHashStore<CharSequence> memory = new ChunkedHashStore<>(TransformationStrategies.utf16(), null, hashWidth, Long.MAX_VALUE, false, null);
+				final ChunkedHashStore<CharSequence> standard = new ChunkedHashStore<>(TransformationStrategies.utf16(), null, hashWidth, 0, false, null);
+				final ChunkedHashStore<CharSequence> compact = new ChunkedHashStore<>(TransformationStrategies.utf16(), null, hashWidth, 0, true, null);
+				final ChunkedHashStore<CharSequence> spilled = new ChunkedHashStore<>(TransformationStrategies.utf16(), null, hashWidth, 8 * 1024, true, null);
+				for(final ChunkedHashStore<CharSequence> store : Arrays.asList(memory, standard, compact, spilled)) {
+					store.addAll(Arrays.asList(s).iterator(), LongArrayList.wrap(v).iterator());
+					store.log2Chunks(size < 1000 ? 0 : 10);
+				}
+
+				assertSameContent(memory, standard);
+				assertSameContent(memory, compact);
+				assertSameContent(memory, spilled);
+
+				for(final ChunkedHashStore<CharSequence> store : Arrays.asList(memory, standard, compact, spilled)) store.filter(triple -> (((long[])triple)[2] & 1) != 0);
+				assertSameContent(memory, compact);
+				assertSameContent(memory, spilled);
+
+				memory.close();
+				standard.close();
+				compact.close();
+				spilled.close();
+			}
+		}
+	}
+
+	@Test
+	public void testDirty() throws IOException {
+		final String[] s = strings(100100);
+		final ChunkedHashStore<CharSequence> store = new ChunkedHashStore<>(TransformationStrategies.utf16());
+		store.addAll(Arrays.asList(s).subList(0, 100000).iterator());
+		// Comparing seeds does not lock the store
+		assertFalse(store.hasSeed(store.seed + 1));
+		store.reset(1);
+		assertTrue(store.hasSeed(1));
+		store.addAll(Arrays.asList(s).subList(0, 100000).iterator());
+		store.markClean();
+		store.addAll(Arrays.asList(s).subList(100000, s.length).iterator());
+
+		final long[] triple = new long[3];
+		for (final int log2Chunks : new int[] { 0, 4, 12, 16, 18 }) {
+			store.log2Chunks(log2Chunks);
+			// Chunks are dirty if they share a fragment with a new element
+			final int shift = Math.max(0, log2Chunks - 16);
+			final boolean[] dirty = new boolean[1 << log2Chunks];
+			for (int i = 100000; i < s.length; i++) {
+				Hashes.spooky4(TransformationStrategies.utf16().toBitVector(s[i]), 1, triple);
+				final int chunk = (int)(log2Chunks == 0 ? 0 : triple[0] >>> Long.SIZE - log2Chunks);
+				for (int c = chunk >>> shift << shift; c < (chunk >>> shift) + 1 << shift; c++) dirty[c] = true;
+			}
+			for (int c = 0; c < dirty.length; c++) assertEquals(Integer.toString(c), dirty[c], store.dirty(c));
+		}
+		store.close();
+	}
+
+	@Test
+	public void testSnapshot() throws IOException, ClassNotFoundException {
+		for (final int size : new int[] { 0, 1, 1000, 100000 }) {
+			for (final long memoryThreshold : new long[] { 0, Long.MAX_VALUE }) {
+				for (final boolean compact : new boolean[] { false, true }) {
+					final String[] s = strings(size);
+					final File dir = Files.createTempDirectory(ChunkedHashStoreTest.class.getSimpleName()).toFile();
+
+					final ChunkedHashStore<CharSequence> store = new ChunkedHashStore<>(TransformationStrategies.utf16(), null, -1, memoryThreshold, compact, null);
+					store.addAll(Arrays.asList(s).iterator());
+					store.checkAndRetry(Arrays.asList(s));
+					store.save(dir);
+
+					final ChunkedHashStore<CharSequence> opened = ChunkedHashStore.open(dir);
+					assertFalse(opened.inMemory());
+					assertEquals(store.seed(), opened.seed());
+					assertEquals(store.value2FrequencyMap(), opened.value2FrequencyMap());
+					store.log2Chunks(4);
+					opened.log2Chunks(4);
+					assertSameContent(store, opened);
+					store.close();
+
+					try {
+						opened.reset(0);
+						fail();
+					}
+					catch(final IllegalStateException e) {}
+					try {
+						opened.add("a");
+						fail();
+					}
+					catch(final IllegalStateException e) {}
+
+					// Several functions from the same snapshot
+					final GOV3Function<CharSequence> function = new GOV3Function.Builder<CharSequence>().store(opened).build();
+					for (int i = s.length; i-- != 0;) assertEquals(i, function.getLong(s[i]));
+					final GOVMinimalPerfectHashFunction<CharSequence> mph = new GOVMinimalPerfectHashFunction.Builder<CharSequence>().store(opened).build();
+					final boolean[] seen = new boolean[size];
+					for (int i = s.length; i-- != 0;) {
+						final long v = mph.getLong(s[i]);
+						assertFalse(seen[(int)v]);
+						seen[(int)v] = true;
+					}
+					opened.close();
+
+					// Snapshot files are not deleted by close()
+					final ChunkedHashStore<CharSequence> reopened = ChunkedHashStore.open(dir);
+					assertEquals(size, reopened.size());
+					reopened.close();
+
+					for(final File f : dir.listFiles()) f.delete();
+					dir.delete();
+				}
+			}
+		}
+	}
+}
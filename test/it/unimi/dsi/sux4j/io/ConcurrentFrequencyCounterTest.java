@@ -0,0 +1,44 @@
+package it.unimi.dsi.sux4j.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.util.XoRoShiRo128PlusRandom;
+
+public class ConcurrentFrequencyCounterTest {
+
+	@Test
+	public void testCounts() {
+		for (final int shards : new int[] { 1, 3, 64 }) {
+			for (final int cardinality : new int[] { 1, 10, 100000 }) {
+				final long[] values = new long[1000000];
+				final XoRoShiRo128PlusRandom random = new XoRoShiRo128PlusRandom(0);
+				for (int i = values.length; i-- != 0;) values[i] = random.nextInt(cardinality) * 0x9E3779B97F4A7C15L;
+				final Long2LongOpenHashMap expected = new Long2LongOpenHashMap();
+				for (final long v : values) expected.addTo(v, 1);
+
+				final ConcurrentFrequencyCounter counter = new ConcurrentFrequencyCounter(shards);
+				// Batches and single values, concurrently
+				IntStream.range(0, values.length / 1000).parallel().forEach(b -> {
+					if (b % 2 == 0) counter.addAll(values, b * 1000, (b + 1) * 1000);
+					else for (int i = b * 1000; i < (b + 1) * 1000; i++) counter.add(values[i]);
+				});
+				assertEquals(expected.size(), counter.size());
+				assertEquals(expected, counter.toMap());
+
+				final ConcurrentFrequencyCounter copy = new ConcurrentFrequencyCounter();
+				copy.addAll(expected);
+				copy.addAll(expected);
+				final Long2LongOpenHashMap doubled = copy.toMap();
+				for (final long v : expected.keySet()) assertEquals(2 * expected.get(v), doubled.get(v));
+
+				counter.clear();
+				assertEquals(0, counter.size());
+			}
+		}
+	}
+}
@@ -71,4 +71,21 @@ public class CHDMinimalPerfectHashFunctionTest {
 		final CHDMinimalPerfectHashFunction<String> mph = new CHDMinimalPerfectHashFunction.Builder<String>().keys(emptyList).transform(TransformationStrategies.utf16()).build();
 		assertEquals(-1, mph.getLong("a"));
 	}
+
+	@Test
+	public void testDump() throws IOException {
+		for (final int signatureWidth: new int[] { 0, 32 }) {
+			for (final int size : new int[] { 0, 1, 10, 1000, 100000 }) {
+				final String[] s = new String[size];
+				for (int i = s.length; i-- != 0;) s[i] = Integer.toString(i);
+				final CHDMinimalPerfectHashFunction<CharSequence> f = new CHDMinimalPerfectHashFunction.Builder<CharSequence>().keys(Arrays.asList(s)).transform(TransformationStrategies.utf16()).signed(signatureWidth).build();
+				final File temp = File.createTempFile(getClass().getSimpleName(), "dump");
+				temp.deleteOnExit();
+				f.dump(temp.toString());
+				final MappedCHDMinimalPerfectHashFunction<CharSequence> mapped = MappedCHDMinimalPerfectHashFunction.load(temp.toString());
+				assertEquals(f.size64(), mapped.size64());
+				for (int i = 2 * size + 10; i-- != 0;) assertEquals(f.getLong(Integer.toString(i)), mapped.getLong(Integer.toString(i)));
+			}
+		}
+	}
 }
@@ -1,21 +1,32 @@
 package it.unimi.dsi.sux4j.mph;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
+import it.unimi.dsi.bits.LongArrayBitVector;
 import it.unimi.dsi.bits.TransformationStrategies;
 import it.unimi.dsi.fastutil.io.BinIO;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongLists;
+import it.unimi.dsi.sux4j.bits.Rank16;
 import it.unimi.dsi.sux4j.io.ChunkedHashStore;
+import it.unimi.dsi.sux4j.util.MappedLongBigList;
+import it.unimi.dsi.sux4j.util.OffHeapLongBigList;
 
 public class GOV3FunctionTest {
 
@@ -64,6 +75,179 @@ public class GOV3FunctionTest {
 		}
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSignatureFile() throws IOException, ClassNotFoundException {
+		for (final int signatureWidth: new int[] { 32, 40, 64 }) {
+			for (final int size : new int[] { 0, 1, 10, 1000, 100000 }) {
+				final String[] s = new String[size];
+				for (int i = s.length; i-- != 0;) s[i] = Integer.toString(i);
+
+				final File signatureFile = File.createTempFile(getClass().getSimpleName(), "signatures");
+				signatureFile.deleteOnExit();
+				GOV3Function<CharSequence> mph = new GOV3Function.Builder<CharSequence>().keys(Arrays.asList(s)).transform(TransformationStrategies.utf16()).signed(signatureWidth).signatureFile(signatureFile).build();
+				assertTrue(size == 0 || mph.signatures instanceof MappedLongBigList);
+				check(size, s, mph, signatureWidth);
+
+				final File temp = File.createTempFile(getClass().getSimpleName(), "test");
+				temp.deleteOnExit();
+				BinIO.storeObject(mph, temp);
+				mph = (GOV3Function<CharSequence>)BinIO.loadObject(temp);
+				assertTrue(size == 0 || mph.signatures instanceof MappedLongBigList);
+				check(size, s, mph, signatureWidth);
+			}
+		}
+	}
+
+	@Test
+	public void testSharedExecutorService() throws Exception {
+		// Fewer threads than solving tasks, shared by concurrent builds
+		final ExecutorService solvers = Executors.newFixedThreadPool(2);
+		final ExecutorService builds = Executors.newFixedThreadPool(4);
+		final List<Future<?>> futures = new ArrayList<>();
+		for (int b = 0; b < 4; b++) {
+			final int size = 10000 * (b + 1);
+			futures.add(builds.submit(() -> {
+				final String[] s = new String[size];
+				for (int i = s.length; i-- != 0;) s[i] = Integer.toString(i);
+				final GOV3Function<CharSequence> mph = new GOV3Function.Builder<CharSequence>().keys(Arrays.asList(s)).transform(TransformationStrategies.utf16()).signed(32).executorService(solvers).build();
+				check(size, s, mph, 32);
+				return null;
+			}));
+		}
+		for (final Future<?> f : futures) f.get();
+		builds.shutdown();
+		assertFalse(solvers.isShutdown());
+		solvers.shutdown();
+	}
+
+	@Test
+	public void testCompacted() throws IOException {
+		for (final int width : new int[] { 1, 7, 33, 64 }) {
+			for (final int size : new int[] { 1, 10, 1000, 100000 }) {
+				final String[] s = new String[size];
+				final long[] v = new long[size];
+				for (int i = s.length; i-- != 0;) {
+					s[i] = Integer.toString(i);
+					// Mostly zeroes, so that compaction is effective
+					v[i] = i % 7 == 0 ? (i * 0x9E3779B97F4A7C15L) >>> Long.SIZE - width : 0;
+				}
+				final GOV3Function<CharSequence> mph = new GOV3Function.Builder<CharSequence>().keys(Arrays.asList(s)).transform(TransformationStrategies.utf16()).values(LongArrayList.wrap(v), width).compacted().build();
+				for (int i = s.length; i-- != 0;) assertEquals(v[i], mph.getLong(s[i]));
+				final long[] out = new long[size];
+				mph.getLongs(s, out);
+				assertArrayEquals(v, out);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testOffHeap() throws IOException, ClassNotFoundException {
+		for (final int signatureWidth: new int[] { -32, 0, 32 }) {
+			for (final int size : new int[] { 0, 1, 10, 1000, 100000 }) {
+				final String[] s = new String[size];
+				for (int i = s.length; i-- != 0;) s[i] = Integer.toString(i);
+				GOV3Function<CharSequence> mph = new GOV3Function.Builder<CharSequence>().keys(Arrays.asList(s)).transform(TransformationStrategies.utf16()).signed(signatureWidth).offHeap().build();
+				assertTrue(size == 0 || mph.data instanceof OffHeapLongBigList);
+				assertTrue(signatureWidth <= 0 || size == 0 || mph.signatures instanceof OffHeapLongBigList);
+				check(size, s, mph, signatureWidth);
+
+				final File temp = File.createTempFile(getClass().getSimpleName(), "test");
+				temp.deleteOnExit();
+				BinIO.storeObject(mph, temp);
+				mph = (GOV3Function<CharSequence>)BinIO.loadObject(temp);
+				check(size, s, mph, signatureWidth);
+			}
+		}
+
+		for (final int width : new int[] { 1, 7, 33, 64 }) {
+			for (final int size : new int[] { 1, 10, 1000, 100000 }) {
+				final String[] s = new String[size];
+				final long[] v = new long[size];
+				for (int i = s.length; i-- != 0;) {
+					s[i] = Integer.toString(i);
+					v[i] = i % 7 == 0 ? (i * 0x9E3779B97F4A7C15L) >>> Long.SIZE - width : 0;
+				}
+				final GOV3Function<CharSequence> f = new GOV3Function.Builder<CharSequence>().keys(Arrays.asList(s)).transform(TransformationStrategies.utf16()).values(LongArrayList.wrap(v), width).compacted().offHeap().build();
+				assertTrue(f.interleavedMarker.offHeap());
+				for (int i = s.length; i-- != 0;) assertEquals(v[i], f.getLong(s[i]));
+				final long[] out = new long[size];
+				f.getLongs(s, out);
+				assertArrayEquals(v, out);
+
+				// The off-heap marker is dumped in the same format of an on-heap marker
+				final File temp = File.createTempFile(getClass().getSimpleName(), "dump");
+				temp.deleteOnExit();
+				f.dump(temp.toString());
+				final MappedGOV3Function<CharSequence> mapped = MappedGOV3Function.load(temp.toString(), TransformationStrategies.utf16());
+				for (int i = 2 * size; i-- != 0;) assertEquals(f.getLong(Integer.toString(i)), mapped.getLong(Integer.toString(i)));
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testLegacyCompactedSerialization() throws IOException, ClassNotFoundException {
+		for (final int size : new int[] { 1, 10, 1000, 100000 }) {
+			final String[] s = new String[size];
+			final long[] v = new long[size];
+			for (int i = s.length; i-- != 0;) {
+				s[i] = Integer.toString(i);
+				v[i] = i % 7 == 0 ? i % 255 + 1 : 0;
+			}
+			GOV3Function<CharSequence> f = new GOV3Function.Builder<CharSequence>().keys(Arrays.asList(s)).transform(TransformationStrategies.utf16()).values(LongArrayList.wrap(v), 8).compacted().build();
+			// Turn the function into the serialized form of previous versions, with a separate marker and Rank16 structure
+			f.marker = LongArrayBitVector.ofLength(f.m);
+			for (long i = 0; i < f.m; i++) f.marker.set(i, f.interleavedMarker.getBoolean(i));
+			f.rank = new Rank16(f.marker);
+			f.interleavedMarker = null;
+
+			final File temp = File.createTempFile(getClass().getSimpleName(), "test");
+			temp.deleteOnExit();
+			BinIO.storeObject(f, temp);
+			f = (GOV3Function<CharSequence>)BinIO.loadObject(temp);
+			assertTrue(f.marker == null && f.rank == null);
+			for (int i = s.length; i-- != 0;) assertEquals(v[i], f.getLong(s[i]));
+		}
+	}
+
+	@Test
+	public void testGetLongs() throws IOException {
+		for (final int signatureWidth: new int[] { -32, 0, 32 }) {
+			for (final int size : new int[] { 0, 1, 10, 1000, 3000 }) {
+				final String[] s = new String[size];
+				for (int i = s.length; i-- != 0;) s[i] = Integer.toString(i);
+				final GOV3Function<CharSequence> f = new GOV3Function.Builder<CharSequence>().keys(Arrays.asList(s)).transform(TransformationStrategies.utf16()).signed(signatureWidth).build();
+				// Keys and non-keys
+				final Object[] query = new Object[2 * size + 1];
+				for (int i = query.length; i-- != 0;) query[i] = Integer.toString(i);
+				final long[] out = new long[query.length];
+				f.getLongs(query, out);
+				for (int i = query.length; i-- != 0;) assertEquals(f.getLong(query[i]), out[i]);
+
+				final long[] triples = new long[3 * query.length];
+				final long[] triple = new long[3];
+				for (int i = query.length; i-- != 0;) {
+					Hashes.spooky4(TransformationStrategies.utf16().toBitVector((CharSequence)query[i]), f.globalSeed, triple);
+					System.arraycopy(triple, 0, triples, 3 * i, 3);
+				}
+				Arrays.fill(out, 0);
+				f.getLongsByTriple(triples, out);
+				for (int i = query.length; i-- != 0;) assertEquals(f.getLong(query[i]), out[i]);
+			}
+		}
+
+		final long[] keys = new long[3000];
+		for (int i = keys.length; i-- != 0;) keys[i] = i * 0x9E3779B97F4A7C15L;
+		final GOV3Function<Long> f = new GOV3Function.Builder<Long>().keys(LongArrayList.wrap(keys)).transform(TransformationStrategies.fixedLong()).signed(32).build();
+		final long[] query = new long[2 * keys.length];
+		for (int i = query.length; i-- != 0;) query[i] = i * 0x9E3779B97F4A7C15L;
+		final long[] out = new long[query.length];
+		f.getLongs(query, out);
+		for (int i = query.length; i-- != 0;) assertEquals(i < keys.length ? i : -1, out[i]);
+	}
+
 	@Test
 	public void testLongNumbers() throws IOException {
 		final LongArrayList l = new LongArrayList(new long[] { 0x234904309830498L, 0xae049345e9eeeeeL, 0x23445234959234L, 0x239234eaeaeaeL });
@@ -84,6 +268,16 @@ public class GOV3FunctionTest {
 		assertEquals(l.getLong(3), mph.getLong("d"));
 	}
 
+	@Test
+	public void testKeyStreams() throws IOException {
+		for (final int size : new int[] { 0, 1, 1000, 100000 }) {
+			final String[] s = new String[size];
+			for (int i = s.length; i-- != 0;) s[i] = Integer.toString(i);
+			final GOV3Function<CharSequence> mph = new GOV3Function.Builder<CharSequence>().keyStreams(() -> Arrays.stream(s)).transform(TransformationStrategies.utf16()).signed(32).build();
+			check(size, s, mph, 32);
+		}
+	}
+
 	@Test
 	public void testDictionary() throws IOException {
 		final GOV3Function<CharSequence> mph = new GOV3Function.Builder<CharSequence>().keys(Arrays.asList(new String[] { "a", "b", "c", "d" })).transform(TransformationStrategies.utf16()).dictionary(8).build();
@@ -103,7 +297,7 @@ public class GOV3FunctionTest {
 					int iteration;
 					@Override
 					public Iterator<String> iterator() {
-						if (iteration++ > 1) return Arrays.asList(new String[] { "a", "b", "c" }).iterator();
+						if (iteration++ > 0) return Arrays.asList(new String[] { "a", "b", "c" }).iterator();
 						return Arrays.asList(new String[] { "a", "b", "a" }).iterator();
 					}
 				}).transform(TransformationStrategies.utf16()).build();
@@ -118,6 +312,22 @@ public class GOV3FunctionTest {
 				() -> Arrays.asList(new String[] { "a", "b", "a" }).iterator()).transform(TransformationStrategies.utf16()).build();
 	}
 
+	@Test
+	public void testLongKeys() throws IOException {
+		for (final int size : new int[] { 0, 1, 1000, 100000 }) {
+			final long[] keys = new long[size];
+			for (int i = keys.length; i-- != 0;) keys[i] = i * 0x9E3779B97F4A7C15L;
+			final ChunkedHashStore<Long> chunkedHashStore = new ChunkedHashStore<>(TransformationStrategies.fixedLong());
+			chunkedHashStore.addAll(LongArrayList.wrap(keys).iterator());
+			final GOV3Function<Long> function = new GOV3Function.Builder<Long>().store(chunkedHashStore).build();
+			for (int i = keys.length; i-- != 0;) {
+				assertEquals(i, function.getLong(keys[i]));
+				assertEquals(i, function.getLong(Long.valueOf(keys[i])));
+			}
+			chunkedHashStore.close();
+		}
+	}
+
 	@Test
 	public void testEmpty() throws IOException {
 		final List<String> emptyList = Collections.emptyList();
@@ -129,4 +339,77 @@ public class GOV3FunctionTest {
 		assertEquals(-1, mph.getLong("a"));
 
 	}
+
+	@Test
+	public void testIncremental() throws IOException, ClassNotFoundException {
+		final String[] s = new String[100020];
+		for (int i = s.length; i-- != 0;) s[i] = Integer.toString(i);
+		final File dir = java.nio.file.Files.createTempDirectory(getClass().getSimpleName()).toFile();
+
+		ChunkedHashStore<CharSequence> chunkedHashStore = new ChunkedHashStore<>(TransformationStrategies.utf16());
+		chunkedHashStore.addAll(Arrays.asList(s).subList(0, 100000).iterator());
+		chunkedHashStore.checkAndRetry(Arrays.asList(s).subList(0, 100000));
+		chunkedHashStore.save(dir);
+		chunkedHashStore.close();
+
+		chunkedHashStore = ChunkedHashStore.open(dir, false, null);
+		final GOV3Function<CharSequence> previous = new GOV3Function.Builder<CharSequence>().store(chunkedHashStore).build();
+		chunkedHashStore.markClean();
+		chunkedHashStore.save(dir);
+		chunkedHashStore.close();
+
+		// Unsaved additions are discarded
+		chunkedHashStore = ChunkedHashStore.open(dir, false, null);
+		chunkedHashStore.addAll(Arrays.asList(s).subList(100000, 100010).iterator());
+		chunkedHashStore.close();
+
+		chunkedHashStore = ChunkedHashStore.open(dir, false, null);
+		assertEquals(100000, chunkedHashStore.size());
+		chunkedHashStore.addAll(Arrays.asList(s).subList(100000, s.length).iterator());
+		chunkedHashStore.check();
+		chunkedHashStore.save(dir);
+		chunkedHashStore.close();
+
+		chunkedHashStore = ChunkedHashStore.open(dir);
+		final int numChunks = previous.offsetAndSeed.length - 1;
+		final boolean[] clean = new boolean[numChunks];
+		int dirty = 0;
+		chunkedHashStore.log2Chunks(Integer.numberOfTrailingZeros(numChunks));
+		for (int i = 0; i < numChunks; i++) {
+			if (chunkedHashStore.dirty(i)) dirty++;
+			else clean[i] = true;
+		}
+		assertTrue(dirty + " dirty chunks", dirty > 0 && dirty <= 20);
+
+		// We alter the first variable of clean chunks of the previous function, which must be copied as it is
+		for (int i = 0; i < numChunks; i++) if (clean[i]) previous.data.set(previous.offsetAndSeed[i] & GOV3Function.OFFSET_MASK, ~previous.data.getLong(previous.offsetAndSeed[i] & GOV3Function.OFFSET_MASK) & (1L << previous.width) - 1);
+		final GOV3Function<CharSequence> altered = new GOV3Function.Builder<CharSequence>().store(chunkedHashStore).previous(previous).build();
+		for (int i = 0; i < numChunks; i++) if (clean[i]) {
+			final long expected = previous.data.getLong(previous.offsetAndSeed[i] & GOV3Function.OFFSET_MASK);
+			assertEquals("Chunk " + i, expected, altered.data.getLong(altered.offsetAndSeed[i] & GOV3Function.OFFSET_MASK));
+			previous.data.set(previous.offsetAndSeed[i] & GOV3Function.OFFSET_MASK, ~expected & (1L << previous.width) - 1);
+		}
+
+		final GOV3Function<CharSequence> function = new GOV3Function.Builder<CharSequence>().store(chunkedHashStore).previous(previous).build();
+		chunkedHashStore.close();
+		check(s.length, s, function, 0);
+
+		for(final File f : dir.listFiles()) f.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void testAllocationFreeLookups() throws IOException {
+		final long[] keys = new long[10000];
+		for (int i = keys.length; i-- != 0;) keys[i] = i * 0x9E3779B97F4A7C15L;
+		for (final int signatureWidth : new int[] { 0, 32 }) {
+			final GOV3Function<Long> f = new GOV3Function.Builder<Long>().keys(LongArrayList.wrap(keys)).transform(TransformationStrategies.fixedLong()).signed(signatureWidth).build();
+			double bytes = LookupAllocation.bytesPerLookup(i -> f.getLong(keys[i]), keys.length);
+			assertTrue(bytes + " bytes per lookup", bytes < 1);
+			final LongArrayBitVector[] bvKeys = LookupAllocation.keys(10000);
+			final GOV3Function<LongArrayBitVector> g = new GOV3Function.Builder<LongArrayBitVector>().keys(Arrays.asList(bvKeys)).transform(TransformationStrategies.identity()).signed(signatureWidth).build();
+			bytes = LookupAllocation.bytesPerLookup(i -> g.getLong(bvKeys[i]), bvKeys.length);
+			assertTrue(bytes + " bytes per lookup", bytes < 1);
+		}
+	}
 }
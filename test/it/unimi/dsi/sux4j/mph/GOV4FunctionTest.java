@@ -1,6 +1,8 @@
 package it.unimi.dsi.sux4j.mph;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
@@ -8,6 +10,9 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
@@ -16,6 +21,7 @@ import it.unimi.dsi.fastutil.io.BinIO;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongLists;
 import it.unimi.dsi.sux4j.io.ChunkedHashStore;
+import it.unimi.dsi.sux4j.util.OffHeapLongBigList;
 
 public class GOV4FunctionTest {
 
@@ -64,6 +70,42 @@ public class GOV4FunctionTest {
 		}
 	}
 
+	@Test
+	public void testGetLongs() throws IOException {
+		for (final int signatureWidth: new int[] { -32, 0, 32 }) {
+			for (final int size : new int[] { 0, 1, 10, 1000, 3000 }) {
+				final String[] s = new String[size];
+				for (int i = s.length; i-- != 0;) s[i] = Integer.toString(i);
+				final GOV4Function<CharSequence> f = new GOV4Function.Builder<CharSequence>().keys(Arrays.asList(s)).transform(TransformationStrategies.utf16()).signed(signatureWidth).build();
+				// Keys and non-keys
+				final Object[] query = new Object[2 * size + 1];
+				for (int i = query.length; i-- != 0;) query[i] = Integer.toString(i);
+				final long[] out = new long[query.length];
+				f.getLongs(query, out);
+				for (int i = query.length; i-- != 0;) assertEquals(f.getLong(query[i]), out[i]);
+
+				final long[] triples = new long[3 * query.length];
+				final long[] triple = new long[3];
+				for (int i = query.length; i-- != 0;) {
+					Hashes.spooky4(TransformationStrategies.utf16().toBitVector((CharSequence)query[i]), f.globalSeed, triple);
+					System.arraycopy(triple, 0, triples, 3 * i, 3);
+				}
+				Arrays.fill(out, 0);
+				f.getLongsByTriple(triples, out);
+				for (int i = query.length; i-- != 0;) assertEquals(f.getLong(query[i]), out[i]);
+			}
+		}
+
+		final long[] keys = new long[3000];
+		for (int i = keys.length; i-- != 0;) keys[i] = i * 0x9E3779B97F4A7C15L;
+		final GOV4Function<Long> f = new GOV4Function.Builder<Long>().keys(LongArrayList.wrap(keys)).transform(TransformationStrategies.fixedLong()).signed(32).build();
+		final long[] query = new long[2 * keys.length];
+		for (int i = query.length; i-- != 0;) query[i] = i * 0x9E3779B97F4A7C15L;
+		final long[] out = new long[query.length];
+		f.getLongs(query, out);
+		for (int i = query.length; i-- != 0;) assertEquals(i < keys.length ? i : -1, out[i]);
+	}
+
 	@Test
 	public void testLongNumbers() throws IOException {
 		final LongArrayList l = new LongArrayList(new long[] { 0x234904309830498L, 0xae049345e9eeeeeL, 0x23445234959234L, 0x239234eaeaeaeL });
@@ -102,7 +144,7 @@ public class GOV4FunctionTest {
 
 					@Override
 					public Iterator<String> iterator() {
-						if (iteration++ > 2) return Arrays.asList(new String[] { "a", "b", "c" }).iterator();
+						if (iteration++ > 0) return Arrays.asList(new String[] { "a", "b", "c" }).iterator();
 						return Arrays.asList(new String[] { "a", "b", "a" }).iterator();
 					}
 				}).transform(TransformationStrategies.utf16()).build();
@@ -111,6 +153,29 @@ public class GOV4FunctionTest {
 		assertEquals(2, mph.getLong("c"));
 	}
 
+	@Test
+	public void testSharedExecutorServiceAfterFailure() throws Exception {
+		// A single solver, so that the window of the queue reordering solutions is smaller than the number of chunks
+		final String numberOfThreads = System.setProperty(GOV4Function.NUMBER_OF_THREADS_PROPERTY, "1");
+		final ExecutorService solvers = Executors.newFixedThreadPool(1);
+		try {
+			final String[] s = new String[300000];
+			for (int i = s.length; i-- != 0;) s[i] = Integer.toString(i % (s.length - 1000));
+			try {
+				new GOV4Function.Builder<CharSequence>().keys(Arrays.asList(s)).transform(TransformationStrategies.utf16()).executorService(solvers).build();
+				fail();
+			}
+			catch(final IllegalArgumentException e) {}
+			// The failed build must not leave tasks blocked on the shared executor service
+			assertEquals(0, solvers.submit(() -> 0).get(1, TimeUnit.MINUTES).intValue());
+		}
+		finally {
+			if (numberOfThreads == null) System.clearProperty(GOV4Function.NUMBER_OF_THREADS_PROPERTY);
+			else System.setProperty(GOV4Function.NUMBER_OF_THREADS_PROPERTY, numberOfThreads);
+			solvers.shutdownNow();
+		}
+	}
+
 	@Test
 	public void testEmpty() throws IOException {
 		final List<String> emptyList = Collections.emptyList();
@@ -122,4 +187,52 @@ public class GOV4FunctionTest {
 		assertEquals(-1, mph.getLong("a"));
 
 	}
+
+	@Test
+	public void testAllocationFreeLookups() throws IOException {
+		final long[] keys = new long[10000];
+		for (int i = keys.length; i-- != 0;) keys[i] = i * 0x9E3779B97F4A7C15L;
+		final GOV4Function<Long> f = new GOV4Function.Builder<Long>().keys(LongArrayList.wrap(keys)).transform(TransformationStrategies.fixedLong()).build();
+		final double bytes = LookupAllocation.bytesPerLookup(i -> f.getLong(keys[i]), keys.length);
+		assertTrue(bytes + " bytes per lookup", bytes < 1);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testOffHeap() throws IOException, ClassNotFoundException {
+		for (final int signatureWidth: new int[] { -32, 0, 32 }) {
+			for (final int size : new int[] { 0, 1, 10, 1000, 100000 }) {
+				final String[] s = new String[size];
+				for (int i = s.length; i-- != 0;) s[i] = Integer.toString(i);
+				GOV4Function<CharSequence> mph = new GOV4Function.Builder<CharSequence>().keys(Arrays.asList(s)).transform(TransformationStrategies.utf16()).signed(signatureWidth).offHeap().build();
+				assertTrue(size == 0 || mph.data instanceof OffHeapLongBigList);
+				assertTrue(signatureWidth <= 0 || size == 0 || mph.signatures instanceof OffHeapLongBigList);
+				check(size, s, mph, signatureWidth);
+
+				final File temp = File.createTempFile(getClass().getSimpleName(), "test");
+				temp.deleteOnExit();
+				BinIO.storeObject(mph, temp);
+				mph = (GOV4Function<CharSequence>)BinIO.loadObject(temp);
+				check(size, s, mph, signatureWidth);
+			}
+		}
+	}
+
+	@Test
+	public void testDump() throws IOException {
+		for (final int signatureWidth: new int[] { -32, 0, 7, 32 }) {
+			for (final int size : new int[] { 0, 1, 10, 1000, 10000 }) {
+				final String[] s = new String[size];
+				for (int i = s.length; i-- != 0;) s[i] = Integer.toString(i);
+				final GOV4Function<CharSequence> f = new GOV4Function.Builder<CharSequence>().keys(Arrays.asList(s)).transform(TransformationStrategies.utf16()).signed(signatureWidth).build();
+				final File temp = File.createTempFile(getClass().getSimpleName(), "dump");
+				temp.deleteOnExit();
+				f.dump(temp.toString());
+				final MappedGOV4Function<CharSequence> mapped = MappedGOV4Function.load(temp.toString());
+				assertEquals(f.size64(), mapped.size64());
+				assertEquals(f.defaultReturnValue(), mapped.defaultReturnValue());
+				for (int i = 2 * size + 10; i-- != 0;) assertEquals(f.getLong(Integer.toString(i)), mapped.getLong(Integer.toString(i)));
+			}
+		}
+	}
 }
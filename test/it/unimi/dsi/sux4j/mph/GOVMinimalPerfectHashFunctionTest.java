@@ -2,6 +2,8 @@ package it.unimi.dsi.sux4j.mph;
 
 import static it.unimi.dsi.sux4j.mph.GOVMinimalPerfectHashFunction.countNonzeroPairs;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
@@ -11,6 +13,7 @@ import org.junit.Test;
 
 import it.unimi.dsi.bits.TransformationStrategies;
 import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.sux4j.io.ChunkedHashStore;
 import it.unimi.dsi.sux4j.mph.GOVMinimalPerfectHashFunction.Builder;
 
@@ -30,6 +33,25 @@ public class GOVMinimalPerfectHashFunctionTest {
 			else mph.getLong(Integer.toString(i + size));
 	}
 
+	@Test
+	public void testLongKeys() throws IOException {
+		for (final int size : new int[] { 0, 1, 1000, 100000 }) {
+			final long[] keys = new long[size];
+			for (int i = keys.length; i-- != 0;) keys[i] = i * 0x9E3779B97F4A7C15L;
+			final ChunkedHashStore<Long> chunkedHashStore = new ChunkedHashStore<>(TransformationStrategies.rawFixedLong(), null, 0, ChunkedHashStore.DEFAULT_MEMORY_THRESHOLD, null);
+			for (final long key : keys) chunkedHashStore.add(key);
+			final GOVMinimalPerfectHashFunction<Long> mph = new GOVMinimalPerfectHashFunction.Builder<Long>().store(chunkedHashStore).build();
+			final boolean[] seen = new boolean[size];
+			for (final long key : keys) {
+				final long v = mph.getLong(key);
+				assertFalse(seen[(int)v]);
+				seen[(int)v] = true;
+				assertEquals(v, mph.getLong(Long.valueOf(key)));
+			}
+			chunkedHashStore.close();
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	@Test
 	public void testNumbers() throws IOException, ClassNotFoundException {
@@ -77,4 +99,87 @@ public class GOVMinimalPerfectHashFunctionTest {
 		assertEquals(4, countNonzeroPairs(0x3333));
 		assertEquals(8, countNonzeroPairs(0xFFFF));
 	}
+
+	@Test
+	public void testIncremental() throws IOException, ClassNotFoundException {
+		final String[] s = new String[100020];
+		for (int i = s.length; i-- != 0;) s[i] = Integer.toString(i);
+		final File dir = java.nio.file.Files.createTempDirectory(getClass().getSimpleName()).toFile();
+
+		ChunkedHashStore<CharSequence> chunkedHashStore = new ChunkedHashStore<>(TransformationStrategies.utf16());
+		chunkedHashStore.addAll(Arrays.asList(s).subList(0, 100000).iterator());
+		chunkedHashStore.checkAndRetry(Arrays.asList(s).subList(0, 100000));
+		chunkedHashStore.markClean();
+		chunkedHashStore.save(dir);
+		final GOVMinimalPerfectHashFunction<CharSequence> previous = new GOVMinimalPerfectHashFunction.Builder<CharSequence>().store(chunkedHashStore).build();
+		chunkedHashStore.close();
+
+		chunkedHashStore = ChunkedHashStore.open(dir, false, null);
+		chunkedHashStore.addAll(Arrays.asList(s).subList(100000, s.length).iterator());
+		chunkedHashStore.check();
+
+		final int numChunks = previous.edgeOffsetAndSeed.length - 1;
+		final boolean[] clean = new boolean[numChunks];
+		int dirty = 0;
+		chunkedHashStore.log2Chunks(Integer.numberOfTrailingZeros(numChunks));
+		for (int i = 0; i < numChunks; i++) {
+			if (chunkedHashStore.dirty(i)) dirty++;
+			else clean[i] = true;
+		}
+		assertTrue(dirty + " dirty chunks", dirty > 0 && dirty <= 20);
+
+		// We alter the first vertex of clean chunks of the previous function, which must be copied as it is if reused
+		for (int i = 0; i < numChunks; i++) if (clean[i]) previous.values.set(GOVMinimalPerfectHashFunction.vertexOffset(previous.edgeOffsetAndSeed[i]), previous.values.getLong(GOVMinimalPerfectHashFunction.vertexOffset(previous.edgeOffsetAndSeed[i])) ^ 1);
+		final GOVMinimalPerfectHashFunction<CharSequence> altered = new GOVMinimalPerfectHashFunction.Builder<CharSequence>().store(chunkedHashStore).previous(previous).build();
+		int reused = 0;
+		for (int i = 0; i < numChunks; i++) if (clean[i]) {
+			final long previousOffset = GOVMinimalPerfectHashFunction.vertexOffset(previous.edgeOffsetAndSeed[i]);
+			final long offset = GOVMinimalPerfectHashFunction.vertexOffset(altered.edgeOffsetAndSeed[i]);
+			// Clean chunks are reused if their number of vertices has not changed
+			if (GOVMinimalPerfectHashFunction.vertexOffset(previous.edgeOffsetAndSeed[i + 1]) - previousOffset == GOVMinimalPerfectHashFunction.vertexOffset(altered.edgeOffsetAndSeed[i + 1]) - offset) {
+				assertEquals("Chunk " + i, previous.values.getLong(previousOffset), altered.values.getLong(offset));
+				reused++;
+			}
+			previous.values.set(previousOffset, previous.values.getLong(previousOffset) ^ 1);
+		}
+		assertTrue(reused + " reused chunks", reused > 0);
+
+		final GOVMinimalPerfectHashFunction<CharSequence> mph = new GOVMinimalPerfectHashFunction.Builder<CharSequence>().store(chunkedHashStore).previous(previous).build();
+		chunkedHashStore.close();
+		check(s.length, s, mph, 0);
+
+		for(final File f : dir.listFiles()) f.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void testAllocationFreeLookups() throws IOException {
+		final long[] keys = new long[10000];
+		for (int i = keys.length; i-- != 0;) keys[i] = i * 0x9E3779B97F4A7C15L;
+		final GOVMinimalPerfectHashFunction<Long> f = new GOVMinimalPerfectHashFunction.Builder<Long>().keys(LongArrayList.wrap(keys)).transform(TransformationStrategies.fixedLong()).signed(32).build();
+		final double bytes = LookupAllocation.bytesPerLookup(i -> f.getLong(keys[i]), keys.length);
+		assertTrue(bytes + " bytes per lookup", bytes < 1);
+	}
+
+	@Test
+	public void testMappedSection() throws IOException {
+		for (final int size : new int[] { 0, 1, 10, 1000, 100000 }) {
+			for (final int signatureWidth : new int[] { 0, 32 }) {
+				final String[] s = new String[size];
+				for (int i = s.length; i-- != 0;) s[i] = Integer.toString(i);
+				final GOVMinimalPerfectHashFunction<CharSequence> mph = new Builder<CharSequence>().keys(Arrays.asList(s)).transform(TransformationStrategies.utf16()).signed(signatureWidth).build();
+				final File temp = File.createTempFile(getClass().getSimpleName(), "dump");
+				temp.deleteOnExit();
+				try (final DumpWriter writer = new DumpWriter(temp.toString())) {
+					mph.dump(writer);
+				}
+				final MappedDump.Cursor cursor = new MappedDump(temp, MappedDump.LOG2_SEGMENT_SIZE).cursor(0);
+				final MappedGOVMinimalPerfectHashFunction<CharSequence> mapped = new MappedGOVMinimalPerfectHashFunction<>(cursor, TransformationStrategies.utf16());
+				cursor.end();
+				assertEquals(mph.size64(), mapped.size64());
+				for (int i = s.length; i-- != 0;) assertEquals(mph.getLong(s[i]), mapped.getLong(s[i]));
+				for (int i = 1000; i-- != 0;) assertEquals(mph.getLong(Integer.toString(i + size)), mapped.getLong(Integer.toString(i + size)));
+			}
+		}
+	}
 }
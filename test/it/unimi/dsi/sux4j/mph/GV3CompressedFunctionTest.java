@@ -1,6 +1,7 @@
 package it.unimi.dsi.sux4j.mph;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
@@ -12,6 +13,7 @@ import java.util.List;
 import org.apache.commons.math3.distribution.ZipfDistribution;
 import org.junit.Test;
 
+import it.unimi.dsi.bits.LongArrayBitVector;
 import it.unimi.dsi.bits.TransformationStrategies;
 import it.unimi.dsi.fastutil.io.BinIO;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
@@ -245,7 +247,7 @@ public class GV3CompressedFunctionTest {
 
 			@Override
 			public Iterator<String> iterator() {
-				if (iteration++ > 2) return Arrays.asList(new String[] { "a", "b", "c" }).iterator();
+				if (iteration++ > 0) return Arrays.asList(new String[] { "a", "b", "c" }).iterator();
 				return Arrays.asList(new String[] { "a", "b", "a" }).iterator();
 			}
 		}).transform(TransformationStrategies.utf16()).build();
@@ -281,4 +283,31 @@ public class GV3CompressedFunctionTest {
 			values[i] = (value | r.nextLong(value)) - 1;
 		}
 	}
+
+	@Test
+	public void testAllocationFreeLookups() throws IOException {
+		final LongArrayBitVector[] keys = LookupAllocation.keys(10000);
+		final long[] values = new long[keys.length];
+		for (int i = values.length; i-- != 0;) values[i] = i % 8;
+		final GV3CompressedFunction<LongArrayBitVector> f = new GV3CompressedFunction.Builder<LongArrayBitVector>().keys(Arrays.asList(keys)).transform(TransformationStrategies.identity()).values(LongArrayList.wrap(values)).build();
+		final double bytes = LookupAllocation.bytesPerLookup(i -> f.getLong(keys[i]), keys.length);
+		assertTrue(bytes + " bytes per lookup", bytes < 1);
+	}
+
+	@Test
+	public void testDump() throws IOException {
+		for (final int size : new int[] { 0, 100, 1000, 10000 }) {
+			final String[] s = new String[size];
+			for (int i = s.length; i-- != 0;) s[i] = Integer.toString(i);
+			final long[] values = new long[size];
+			GV3CompressedFunctionTest.generateGamma(values);
+			final GV3CompressedFunction<CharSequence> f = new GV3CompressedFunction.Builder<CharSequence>().keys(Arrays.asList(s)).codec(new Codec.Huffman(20)).transform(TransformationStrategies.utf16()).values(LongArrayList.wrap(values)).build();
+			final File temp = File.createTempFile(getClass().getSimpleName(), "dump");
+			temp.deleteOnExit();
+			f.dump(temp.toString());
+			final MappedGV3CompressedFunction<CharSequence> mapped = MappedGV3CompressedFunction.load(temp.toString());
+			assertEquals(f.size64(), mapped.size64());
+			for (int i = s.length; i-- != 0;) assertEquals(values[i], mapped.getLong(s[i]));
+		}
+	}
 }
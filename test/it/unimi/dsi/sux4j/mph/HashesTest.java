@@ -34,6 +34,18 @@ public class HashesTest {
 		}
 	}
 
+	@Test
+	public void testSpooky4Long() {
+		final Random r = new XoRoShiRo128PlusRandom(1);
+		final long[] h = new long[4], k = new long[4];
+		for (int i = 0; i < 1000; i++) {
+			final long key = i < 2 ? -i : r.nextLong(), seed = r.nextLong();
+			Hashes.spooky4(LongArrayBitVector.wrap(new long[] { key }), seed, h);
+			Hashes.spooky4(key, seed, k);
+			assertArrayEquals(h, k);
+		}
+	}
+
 	@Test
 	public void testMurmurPreprocessing() {
 		final Random r = new XoRoShiRo128PlusRandom(1);
@@ -0,0 +1,34 @@
+package it.unimi.dsi.sux4j.mph;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import it.unimi.dsi.bits.LongArrayBitVector;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.util.XoRoShiRo128PlusRandom;
+
+public class InterleavedMarkerTest {
+
+	@Test
+	public void testRank() {
+		final XoRoShiRo128PlusRandom r = new XoRoShiRo128PlusRandom(0);
+		for (final boolean offHeap : new boolean[] { false, true }) {
+			for (final int size : new int[] { 1, 63, 64, 65, 511, 512, 513, 1023, 1024, 1025, 10000 }) {
+				for (final double density : new double[] { 0, .1, .5, 1 }) {
+					final LongBigList values = LongArrayBitVector.getInstance().asLongBigList(8);
+					for (int i = 0; i < size; i++) values.add(r.nextDouble() < density ? 1 + r.nextInt(255) : 0);
+					final InterleavedMarker marker = new InterleavedMarker(values, offHeap);
+					final LongBigList nonZero = LongArrayBitVector.getInstance().asLongBigList(8);
+					for (int i = 0; i < size; i++) {
+						final long value = values.getLong(i);
+						assertEquals(value != 0, marker.getBoolean(i));
+						assertEquals(nonZero.size64(), marker.rank(i));
+						if (value != 0) nonZero.add(value);
+					}
+					for (int i = 0; i < size; i++) assertEquals(values.getLong(i), marker.get(nonZero, i));
+				}
+			}
+		}
+	}
+}
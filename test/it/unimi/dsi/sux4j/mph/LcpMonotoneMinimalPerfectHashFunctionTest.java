@@ -1,7 +1,10 @@
 package it.unimi.dsi.sux4j.mph;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import it.unimi.dsi.bits.HuTuckerTransformationStrategy;
+import it.unimi.dsi.bits.LongArrayBitVector;
 import it.unimi.dsi.bits.TransformationStrategies;
 import it.unimi.dsi.fastutil.io.BinIO;
 
@@ -68,4 +71,45 @@ public class LcpMonotoneMinimalPerfectHashFunctionTest {
 		LcpMonotoneMinimalPerfectHashFunction<String> mph = new LcpMonotoneMinimalPerfectHashFunction.Builder<String>().keys(Arrays.asList(new String[] {})).transform(TransformationStrategies.prefixFreeUtf16()).build();
 		assertEquals(-1, mph.getLong(""));
 	}
+
+	@Test
+	public void testAllocationFreeLookups() throws IOException {
+		final LongArrayBitVector[] keys = LookupAllocation.keys(10000);
+		final LcpMonotoneMinimalPerfectHashFunction<LongArrayBitVector> f = new LcpMonotoneMinimalPerfectHashFunction.Builder<LongArrayBitVector>().keys(Arrays.asList(keys)).transform(TransformationStrategies.identity()).build();
+		final double bytes = LookupAllocation.bytesPerLookup(i -> f.getLong(keys[i]), keys.length);
+		assertTrue(bytes + " bytes per lookup", bytes < 1);
+	}
+
+	@Test
+	public void testDump() throws IOException {
+		for (final int size : new int[] { 0, 1, 10, 1000, 100000 }) {
+			for (final int signatureWidth: new int[] { 0, 32 }) {
+				final String[] s = new String[size];
+				for (int i = s.length; i-- != 0;) s[i] = binary(i);
+				LcpMonotoneMinimalPerfectHashFunction<String> f = new LcpMonotoneMinimalPerfectHashFunction.Builder<String>().keys(Arrays.asList(s)).transform(TransformationStrategies.prefixFreeUtf16()).signed(signatureWidth).build();
+				File temp = File.createTempFile(getClass().getSimpleName(), "dump");
+				temp.deleteOnExit();
+				f.dump(temp.toString());
+				MappedLcpMonotoneMinimalPerfectHashFunction<String> mapped = MappedLcpMonotoneMinimalPerfectHashFunction.load(temp.toString());
+				assertEquals(f.size64(), mapped.size64());
+				for (int i = s.length; i-- != 0;) assertEquals(i, mapped.getLong(s[i]));
+				for (int i = size + 10; i-- != 0;) assertEquals(f.getLong(binary(i + size)), mapped.getLong(binary(i + size)));
+
+				if (size == 0) continue;
+				// A custom transformation strategy must be provided explicitly
+				final HuTuckerTransformationStrategy huTucker = new HuTuckerTransformationStrategy(Arrays.asList(s), true);
+				f = new LcpMonotoneMinimalPerfectHashFunction.Builder<String>().keys(Arrays.asList(s)).transform(huTucker).signed(signatureWidth).build();
+				temp = File.createTempFile(getClass().getSimpleName(), "dump");
+				temp.deleteOnExit();
+				f.dump(temp.toString());
+				try {
+					MappedLcpMonotoneMinimalPerfectHashFunction.load(temp.toString());
+					fail();
+				}
+				catch(final IllegalArgumentException e) {}
+				mapped = MappedLcpMonotoneMinimalPerfectHashFunction.load(temp.toString(), huTucker);
+				for (int i = s.length; i-- != 0;) assertEquals(i, mapped.getLong(s[i]));
+			}
+		}
+	}
 }
@@ -0,0 +1,54 @@
+package it.unimi.dsi.sux4j.mph;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.function.IntToLongFunction;
+
+import org.junit.Assume;
+
+import it.unimi.dsi.bits.LongArrayBitVector;
+import it.unimi.dsi.util.XoRoShiRo128PlusRandom;
+
+/** Measures the memory allocated by lookups, so that tests can check that hot paths are allocation-free. */
+public final class LookupAllocation {
+	/** Accumulates the results of lookups, so that the JIT cannot eliminate them. */
+	private static volatile long sink;
+
+	private LookupAllocation() {}
+
+	/** Returns sorted, distinct keys of 128 bits (thus, prefix-free), suitable for all functions using the identity transformation.
+	 *
+	 * @param n the number of keys.
+	 * @return an array of {@code n} sorted, distinct 128-bit keys.
+	 */
+	public static LongArrayBitVector[] keys(final int n) {
+		final XoRoShiRo128PlusRandom r = new XoRoShiRo128PlusRandom(0);
+		final LongArrayBitVector[] keys = new LongArrayBitVector[n];
+		for (int i = n; i-- != 0;) keys[i] = LongArrayBitVector.wrap(new long[] { r.nextLong(), i }, 2 * Long.SIZE);
+		Arrays.sort(keys);
+		return keys;
+	}
+
+	/** Returns the average number of bytes allocated by the current thread during a call to a lookup function.
+	 *
+	 * <p>The function is called several times on all arguments between zero (inclusive) and {@code n} (exclusive)
+	 * to warm it up before measuring. The calling test is skipped if the JVM cannot measure allocation.
+	 *
+	 * @param lookup a lookup function.
+	 * @param n the number of distinct arguments for {@code lookup}.
+	 * @return the average number of bytes allocated by a call to {@code lookup}.
+	 */
+	public static double bytesPerLookup(final IntToLongFunction lookup, final int n) {
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled());
+		final long id = Thread.currentThread().getId();
+		long t = 0;
+		for (int r = 20; r-- != 0;) for (int i = 0; i < n; i++) t += lookup.applyAsLong(i);
+		final long start = threadMXBean.getThreadAllocatedBytes(id);
+		for (int r = 10; r-- != 0;) for (int i = 0; i < n; i++) t += lookup.applyAsLong(i);
+		final long allocated = threadMXBean.getThreadAllocatedBytes(id) - start;
+		sink += t;
+		return (double)allocated / (10L * n);
+	}
+}
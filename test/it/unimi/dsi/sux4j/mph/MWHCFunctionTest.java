@@ -102,7 +102,7 @@ public class MWHCFunctionTest {
 
 					@Override
 					public Iterator<String> iterator() {
-						if (iteration++ > 2) return Arrays.asList(new String[] { "a", "b", "c" }).iterator();
+						if (iteration++ > 0) return Arrays.asList(new String[] { "a", "b", "c" }).iterator();
 						return Arrays.asList(new String[] { "a", "b", "a" }).iterator();
 					}
 				}).transform(TransformationStrategies.utf16()).build();
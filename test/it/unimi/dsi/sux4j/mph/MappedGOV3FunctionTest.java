@@ -0,0 +1,83 @@
+package it.unimi.dsi.sux4j.mph;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import it.unimi.dsi.bits.TransformationStrategies;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+public class MappedGOV3FunctionTest {
+
+	private static void check(final GOV3Function<CharSequence> f, final MappedGOV3Function<CharSequence> mapped, final int size) {
+		assertEquals(f.size64(), mapped.size64());
+		// An empty dictionary cannot be distinguished from an empty function
+		if (size != 0) assertEquals(f.defaultReturnValue(), mapped.defaultReturnValue());
+		else mapped.defaultReturnValue(f.defaultReturnValue());
+		// Keys and non-keys
+		for (int i = 2 * size + 10; i-- != 0;) assertEquals(Integer.toString(i), f.getLong(Integer.toString(i)), mapped.getLong(Integer.toString(i)));
+	}
+
+	private static MappedGOV3Function<CharSequence> dumpAndMap(final GOV3Function<CharSequence> f, final int log2SegmentSize) throws IOException {
+		final File temp = File.createTempFile(MappedGOV3FunctionTest.class.getSimpleName(), "dump");
+		temp.deleteOnExit();
+		f.dump(temp.toString());
+		return new MappedGOV3Function<>(temp, TransformationStrategies.utf16(), log2SegmentSize);
+	}
+
+	@Test
+	public void testSigned() throws IOException {
+		for (final int signatureWidth: new int[] { -32, 0, 7, 32, 64 }) {
+			for (final int size : new int[] { 0, 1, 10, 1000, 10000 }) {
+				final String[] s = new String[size];
+				for (int i = s.length; i-- != 0;) s[i] = Integer.toString(i);
+				final GOV3Function<CharSequence> f = new GOV3Function.Builder<CharSequence>().keys(Arrays.asList(s)).transform(TransformationStrategies.utf16()).signed(signatureWidth).build();
+				// Tiny segments exercise words across segment boundaries
+				for (final int log2SegmentSize : new int[] { 3, 6, 30 }) check(f, dumpAndMap(f, log2SegmentSize), size);
+			}
+		}
+	}
+
+	@Test
+	public void testValues() throws IOException {
+		for (final boolean compacted : new boolean[] { false, true }) {
+			for (final int width : new int[] { 1, 7, 33, 64 }) {
+				for (final int size : new int[] { 1, 10, 1000, 100000 }) {
+					final String[] s = new String[size];
+					final long[] v = new long[size];
+					for (int i = s.length; i-- != 0;) {
+						s[i] = Integer.toString(i);
+						v[i] = i % 7 == 0 ? (i * 0x9E3779B97F4A7C15L) >>> Long.SIZE - width : 0;
+					}
+					final GOV3Function.Builder<CharSequence> builder = new GOV3Function.Builder<CharSequence>().keys(Arrays.asList(s)).transform(TransformationStrategies.utf16()).values(LongArrayList.wrap(v), width);
+					final GOV3Function<CharSequence> f = compacted ? builder.compacted().build() : builder.build();
+					final MappedGOV3Function<CharSequence> mapped = dumpAndMap(f, 6);
+					for (int i = s.length; i-- != 0;) assertEquals(v[i], mapped.getLong(s[i]));
+					check(f, mapped, size);
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSerialization() throws IOException, ClassNotFoundException {
+		final String[] s = new String[1000];
+		for (int i = s.length; i-- != 0;) s[i] = Integer.toString(i);
+		final GOV3Function<CharSequence> f = new GOV3Function.Builder<CharSequence>().keys(Arrays.asList(s)).transform(TransformationStrategies.utf16()).signed(32).build();
+		final File temp = File.createTempFile(getClass().getSimpleName(), "dump");
+		temp.deleteOnExit();
+		f.dump(temp.toString());
+		MappedGOV3Function<CharSequence> mapped = MappedGOV3Function.load(temp.toString(), TransformationStrategies.utf16());
+		final File serialized = File.createTempFile(getClass().getSimpleName(), "test");
+		serialized.deleteOnExit();
+		BinIO.storeObject(mapped, serialized);
+		mapped = (MappedGOV3Function<CharSequence>)BinIO.loadObject(serialized);
+		check(f, mapped, s.length);
+	}
+}
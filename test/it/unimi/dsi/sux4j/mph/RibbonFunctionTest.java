@@ -0,0 +1,178 @@
+package it.unimi.dsi.sux4j.mph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import it.unimi.dsi.bits.TransformationStrategies;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongLists;
+import it.unimi.dsi.sux4j.io.ChunkedHashStore;
+import it.unimi.dsi.util.XoRoShiRo128PlusRandom;
+
+public class RibbonFunctionTest {
+
+
+	private void check(int size, String[] s, RibbonFunction<CharSequence> mph, int signatureWidth) {
+		if (signatureWidth < 0) for (int i = s.length; i-- != 0;) assertEquals(1, mph.getLong(s[i]));
+		else for (int i = s.length; i-- != 0;) assertEquals(i, mph.getLong(s[i]));
+
+		// Exercise code for negative results
+		if (signatureWidth == 0) for (int i = size; i-- != 0;) mph.getLong(Integer.toString(i + size));
+		else if (signatureWidth < 0) for (int i = size; i-- != 0;) assertEquals(0, mph.getLong(Integer.toString(i + size)));
+		else for (int i = size; i-- != 0;) assertEquals(-1, mph.getLong(Integer.toString(i + size)));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testNumbers() throws IOException, ClassNotFoundException {
+		for (int outputWidth = 20; outputWidth < Long.SIZE; outputWidth += 8) {
+			for (final int signatureWidth: new int[] { -32, 0, 32, 64 }) {
+				for (final int size : new int[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 64, 95, 96, 97, 98, 99, 100, 101, 1000, 10000, 100000 }) {
+					final String[] s = new String[size];
+					for (int i = s.length; i-- != 0;)
+						s[i] = Integer.toString(i);
+
+					RibbonFunction<CharSequence> mph = new RibbonFunction.Builder<CharSequence>().keys(Arrays.asList(s)).transform(TransformationStrategies.utf16()).signed(signatureWidth).build();
+
+					check(size, s, mph, signatureWidth);
+
+					final File temp = File.createTempFile(getClass().getSimpleName(), "test");
+					temp.deleteOnExit();
+					BinIO.storeObject(mph, temp);
+					mph = (RibbonFunction<CharSequence>)BinIO.loadObject(temp);
+
+					check(size, s, mph, signatureWidth);
+
+					// From store
+					final ChunkedHashStore<CharSequence> chunkedHashStore = new ChunkedHashStore<>(TransformationStrategies.utf16(), null, signatureWidth < 0 ? -signatureWidth : 0, null);
+					chunkedHashStore.addAll(Arrays.asList(s).iterator());
+					chunkedHashStore.checkAndRetry(Arrays.asList(s));
+					mph = new RibbonFunction.Builder<CharSequence>().store(chunkedHashStore).signed(signatureWidth).build();
+					chunkedHashStore.close();
+
+					check(size, s, mph, signatureWidth);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testLongNumbers() throws IOException {
+		final LongArrayList l = new LongArrayList(new long[] { 0x234904309830498L, 0xae049345e9eeeeeL, 0x23445234959234L, 0x239234eaeaeaeL });
+		RibbonFunction<CharSequence> mph = new RibbonFunction.Builder<CharSequence>().keys(Arrays.asList(new String[] { "a", "b", "c", "d" })).transform(TransformationStrategies.utf16()).values(l).build();
+		assertEquals(l.getLong(0), mph.getLong("a"));
+		assertEquals(l.getLong(1), mph.getLong("b"));
+		assertEquals(l.getLong(2), mph.getLong("c"));
+		assertEquals(l.getLong(3), mph.getLong("d"));
+		mph = new RibbonFunction.Builder<CharSequence>().keys(Arrays.asList(new String[] { "a", "b", "c", "d" })).transform(TransformationStrategies.utf16()).values(l, Long.SIZE).build();
+		assertEquals(l.getLong(0), mph.getLong("a"));
+		assertEquals(l.getLong(1), mph.getLong("b"));
+		assertEquals(l.getLong(2), mph.getLong("c"));
+		assertEquals(l.getLong(3), mph.getLong("d"));
+		mph = new RibbonFunction.Builder<CharSequence>().keys(Arrays.asList(new String[] { "a", "b", "c", "d" })).transform(TransformationStrategies.utf16()).values(l, Long.SIZE).indirect().build();
+		assertEquals(l.getLong(0), mph.getLong("a"));
+		assertEquals(l.getLong(1), mph.getLong("b"));
+		assertEquals(l.getLong(2), mph.getLong("c"));
+		assertEquals(l.getLong(3), mph.getLong("d"));
+	}
+
+	@Test
+	public void testDictionary() throws IOException {
+		final RibbonFunction<CharSequence> mph = new RibbonFunction.Builder<CharSequence>().keys(Arrays.asList(new String[] { "a", "b", "c", "d" })).transform(TransformationStrategies.utf16()).dictionary(8).build();
+		assertEquals(1, mph.getLong("a"));
+		assertEquals(1, mph.getLong("b"));
+		assertEquals(1, mph.getLong("c"));
+		assertEquals(1, mph.getLong("d"));
+		assertEquals(0, mph.getLong("e"));
+	}
+
+	@Test
+	public void testDuplicates() throws IOException {
+		final RibbonFunction<String> mph = new RibbonFunction.Builder<String>().keys(
+				new Iterable<String>() {
+					int iteration;
+
+					@Override
+					public Iterator<String> iterator() {
+						if (iteration++ > 0) return Arrays.asList(new String[] { "a", "b", "c" }).iterator();
+						return Arrays.asList(new String[] { "a", "b", "a" }).iterator();
+					}
+				}).transform(TransformationStrategies.utf16()).build();
+		assertEquals(0, mph.getLong("a"));
+		assertEquals(1, mph.getLong("b"));
+		assertEquals(2, mph.getLong("c"));
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		final List<String> emptyList = Collections.emptyList();
+		RibbonFunction<String> mph = new RibbonFunction.Builder<String>().keys(emptyList).transform(TransformationStrategies.utf16()).build();
+		assertEquals(-1, mph.getLong("a"));
+		mph = new RibbonFunction.Builder<String>().keys(emptyList).dictionary(10).transform(TransformationStrategies.utf16()).build();
+		assertEquals(0, mph.getLong("a"));
+		mph = new RibbonFunction.Builder<String>().keys(emptyList).values(LongLists.EMPTY_LIST, 10).transform(TransformationStrategies.utf16()).build();
+		assertEquals(-1, mph.getLong("a"));
+
+	}
+
+	@Test
+	public void testSharedExecutorService() throws Exception {
+		// Fewer threads than solving tasks, shared by concurrent builds
+		final ExecutorService solvers = Executors.newFixedThreadPool(2);
+		final ExecutorService builds = Executors.newFixedThreadPool(4);
+		final List<Future<?>> futures = new ArrayList<>();
+		for (int b = 0; b < 4; b++) {
+			final int size = 10000 * (b + 1);
+			futures.add(builds.submit(() -> {
+				final String[] s = new String[size];
+				for (int i = s.length; i-- != 0;) s[i] = Integer.toString(i);
+				final RibbonFunction<CharSequence> mph = new RibbonFunction.Builder<CharSequence>().keys(Arrays.asList(s)).transform(TransformationStrategies.utf16()).signed(32).executorService(solvers).build();
+				check(size, s, mph, 32);
+				return null;
+			}));
+		}
+		for (final Future<?> f : futures) f.get();
+		builds.shutdown();
+		assertFalse(solvers.isShutdown());
+		solvers.shutdown();
+	}
+
+	@Test
+	public void testAllocationFreeLookups() throws IOException {
+		final long[] keys = new long[10000];
+		for (int i = keys.length; i-- != 0;) keys[i] = i * 0x9E3779B97F4A7C15L;
+		final RibbonFunction<Long> f = new RibbonFunction.Builder<Long>().keys(LongArrayList.wrap(keys)).transform(TransformationStrategies.fixedLong()).build();
+		final double bytes = LookupAllocation.bytesPerLookup(i -> f.getLong(keys[i]), keys.length);
+		assertTrue(bytes + " bytes per lookup", bytes < 1);
+	}
+
+	@Test
+	public void testWidths() throws IOException {
+		final XoRoShiRo128PlusRandom r = new XoRoShiRo128PlusRandom(0);
+		final long[] keys = new long[5000];
+		for (int i = keys.length; i-- != 0;) keys[i] = i * 0x9E3779B97F4A7C15L;
+		for (final int width : new int[] { 1, 2, 7, 8, 13, 32, 63, 64 }) {
+			final long[] values = new long[keys.length];
+			for (int i = values.length; i-- != 0;) values[i] = r.nextLong() >>> Long.SIZE - width;
+			final RibbonFunction<Long> f = new RibbonFunction.Builder<Long>().keys(LongArrayList.wrap(keys)).transform(TransformationStrategies.fixedLong()).values(LongArrayList.wrap(values), width).build();
+			for (int i = keys.length; i-- != 0;) assertEquals(values[i], f.getLong(keys[i]));
+			for (int i = keys.length; i-- != 0;) assertEquals(values[i], f.getLong(Long.valueOf(keys[i])));
+			assertTrue(f.numBits() < 1.15 * width * keys.length + 1000);
+		}
+	}
+}
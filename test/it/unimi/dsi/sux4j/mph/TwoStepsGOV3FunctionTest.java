@@ -1,11 +1,14 @@
 package it.unimi.dsi.sux4j.mph;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import it.unimi.dsi.bits.LongArrayBitVector;
 import it.unimi.dsi.bits.TransformationStrategies;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongBigList;
 import it.unimi.dsi.fastutil.longs.LongBigLists;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 
@@ -51,4 +54,35 @@ public class TwoStepsGOV3FunctionTest {
 		assertEquals(l.getLong(6), mph.getLong("g"));
 		assertEquals(l.getLong(7), mph.getLong("h"));
 	}
+
+	@Test
+	public void testAllocationFreeLookups() throws IOException {
+		final LongArrayBitVector[] keys = LookupAllocation.keys(10000);
+		final long[] values = new long[keys.length];
+		for (int i = values.length; i-- != 0;) values[i] = i % 8;
+		final TwoStepsGOV3Function<LongArrayBitVector> f = new TwoStepsGOV3Function.Builder<LongArrayBitVector>().keys(Arrays.asList(keys)).transform(TransformationStrategies.identity()).values(LongBigLists.asBigList(LongArrayList.wrap(values))).build();
+		final double bytes = LookupAllocation.bytesPerLookup(i -> f.getLong(keys[i]), keys.length);
+		assertTrue(bytes + " bytes per lookup", bytes < 1);
+	}
+
+	@Test
+	public void testDump() throws IOException {
+		for (final int size : new int[] { 0, 1, 10, 1000, 100000 }) {
+			final String[] s = new String[size];
+			final long[] v = new long[size];
+			for (int i = s.length; i-- != 0;) {
+				s[i] = Integer.toString(i);
+				// Mostly small values, so that both functions are used
+				v[i] = i % 10 == 0 ? i : i % 3;
+			}
+			final TwoStepsGOV3Function<CharSequence> f = new TwoStepsGOV3Function.Builder<CharSequence>().keys(Arrays.asList(s)).transform(TransformationStrategies.utf16()).values(LongBigLists.asBigList(LongArrayList.wrap(v))).build();
+			final File temp = File.createTempFile(getClass().getSimpleName(), "dump");
+			temp.deleteOnExit();
+			f.dump(temp.toString());
+			final MappedTwoStepsGOV3Function<CharSequence> mapped = MappedTwoStepsGOV3Function.load(temp.toString());
+			assertEquals(f.size64(), mapped.size64());
+			for (int i = s.length; i-- != 0;) assertEquals(v[i], mapped.getLong(s[i]));
+			for (int i = 2 * size + 10; i-- != 0;) assertEquals(f.getLong(Integer.toString(i)), mapped.getLong(Integer.toString(i)));
+		}
+	}
 }
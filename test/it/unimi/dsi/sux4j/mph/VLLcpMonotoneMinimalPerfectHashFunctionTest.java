@@ -1,6 +1,8 @@
 package it.unimi.dsi.sux4j.mph;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
@@ -9,6 +11,7 @@ import java.util.Arrays;
 import org.junit.Test;
 
 import it.unimi.dsi.bits.HuTuckerTransformationStrategy;
+import it.unimi.dsi.bits.LongArrayBitVector;
 import it.unimi.dsi.bits.TransformationStrategies;
 import it.unimi.dsi.fastutil.io.BinIO;
 
@@ -59,4 +62,43 @@ public class VLLcpMonotoneMinimalPerfectHashFunctionTest {
 			assertEquals(i, mph.getLong(s[i]));
 
 	}
+
+	@Test
+	public void testAllocationFreeLookups() throws IOException {
+		final LongArrayBitVector[] keys = LookupAllocation.keys(10000);
+		final VLLcpMonotoneMinimalPerfectHashFunction<LongArrayBitVector> f = new VLLcpMonotoneMinimalPerfectHashFunction<>(Arrays.asList(keys), TransformationStrategies.identity());
+		final double bytes = LookupAllocation.bytesPerLookup(i -> f.getLong(keys[i]), keys.length);
+		assertTrue(bytes + " bytes per lookup", bytes < 1);
+	}
+
+	@Test
+	public void testDump() throws IOException {
+		for (final int size : new int[] { 0, 1, 10, 1000, 100000 }) {
+			final String[] s = new String[size];
+			for (int i = s.length; i-- != 0;) s[i] = binary(i);
+			VLLcpMonotoneMinimalPerfectHashFunction<String> f = new VLLcpMonotoneMinimalPerfectHashFunction<>(Arrays.asList(s), TransformationStrategies.prefixFreeUtf16());
+			File temp = File.createTempFile(getClass().getSimpleName(), "dump");
+			temp.deleteOnExit();
+			f.dump(temp.toString());
+			MappedVLLcpMonotoneMinimalPerfectHashFunction<String> mapped = MappedVLLcpMonotoneMinimalPerfectHashFunction.load(temp.toString());
+			assertEquals(f.size64(), mapped.size64());
+			for (int i = s.length; i-- != 0;) assertEquals(i, mapped.getLong(s[i]));
+			for (int i = size + 10; i-- != 0;) assertEquals(f.getLong(binary(i + size)), mapped.getLong(binary(i + size)));
+
+			if (size == 0) continue;
+			// A custom transformation strategy must be provided explicitly
+			final HuTuckerTransformationStrategy huTucker = new HuTuckerTransformationStrategy(Arrays.asList(s), true);
+			f = new VLLcpMonotoneMinimalPerfectHashFunction<>(Arrays.asList(s), huTucker);
+			temp = File.createTempFile(getClass().getSimpleName(), "dump");
+			temp.deleteOnExit();
+			f.dump(temp.toString());
+			try {
+				MappedVLLcpMonotoneMinimalPerfectHashFunction.load(temp.toString());
+				fail();
+			}
+			catch(final IllegalArgumentException e) {}
+			mapped = MappedVLLcpMonotoneMinimalPerfectHashFunction.load(temp.toString(), huTucker);
+			for (int i = s.length; i-- != 0;) assertEquals(i, mapped.getLong(s[i]));
+		}
+	}
 }
@@ -0,0 +1,53 @@
+package it.unimi.dsi.sux4j.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import it.unimi.dsi.bits.LongArrayBitVector;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
+
+public class MappedLongBigListTest {
+	@Test
+	public void testWidths() throws IOException, ClassNotFoundException {
+		final XoRoShiRo128PlusRandomGenerator r = new XoRoShiRo128PlusRandomGenerator(0);
+		for (int width = 1; width <= Long.SIZE; width++) {
+			final File file = File.createTempFile(getClass().getSimpleName(), "list");
+			file.deleteOnExit();
+			final int size = 1000;
+			final LongBigList l = LongArrayBitVector.getInstance().asLongBigList(width);
+			l.size(size);
+			final MappedLongBigList m = MappedLongBigList.create(file, size, width);
+			assertEquals(size, m.size64());
+			for (int i = 0; i < size; i++) assertEquals(0, m.getLong(i));
+			// Out-of-order sets, as in chunk-parallel filling
+			for (int i = 0; i < size; i++) {
+				final long index = (i * 617L) % size;
+				final long value = r.nextLong();
+				l.set(index, value & -1L >>> Long.SIZE - width);
+				m.set(index, value);
+			}
+			assertEquals(l, m);
+			m.force();
+			assertEquals(l, MappedLongBigList.map(file, width));
+
+			final File temp = File.createTempFile(getClass().getSimpleName(), "test");
+			temp.deleteOnExit();
+			BinIO.storeObject(m, temp);
+			assertEquals(l, BinIO.loadObject(temp));
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testReadOnly() throws IOException {
+		final File file = File.createTempFile(getClass().getSimpleName(), "list");
+		file.deleteOnExit();
+		MappedLongBigList.create(file, 10, 12);
+		MappedLongBigList.map(file, 12).set(0, 1);
+	}
+}
@@ -0,0 +1,80 @@
+package it.unimi.dsi.sux4j.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import it.unimi.dsi.bits.LongArrayBitVector;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.util.XoRoShiRo128PlusRandomGenerator;
+
+public class OffHeapLongBigListTest {
+	@Test
+	public void testWidths() throws IOException, ClassNotFoundException {
+		final XoRoShiRo128PlusRandomGenerator r = new XoRoShiRo128PlusRandomGenerator(0);
+		for (int width = 1; width <= Long.SIZE; width++) {
+			final int size = 1000;
+			final LongBigList l = LongArrayBitVector.getInstance().asLongBigList(width);
+			l.size(size);
+			// Tiny segments, so that elements span segments
+			final OffHeapLongBigList o = new OffHeapLongBigList(size, width, 2);
+			assertEquals(size, o.size64());
+			for (int i = 0; i < size; i++) assertEquals(0, o.getLong(i));
+			for (int i = 0; i < size; i++) {
+				final long index = (i * 617L) % size;
+				final long value = r.nextLong();
+				assertEquals(l.getLong(index), o.set(index, value));
+				l.set(index, value & -1L >>> Long.SIZE - width);
+			}
+			assertEquals(l, o);
+
+			final File temp = File.createTempFile(getClass().getSimpleName(), "test");
+			temp.deleteOnExit();
+			BinIO.storeObject(o, temp);
+			assertEquals(l, BinIO.loadObject(temp));
+			assertEquals(l, OffHeapLongBigList.copyOf(l, width));
+		}
+	}
+
+	@Test
+	public void testRanges() {
+		final XoRoShiRo128PlusRandomGenerator r = new XoRoShiRo128PlusRandomGenerator(0);
+		for (final int width : new int[] { 1, 3, 13, 32, 63, 64 }) {
+			final int size = 1000;
+			final LongBigList l = LongArrayBitVector.getInstance().asLongBigList(width);
+			l.size(size);
+			final OffHeapLongBigList o = new OffHeapLongBigList(size, width, 3);
+			for (int i = 0; i < size; i++) o.set(i, -1L);
+			// Ranges of all lengths, overwriting nonzero elements, in arbitrary order
+			for (int start = 0, length = 0; start < size; start += length++) {
+				final long[] values = new long[Math.min(length, size - start)];
+				for (int j = 0; j < values.length; j++) {
+					values[j] = r.nextLong();
+					l.set(start + j, values[j] & -1L >>> Long.SIZE - width);
+				}
+				o.set(start, values);
+			}
+			assertEquals(l, o);
+		}
+	}
+
+	@Test
+	public void testSize() {
+		final OffHeapLongBigList o = new OffHeapLongBigList(100, 10);
+		for (int i = 0; i < 100; i++) o.set(i, i);
+		o.size(50);
+		assertEquals(50, o.size64());
+		o.size(100);
+		for (int i = 0; i < 50; i++) assertEquals(i, o.getLong(i));
+		for (int i = 50; i < 100; i++) assertEquals(0, o.getLong(i));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCapacity() {
+		new OffHeapLongBigList(10, 12).size(11);
+	}
+}